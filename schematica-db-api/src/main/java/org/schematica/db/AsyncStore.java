@@ -0,0 +1,225 @@
+/*
+ * Schematica (http://www.schematica.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.schematica.db;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import javax.json.JsonObject;
+import org.schematica.db.task.Results;
+import org.schematica.db.task.Task;
+
+/**
+ * An asynchronous view of a {@link Store}, whose methods do not block but instead run the corresponding {@link Store} operation
+ * on an {@link ExecutorService} and immediately return a {@link Future} for the outcome. This makes it easy to overlap several
+ * independent operations:
+ * 
+ * <pre>
+ *   AsyncStore async = Schematica.async(store);
+ *   Future&lt;Document&gt; customer = async.read(customerKey);
+ *   Future&lt;Sequence&lt;Document&gt;&gt; orders = async.readMultiple(orderKeys);
+ *   // Both reads are now running concurrently ...
+ *   render(customer.get(), orders.get());
+ * </pre>
+ * 
+ * Any exception thrown by the operation (such as the {@link SchematicaException} thrown when {@link #read(String) reading} a
+ * document that does not exist) is thrown by the future's {@link Future#get() get()} method, wrapped in an
+ * {@link java.util.concurrent.ExecutionException}.
+ * <p>
+ * Note that the number of operations that actually run concurrently against a store may be limited by the store itself (e.g., by
+ * the number of connections to the database).
+ * </p>
+ * 
+ * @author Randall Hauch (rhauch@redhat.com)
+ */
+public interface AsyncStore extends AutoCloseable {
+
+    /**
+     * Get the store whose operations are run asynchronously.
+     * 
+     * @return the store; never null
+     */
+    Store getStore();
+
+    /**
+     * Asynchronously determine whether the store contains a document with the supplied key.
+     * 
+     * @param key the key of the document
+     * @return the future for the result of {@link Store#has(String)}; never null
+     */
+    Future<Boolean> has( String key );
+
+    /**
+     * Asynchronously read the document with the supplied key.
+     * 
+     * @param key the key of the document
+     * @return the future for the result of {@link Store#read(String)}; never null
+     */
+    Future<Document> read( String key );
+
+    /**
+     * Asynchronously read the projection of the document with the supplied key.
+     * 
+     * @param key the key of the document
+     * @param paths the paths of the values to be read; may not be null
+     * @return the future for the result of {@link Store#read(String, Iterable)}; never null
+     */
+    Future<Document> read( String key,
+                           Iterable<Path> paths );
+
+    /**
+     * Asynchronously read the documents with the supplied keys.
+     * 
+     * @param keys the keys of the documents; may not be null
+     * @return the future for the result of {@link Store#readMultiple(Iterable)}; never null
+     */
+    Future<Sequence<Document>> readMultiple( Iterable<String> keys );
+
+    /**
+     * Asynchronously read the projections of the documents with the supplied keys.
+     * 
+     * @param keys the keys of the documents; may not be null
+     * @param paths the paths of the values to be read; may not be null
+     * @return the future for the result of {@link Store#readMultiple(Iterable, Iterable)}; never null
+     */
+    Future<Sequence<Document>> readMultiple( Iterable<String> keys,
+                                             Iterable<Path> paths );
+
+    /**
+     * Asynchronously write the document with the supplied key.
+     * 
+     * @param key the key of the document
+     * @param document the document; may not be null
+     * @return the future for the result of {@link Store#write(String, JsonObject)}; never null
+     */
+    Future<Boolean> write( String key,
+                           JsonObject document );
+
+    /**
+     * Asynchronously write the supplied document.
+     * 
+     * @param document the document; may not be null
+     * @return the future for the result of {@link Store#write(Document)}; never null
+     */
+    Future<Boolean> write( Document document );
+
+    /**
+     * Asynchronously write the document with the supplied key only if there is no such document.
+     * 
+     * @param key the key of the document
+     * @param document the document; may not be null
+     * @return the future for the result of {@link Store#writeIfAbsent(String, JsonObject)}; never null
+     */
+    Future<Boolean> writeIfAbsent( String key,
+                                   JsonObject document );
+
+    /**
+     * Asynchronously write the supplied document only if there is no document with the same key.
+     * 
+     * @param document the document; may not be null
+     * @return the future for the result of {@link Store#writeIfAbsent(Document)}; never null
+     */
+    Future<Boolean> writeIfAbsent( Document document );
+
+    /**
+     * Asynchronously write the supplied document only if the persisted document has the supplied version.
+     * 
+     * @param document the document; may not be null
+     * @param version the version of the persisted document that was read
+     * @return the future for the result of {@link Store#writeIfVersion(Document, long)}; never null
+     */
+    Future<Boolean> writeIfVersion( Document document,
+                                    long version );
+
+    /**
+     * Asynchronously write the supplied documents. The documents are iterated in another thread, so the iterable should not be
+     * changed until the returned future is done.
+     * 
+     * @param documents the documents; may not be null
+     * @param captureResults true if the report should include the outcome for each document
+     * @return the future for the result of {@link Store#writeMultiple(Iterable, boolean)}; never null
+     */
+    Future<BulkWriteReport> writeMultiple( Iterable<Document> documents,
+                                           boolean captureResults );
+
+    /**
+     * Asynchronously merge the supplied document into the existing document with the same key.
+     * 
+     * @param key the key of the document
+     * @param document the document; may not be null
+     * @return the future that is done when {@link Store#merge(String, JsonObject)} completes; never null
+     */
+    Future<Void> merge( String key,
+                        JsonObject document );
+
+    /**
+     * Asynchronously merge the changes made to the base version of the document into the existing document with the same key.
+     * 
+     * @param key the key of the document
+     * @param base the version of the document that was changed; may not be null
+     * @param document the changed document; may not be null
+     * @return the future that is done when {@link Store#merge(String, JsonObject, JsonObject)} completes; never null
+     */
+    Future<Void> merge( String key,
+                        JsonObject base,
+                        JsonObject document );
+
+    /**
+     * Asynchronously merge the supplied document into the existing document only if the persisted document has the supplied
+     * version.
+     * 
+     * @param key the key of the document
+     * @param document the document; may not be null
+     * @param version the version of the persisted document that was read
+     * @return the future for the result of {@link Store#mergeIfVersion(String, JsonObject, long)}; never null
+     */
+    Future<Boolean> mergeIfVersion( String key,
+                                    JsonObject document,
+                                    long version );
+
+    /**
+     * Asynchronously remove the document with the supplied key.
+     * 
+     * @param key the key of the document
+     * @return the future that is done when {@link Store#remove(String)} completes; never null
+     */
+    Future<Void> remove( String key );
+
+    /**
+     * Asynchronously remove the documents with the supplied keys.
+     * 
+     * @param keys the keys of the documents; may not be null
+     * @return the future that is done when {@link Store#remove(Iterable)} completes; never null
+     */
+    Future<Void> remove( Iterable<String> keys );
+
+    /**
+     * Asynchronously run the supplied task. The caller is responsible for {@link Results#close() closing} the results obtained
+     * from the future.
+     * 
+     * @param task the task, usually built with the store's {@link Store#all() task builder}; may not be null
+     * @return the future for the results of the task; never null
+     */
+    <T> Future<Results<T>> submit( Task<T> task );
+
+    /**
+     * Stop accepting new operations, and release the threads used by this view once the operations that were already submitted
+     * have completed. This does not close the {@link #getStore() store}, and does not affect an executor supplied by the
+     * application.
+     */
+    @Override
+    void close();
+}
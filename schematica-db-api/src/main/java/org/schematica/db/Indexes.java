@@ -0,0 +1,70 @@
+/*
+ * Schematica (http://www.schematica.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.schematica.db;
+
+import java.util.Set;
+import org.schematica.db.task.FilterBuilder;
+
+/**
+ * The registry of the secondary indexes on a {@link Store}. Each index contains the values of the field at a {@link Path} in
+ * every document, and is used to quickly find the documents that satisfy the {@link FilterBuilder#field(String) field filters}
+ * on that path without examining the content of every document.
+ * <p>
+ * Indexes are usually declared when an application starts. Adding an index to a store that already contains documents will
+ * index those existing documents, which may take some time.
+ * </p>
+ * 
+ * @author Randall Hauch (rhauch@redhat.com)
+ */
+public interface Indexes {
+
+    /**
+     * Get the paths that are currently indexed.
+     * 
+     * @return the immutable set of indexed paths; never null but possibly empty
+     */
+    Set<Path> getIndexedPaths();
+
+    /**
+     * Determine whether the supplied path is indexed.
+     * 
+     * @param path the path; may not be null
+     * @return true if the path is indexed, or false otherwise
+     */
+    boolean isIndexed( Path path );
+
+    /**
+     * Index the values at the supplied path in all documents. This method does nothing if the path is already indexed.
+     * 
+     * @param path the path of the field to be indexed; may not be null
+     * @return true if the index was added, or false if the path was already indexed
+     */
+    boolean add( Path path );
+
+    /**
+     * Remove the index on the supplied path. This method does nothing if the path is not indexed.
+     * 
+     * @param path the path of the field that is no longer to be indexed; may not be null
+     * @return true if the index was removed, or false if the path was not indexed
+     */
+    boolean remove( Path path );
+
+    /**
+     * Reload the set of indexed paths, which is useful when other processes may have added or removed indexes.
+     */
+    void refresh();
+}
@@ -16,15 +16,44 @@
 
 package org.schematica.db;
 
-
 /**
+ * The component of a {@link Store} that delivers the changes to its documents to the registered {@link Observer}s. Each observer
+ * receives all of the changes after its starting point in the order they were made, independently of the other observers, so an
+ * observer that falls behind (or that resumes from an old sequence number) catches up without affecting the others.
+ * 
  * @author Randall Hauch (rhauch@redhat.com)
  */
 public interface Observation {
 
-    /*
+    /**
+     * Register an observer that is to be notified of the changes made after this call.
+     * 
+     * @param observer the observer; may not be null
+     */
     void addObserver( Observer observer );
 
+    /**
+     * Register an observer that is to be notified of all changes after the supplied sequence number, which is usually the
+     * {@link Observer.ChangeSet#getLastSequence() last sequence number} that the observer processed before it was stopped.
+     * 
+     * @param observer the observer; may not be null
+     * @param afterSequence the sequence number of the last change that the observer has already processed, or 0 if the observer
+     *        is to be notified of all recorded changes
+     */
+    void addObserver( Observer observer,
+                      long afterSequence );
+
+    /**
+     * Unregister the observer, after which it is no longer notified of any changes.
+     * 
+     * @param observer the observer; may not be null
+     */
     void removeObserver( Observer observer );
-    */
+
+    /**
+     * Get the sequence number of the most recently recorded change.
+     * 
+     * @return the sequence number, or 0 if no changes have been recorded
+     */
+    long getLastSequence();
 }
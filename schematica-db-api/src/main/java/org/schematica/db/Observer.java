@@ -17,15 +17,92 @@
 package org.schematica.db;
 
 /**
+ * A component that is notified of the changes to the documents in a {@link Store}. Observers are registered with the store's
+ * {@link Observation}, which delivers the changes in the order they were made as a series of {@link ChangeSet}s.
+ * 
  * @author Randall Hauch (rhauch@redhat.com)
+ * @see Observation
  */
 public interface Observer {
 
-    /*
+    /**
+     * Notify this observer of the supplied changes. The changes are delivered in order and at least once: if this method throws
+     * an exception, the same changes are delivered again later.
+     * 
+     * @param changes the changes; never null and never empty
+     */
     void notify( ChangeSet changes );
 
-    public static interface ChangeSet {
+    /**
+     * The kinds of changes to documents.
+     */
+    public static enum ChangeType {
+        /** The document was written, either adding a new document or replacing an existing document. */
+        WRITTEN,
+        /** The document was removed. */
+        REMOVED;
+    }
+
+    /**
+     * A single change to a document.
+     */
+    public static interface Change {
+
+        /**
+         * Get the sequence number of this change. Every change has a unique sequence number, and later changes have larger
+         * sequence numbers.
+         * 
+         * @return the sequence number
+         */
+        long getSequence();
+
+        /**
+         * Get the kind of change.
+         * 
+         * @return the type of change; never null
+         */
+        ChangeType getType();
+
+        /**
+         * Get the key of the changed document.
+         * 
+         * @return the document key; never null
+         */
+        String getKey();
+
+        /**
+         * Get the schema key of the document that was written.
+         * 
+         * @return the schema key, or null if the document has no schema or was removed
+         */
+        String getSchemaKey();
+
+        /**
+         * Get the time at which the change was made.
+         * 
+         * @return the time in milliseconds since the epoch
+         */
+        long getTimestamp();
+    }
+
+    /**
+     * A set of consecutive changes, in the order they were made.
+     */
+    public static interface ChangeSet extends Iterable<Change> {
+
+        /**
+         * Get the number of changes in this set.
+         * 
+         * @return the number of changes; always positive
+         */
+        int size();
 
+        /**
+         * Get the sequence number of the last change in this set. An observer that records this value after processing the
+         * changes can later {@link Observation#addObserver(Observer, long) resume} from that point.
+         * 
+         * @return the sequence number of the last change
+         */
+        long getLastSequence();
     }
-    */
 }
@@ -0,0 +1,30 @@
+/*
+ * Schematica (http://www.schematica.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.schematica.db;
+
+/**
+ * The consistency required of the documents read by a {@link Store} that reads from replicas of its database.
+ * 
+ * @author Randall Hauch (rhauch@redhat.com)
+ * @see Store#withConsistency(ReadConsistency)
+ */
+public enum ReadConsistency {
+    /** Read only from the primary database, so that all previously written changes are read */
+    PRIMARY,
+    /** Read from any replica of the database, which may not yet have the most recently written changes */
+    ANY_REPLICA;
+}
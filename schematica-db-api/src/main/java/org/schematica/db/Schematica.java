@@ -18,6 +18,7 @@ package org.schematica.db;
 
 import java.util.Properties;
 import java.util.ServiceLoader;
+import java.util.concurrent.ExecutorService;
 import javax.json.JsonObject;
 import org.schematica.db.spi.SchematicaProvider;
 import org.schematica.db.task.Filter;
@@ -38,7 +39,7 @@ import org.schematica.db.task.ReducerBuilder;
  */
 public class Schematica {
 
-    private static final String DEFAULT_PROVIDER = "org.schematic.db.jdbc.JdbcSchematicProvider";
+    private static final String DEFAULT_PROVIDER = "org.schematica.db.jdbc.JdbcSchematicaProvider";
 
     private static SchematicaProvider loadProvider() {
         // Find the first implementation found using the ServiceLoader ...
@@ -68,6 +69,30 @@ public class Schematica {
         return PROVIDER.getStore(properties);
     }
 
+    /**
+     * Get an {@link AsyncStore} view of the supplied store, which runs the store's operations on a default executor that creates
+     * threads as they are needed and releases them when they are idle.
+     * 
+     * @param store the store; may not be null
+     * @return the asynchronous view of the store; never null
+     */
+    public static AsyncStore async( Store store ) {
+        return PROVIDER.getAsyncStore(store, null);
+    }
+
+    /**
+     * Get an {@link AsyncStore} view of the supplied store, which runs the store's operations on the supplied executor.
+     * 
+     * @param store the store; may not be null
+     * @param executor the executor that runs the operations; may not be null
+     * @return the asynchronous view of the store; never null
+     */
+    public static AsyncStore async( Store store,
+                                    ExecutorService executor ) {
+        if (executor == null) throw new IllegalArgumentException("The executor may not be null");
+        return PROVIDER.getAsyncStore(store, executor);
+    }
+
     /**
      * Get a builder that can be used to obtain common built-in {@link Filter} instances as well as combine both built-in and
      * custom {@link Filter} instances.
@@ -0,0 +1,76 @@
+/*
+ * Schematica (http://www.schematica.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.schematica.db;
+
+import java.util.Map;
+
+/**
+ * The document-count statistics for a {@link Store}. Some stores maintain these counts as documents are written and removed, in
+ * which case obtaining them is inexpensive; other stores compute them on demand by examining the documents, so callers that only
+ * need an estimate (e.g., to size a collection) should use {@link #getApproximateDocumentCount()}.
+ * 
+ * @author Randall Hauch (rhauch@redhat.com)
+ */
+public interface Statistics {
+
+    /**
+     * Determine whether the counts are maintained by the store as documents are written and removed, rather than computed upon
+     * each request.
+     * 
+     * @return true if the counts are maintained, or false if they are computed on demand
+     */
+    boolean isMaintained();
+
+    /**
+     * Get the number of documents in the store.
+     * 
+     * @return the number of documents; never negative
+     */
+    long getDocumentCount();
+
+    /**
+     * Get the number of documents in the store that have the supplied schema key.
+     * 
+     * @param schemaKey the schema key; may be null for the documents that have no schema
+     * @return the number of documents with the schema key; never negative
+     */
+    long getDocumentCount( String schemaKey );
+
+    /**
+     * Get the number of documents in the store for each schema key. The documents that have no schema are counted under the null
+     * key.
+     * 
+     * @return the map of document counts keyed by schema key; never null, and containing no zero counts
+     */
+    Map<String, Long> getDocumentCounts();
+
+    /**
+     * Get an estimate of the number of documents in the store. The estimate is never more expensive to obtain than the
+     * {@link #getDocumentCount() exact count}, and may be considerably cheaper when the counts are not {@link #isMaintained()
+     * maintained}.
+     * 
+     * @return the estimated number of documents; never negative
+     */
+    long getApproximateDocumentCount();
+
+    /**
+     * Recompute the maintained counts from the documents in the store, correcting any drift caused by concurrent writes of the
+     * same new documents or by changes made while the counts were not maintained. This examines every document, and does nothing
+     * if the counts are not {@link #isMaintained() maintained}.
+     */
+    void recompute();
+}
@@ -43,7 +43,9 @@ public interface Store {
     boolean has( String key );
 
     /**
-     * Get the document with the specified unique key.
+     * Get the document with the specified unique key. Stores that maintain the versions of documents return a
+     * {@link VersionedDocument} whose version can be used to {@link #writeIfVersion(Document, long) conditionally write} the
+     * document.
      * 
      * @param key the unique document key; may not be null
      * @return the document instance, or null if there is no document with the supplied key
@@ -51,6 +53,22 @@ public interface Store {
      */
     Document read( String key );
 
+    /**
+     * Get the projection of the document with the specified unique key, which contains only the values at the supplied paths.
+     * The values are nested within objects just as they are in the persisted document, so that
+     * {@link Document#valueAtPath(Path)} returns the same value for each of the paths; paths that do not exist in the persisted
+     * document are absent from the projection. Where possible, the values are extracted without transferring or parsing the
+     * whole document.
+     * 
+     * @param key the unique document key; may not be null
+     * @param paths the paths of the values to be read; may not be null
+     * @return the projected document, or null if there is no document with the supplied key
+     * @see #read(String)
+     * @see #readMultiple(Iterable, Iterable)
+     */
+    Document read( String key,
+                   Iterable<Path> paths );
+
     /**
      * Store the document with the specified unique key, overwriting or updating any document that is already stored.
      * 
@@ -103,6 +121,21 @@ public interface Store {
      */
     boolean writeIfAbsent( Document document );
 
+    /**
+     * Store the document with the specified unique key only if the persisted document with the unique key still has the supplied
+     * version, so that changes written by others since the document was read are never overwritten. The version is compared and
+     * the document written in a single conditional update, and the version of the persisted document is then increased.
+     * 
+     * @param document the document; may not be null
+     * @param version the {@link VersionedDocument#getVersion() version} of the persisted document that was read, or
+     *        {@link VersionedDocument#ABSENT} if the document is to be stored only if there is no document with the unique key
+     * @return true if the document was stored, or false if the persisted document has a different version
+     * @throws UnsupportedOperationException if this store does not maintain the versions of documents
+     * @see #writeIfAbsent(Document)
+     */
+    boolean writeIfVersion( Document document,
+                            long version );
+
     /**
      * Merge the fields in the supplied document into the existing document with the same key. This will add/set on the persisted
      * document each of the fields in the supplied document; nested documents in the supplied document will be merged recursively.
@@ -161,6 +194,41 @@ public interface Store {
     void merge( String key,
                 JsonObject document );
 
+    /**
+     * Merge the changes that were made to the supplied base version of a document into the existing document with the same key.
+     * A field is changed if its value in the supplied document differs from its value in the base version, or if the field was
+     * removed; each changed field is set on (or removed from) the persisted document, while all other fields of the persisted
+     * document are left as they are, even if they were changed by others since the base version was read. When the same field
+     * was changed both here and in the persisted document and both values are nested documents, then the nested documents are
+     * merged recursively in the same way; otherwise the value in the supplied document is used.
+     * <p>
+     * If there is no persisted document with the given key, then this method is equivalent to calling
+     * {@link #write(String, JsonObject)}.
+     * </p>
+     * 
+     * @param key the unique document key; may not be null
+     * @param base the object representation of the version of the document that was read and then changed; may not be null
+     * @param document the object representation of the changed document; may not be null
+     */
+    void merge( String key,
+                JsonObject base,
+                JsonObject document );
+
+    /**
+     * Merge the fields in the supplied document into the existing document with the same key, as with
+     * {@link #merge(String, JsonObject)}, but only if the persisted document still has the supplied version.
+     * 
+     * @param key the unique document key; may not be null
+     * @param document the object representation of the document to be merged; may not be null
+     * @param version the {@link VersionedDocument#getVersion() version} of the persisted document that was read, or
+     *        {@link VersionedDocument#ABSENT} if the document is to be stored only if there is no document with the unique key
+     * @return true if the document was merged, or false if the persisted document has a different version
+     * @throws UnsupportedOperationException if this store does not maintain the versions of documents
+     */
+    boolean mergeIfVersion( String key,
+                            JsonObject document,
+                            long version );
+
     /**
      * Remove the document with the supplied key. This method does nothing if a persisted document with the given key does not
      * exist.
@@ -178,6 +246,18 @@ public interface Store {
      */
     Sequence<Document> readMultiple( Iterable<String> keys );
 
+    /**
+     * Get the projections of the documents with the specified unique keys, each of which contains only the values at the supplied
+     * paths.
+     * 
+     * @param keys the unique document keys; may not be null
+     * @param paths the paths of the values to be read; may not be null
+     * @return the projected documents; never null
+     * @see #read(String, Iterable)
+     */
+    Sequence<Document> readMultiple( Iterable<String> keys,
+                                     Iterable<Path> paths );
+
     /**
      * Store the documents, overwriting or updating any documents already stored under the same keys.
      * 
@@ -222,8 +302,37 @@ public interface Store {
      */
     TaskBuilder all();
 
+    /**
+     * Get a view of this store that reads documents and runs {@link #filter(Filter) tasks} with the supplied consistency. The
+     * view writes, merges and removes documents just as this store does, since those operations always use the primary database.
+     * A store that does not read from replicas simply returns itself.
+     * 
+     * @param consistency the consistency required of the documents that are read; may not be null
+     * @return the view of this store; never null
+     */
+    Store withConsistency( ReadConsistency consistency );
+
     Schemas getSchemas();
 
+    /**
+     * Get the registry of the secondary indexes on the fields of the documents in this store.
+     * 
+     * @return the indexes; never null
+     */
+    Indexes getIndexes();
+
+    /**
+     * Get the statistics about the documents in this store.
+     * 
+     * @return the statistics; never null
+     */
+    Statistics getStatistics();
+
+    /**
+     * Get the component that delivers the changes to the documents in this store to {@link Observer}s.
+     * 
+     * @return the observation, or null if this store does not record the changes to its documents
+     */
     Observation getObservation();
 
     /**
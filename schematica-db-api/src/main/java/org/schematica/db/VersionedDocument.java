@@ -0,0 +1,39 @@
+/*
+ * Schematica (http://www.schematica.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.schematica.db;
+
+/**
+ * A {@link Document} that also has the version of its persisted content. Each time a document is written its version is
+ * increased, so a document can be changed with {@link Store#writeIfVersion(Document, long)} or
+ * {@link Store#mergeIfVersion(String, javax.json.JsonObject, long)} only if it has not been changed by others since it was read.
+ * 
+ * @author Randall Hauch (rhauch@redhat.com)
+ */
+public interface VersionedDocument extends Document {
+
+    /**
+     * The version used to denote that a document does not exist. The version of a persisted document is always larger.
+     */
+    long ABSENT = 0L;
+
+    /**
+     * Get the version of this document's content at the time it was read.
+     * 
+     * @return the version; always positive
+     */
+    long getVersion();
+}
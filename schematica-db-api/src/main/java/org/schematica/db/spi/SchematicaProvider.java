@@ -17,7 +17,9 @@
 package org.schematica.db.spi;
 
 import java.util.Properties;
+import java.util.concurrent.ExecutorService;
 import javax.json.JsonObject;
+import org.schematica.db.AsyncStore;
 import org.schematica.db.Document;
 import org.schematica.db.PathBuilder;
 import org.schematica.db.SchematicaException;
@@ -40,6 +42,16 @@ public interface SchematicaProvider {
      */
     Store getStore( Properties properties ) throws SchematicaException;
 
+    /**
+     * Get an {@link AsyncStore} view of the supplied store that runs the store's operations using the supplied executor.
+     * 
+     * @param store the store; may not be null
+     * @param executor the executor that runs the operations; may be null if the provider's default executor is to be used
+     * @return the asynchronous view of the store; never null
+     */
+    AsyncStore getAsyncStore( Store store,
+                              ExecutorService executor );
+
     /**
      * Create a document with the supplied key and document.
      * 
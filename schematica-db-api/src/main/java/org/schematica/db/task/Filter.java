@@ -65,7 +65,7 @@ public abstract class Filter {
      *         if {@code otherFilter} is null or is this Filter
      */
     public final Filter or( Filter otherFilter ) {
-        if (this.equals(otherFilter)) return this;
+        if (otherFilter == null || this.equals(otherFilter)) return this;
         return new Or(this, otherFilter);
     }
 
@@ -80,7 +80,10 @@ public abstract class Filter {
         return new Not(this);
     }
 
-    protected static final class And extends Filter {
+    /**
+     * A {@link Filter} that is satisfied only when both of its component filters are satisfied.
+     */
+    public static final class And extends Filter {
         private final Filter first;
         private final Filter second;
         private final int hc;
@@ -92,6 +95,24 @@ public abstract class Filter {
             this.hc = 1 + PRIME * (first.hashCode() + PRIME * second.hashCode());
         }
 
+        /**
+         * Get the first of the filters that must be satisfied.
+         * 
+         * @return the first filter; never null
+         */
+        public Filter getFirst() {
+            return first;
+        }
+
+        /**
+         * Get the second of the filters that must be satisfied.
+         * 
+         * @return the second filter; never null
+         */
+        public Filter getSecond() {
+            return second;
+        }
+
         @Override
         public boolean satisfies( Document document,
                                   JsonObject metadata ) {
@@ -119,7 +140,10 @@ public abstract class Filter {
         }
     }
 
-    protected static final class Or extends Filter {
+    /**
+     * A {@link Filter} that is satisfied when either of its component filters is satisfied.
+     */
+    public static final class Or extends Filter {
         private final Filter first;
         private final Filter second;
         private final int hc;
@@ -131,10 +155,28 @@ public abstract class Filter {
             this.hc = 2 + PRIME * (first.hashCode() + PRIME * second.hashCode());
         }
 
+        /**
+         * Get the first of the filters that may be satisfied.
+         * 
+         * @return the first filter; never null
+         */
+        public Filter getFirst() {
+            return first;
+        }
+
+        /**
+         * Get the second of the filters that may be satisfied.
+         * 
+         * @return the second filter; never null
+         */
+        public Filter getSecond() {
+            return second;
+        }
+
         @Override
         public boolean satisfies( Document document,
                                   JsonObject metadata ) {
-            return first.satisfies(document, metadata) && second.satisfies(document, metadata);
+            return first.satisfies(document, metadata) || second.satisfies(document, metadata);
         }
 
         @Override
@@ -158,7 +200,10 @@ public abstract class Filter {
         }
     }
 
-    protected static final class Not extends Filter {
+    /**
+     * A {@link Filter} that is satisfied only when its component filter is not satisfied.
+     */
+    public static final class Not extends Filter {
         private final Filter filter;
         private final int hc;
 
@@ -167,7 +212,12 @@ public abstract class Filter {
             this.hc = 3 + PRIME * filter.hashCode();
         }
 
-        protected Filter notted() {
+        /**
+         * Get the filter that is negated.
+         * 
+         * @return the negated filter; never null
+         */
+        public Filter notted() {
             return filter;
         }
 
@@ -62,4 +62,42 @@ public interface Mapper<KeyType, ValueType> {
                    V value );
     }
 
+    /**
+     * A {@link Collector} of long values that also accepts primitive values. When a mapper's output is reduced by a
+     * {@link Reducer.LongReducer}, the collector supplied to the mapper implements this interface, and mappers can avoid boxing
+     * every value by checking for this interface and calling {@link #emit(Object, long)}.
+     * 
+     * @param <K> the type of the names
+     * @author Randall Hauch (rhauch@redhat.com)
+     */
+    public interface LongCollector<K> extends Collector<K, Long> {
+        /**
+         * Record a name/value pair.
+         * 
+         * @param key the name
+         * @param value the value
+         */
+        void emit( K key,
+                   long value );
+    }
+
+    /**
+     * A {@link Collector} of double values that also accepts primitive values. When a mapper's output is reduced by a
+     * {@link Reducer.DoubleReducer}, the collector supplied to the mapper implements this interface, and mappers can avoid boxing
+     * every value by checking for this interface and calling {@link #emit(Object, double)}.
+     * 
+     * @param <K> the type of the names
+     * @author Randall Hauch (rhauch@redhat.com)
+     */
+    public interface DoubleCollector<K> extends Collector<K, Double> {
+        /**
+         * Record a name/value pair.
+         * 
+         * @param key the name
+         * @param value the value
+         */
+        void emit( K key,
+                   double value );
+    }
+
 }
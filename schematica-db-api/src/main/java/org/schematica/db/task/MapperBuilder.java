@@ -51,4 +51,23 @@ public interface MapperBuilder {
      * @return the mapper; never null
      */
     Mapper<String, Document> documents();
+
+    /**
+     * Return a {@link Mapper} implementation that emits the integral numeric value of the field at the supplied path in each
+     * document. The supplied path is used as the output key. Documents in which the field is missing or is not an integral number
+     * are ignored.
+     * 
+     * @param path the path of the field; may not be null
+     * @return the mapper; never null
+     */
+    Mapper<String, Long> longValue( String path );
+
+    /**
+     * Return a {@link Mapper} implementation that emits the numeric value of the field at the supplied path in each document. The
+     * supplied path is used as the output key. Documents in which the field is missing or is not a number are ignored.
+     * 
+     * @param path the path of the field; may not be null
+     * @return the mapper; never null
+     */
+    Mapper<String, Double> doubleValue( String path );
 }
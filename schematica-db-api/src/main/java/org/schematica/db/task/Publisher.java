@@ -0,0 +1,48 @@
+/*
+ * Schematica (http://www.schematica.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.schematica.db.task;
+
+/**
+ * A source of a potentially unbounded number of values that are delivered to each {@link Subscriber} only as the subscriber
+ * {@link Subscription#request(long) requests} them. This allows a slow subscriber to control the rate at which the values are
+ * produced (e.g., read from a database), and the publisher never needs to buffer more than the requested values.
+ * <p>
+ * The contract is that of the <a href="http://www.reactive-streams.org/">Reactive Streams</a> specification:
+ * <ol>
+ * <li>{@link #subscribe(Subscriber)} calls the subscriber's {@link Subscriber#onSubscribe(Subscription) onSubscribe} method
+ * with a new {@link Subscription};</li>
+ * <li>the subscriber's {@link Subscriber#onNext(Object) onNext} method is then called no more times than the total number of
+ * values that the subscriber has {@link Subscription#request(long) requested}; and</li>
+ * <li>finally either {@link Subscriber#onComplete() onComplete} or {@link Subscriber#onError(Throwable) onError} is called
+ * (exactly once), unless the subscription is {@link Subscription#cancel() cancelled} first.</li>
+ * </ol>
+ * The calls to a subscriber are never concurrent.
+ * </p>
+ * 
+ * @param <T> the type of values that are published
+ * @author Randall Hauch (rhauch@redhat.com)
+ * @see TaskBuilder#publishDocuments()
+ */
+public interface Publisher<T> {
+
+    /**
+     * Add a subscriber to which values will be published as it requests them.
+     * 
+     * @param subscriber the subscriber; may not be null
+     */
+    void subscribe( Subscriber<? super T> subscriber );
+}
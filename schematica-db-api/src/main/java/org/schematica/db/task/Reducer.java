@@ -42,4 +42,55 @@ public interface Reducer<KeyType, ValueType> {
      */
     ValueType reduce( KeyType reducedKey,
                       Iterator<ValueType> values );
+
+    /**
+     * A {@link Reducer} whose reduction is associative and commutative, and whose reduction of a single value is that value.
+     * Such reducers can be applied to any subset of the values for a key and then again to the partial results, which allows
+     * the values to be <i>combined</i> as they are emitted by the {@link Mapper} rather than buffered until all documents are
+     * mapped.
+     * 
+     * @param <KeyType> the type of key output by the {@link Mapper}
+     * @param <ValueType> the type of value output by the {@link Mapper}
+     * @author Randall Hauch (rhauch@redhat.com)
+     */
+    public static interface Combinable<KeyType, ValueType> extends Reducer<KeyType, ValueType> {
+    }
+
+    /**
+     * A {@link Combinable combinable} reducer of long values that can combine values without boxing them.
+     * 
+     * @param <KeyType> the type of key output by the {@link Mapper}
+     * @author Randall Hauch (rhauch@redhat.com)
+     * @see Mapper.LongCollector
+     */
+    public static interface LongReducer<KeyType> extends Combinable<KeyType, Long> {
+        /**
+         * Combine two values.
+         * 
+         * @param first the first value, which may be the result of a previous combination
+         * @param second the second value
+         * @return the combined value
+         */
+        long combine( long first,
+                      long second );
+    }
+
+    /**
+     * A {@link Combinable combinable} reducer of double values that can combine values without boxing them.
+     * 
+     * @param <KeyType> the type of key output by the {@link Mapper}
+     * @author Randall Hauch (rhauch@redhat.com)
+     * @see Mapper.DoubleCollector
+     */
+    public static interface DoubleReducer<KeyType> extends Combinable<KeyType, Double> {
+        /**
+         * Combine two values.
+         * 
+         * @param first the first value, which may be the result of a previous combination
+         * @param second the second value
+         * @return the combined value
+         */
+        double combine( double first,
+                        double second );
+    }
 }
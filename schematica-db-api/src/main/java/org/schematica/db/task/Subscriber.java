@@ -0,0 +1,54 @@
+/*
+ * Schematica (http://www.schematica.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.schematica.db.task;
+
+/**
+ * A receiver of the values produced by a {@link Publisher}, which determines how many values it is prepared to receive using the
+ * {@link Subscription} supplied when it is subscribed.
+ * 
+ * @param <T> the type of values that are received
+ * @author Randall Hauch (rhauch@redhat.com)
+ */
+public interface Subscriber<T> {
+
+    /**
+     * Called once when this subscriber is subscribed to a publisher and before any other method. No values are published until
+     * the subscriber {@link Subscription#request(long) requests} them.
+     * 
+     * @param subscription the subscription; never null
+     */
+    void onSubscribe( Subscription subscription );
+
+    /**
+     * Called with the next value, but only when the subscriber has requested more values than it has received.
+     * 
+     * @param value the next value; never null
+     */
+    void onNext( T value );
+
+    /**
+     * Called once when the publisher fails. No other methods are called afterward.
+     * 
+     * @param error the problem; never null
+     */
+    void onError( Throwable error );
+
+    /**
+     * Called once when all values have been published. No other methods are called afterward.
+     */
+    void onComplete();
+}
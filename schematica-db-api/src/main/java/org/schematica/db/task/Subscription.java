@@ -0,0 +1,40 @@
+/*
+ * Schematica (http://www.schematica.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.schematica.db.task;
+
+/**
+ * The link between a {@link Publisher} and one of its {@link Subscriber}s, used by the subscriber to control the flow of values.
+ * 
+ * @author Randall Hauch (rhauch@redhat.com)
+ */
+public interface Subscription {
+
+    /**
+     * Request that the publisher deliver up to the supplied number of additional values. The requests are cumulative; a total
+     * demand of {@link Long#MAX_VALUE} is treated as unbounded.
+     * 
+     * @param n the number of additional values; must be positive, or the subscriber will be {@link Subscriber#onError(Throwable)
+     *        notified} with an {@link IllegalArgumentException}
+     */
+    void request( long n );
+
+    /**
+     * Request that the publisher stop delivering values and release any resources used for this subscription. Some values that
+     * were already requested may still be delivered.
+     */
+    void cancel();
+}
@@ -18,6 +18,7 @@ package org.schematica.db.task;
 
 import java.util.Map;
 import org.schematica.db.Document;
+import org.schematica.db.Path;
 import org.schematica.db.Sequence;
 import org.schematica.db.Store;
 
@@ -55,6 +56,17 @@ public interface TaskBuilder {
      */
     Task<Sequence<Document>> documents();
 
+    /**
+     * Create a task that obtains the projections of the documents, each containing only the values at the supplied paths (see
+     * {@link Store#read(String, Iterable)}). The scope of the documents is defined by the method that returned this
+     * {@link TaskBuilder} instance. Where possible, the values are extracted without transferring or parsing the whole documents,
+     * which is far less expensive when only a few fields of each document are needed.
+     * 
+     * @param paths the paths of the values to be read; may not be null
+     * @return the task that computes and returns the projected documents
+     */
+    Task<Sequence<Document>> documents( Iterable<Path> paths );
+
     /**
      * Create a task that obtains a map of documents and their keys. The scope of the documents is defined by the method that
      * returned this {@link TaskBuilder} instance.
@@ -63,6 +75,27 @@ public interface TaskBuilder {
      */
     Task<Map<String, Document>> documentsByKey();
 
+    /**
+     * Create a publisher of the keys of the documents. The scope of the documents is defined by the method that returned this
+     * {@link TaskBuilder} instance. Each subscriber receives all of the keys, which are read only as the subscriber requests
+     * them.
+     * 
+     * @return the publisher of the keys; never null
+     * @see #keys()
+     */
+    Publisher<String> publishKeys();
+
+    /**
+     * Create a publisher of the documents. The scope of the documents is defined by the method that returned this
+     * {@link TaskBuilder} instance. Each subscriber receives all of the documents, which are read only as the subscriber requests
+     * them, so that a slow subscriber limits the rate at which the documents are read and the number of documents held in memory
+     * is bounded regardless of how many documents there are.
+     * 
+     * @return the publisher of the documents; never null
+     * @see #documents()
+     */
+    Publisher<Document> publishDocuments();
+
     /**
      * Return a {@link Reducible} component that defines how the output of the map portion of MapReduce is to be reduced.
      * 
@@ -0,0 +1,575 @@
+/*
+ * Schematica (http://www.schematica.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.schematica.db.core;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import javax.json.JsonArray;
+import javax.json.JsonNumber;
+import javax.json.JsonObject;
+import javax.json.JsonString;
+import javax.json.JsonValue;
+import org.schematica.db.Document;
+import org.schematica.db.Path;
+import org.schematica.db.SchematicaException;
+
+/**
+ * A {@link DocumentFormat} that writes documents in the binary <a href="http://bsonspec.org">BSON</a> format. Every element is
+ * tagged with its type and every object, array, string and binary value is prefixed with its length, so the content can be
+ * decoded without any lexical analysis and a reader can {@link #valueAt(byte[], Path) find a single field} (or
+ * {@link #parse(String, InputStream, String, Projection) several fields}) by skipping over the elements it does not need.
+ * <p>
+ * Integral numbers are written as 32-bit or 64-bit integers, and other numbers as doubles when that is exact. Any other number is
+ * written as binary (with the user-defined subtype {@code 0x80}) containing its decimal text, so that no precision is lost.
+ * {@link JsonValues#date(java.util.Date) Dates} and {@link JsonValues#binary(byte[]) binary} values are written in their native
+ * BSON form, and are read back as the same kinds of values.
+ * </p>
+ * 
+ * @author Randall Hauch (rhauch@redhat.com)
+ */
+public class BsonDocumentFormat implements ProjectingDocumentFormat {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The type code of this format.
+     */
+    public static final int TYPE = 2;
+
+    protected static final byte END = 0x00;
+    protected static final byte DOUBLE = 0x01;
+    protected static final byte STRING = 0x02;
+    protected static final byte OBJECT = 0x03;
+    protected static final byte ARRAY = 0x04;
+    protected static final byte BINARY = 0x05;
+    protected static final byte BOOLEAN = 0x08;
+    protected static final byte DATE = 0x09;
+    protected static final byte NULL = 0x0A;
+    protected static final byte INT32 = 0x10;
+    protected static final byte INT64 = 0x12;
+
+    protected static final byte GENERIC_SUBTYPE = 0x00;
+    protected static final byte DECIMAL_SUBTYPE = (byte)0x80;
+
+    private final boolean lazy;
+
+    /**
+     * Create a format that parses documents into {@link LazyDocument}s, which decode only the parts of the content that are used.
+     */
+    public BsonDocumentFormat() {
+        this(true);
+    }
+
+    /**
+     * Create a format.
+     * 
+     * @param lazy true if documents are to be parsed into {@link LazyDocument}s that decode only the parts of the content that
+     *        are used, or false if the content of each document is to be completely decoded when the document is parsed
+     */
+    public BsonDocumentFormat( boolean lazy ) {
+        this.lazy = lazy;
+    }
+
+    /**
+     * Determine whether this format parses documents into {@link LazyDocument}s.
+     * 
+     * @return true if the documents are decoded lazily, or false if they are completely decoded when parsed
+     */
+    public boolean isLazy() {
+        return lazy;
+    }
+
+    @Override
+    public Document parse( String key,
+                           InputStream stream,
+                           String schemaKey ) throws IOException {
+        byte[] bson = readBytes(stream);
+        if (lazy) return new LazyDocument(key, bson, schemaKey);
+        JsonObject json = read(bson);
+        return schemaKey == null ? new SimpleDocument(key, json) : new TypedDocument(key, json, schemaKey);
+    }
+
+    @Override
+    public Document parse( String key,
+                           InputStream stream,
+                           String schemaKey,
+                           Projection projection ) throws IOException {
+        // Only the selected values are decoded, and all other values are skipped ...
+        return projection.apply(new LazyDocument(key, readBytes(stream), schemaKey));
+    }
+
+    @Override
+    public InputStream write( Document document ) {
+        // The content of a lazy document cannot change, so there's no need to encode it again ...
+        document = VersionedDocumentWrapper.unwrap(document);
+        if (document instanceof LazyDocument) return new ByteArrayInputStream(((LazyDocument)document).content());
+        Output output = new Output();
+        output.writeObject(document.getJsonObject());
+        return new ByteArrayInputStream(output.bytes, 0, output.size);
+    }
+
+    @Override
+    public int getType() {
+        return TYPE;
+    }
+
+    @Override
+    public String getName() {
+        return "bson";
+    }
+
+    /**
+     * Read the entire BSON content from the supplied stream, using the length at the start of the content to read exactly the
+     * content and nothing more.
+     * 
+     * @param stream the stream; may not be null
+     * @return the BSON content; never null
+     * @throws IOException if there is a problem reading the stream, or if the stream ends before the content
+     */
+    public static byte[] readBytes( InputStream stream ) throws IOException {
+        byte[] length = new byte[4];
+        readFully(stream, length, 0, 4);
+        int size = readInt(length, 0);
+        if (size < 5) throw new IOException(Util.createString("Invalid BSON content length: {0}", size));
+        byte[] bytes = Arrays.copyOf(length, size);
+        readFully(stream, bytes, 4, size - 4);
+        return bytes;
+    }
+
+    /**
+     * Encode the supplied JSON object as BSON.
+     * 
+     * @param json the object; may not be null
+     * @return the BSON content; never null
+     */
+    public static byte[] toBytes( JsonObject json ) {
+        Output output = new Output();
+        output.writeObject(json);
+        return Arrays.copyOf(output.bytes, output.size);
+    }
+
+    /**
+     * Decode the supplied BSON content.
+     * 
+     * @param bson the BSON content; may not be null
+     * @return the JSON object; never null
+     * @throws SchematicaException if the content is not valid BSON
+     */
+    public static JsonObject read( byte[] bson ) {
+        try {
+            return (JsonObject)readValue(bson, 0, OBJECT);
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new SchematicaException("The BSON content is truncated", e);
+        }
+    }
+
+    /**
+     * Decode only the value at the supplied path within the BSON content, skipping all elements that are not on the path without
+     * decoding them.
+     * 
+     * @param bson the BSON content of a document; may not be null
+     * @param path the path of the field; may not be null
+     * @return the value at the path, or null if there is no such value
+     * @throws IllegalArgumentException if a path segment applied to an array is not an index
+     */
+    public static JsonValue valueAt( byte[] bson,
+                                     Path path ) {
+        if (path.size() == 0) return read(bson);
+        int element = elementAt(bson, 0, path);
+        return element < 0 ? null : readValue(bson, valueOffset(bson, element), bson[element]);
+    }
+
+    /**
+     * Find the element at the supplied path within an object in the BSON content.
+     * 
+     * @param bson the BSON content; may not be null
+     * @param start the offset of the object
+     * @param path the path of the element relative to the object; may not be null and may not be empty
+     * @return the offset of the element (that is, of its type), or -1 if there is no element at the path
+     * @throws IllegalArgumentException if a path segment applied to an array is not an index
+     */
+    protected static int elementAt( byte[] bson,
+                                    int start,
+                                    Path path ) {
+        int offset = start;
+        byte type = OBJECT;
+        int element = -1;
+        for (String segment : path) {
+            if (type != OBJECT && type != ARRAY) return -1;
+            if (type == ARRAY) checkIndex(path, segment);
+            byte[] name = segment.getBytes(StandardCharsets.UTF_8);
+            int pos = offset + 4;
+            element = -1;
+            while (bson[pos] != END) {
+                int valueOffset = valueOffset(bson, pos);
+                if (matches(bson, pos + 1, valueOffset - 1, name)) {
+                    element = pos;
+                    break;
+                }
+                pos = valueOffset + sizeOf(bson, valueOffset, bson[pos]);
+            }
+            if (element < 0) return -1;
+            type = bson[element];
+            offset = valueOffset(bson, element);
+        }
+        return element;
+    }
+
+    /**
+     * Get the offset of the value of the element that starts at the supplied offset, which is just after the element's name.
+     * 
+     * @param bson the BSON content; may not be null
+     * @param element the offset of the element (that is, of its type)
+     * @return the offset of the element's value
+     */
+    protected static int valueOffset( byte[] bson,
+                                      int element ) {
+        int pos = element + 1;
+        while (bson[pos] != 0) {
+            ++pos;
+        }
+        return pos + 1;
+    }
+
+    private static void checkIndex( Path path,
+                                    String segment ) {
+        try {
+            Integer.parseInt(segment);
+        } catch (NumberFormatException e) {
+            String msg = Util.createString("The segment '{1}' in the path '{0}' was expected to be an array index.",
+                                           path,
+                                           segment);
+            throw new IllegalArgumentException(msg, e);
+        }
+    }
+
+    private static boolean matches( byte[] bson,
+                                    int start,
+                                    int end,
+                                    byte[] name ) {
+        if (end - start != name.length) return false;
+        for (int i = 0; i != name.length; ++i) {
+            if (bson[start + i] != name[i]) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Get the number of bytes used by the value that starts at the supplied offset.
+     * 
+     * @param bson the BSON content; may not be null
+     * @param offset the offset of the value, just after the element's name
+     * @param type the type of the element
+     * @return the number of bytes
+     * @throws SchematicaException if the type is not known
+     */
+    protected static int sizeOf( byte[] bson,
+                                 int offset,
+                                 byte type ) {
+        switch (type) {
+            case DOUBLE:
+            case DATE:
+            case INT64:
+                return 8;
+            case INT32:
+                return 4;
+            case BOOLEAN:
+                return 1;
+            case NULL:
+                return 0;
+            case STRING:
+                return 4 + readInt(bson, offset);
+            case BINARY:
+                return 5 + readInt(bson, offset);
+            case OBJECT:
+            case ARRAY:
+                return readInt(bson, offset);
+            default:
+                throw unknownType(type, offset);
+        }
+    }
+
+    /**
+     * Decode the value that starts at the supplied offset.
+     * 
+     * @param bson the BSON content; may not be null
+     * @param offset the offset of the value, just after the element's name
+     * @param type the type of the element
+     * @return the value; never null
+     * @throws SchematicaException if the content is not valid BSON
+     */
+    protected static JsonValue readValue( byte[] bson,
+                                          int offset,
+                                          byte type ) {
+        switch (type) {
+            case DOUBLE:
+                return JsonValues.numberValue(Double.longBitsToDouble(readLong(bson, offset)));
+            case STRING:
+                return JsonValues.string(new String(bson, offset + 4, readInt(bson, offset) - 1, StandardCharsets.UTF_8));
+            case OBJECT:
+                Map<String, JsonValue> fields = new LinkedHashMap<>();
+                int pos = offset + 4;
+                byte fieldType = 0;
+                while ((fieldType = bson[pos++]) != END) {
+                    int nameStart = pos;
+                    while (bson[pos] != 0) {
+                        ++pos;
+                    }
+                    String name = new String(bson, nameStart, pos - nameStart, StandardCharsets.UTF_8);
+                    ++pos;
+                    fields.put(name, readValue(bson, pos, fieldType));
+                    pos += sizeOf(bson, pos, fieldType);
+                }
+                return JsonValues.object(fields);
+            case ARRAY:
+                List<JsonValue> values = new ArrayList<>();
+                int index = offset + 4;
+                byte valueType = 0;
+                while ((valueType = bson[index++]) != END) {
+                    // The names of array elements are always the indexes, so skip them ...
+                    while (bson[index] != 0) {
+                        ++index;
+                    }
+                    ++index;
+                    values.add(readValue(bson, index, valueType));
+                    index += sizeOf(bson, index, valueType);
+                }
+                return JsonValues.array(values);
+            case BINARY:
+                int length = readInt(bson, offset);
+                byte[] bytes = Arrays.copyOfRange(bson, offset + 5, offset + 5 + length);
+                if (bson[offset + 4] == DECIMAL_SUBTYPE) {
+                    return JsonValues.number(new BigDecimal(new String(bytes, StandardCharsets.UTF_8)));
+                }
+                return JsonValues.binaryValue(bytes);
+            case BOOLEAN:
+                return JsonValues.bool(bson[offset] != 0);
+            case DATE:
+                return JsonValues.dateValue(readLong(bson, offset));
+            case NULL:
+                return JsonValue.NULL;
+            case INT32:
+                return JsonValues.numberValue((long)readInt(bson, offset));
+            case INT64:
+                return JsonValues.numberValue(readLong(bson, offset));
+            default:
+                throw unknownType(type, offset);
+        }
+    }
+
+    private static SchematicaException unknownType( byte type,
+                                                    int offset ) {
+        return new SchematicaException(Util.createString("Unsupported BSON element type 0x{0} at offset {1}",
+                                                         Integer.toHexString(type & 0xFF),
+                                                         offset));
+    }
+
+    protected static int readInt( byte[] bson,
+                                  int offset ) {
+        return (bson[offset] & 0xFF) | (bson[offset + 1] & 0xFF) << 8 | (bson[offset + 2] & 0xFF) << 16
+               | (bson[offset + 3] & 0xFF) << 24;
+    }
+
+    protected static long readLong( byte[] bson,
+                                    int offset ) {
+        return (readInt(bson, offset) & 0xFFFFFFFFL) | ((long)readInt(bson, offset + 4)) << 32;
+    }
+
+    private static void readFully( InputStream stream,
+                                   byte[] bytes,
+                                   int offset,
+                                   int length ) throws IOException {
+        while (length > 0) {
+            int read = stream.read(bytes, offset, length);
+            if (read == -1) throw new EOFException("The BSON content ended before the length given in its header");
+            offset += read;
+            length -= read;
+        }
+    }
+
+    /**
+     * A growable buffer to which BSON content is written. The length of each object and array is written as a placeholder and
+     * then filled in once the object or array is complete, so that values are written only once.
+     */
+    protected static final class Output {
+        protected byte[] bytes = new byte[256];
+        protected int size = 0;
+
+        protected void writeObject( JsonObject object ) {
+            int start = size;
+            writeInt(0);
+            for (Map.Entry<String, JsonValue> entry : object.entrySet()) {
+                writeElement(entry.getKey(), entry.getValue());
+            }
+            writeByte(END);
+            setInt(start, size - start);
+        }
+
+        protected void writeArray( JsonArray array ) {
+            int start = size;
+            writeInt(0);
+            int index = 0;
+            for (JsonValue value : array) {
+                writeElement(Integer.toString(index++), value);
+            }
+            writeByte(END);
+            setInt(start, size - start);
+        }
+
+        protected void writeElement( String name,
+                                     JsonValue value ) {
+            switch (value.getValueType()) {
+                case OBJECT:
+                    writeName(OBJECT, name);
+                    writeObject((JsonObject)value);
+                    break;
+                case ARRAY:
+                    writeName(ARRAY, name);
+                    writeArray((JsonArray)value);
+                    break;
+                case STRING:
+                    if (JsonValues.isBinary(value)) {
+                        writeName(BINARY, name);
+                        writeBinary(GENERIC_SUBTYPE, ((JsonValues.BinaryValue)value).bytes);
+                    } else {
+                        writeName(STRING, name);
+                        writeString(((JsonString)value).getString());
+                    }
+                    break;
+                case NUMBER:
+                    writeNumber(name, (JsonNumber)value);
+                    break;
+                case TRUE:
+                    writeName(BOOLEAN, name);
+                    writeByte((byte)1);
+                    break;
+                case FALSE:
+                    writeName(BOOLEAN, name);
+                    writeByte((byte)0);
+                    break;
+                case NULL:
+                    writeName(NULL, name);
+                    break;
+            }
+        }
+
+        protected void writeNumber( String name,
+                                    JsonNumber number ) {
+            if (JsonValues.isDate(number)) {
+                writeName(DATE, name);
+                writeLong(number.longValue());
+                return;
+            }
+            if (JsonValues.isLong(number)) {
+                long value = number.longValue();
+                if (value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE) {
+                    writeName(INT32, name);
+                    writeInt((int)value);
+                } else {
+                    writeName(INT64, name);
+                    writeLong(value);
+                }
+                return;
+            }
+            BigDecimal decimal = number.bigDecimalValue();
+            if (!number.isIntegral()) {
+                double value = decimal.doubleValue();
+                if (!Double.isInfinite(value) && BigDecimal.valueOf(value).equals(decimal)) {
+                    writeName(DOUBLE, name);
+                    writeLong(Double.doubleToLongBits(value));
+                    return;
+                }
+            }
+            // The number cannot be represented exactly as an integer or double ...
+            writeName(BINARY, name);
+            writeBinary(DECIMAL_SUBTYPE, decimal.toString().getBytes(StandardCharsets.UTF_8));
+        }
+
+        protected void writeName( byte type,
+                                  String name ) {
+            writeByte(type);
+            byte[] utf8 = name.getBytes(StandardCharsets.UTF_8);
+            for (byte b : utf8) {
+                if (b == 0) {
+                    throw new SchematicaException(Util.createString("BSON field names may not contain a null character: {0}",
+                                                                    name));
+                }
+            }
+            writeBytes(utf8);
+            writeByte(END);
+        }
+
+        protected void writeString( String value ) {
+            byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+            writeInt(utf8.length + 1);
+            writeBytes(utf8);
+            writeByte(END);
+        }
+
+        protected void writeBinary( byte subtype,
+                                    byte[] value ) {
+            writeInt(value.length);
+            writeByte(subtype);
+            writeBytes(value);
+        }
+
+        protected void writeByte( byte value ) {
+            ensureCapacity(1);
+            bytes[size++] = value;
+        }
+
+        protected void writeBytes( byte[] value ) {
+            ensureCapacity(value.length);
+            System.arraycopy(value, 0, bytes, size, value.length);
+            size += value.length;
+        }
+
+        protected void writeInt( int value ) {
+            ensureCapacity(4);
+            setInt(size, value);
+            size += 4;
+        }
+
+        protected void writeLong( long value ) {
+            writeInt((int)value);
+            writeInt((int)(value >>> 32));
+        }
+
+        protected void setInt( int offset,
+                               int value ) {
+            bytes[offset] = (byte)value;
+            bytes[offset + 1] = (byte)(value >>> 8);
+            bytes[offset + 2] = (byte)(value >>> 16);
+            bytes[offset + 3] = (byte)(value >>> 24);
+        }
+
+        private void ensureCapacity( int additional ) {
+            if (size + additional > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + additional));
+            }
+        }
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Schematica (http://www.schematica.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.schematica.db.core;
+
+import java.io.IOException;
+import java.util.List;
+import org.schematica.db.Document;
+
+/**
+ * A component that writes large numbers of documents to a store more efficiently than
+ * {@link org.schematica.db.Store#writeMultiple(Iterable, boolean)}. Each document is first {@link #prepare(Document) prepared}
+ * (for example, converted into the form in which it is stored), which can be done for many documents in parallel, and then the
+ * prepared documents are {@link #load(List) loaded} in batches.
+ * 
+ * @param <R> the type of the prepared documents
+ * @author Randall Hauch (rhauch@redhat.com)
+ * @see NdjsonImporter
+ */
+public interface BulkLoader<R> {
+
+    /**
+     * Prepare the supplied document for loading. This method may be called concurrently by multiple threads.
+     * 
+     * @param document the document; may not be null
+     * @return the prepared document; never null
+     * @throws IOException if the document could not be converted
+     */
+    R prepare( Document document ) throws IOException;
+
+    /**
+     * Write the supplied prepared documents, replacing any existing documents with the same keys. When the same key appears more
+     * than once, the last of its documents is written. Batches are loaded by only one thread at a time, in the order they are to
+     * be written.
+     * 
+     * @param documents the prepared documents; may not be null
+     */
+    void load( List<R> documents );
+
+    /**
+     * A store that has its own {@link BulkLoader}.
+     */
+    public static interface Source {
+        /**
+         * Get the bulk loader for this store.
+         * 
+         * @return the bulk loader; never null
+         */
+        BulkLoader<?> getBulkLoader();
+    }
+}
@@ -0,0 +1,488 @@
+/*
+ * Schematica (http://www.schematica.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.schematica.db.core;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.json.JsonObject;
+import org.schematica.db.BulkWriteReport;
+import org.schematica.db.Document;
+import org.schematica.db.Indexes;
+import org.schematica.db.Observation;
+import org.schematica.db.Path;
+import org.schematica.db.ReadConsistency;
+import org.schematica.db.Schemas;
+import org.schematica.db.Sequence;
+import org.schematica.db.Statistics;
+import org.schematica.db.Store;
+import org.schematica.db.core.Collectors.Collector;
+import org.schematica.db.task.Filter;
+import org.schematica.db.task.TaskBuilder;
+
+/**
+ * A {@link Store} implementation that keeps recently-read documents in memory and that delegates to another store for all
+ * operations. Only {@link #read(String)} and {@link #readMultiple(Iterable)} use the cache; all other operations are passed
+ * directly to the delegate, and those that change documents remove the affected documents from the cache. Projections of cached
+ * documents are computed from the cached documents, but projections read from the delegate are never cached.
+ * <p>
+ * The cache is bounded by the total {@link #weigh(Document) weight} of the cached documents, which approximates their serialized
+ * size, and the least-recently used documents are evicted first. The {@link #getHitCount() hit}, {@link #getMissCount() miss},
+ * and {@link #getEvictionCount() eviction} counts can be used to determine an appropriate size.
+ * </p>
+ * <p>
+ * This class is thread-safe if the delegate store is thread-safe.
+ * </p>
+ * 
+ * @author Randall Hauch (rhauch@redhat.com)
+ */
+public class CachingStore implements Store {
+
+    protected final Store delegate;
+    private final long maximumWeight;
+    private final LinkedHashMap<String, CachedDocument> cache = new LinkedHashMap<>(256, 0.75f, true);
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private long weight = 0L;
+    /**
+     * Incremented (while holding the lock) after every change to the delegate, so that documents read concurrently with a change
+     * are never added to the cache after the change has invalidated them.
+     */
+    private long generation = 0L;
+
+    /**
+     * Create a new caching store.
+     * 
+     * @param delegate the store that is to be cached; may not be null
+     * @param maximumWeight the maximum total {@link #weigh(Document) weight} of the cached documents; must be positive
+     */
+    public CachingStore( Store delegate,
+                         long maximumWeight ) {
+        Util.notNull(delegate, "delegate");
+        if (maximumWeight < 1) throw new IllegalArgumentException("The maximum cache size must be positive, but was " + maximumWeight);
+        this.delegate = delegate;
+        this.maximumWeight = maximumWeight;
+    }
+
+    /**
+     * Compute the weight of the supplied document. By default this is the number of characters in the document's key and in its
+     * JSON representation, or the number of bytes of content of a {@link LazyDocument} (which is not decoded just to weigh it).
+     * 
+     * @param document the document; never null
+     * @return the weight of the document; should be positive
+     */
+    protected long weigh( Document document ) {
+        document = VersionedDocumentWrapper.unwrap(document);
+        if (document instanceof LazyDocument) return document.getKey().length() + ((LazyDocument)document).getSize();
+        return document.getKey().length() + document.getJsonObject().toString().length();
+    }
+
+    @Override
+    public long size() {
+        return delegate.size();
+    }
+
+    @Override
+    public boolean has( String key ) {
+        synchronized (cache) {
+            if (cache.containsKey(key)) return true;
+        }
+        return delegate.has(key);
+    }
+
+    @Override
+    public Document read( String key ) {
+        Document document = cached(key);
+        if (document != null) return document;
+        long generation = currentGeneration();
+        document = delegate.read(key);
+        if (document != null) cache(document, generation);
+        return document;
+    }
+
+    @Override
+    public Sequence<Document> readMultiple( Iterable<String> keys ) {
+        Collector<Document, List<Document>> documents = Collectors.listOfDocuments(-1);
+        List<String> uncachedKeys = new ArrayList<>();
+        for (String key : keys) {
+            Document document = cached(key);
+            if (document != null) documents.add(document);
+            else uncachedKeys.add(key);
+        }
+        if (!uncachedKeys.isEmpty()) {
+            long generation = currentGeneration();
+            for (Document document : delegate.readMultiple(uncachedKeys)) {
+                if (document == null) continue;
+                documents.add(document);
+                cache(document, generation);
+            }
+        }
+        return documents.asSequence();
+    }
+
+    @Override
+    public Document read( String key,
+                          Iterable<Path> paths ) {
+        Document document = cached(key);
+        if (document != null) return Projection.of(paths).apply(document);
+        return delegate.read(key, paths);
+    }
+
+    @Override
+    public Sequence<Document> readMultiple( Iterable<String> keys,
+                                            Iterable<Path> paths ) {
+        Projection projection = Projection.of(paths);
+        Collector<Document, List<Document>> documents = Collectors.listOfDocuments(-1);
+        List<String> uncachedKeys = new ArrayList<>();
+        for (String key : keys) {
+            Document document = cached(key);
+            if (document != null) documents.add(projection.apply(document));
+            else uncachedKeys.add(key);
+        }
+        if (!uncachedKeys.isEmpty()) {
+            for (Document document : delegate.readMultiple(uncachedKeys, projection)) {
+                if (document != null) documents.add(document);
+            }
+        }
+        return documents.asSequence();
+    }
+
+    @Override
+    public boolean write( String key,
+                          JsonObject document ) {
+        try {
+            return delegate.write(key, document);
+        } finally {
+            invalidate(key);
+        }
+    }
+
+    @Override
+    public boolean write( Document document ) {
+        try {
+            return delegate.write(document);
+        } finally {
+            invalidate(document.getKey());
+        }
+    }
+
+    @Override
+    public boolean writeIfAbsent( String key,
+                                  JsonObject document ) {
+        try {
+            return delegate.writeIfAbsent(key, document);
+        } finally {
+            invalidate(key);
+        }
+    }
+
+    @Override
+    public boolean writeIfAbsent( Document document ) {
+        try {
+            return delegate.writeIfAbsent(document);
+        } finally {
+            invalidate(document.getKey());
+        }
+    }
+
+    @Override
+    public boolean writeIfVersion( Document document,
+                                   long version ) {
+        try {
+            return delegate.writeIfVersion(document, version);
+        } finally {
+            invalidate(document.getKey());
+        }
+    }
+
+    @Override
+    public BulkWriteReport writeMultiple( final Iterable<Document> documents,
+                                          boolean captureResults ) {
+        // Record the keys as the delegate iterates over the documents, since the iterable may only be usable once ...
+        final List<String> keys = new ArrayList<>();
+        try {
+            return delegate.writeMultiple(new Iterable<Document>() {
+                @Override
+                public Iterator<Document> iterator() {
+                    final Iterator<Document> iter = documents.iterator();
+                    return new Iterator<Document>() {
+                        @Override
+                        public boolean hasNext() {
+                            return iter.hasNext();
+                        }
+
+                        @Override
+                        public Document next() {
+                            Document document = iter.next();
+                            keys.add(document.getKey());
+                            return document;
+                        }
+
+                        @Override
+                        public void remove() {
+                            iter.remove();
+                        }
+                    };
+                }
+            }, captureResults);
+        } finally {
+            invalidate(keys);
+        }
+    }
+
+    @Override
+    public void merge( String key,
+                       JsonObject document ) {
+        try {
+            delegate.merge(key, document);
+        } finally {
+            invalidate(key);
+        }
+    }
+
+    @Override
+    public void merge( String key,
+                       JsonObject base,
+                       JsonObject document ) {
+        try {
+            delegate.merge(key, base, document);
+        } finally {
+            invalidate(key);
+        }
+    }
+
+    @Override
+    public boolean mergeIfVersion( String key,
+                                   JsonObject document,
+                                   long version ) {
+        try {
+            return delegate.mergeIfVersion(key, document, version);
+        } finally {
+            invalidate(key);
+        }
+    }
+
+    @Override
+    public void remove( String key ) {
+        try {
+            delegate.remove(key);
+        } finally {
+            invalidate(key);
+        }
+    }
+
+    @Override
+    public void remove( Iterable<String> keys ) {
+        try {
+            delegate.remove(keys);
+        } finally {
+            invalidate(keys);
+        }
+    }
+
+    @Override
+    public TaskBuilder filter( Filter filter ) {
+        return delegate.filter(filter);
+    }
+
+    @Override
+    public TaskBuilder all() {
+        return delegate.all();
+    }
+
+    @Override
+    public Store withConsistency( ReadConsistency consistency ) {
+        Util.notNull(consistency, "consistency");
+        // The cache is consistent with the delegate, and reading from replicas would fill it with stale documents ...
+        return this;
+    }
+
+    @Override
+    public Schemas getSchemas() {
+        return delegate.getSchemas();
+    }
+
+    @Override
+    public Indexes getIndexes() {
+        return delegate.getIndexes();
+    }
+
+    @Override
+    public Statistics getStatistics() {
+        return delegate.getStatistics();
+    }
+
+    @Override
+    public Observation getObservation() {
+        return delegate.getObservation();
+    }
+
+    @Override
+    public void close() {
+        clear();
+        delegate.close();
+    }
+
+    /**
+     * Remove all documents from the cache. The statistics are not reset.
+     */
+    public void clear() {
+        synchronized (cache) {
+            ++generation;
+            cache.clear();
+            weight = 0L;
+        }
+    }
+
+    /**
+     * Get the number of reads that were satisfied by the cache.
+     * 
+     * @return the number of cache hits
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * Get the number of reads that were not satisfied by the cache and that were passed to the delegate store.
+     * 
+     * @return the number of cache misses
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * Get the number of documents that were evicted from the cache to make room for other documents. Documents removed because
+     * they were changed are not included.
+     * 
+     * @return the number of evictions
+     */
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    /**
+     * Get the number of documents currently in the cache.
+     * 
+     * @return the number of cached documents
+     */
+    public int getEntryCount() {
+        synchronized (cache) {
+            return cache.size();
+        }
+    }
+
+    /**
+     * Get the total weight of the documents currently in the cache.
+     * 
+     * @return the current weight; never negative
+     * @see #weigh(Document)
+     */
+    public long getWeight() {
+        synchronized (cache) {
+            return weight;
+        }
+    }
+
+    /**
+     * Get the maximum total weight of the documents in the cache.
+     * 
+     * @return the maximum weight
+     */
+    public long getMaximumWeight() {
+        return maximumWeight;
+    }
+
+    protected Document cached( String key ) {
+        CachedDocument entry = null;
+        synchronized (cache) {
+            entry = cache.get(key);
+        }
+        if (entry != null) {
+            hits.incrementAndGet();
+            return entry.document;
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    private long currentGeneration() {
+        synchronized (cache) {
+            return generation;
+        }
+    }
+
+    protected void cache( Document document,
+                          long readGeneration ) {
+        long documentWeight = weigh(document);
+        if (documentWeight > maximumWeight) return;
+        synchronized (cache) {
+            // Don't cache the document if anything was changed while it was being read, since it may be stale ...
+            if (readGeneration != generation) return;
+            CachedDocument previous = cache.put(document.getKey(), new CachedDocument(document, documentWeight));
+            if (previous != null) weight -= previous.weight;
+            weight += documentWeight;
+            // Evict the least-recently used documents until we're under the maximum ...
+            Iterator<Map.Entry<String, CachedDocument>> iter = cache.entrySet().iterator();
+            while (weight > maximumWeight && iter.hasNext()) {
+                weight -= iter.next().getValue().weight;
+                iter.remove();
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    protected void invalidate( String key ) {
+        synchronized (cache) {
+            ++generation;
+            CachedDocument previous = cache.remove(key);
+            if (previous != null) weight -= previous.weight;
+        }
+    }
+
+    protected void invalidate( Iterable<String> keys ) {
+        synchronized (cache) {
+            ++generation;
+            for (String key : keys) {
+                CachedDocument previous = cache.remove(key);
+                if (previous != null) weight -= previous.weight;
+            }
+        }
+    }
+
+    protected static final class CachedDocument {
+        protected final Document document;
+        protected final long weight;
+
+        protected CachedDocument( Document document,
+                                  long weight ) {
+            this.document = document;
+            this.weight = weight;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "Cache of " + delegate + " (hits=" + getHitCount() + ", misses=" + getMissCount() + ", evictions="
+               + getEvictionCount() + ")";
+    }
+}
@@ -27,6 +27,18 @@ import org.schematica.db.Sequence;
 import org.schematica.db.task.Results;
 
 public class Collectors {
+
+    /**
+     * The largest initial capacity of a collector's container, so that an inaccurate size estimate never allocates too much
+     * memory up front.
+     */
+    protected static final int MAXIMUM_INITIAL_CAPACITY = 1 << 16;
+
+    /**
+     * The default initial capacity of a list, used when the size is not known.
+     */
+    protected static final int DEFAULT_INITIAL_CAPACITY = 10;
+
     public static abstract class Collector<ValueType, CollectionType> implements Results<CollectionType> {
 
         protected final CollectionType collected;
@@ -63,15 +75,28 @@ public class Collectors {
     }
 
     public static Collector<Document, List<Document>> listOfDocuments( long approximateSize ) {
-        return new ListOfDocuments(new ArrayList<Document>());
+        return new ListOfDocuments(new ArrayList<Document>(initialCapacity(approximateSize, 1.0f)));
     }
 
     public static Collector<Document, Map<String, Document>> mapOfDocuments( long approximateSize ) {
-        return new MapOfDocuments(new HashMap<String, Document>());
+        return new MapOfDocuments(new HashMap<String, Document>(initialCapacity(approximateSize, 0.75f)));
     }
 
     public static Collector<String, Set<String>> setOfKeys( long approximateSize ) {
-        return new SetOfKeys(new HashSet<String>());
+        return new SetOfKeys(new HashSet<String>(initialCapacity(approximateSize, 0.75f)));
+    }
+
+    /**
+     * Compute the initial capacity of a container that will hold the estimated number of values without being resized.
+     * 
+     * @param approximateSize the estimated number of values, or a negative number if the number is not known
+     * @param loadFactor the load factor of the container
+     * @return the initial capacity; never negative
+     */
+    protected static int initialCapacity( long approximateSize,
+                                          float loadFactor ) {
+        if (approximateSize < 0L) return loadFactor < 1.0f ? 16 : DEFAULT_INITIAL_CAPACITY;
+        return (int)Math.min(MAXIMUM_INITIAL_CAPACITY, (long)(approximateSize / loadFactor) + 1L);
     }
 
     protected static class ListOfDocuments extends Collector<Document, List<Document>> {
@@ -0,0 +1,319 @@
+/*
+ * Schematica (http://www.schematica.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.schematica.db.core;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+import org.schematica.db.Document;
+
+/**
+ * A {@link DocumentFormat} that compresses the content written by another format. Only documents whose content is at least
+ * {@link #getThreshold() threshold} bytes are compressed, since compressing small documents costs more than it saves; the
+ * content of each document starts with a single byte that records whether the remaining bytes are compressed.
+ * <p>
+ * Each compressed format has its own {@link #getType() type code}, derived from the codec and the type of the wrapped format, so
+ * that documents written with different formats (with or without compression) can be stored side by side and each read with the
+ * correct format. Use {@link #isCompressed(int)}, {@link #getWrappedType(int)} and {@link #getCodec(int)} to decode a type code.
+ * </p>
+ * 
+ * @author Randall Hauch (rhauch@redhat.com)
+ */
+public class CompressedDocumentFormat implements ProjectingDocumentFormat {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The algorithms used to compress the content. All of the codecs produce the DEFLATE format (RFC 1951), so they differ only
+     * in the trade-off between the time spent compressing and the size of the compressed content.
+     */
+    public static enum Codec {
+        /** The codec that compresses the fastest, at the expense of a somewhat lower compression ratio. */
+        FAST(1, "deflate-fast", Deflater.BEST_SPEED),
+        /** The codec that compresses to the smallest size, at the expense of more time spent compressing. */
+        SMALL(2, "deflate-small", Deflater.BEST_COMPRESSION);
+
+        private final int code;
+        private final String name;
+        private final int level;
+
+        private Codec( int code,
+                       String name,
+                       int level ) {
+            this.code = code;
+            this.name = name;
+            this.level = level;
+        }
+
+        /**
+         * Get the code of this codec, which is used in the type codes of the compressed formats.
+         * 
+         * @return the code; always positive
+         */
+        public int getCode() {
+            return code;
+        }
+
+        /**
+         * Get the name of this codec.
+         * 
+         * @return the name; never null
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Write the compressed form of the supplied content to the stream.
+         * 
+         * @param content the content; may not be null
+         * @param length the number of bytes of content
+         * @param output the stream to which the compressed content is written; may not be null
+         * @throws IOException if there is a problem writing to the stream
+         */
+        protected void compress( byte[] content,
+                                 int length,
+                                 ByteArrayOutputStream output ) throws IOException {
+            Deflater deflater = new Deflater(level);
+            try (DeflaterOutputStream stream = new DeflaterOutputStream(output, deflater)) {
+                stream.write(content, 0, length);
+            } finally {
+                deflater.end();
+            }
+        }
+
+        /**
+         * Obtain a stream that decompresses the supplied stream.
+         * 
+         * @param stream the stream with the compressed content; may not be null
+         * @return the stream of the decompressed content; never null
+         */
+        protected InputStream decompress( InputStream stream ) {
+            return new InflaterInputStream(stream);
+        }
+
+        /**
+         * Find the codec with the supplied name.
+         * 
+         * @param name the name of the codec, or the name of the enumeration literal; may not be null
+         * @return the codec, or null if there is no codec with the name
+         */
+        public static Codec forName( String name ) {
+            for (Codec codec : values()) {
+                if (codec.getName().equalsIgnoreCase(name) || codec.name().equalsIgnoreCase(name)) return codec;
+            }
+            return null;
+        }
+
+        /**
+         * Find the codec with the supplied code.
+         * 
+         * @param code the code of the codec
+         * @return the codec, or null if there is no codec with the code
+         */
+        public static Codec forCode( int code ) {
+            for (Codec codec : values()) {
+                if (codec.getCode() == code) return codec;
+            }
+            return null;
+        }
+    }
+
+    /**
+     * The default minimum number of bytes of content that are compressed.
+     */
+    public static final int DEFAULT_THRESHOLD = 1024;
+
+    /**
+     * The type codes of the compressed formats are the codec code multiplied by this value plus the type code of the wrapped
+     * format, so the wrapped formats must have type codes that are smaller than this.
+     */
+    protected static final int TYPE_MULTIPLIER = 16;
+
+    private static final int UNCOMPRESSED = 0;
+    private static final int COMPRESSED = 1;
+
+    /**
+     * Determine whether the supplied type code is that of a compressed format.
+     * 
+     * @param type the type code
+     * @return true if the type is that of a compressed format, or false otherwise
+     */
+    public static boolean isCompressed( int type ) {
+        return getCodec(type) != null;
+    }
+
+    /**
+     * Get the codec used by the compressed format with the supplied type code.
+     * 
+     * @param type the type code
+     * @return the codec, or null if the type is not that of a compressed format
+     */
+    public static Codec getCodec( int type ) {
+        return type >= TYPE_MULTIPLIER ? Codec.forCode(type / TYPE_MULTIPLIER) : null;
+    }
+
+    /**
+     * Get the type code of the format wrapped by the compressed format with the supplied type code.
+     * 
+     * @param type the type code of a {@link #isCompressed(int) compressed} format
+     * @return the type code of the wrapped format
+     */
+    public static int getWrappedType( int type ) {
+        return type % TYPE_MULTIPLIER;
+    }
+
+    private final DocumentFormat delegate;
+    private final Codec codec;
+    private final int threshold;
+
+    /**
+     * Create a format that compresses the content of the supplied format using the {@link Codec#FAST fast codec} and the
+     * {@link #DEFAULT_THRESHOLD default threshold}.
+     * 
+     * @param delegate the format whose content is to be compressed; may not be null
+     */
+    public CompressedDocumentFormat( DocumentFormat delegate ) {
+        this(delegate, Codec.FAST, DEFAULT_THRESHOLD);
+    }
+
+    /**
+     * Create a format that compresses the content of the supplied format.
+     * 
+     * @param delegate the format whose content is to be compressed; may not be null
+     * @param codec the codec; may not be null
+     * @param threshold the minimum number of bytes of content that are compressed; must not be negative
+     */
+    public CompressedDocumentFormat( DocumentFormat delegate,
+                                     Codec codec,
+                                     int threshold ) {
+        Util.notNull(delegate, "delegate");
+        Util.notNull(codec, "codec");
+        if (delegate.getType() < 0 || delegate.getType() >= TYPE_MULTIPLIER) {
+            String msg = Util.createString("The type of the {0} format must be between 0 and {1} to be compressed, but was {2}",
+                                           delegate.getName(),
+                                           TYPE_MULTIPLIER - 1,
+                                           delegate.getType());
+            throw new IllegalArgumentException(msg);
+        }
+        if (threshold < 0) throw new IllegalArgumentException("The threshold must not be negative, but was " + threshold);
+        this.delegate = delegate;
+        this.codec = codec;
+        this.threshold = threshold;
+    }
+
+    /**
+     * Get the format whose content is compressed.
+     * 
+     * @return the wrapped format; never null
+     */
+    public DocumentFormat getDelegate() {
+        return delegate;
+    }
+
+    /**
+     * Get the codec used to compress the content.
+     * 
+     * @return the codec; never null
+     */
+    public Codec getCodec() {
+        return codec;
+    }
+
+    /**
+     * Get the minimum number of bytes of content that are compressed.
+     * 
+     * @return the threshold; never negative
+     */
+    public int getThreshold() {
+        return threshold;
+    }
+
+    @Override
+    public Document parse( String key,
+                           InputStream stream,
+                           String schemaKey ) throws IOException {
+        int marker = stream.read();
+        switch (marker) {
+            case UNCOMPRESSED:
+                return delegate.parse(key, stream, schemaKey);
+            case COMPRESSED:
+                return delegate.parse(key, codec.decompress(stream), schemaKey);
+            default:
+                throw new IOException(Util.createString("The content of document {0} is not in the {1} format", key, getName()));
+        }
+    }
+
+    @Override
+    public Document parse( String key,
+                           InputStream stream,
+                           String schemaKey,
+                           Projection projection ) throws IOException {
+        int marker = stream.read();
+        switch (marker) {
+            case UNCOMPRESSED:
+                return projection.parse(delegate, key, stream, schemaKey);
+            case COMPRESSED:
+                return projection.parse(delegate, key, codec.decompress(stream), schemaKey);
+            default:
+                throw new IOException(Util.createString("The content of document {0} is not in the {1} format", key, getName()));
+        }
+    }
+
+    @Override
+    public InputStream write( Document document ) throws IOException {
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        try (InputStream stream = delegate.write(document)) {
+            byte[] buffer = new byte[4096];
+            int read = 0;
+            while ((read = stream.read(buffer)) != -1) {
+                content.write(buffer, 0, read);
+            }
+        }
+        byte[] bytes = content.toByteArray();
+        if (bytes.length >= threshold) {
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream(bytes.length / 2 + 16);
+            compressed.write(COMPRESSED);
+            codec.compress(bytes, bytes.length, compressed);
+            // Use the compressed form only if it is actually smaller ...
+            if (compressed.size() <= bytes.length) return new ByteArrayInputStream(compressed.toByteArray());
+        }
+        byte[] uncompressed = new byte[bytes.length + 1];
+        uncompressed[0] = UNCOMPRESSED;
+        System.arraycopy(bytes, 0, uncompressed, 1, bytes.length);
+        return new ByteArrayInputStream(uncompressed);
+    }
+
+    @Override
+    public int getType() {
+        return codec.getCode() * TYPE_MULTIPLIER + delegate.getType();
+    }
+
+    @Override
+    public String getName() {
+        return delegate.getName() + "+" + codec.getName();
+    }
+
+    @Override
+    public String toString() {
+        return getName();
+    }
+}
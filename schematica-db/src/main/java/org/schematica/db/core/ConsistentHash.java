@@ -0,0 +1,162 @@
+/*
+ * Schematica (http://www.schematica.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.schematica.db.core;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * A consistent hash that assigns string keys to one of several nodes. Each node is placed at many points (its virtual nodes) on
+ * a ring of 64-bit hash values, and a key is assigned to the node at the first point at or after the hash of the key. The keys
+ * are therefore spread evenly over the nodes, and adding a node moves only the keys that are assigned to the new node.
+ * <p>
+ * The points of a node are determined solely by the node's position in the list of nodes, so the same list of nodes always
+ * assigns each key to the same node. Nodes must therefore only ever be appended to the list.
+ * </p>
+ * <p>
+ * This class is immutable and thread-safe.
+ * </p>
+ * 
+ * @param <T> the type of node
+ * @author Randall Hauch (rhauch@redhat.com)
+ */
+public final class ConsistentHash<T> {
+
+    /**
+     * The default number of points on the ring for each node.
+     */
+    public static final int DEFAULT_VIRTUAL_NODES = 160;
+
+    private final List<T> nodes;
+    private final long[] points;
+    private final int[] owners;
+
+    /**
+     * Create a consistent hash with the {@link #DEFAULT_VIRTUAL_NODES default number} of points for each node.
+     * 
+     * @param nodes the nodes; may not be null or empty
+     */
+    public ConsistentHash( List<? extends T> nodes ) {
+        this(nodes, DEFAULT_VIRTUAL_NODES);
+    }
+
+    /**
+     * Create a consistent hash.
+     * 
+     * @param nodes the nodes; may not be null or empty
+     * @param virtualNodes the number of points on the ring for each node; must be positive
+     */
+    public ConsistentHash( List<? extends T> nodes,
+                           int virtualNodes ) {
+        Util.notNull(nodes, "nodes");
+        if (nodes.isEmpty()) throw new IllegalArgumentException("At least one node is required");
+        if (virtualNodes < 1) {
+            throw new IllegalArgumentException("The number of virtual nodes must be positive, but was " + virtualNodes);
+        }
+        this.nodes = Collections.unmodifiableList(new ArrayList<T>(nodes));
+        // Compute the points of all nodes, and then sort them while keeping track of the node at each point ...
+        int count = nodes.size() * virtualNodes;
+        long[][] entries = new long[count][];
+        for (int node = 0, i = 0; node != nodes.size(); ++node) {
+            for (int virtual = 0; virtual != virtualNodes; ++virtual) {
+                entries[i++] = new long[] {mix(((long)node << 32) | virtual), node};
+            }
+        }
+        Arrays.sort(entries, new Comparator<long[]>() {
+            @Override
+            public int compare( long[] entry1,
+                                long[] entry2 ) {
+                int diff = Long.compare(entry1[0], entry2[0]);
+                return diff != 0 ? diff : Long.compare(entry1[1], entry2[1]);
+            }
+        });
+        this.points = new long[count];
+        this.owners = new int[count];
+        for (int i = 0; i != count; ++i) {
+            points[i] = entries[i][0];
+            owners[i] = (int)entries[i][1];
+        }
+    }
+
+    /**
+     * Get the nodes, in the order they were supplied.
+     * 
+     * @return the immutable list of nodes; never null
+     */
+    public List<T> getNodes() {
+        return nodes;
+    }
+
+    /**
+     * Get the node to which the supplied key is assigned.
+     * 
+     * @param key the key; may not be null
+     * @return the node; never null
+     */
+    public T get( String key ) {
+        return nodes.get(indexOf(key));
+    }
+
+    /**
+     * Get the position (in the {@link #getNodes() list of nodes}) of the node to which the supplied key is assigned.
+     * 
+     * @param key the key; may not be null
+     * @return the index of the node
+     */
+    public int indexOf( String key ) {
+        if (nodes.size() == 1) return 0;
+        int index = Arrays.binarySearch(points, hash(key));
+        if (index < 0) index = -index - 1;
+        // Wrap around to the first point of the ring ...
+        return owners[index == points.length ? 0 : index];
+    }
+
+    /**
+     * Compute the 64-bit hash of the supplied key, which is the FNV-1a hash of its UTF-8 encoding with its bits then mixed so
+     * that similar keys are spread over the whole ring.
+     * 
+     * @param key the key; may not be null
+     * @return the hash
+     */
+    public static long hash( String key ) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        return mix(hash);
+    }
+
+    private static long mix( long value ) {
+        // The finalizer of the 64-bit MurmurHash3 ...
+        value ^= value >>> 33;
+        value *= 0xff51afd7ed558ccdL;
+        value ^= value >>> 33;
+        value *= 0xc4ceb9fe1a85ec53L;
+        value ^= value >>> 33;
+        return value;
+    }
+
+    @Override
+    public String toString() {
+        return "ConsistentHash" + nodes;
+    }
+}
@@ -0,0 +1,318 @@
+/*
+ * Schematica (http://www.schematica.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.schematica.db.core;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.json.JsonObject;
+import org.schematica.db.AsyncStore;
+import org.schematica.db.BulkWriteReport;
+import org.schematica.db.Document;
+import org.schematica.db.Path;
+import org.schematica.db.Sequence;
+import org.schematica.db.Store;
+import org.schematica.db.task.Results;
+import org.schematica.db.task.Task;
+
+/**
+ * An {@link AsyncStore} that runs each operation on a {@link Store} as a separate job on an {@link ExecutorService}.
+ * <p>
+ * Unless an executor is supplied, each instance creates its own executor with daemon threads that are created as needed and
+ * released after they have been idle for a minute. Because almost all of the time in each operation is spent waiting for the
+ * underlying store, using a thread per concurrent operation is inexpensive, and the actual concurrency is bounded by the store
+ * (e.g., the number of pooled connections) rather than by the executor.
+ * </p>
+ * <p>
+ * This class is thread-safe if the store is thread-safe.
+ * </p>
+ * 
+ * @author Randall Hauch (rhauch@redhat.com)
+ */
+public class ExecutorAsyncStore implements AsyncStore {
+
+    private static final AtomicInteger POOL_COUNTER = new AtomicInteger();
+
+    /**
+     * Create the default executor, which uses a new daemon thread for each operation unless an idle thread is available.
+     * 
+     * @return the new executor; never null
+     */
+    public static ExecutorService defaultExecutor() {
+        final String prefix = "schematica-async-" + POOL_COUNTER.incrementAndGet() + "-";
+        return Executors.newCachedThreadPool(new ThreadFactory() {
+            private final AtomicInteger counter = new AtomicInteger();
+
+            @Override
+            public Thread newThread( Runnable runnable ) {
+                Thread thread = new Thread(runnable, prefix + counter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    protected final Store store;
+    private final ExecutorService executor;
+    private final boolean ownsExecutor;
+
+    /**
+     * Create an asynchronous view of the supplied store that uses a {@link #defaultExecutor() default executor}, which is shut
+     * down when this view is {@link #close() closed}.
+     * 
+     * @param store the store; may not be null
+     */
+    public ExecutorAsyncStore( Store store ) {
+        this(store, defaultExecutor(), true);
+    }
+
+    /**
+     * Create an asynchronous view of the supplied store that uses the supplied executor, which is not shut down when this view is
+     * {@link #close() closed}.
+     * 
+     * @param store the store; may not be null
+     * @param executor the executor; may not be null
+     */
+    public ExecutorAsyncStore( Store store,
+                               ExecutorService executor ) {
+        this(store, executor, false);
+    }
+
+    protected ExecutorAsyncStore( Store store,
+                                  ExecutorService executor,
+                                  boolean ownsExecutor ) {
+        Util.notNull(store, "store");
+        Util.notNull(executor, "executor");
+        this.store = store;
+        this.executor = executor;
+        this.ownsExecutor = ownsExecutor;
+    }
+
+    @Override
+    public Store getStore() {
+        return store;
+    }
+
+    @Override
+    public Future<Boolean> has( final String key ) {
+        return executor.submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return store.has(key);
+            }
+        });
+    }
+
+    @Override
+    public Future<Document> read( final String key ) {
+        return executor.submit(new Callable<Document>() {
+            @Override
+            public Document call() {
+                return store.read(key);
+            }
+        });
+    }
+
+    @Override
+    public Future<Document> read( final String key,
+                                  final Iterable<Path> paths ) {
+        Util.notNull(paths, "paths");
+        return executor.submit(new Callable<Document>() {
+            @Override
+            public Document call() {
+                return store.read(key, paths);
+            }
+        });
+    }
+
+    @Override
+    public Future<Sequence<Document>> readMultiple( final Iterable<String> keys ) {
+        Util.notNull(keys, "keys");
+        return executor.submit(new Callable<Sequence<Document>>() {
+            @Override
+            public Sequence<Document> call() {
+                return store.readMultiple(keys);
+            }
+        });
+    }
+
+    @Override
+    public Future<Sequence<Document>> readMultiple( final Iterable<String> keys,
+                                                    final Iterable<Path> paths ) {
+        Util.notNull(keys, "keys");
+        Util.notNull(paths, "paths");
+        return executor.submit(new Callable<Sequence<Document>>() {
+            @Override
+            public Sequence<Document> call() {
+                return store.readMultiple(keys, paths);
+            }
+        });
+    }
+
+    @Override
+    public Future<Boolean> write( final String key,
+                                  final JsonObject document ) {
+        Util.notNull(document, "document");
+        return executor.submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return store.write(key, document);
+            }
+        });
+    }
+
+    @Override
+    public Future<Boolean> write( final Document document ) {
+        Util.notNull(document, "document");
+        return executor.submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return store.write(document);
+            }
+        });
+    }
+
+    @Override
+    public Future<Boolean> writeIfAbsent( final String key,
+                                          final JsonObject document ) {
+        Util.notNull(document, "document");
+        return executor.submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return store.writeIfAbsent(key, document);
+            }
+        });
+    }
+
+    @Override
+    public Future<Boolean> writeIfAbsent( final Document document ) {
+        Util.notNull(document, "document");
+        return executor.submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return store.writeIfAbsent(document);
+            }
+        });
+    }
+
+    @Override
+    public Future<Boolean> writeIfVersion( final Document document,
+                                           final long version ) {
+        Util.notNull(document, "document");
+        return executor.submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return store.writeIfVersion(document, version);
+            }
+        });
+    }
+
+    @Override
+    public Future<BulkWriteReport> writeMultiple( final Iterable<Document> documents,
+                                                  final boolean captureResults ) {
+        Util.notNull(documents, "documents");
+        return executor.submit(new Callable<BulkWriteReport>() {
+            @Override
+            public BulkWriteReport call() {
+                return store.writeMultiple(documents, captureResults);
+            }
+        });
+    }
+
+    @Override
+    public Future<Void> merge( final String key,
+                               final JsonObject document ) {
+        Util.notNull(document, "document");
+        return executor.submit(new Callable<Void>() {
+            @Override
+            public Void call() {
+                store.merge(key, document);
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public Future<Void> merge( final String key,
+                               final JsonObject base,
+                               final JsonObject document ) {
+        Util.notNull(base, "base");
+        Util.notNull(document, "document");
+        return executor.submit(new Callable<Void>() {
+            @Override
+            public Void call() {
+                store.merge(key, base, document);
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public Future<Boolean> mergeIfVersion( final String key,
+                                           final JsonObject document,
+                                           final long version ) {
+        Util.notNull(document, "document");
+        return executor.submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return store.mergeIfVersion(key, document, version);
+            }
+        });
+    }
+
+    @Override
+    public Future<Void> remove( final String key ) {
+        return executor.submit(new Callable<Void>() {
+            @Override
+            public Void call() {
+                store.remove(key);
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public Future<Void> remove( final Iterable<String> keys ) {
+        Util.notNull(keys, "keys");
+        return executor.submit(new Callable<Void>() {
+            @Override
+            public Void call() {
+                store.remove(keys);
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public <T> Future<Results<T>> submit( Task<T> task ) {
+        Util.notNull(task, "task");
+        return executor.submit(task);
+    }
+
+    @Override
+    public void close() {
+        if (ownsExecutor) executor.shutdown();
+    }
+
+    @Override
+    public String toString() {
+        return "Asynchronous " + store;
+    }
+}
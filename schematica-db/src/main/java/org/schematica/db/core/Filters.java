@@ -0,0 +1,825 @@
+/*
+ * Schematica (http://www.schematica.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.schematica.db.core;
+
+import java.math.BigDecimal;
+import java.sql.Date;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+import javax.json.JsonArray;
+import javax.json.JsonNumber;
+import javax.json.JsonObject;
+import javax.json.JsonString;
+import javax.json.JsonValue;
+import javax.json.JsonValue.ValueType;
+import org.schematica.db.Document;
+import org.schematica.db.Path;
+import org.schematica.db.task.Filter;
+import org.schematica.db.task.FilterBuilder;
+import org.schematica.json.Json;
+import org.schematica.json.JsonObjectBuilder;
+
+/**
+ * Basic implementation of {@link FilterBuilder}. Each of the filters is evaluated in-memory against the document and its
+ * {@link #metadata(String, long, long) metadata}, but the filters are also structured so that stores can inspect them and push
+ * the criteria down to the underlying database.
+ * 
+ * @author Randall Hauch (rhauch@redhat.com)
+ */
+public class Filters implements FilterBuilder {
+
+    /**
+     * The shared threadsafe {@link FilterBuilder} implementation.
+     */
+    public static final Filters INSTANCE = new Filters();
+
+    /**
+     * The name of the metadata field that contains the key of the document's schema, or null if the document has no schema.
+     */
+    public static final String SCHEMA_KEY = "schemaKey";
+
+    /**
+     * The name of the metadata field that contains the time (in milliseconds since the epoch) the document was first stored.
+     */
+    public static final String CREATED = "created";
+
+    /**
+     * The name of the metadata field that contains the time (in milliseconds since the epoch) the document was last stored.
+     */
+    public static final String LAST_MODIFIED = "lastModified";
+
+    protected static final SelectAll SELECT_ALL = new SelectAll();
+    protected static final SelectNone SELECT_NONE = new SelectNone();
+    protected static final SchemaFilter NO_SCHEMA = new SchemaFilter(null);
+
+    private Filters() {
+    }
+
+    /**
+     * Create the metadata object that is passed to {@link Filter#satisfies(Document, JsonObject)}.
+     * 
+     * @param schemaKey the key of the document's schema; may be null
+     * @param created the time the document was first stored, in milliseconds since the epoch
+     * @param lastModified the time the document was last stored, in milliseconds since the epoch
+     * @return the metadata; never null
+     */
+    public static JsonObject metadata( String schemaKey,
+                                       long created,
+                                       long lastModified ) {
+        JsonObjectBuilder builder = Json.createObjectBuilder();
+        if (schemaKey != null) builder.add(SCHEMA_KEY, schemaKey);
+        else builder.addNull(SCHEMA_KEY);
+        builder.add(CREATED, created);
+        builder.add(LAST_MODIFIED, lastModified);
+        return builder.build();
+    }
+
+    @Override
+    public Filter selectAll() {
+        return SELECT_ALL;
+    }
+
+    @Override
+    public Filter selectNone() {
+        return SELECT_NONE;
+    }
+
+    @Override
+    public Filter withSchema( String schemaKey ) {
+        Util.notNull(schemaKey, "schemaKey");
+        return new SchemaFilter(schemaKey);
+    }
+
+    @Override
+    public Filter withNoSchema() {
+        return NO_SCHEMA;
+    }
+
+    @Override
+    public Filter createdDate( Operator op,
+                               Date date ) {
+        Util.notNull(op, "op");
+        Util.notNull(date, "date");
+        return new DateFilter(DateField.CREATED, op, date);
+    }
+
+    @Override
+    public Filter lastModifiedDate( Operator op,
+                                    Date date ) {
+        Util.notNull(op, "op");
+        Util.notNull(date, "date");
+        return new DateFilter(DateField.LAST_MODIFIED, op, date);
+    }
+
+    @Override
+    public PathFilterBuilder field( String nameOrPath ) {
+        Util.notNull(nameOrPath, "nameOrPath");
+        final Path path = Paths.INSTANCE.parse(nameOrPath);
+        return new PathFilterBuilder() {
+            @Override
+            public Filter exists() {
+                return new FieldExists(path);
+            }
+
+            @Override
+            public Filter isAbsent() {
+                return new FieldAbsent(path);
+            }
+
+            @Override
+            public Filter is( JsonValue value ) {
+                Util.notNull(value, "value");
+                return new FieldEquals(path, value);
+            }
+
+            @Override
+            public Filter is( boolean value ) {
+                return new FieldEquals(path, value ? JsonValue.TRUE : JsonValue.FALSE);
+            }
+
+            @Override
+            public Filter is( Operator op,
+                              JsonNumber value ) {
+                Util.notNull(op, "op");
+                Util.notNull(value, "value");
+                return new FieldComparison(path, op, value);
+            }
+
+            @Override
+            public Filter is( Operator op,
+                              int value ) {
+                return is(op, number(value));
+            }
+
+            @Override
+            public Filter is( Operator op,
+                              short value ) {
+                return is(op, number(value));
+            }
+
+            @Override
+            public Filter is( Operator op,
+                              long value ) {
+                return is(op, number(value));
+            }
+
+            @Override
+            public Filter is( Operator op,
+                              float value ) {
+                return is(op, number(value));
+            }
+
+            @Override
+            public Filter is( Operator op,
+                              double value ) {
+                return is(op, number(value));
+            }
+
+            @Override
+            public Filter hasOneOf( Iterable<JsonValue> values ) {
+                Util.notNull(values, "values");
+                List<JsonValue> valueList = new ArrayList<>();
+                for (JsonValue value : values) {
+                    if (value != null) valueList.add(value);
+                }
+                return new FieldHasOneOf(path, valueList);
+            }
+
+            @Override
+            public Filter hasOneOf( JsonValue firstValue,
+                                    JsonValue... additionalValues ) {
+                List<JsonValue> values = new ArrayList<>();
+                values.add(firstValue);
+                for (JsonValue value : additionalValues) {
+                    values.add(value);
+                }
+                return hasOneOf(values);
+            }
+
+            @Override
+            public Filter hasOneOf( String firstValue,
+                                    String... additionalValues ) {
+                List<JsonValue> values = new ArrayList<>();
+                values.add(string(firstValue));
+                for (String value : additionalValues) {
+                    values.add(string(value));
+                }
+                return hasOneOf(values);
+            }
+
+            @Override
+            public Filter hasOneOf( int firstValue,
+                                    int... additionalValues ) {
+                List<JsonValue> values = new ArrayList<>();
+                values.add(number(firstValue));
+                for (int value : additionalValues) {
+                    values.add(number(value));
+                }
+                return hasOneOf(values);
+            }
+
+            @Override
+            public Filter hasOneOf( long firstValue,
+                                    long... additionalValues ) {
+                List<JsonValue> values = new ArrayList<>();
+                values.add(number(firstValue));
+                for (long value : additionalValues) {
+                    values.add(number(value));
+                }
+                return hasOneOf(values);
+            }
+
+            @Override
+            public Filter isArrayWith( JsonValue value ) {
+                Util.notNull(value, "value");
+                return new FieldArrayWith(path, value);
+            }
+
+            @Override
+            public Filter matches( Pattern regex ) {
+                Util.notNull(regex, "regex");
+                return new FieldMatches(path, regex);
+            }
+
+            @Override
+            public Filter like( String likePattern ) {
+                Util.notNull(likePattern, "likePattern");
+                return new FieldLike(path, likePattern);
+            }
+        };
+    }
+
+    protected static JsonNumber number( long value ) {
+        return Json.createArrayBuilder().add(value).build().getJsonNumber(0);
+    }
+
+    protected static JsonNumber number( double value ) {
+        return Json.createArrayBuilder().add(value).build().getJsonNumber(0);
+    }
+
+    protected static JsonValue string( String value ) {
+        if (value == null) return JsonValue.NULL;
+        return Json.createArrayBuilder().add(value).build().get(0);
+    }
+
+    /**
+     * Determine whether the two JSON values are equivalent. Numbers are equivalent if they have the same numeric value, regardless
+     * of their scale.
+     * 
+     * @param value1 the first value; may be null
+     * @param value2 the second value; may be null
+     * @return true if the values are equivalent, or false otherwise
+     */
+    public static boolean equivalent( JsonValue value1,
+                                      JsonValue value2 ) {
+        if (value1 == value2) return true;
+        if (value1 == null || value2 == null) return false;
+        if (value1.getValueType() != value2.getValueType()) return false;
+        switch (value1.getValueType()) {
+            case NUMBER:
+                return ((JsonNumber)value1).bigDecimalValue().compareTo(((JsonNumber)value2).bigDecimalValue()) == 0;
+            case STRING:
+                return ((JsonString)value1).getString().equals(((JsonString)value2).getString());
+            case TRUE:
+            case FALSE:
+            case NULL:
+                return true;
+            default:
+                return value1.equals(value2);
+        }
+    }
+
+    protected static boolean isNull( JsonValue value ) {
+        return value == null || value.getValueType() == ValueType.NULL;
+    }
+
+    protected static boolean compare( BigDecimal actual,
+                                      Operator op,
+                                      BigDecimal expected ) {
+        int comparison = actual.compareTo(expected);
+        switch (op) {
+            case EQUALS:
+                return comparison == 0;
+            case NOT_EQUALS:
+                return comparison != 0;
+            case GREATER_THAN:
+                return comparison > 0;
+            case GREATER_THAN_OR_EQUALS:
+                return comparison >= 0;
+            case LESS_THAN:
+                return comparison < 0;
+            case LESS_THAN_OR_EQUALS:
+                return comparison <= 0;
+        }
+        return false;
+    }
+
+    /**
+     * Convert a pattern that uses SQL LIKE wildcards (including the '{@code [}<i>charlist</i>{@code ]}' extension) into a regular
+     * expression.
+     * 
+     * @param likePattern the LIKE pattern; may not be null
+     * @return the equivalent regular expression; never null
+     */
+    public static Pattern likeToRegex( String likePattern ) {
+        StringBuilder regex = new StringBuilder();
+        int length = likePattern.length();
+        for (int i = 0; i != length; ++i) {
+            char c = likePattern.charAt(i);
+            if (c == '%') {
+                regex.append(".*");
+            } else if (c == '_') {
+                regex.append('.');
+            } else if (c == '[' && likePattern.indexOf(']', i + 1) > i + 1) {
+                int end = likePattern.indexOf(']', i + 1);
+                String charList = likePattern.substring(i + 1, end);
+                regex.append('[');
+                if (charList.charAt(0) == '^' || charList.charAt(0) == '!') {
+                    regex.append('^');
+                    charList = charList.substring(1);
+                }
+                // Escape everything but the range character ...
+                for (int j = 0; j != charList.length(); ++j) {
+                    char rc = charList.charAt(j);
+                    if (rc != '-' && !Character.isLetterOrDigit(rc)) regex.append('\\');
+                    regex.append(rc);
+                }
+                regex.append(']');
+                i = end;
+            } else {
+                regex.append(Pattern.quote(String.valueOf(c)));
+            }
+        }
+        return Pattern.compile(regex.toString(), Pattern.DOTALL);
+    }
+
+    /**
+     * Get the value at the supplied path in the document, or null if there is no such value.
+     * 
+     * @param document the document; may not be null
+     * @param path the path; may not be null
+     * @return the value, or null if there is no value at the path
+     */
+    protected static JsonValue valueAt( Document document,
+                                        Path path ) {
+        try {
+            return document.valueAtPath(path);
+        } catch (IllegalArgumentException e) {
+            // The path doesn't match the structure of the document ...
+            return null;
+        }
+    }
+
+    public static final class SelectAll extends Filter {
+        protected SelectAll() {
+        }
+
+        @Override
+        public boolean satisfies( Document document,
+                                  JsonObject metadata ) {
+            return true;
+        }
+
+        @Override
+        public String toString() {
+            return "SelectAll";
+        }
+    }
+
+    public static final class SelectNone extends Filter {
+        protected SelectNone() {
+        }
+
+        @Override
+        public boolean satisfies( Document document,
+                                  JsonObject metadata ) {
+            return false;
+        }
+
+        @Override
+        public String toString() {
+            return "SelectNone";
+        }
+    }
+
+    /**
+     * A filter that is satisfied when the document has the specified schema, or when the document has no schema and the
+     * {@link #getSchemaKey() schema key} is null.
+     */
+    public static final class SchemaFilter extends Filter {
+        private final String schemaKey;
+
+        protected SchemaFilter( String schemaKey ) {
+            this.schemaKey = schemaKey;
+        }
+
+        /**
+         * Get the key of the schema that the documents must have.
+         * 
+         * @return the schema key, or null if the documents must have no schema
+         */
+        public String getSchemaKey() {
+            return schemaKey;
+        }
+
+        @Override
+        public boolean satisfies( Document document,
+                                  JsonObject metadata ) {
+            String actual = document.getSchemaKey();
+            if (actual == null && metadata != null && !isNull(metadata.get(SCHEMA_KEY))) {
+                actual = metadata.getString(SCHEMA_KEY);
+            }
+            return schemaKey == null ? actual == null : schemaKey.equals(actual);
+        }
+
+        @Override
+        public int hashCode() {
+            return schemaKey == null ? 0 : schemaKey.hashCode();
+        }
+
+        @Override
+        public boolean equals( Object obj ) {
+            if (obj == this) return true;
+            if (obj instanceof SchemaFilter) {
+                SchemaFilter that = (SchemaFilter)obj;
+                return schemaKey == null ? that.schemaKey == null : schemaKey.equals(that.schemaKey);
+            }
+            return false;
+        }
+
+        @Override
+        public String toString() {
+            return schemaKey == null ? "WithNoSchema" : "WithSchema(" + schemaKey + ")";
+        }
+    }
+
+    /**
+     * The dates that are maintained for each document.
+     */
+    public static enum DateField {
+        /** The time the document was first stored. */
+        CREATED(Filters.CREATED),
+        /** The time the document was last stored. */
+        LAST_MODIFIED(Filters.LAST_MODIFIED);
+
+        private final String metadataField;
+
+        private DateField( String metadataField ) {
+            this.metadataField = metadataField;
+        }
+
+        /**
+         * Get the name of the metadata field that holds this date.
+         * 
+         * @return the field name; never null
+         */
+        public String getMetadataField() {
+            return metadataField;
+        }
+    }
+
+    /**
+     * A filter that compares one of the document's dates with a supplied date.
+     */
+    public static final class DateFilter extends Filter {
+        private final DateField field;
+        private final Operator op;
+        private final Date date;
+
+        protected DateFilter( DateField field,
+                              Operator op,
+                              Date date ) {
+            this.field = field;
+            this.op = op;
+            this.date = date;
+        }
+
+        public DateField getField() {
+            return field;
+        }
+
+        public Operator getOperator() {
+            return op;
+        }
+
+        public Date getDate() {
+            return date;
+        }
+
+        @Override
+        public boolean satisfies( Document document,
+                                  JsonObject metadata ) {
+            if (metadata == null) return false;
+            JsonValue value = metadata.get(field.getMetadataField());
+            if (!(value instanceof JsonNumber)) return false;
+            BigDecimal actual = BigDecimal.valueOf(((JsonNumber)value).longValue());
+            return compare(actual, op, BigDecimal.valueOf(date.getTime()));
+        }
+
+        @Override
+        public int hashCode() {
+            return Util.hashCode(field, op, date);
+        }
+
+        @Override
+        public boolean equals( Object obj ) {
+            if (obj == this) return true;
+            if (obj instanceof DateFilter) {
+                DateFilter that = (DateFilter)obj;
+                return field == that.field && op == that.op && date.equals(that.date);
+            }
+            return false;
+        }
+
+        @Override
+        public String toString() {
+            return field + "(" + op + "," + date + ")";
+        }
+    }
+
+    /**
+     * The base class for filters that apply to the value at a {@link #getPath() path} within the document.
+     */
+    public static abstract class FieldFilter extends Filter {
+        private final Path path;
+
+        protected FieldFilter( Path path ) {
+            this.path = path;
+        }
+
+        /**
+         * Get the path of the field to which this filter applies.
+         * 
+         * @return the path; never null
+         */
+        public Path getPath() {
+            return path;
+        }
+
+        @Override
+        public final boolean satisfies( Document document,
+                                        JsonObject metadata ) {
+            return satisfies(valueAt(document, path));
+        }
+
+        /**
+         * Determine whether the field value satisfies this filter.
+         * 
+         * @param value the value of the field; may be null if the document has no such field
+         * @return true if the value satisfies this filter, or false otherwise
+         */
+        protected abstract boolean satisfies( JsonValue value );
+
+        /**
+         * Get the criteria of this filter, which are used in {@link #equals(Object)} and {@link #hashCode()}.
+         * 
+         * @return the criteria; may be null
+         */
+        protected abstract Object criteria();
+
+        @Override
+        public int hashCode() {
+            return Util.hashCode(getClass(), path, criteria());
+        }
+
+        @Override
+        public boolean equals( Object obj ) {
+            if (obj == this) return true;
+            if (obj != null && obj.getClass() == getClass()) {
+                FieldFilter that = (FieldFilter)obj;
+                Object criteria = criteria();
+                Object thatCriteria = that.criteria();
+                return path.equals(that.path) && (criteria == null ? thatCriteria == null : criteria.equals(thatCriteria));
+            }
+            return false;
+        }
+
+        @Override
+        public String toString() {
+            Object criteria = criteria();
+            return getClass().getSimpleName() + "(" + path + (criteria != null ? "," + criteria : "") + ")";
+        }
+    }
+
+    public static final class FieldExists extends FieldFilter {
+        protected FieldExists( Path path ) {
+            super(path);
+        }
+
+        @Override
+        protected boolean satisfies( JsonValue value ) {
+            return !isNull(value);
+        }
+
+        @Override
+        protected Object criteria() {
+            return null;
+        }
+    }
+
+    public static final class FieldAbsent extends FieldFilter {
+        protected FieldAbsent( Path path ) {
+            super(path);
+        }
+
+        @Override
+        protected boolean satisfies( JsonValue value ) {
+            return isNull(value);
+        }
+
+        @Override
+        protected Object criteria() {
+            return null;
+        }
+    }
+
+    public static final class FieldEquals extends FieldFilter {
+        private final JsonValue value;
+
+        protected FieldEquals( Path path,
+                               JsonValue value ) {
+            super(path);
+            this.value = value;
+        }
+
+        public JsonValue getValue() {
+            return value;
+        }
+
+        @Override
+        protected boolean satisfies( JsonValue actual ) {
+            if (isNull(value)) return isNull(actual);
+            return equivalent(actual, value);
+        }
+
+        @Override
+        protected Object criteria() {
+            return value;
+        }
+    }
+
+    public static final class FieldComparison extends FieldFilter {
+        private final Operator op;
+        private final JsonNumber value;
+
+        protected FieldComparison( Path path,
+                                   Operator op,
+                                   JsonNumber value ) {
+            super(path);
+            this.op = op;
+            this.value = value;
+        }
+
+        public Operator getOperator() {
+            return op;
+        }
+
+        public JsonNumber getValue() {
+            return value;
+        }
+
+        @Override
+        protected boolean satisfies( JsonValue actual ) {
+            if (!(actual instanceof JsonNumber)) return false;
+            return compare(((JsonNumber)actual).bigDecimalValue(), op, value.bigDecimalValue());
+        }
+
+        @Override
+        protected Object criteria() {
+            return op + " " + value;
+        }
+    }
+
+    public static final class FieldHasOneOf extends FieldFilter {
+        private final List<JsonValue> values;
+
+        protected FieldHasOneOf( Path path,
+                                 List<JsonValue> values ) {
+            super(path);
+            this.values = Collections.unmodifiableList(values);
+        }
+
+        public List<JsonValue> getValues() {
+            return values;
+        }
+
+        @Override
+        protected boolean satisfies( JsonValue actual ) {
+            if (actual instanceof JsonArray) {
+                for (JsonValue element : (JsonArray)actual) {
+                    if (matches(element)) return true;
+                }
+                return false;
+            }
+            return matches(actual);
+        }
+
+        private boolean matches( JsonValue actual ) {
+            for (JsonValue value : values) {
+                if (equivalent(actual, value)) return true;
+            }
+            return false;
+        }
+
+        @Override
+        protected Object criteria() {
+            return values;
+        }
+    }
+
+    public static final class FieldArrayWith extends FieldFilter {
+        private final JsonValue value;
+
+        protected FieldArrayWith( Path path,
+                                  JsonValue value ) {
+            super(path);
+            this.value = value;
+        }
+
+        public JsonValue getValue() {
+            return value;
+        }
+
+        @Override
+        protected boolean satisfies( JsonValue actual ) {
+            if (!(actual instanceof JsonArray)) return false;
+            for (JsonValue element : (JsonArray)actual) {
+                if (equivalent(element, value)) return true;
+            }
+            return false;
+        }
+
+        @Override
+        protected Object criteria() {
+            return value;
+        }
+    }
+
+    public static final class FieldMatches extends FieldFilter {
+        private final Pattern regex;
+
+        protected FieldMatches( Path path,
+                                Pattern regex ) {
+            super(path);
+            this.regex = regex;
+        }
+
+        public Pattern getPattern() {
+            return regex;
+        }
+
+        @Override
+        protected boolean satisfies( JsonValue actual ) {
+            if (!(actual instanceof JsonString)) return false;
+            return regex.matcher(((JsonString)actual).getString()).matches();
+        }
+
+        @Override
+        protected Object criteria() {
+            return regex.pattern();
+        }
+    }
+
+    public static final class FieldLike extends FieldFilter {
+        private final String likePattern;
+        private final Pattern regex;
+
+        protected FieldLike( Path path,
+                             String likePattern ) {
+            super(path);
+            this.likePattern = likePattern;
+            this.regex = likeToRegex(likePattern);
+        }
+
+        public String getLikePattern() {
+            return likePattern;
+        }
+
+        @Override
+        protected boolean satisfies( JsonValue actual ) {
+            if (!(actual instanceof JsonString)) return false;
+            return regex.matcher(((JsonString)actual).getString()).matches();
+        }
+
+        @Override
+        protected Object criteria() {
+            return likePattern;
+        }
+    }
+}
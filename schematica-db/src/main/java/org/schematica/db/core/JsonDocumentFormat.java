@@ -0,0 +1,317 @@
+/*
+ * Schematica (http://www.schematica.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.schematica.db.core;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.StringReader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import javax.json.JsonArray;
+import javax.json.JsonException;
+import javax.json.JsonNumber;
+import javax.json.JsonObject;
+import javax.json.JsonReader;
+import javax.json.JsonString;
+import javax.json.JsonValue;
+import javax.json.stream.JsonGenerator;
+import javax.json.stream.JsonParser;
+import javax.json.stream.JsonParser.Event;
+import org.schematica.db.Document;
+import org.schematica.json.Json;
+
+/**
+ * A {@link DocumentFormat} that writes documents as UTF-8 encoded JSON text. The {@link Projection projection} of a document is
+ * parsed with a streaming parser that builds only the selected values, and skips over all other values.
+ * 
+ * @author Randall Hauch (rhauch@redhat.com)
+ */
+public class JsonDocumentFormat implements ProjectingDocumentFormat {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The type code of this format.
+     */
+    public static final int TYPE = 1;
+
+    @Override
+    public Document parse( String key,
+                           InputStream stream,
+                           String schemaKey ) throws IOException {
+        JsonObject json = null;
+        try (JsonReader reader = Json.createReader(new InputStreamReader(stream, StandardCharsets.UTF_8))) {
+            json = reader.readObject();
+        } catch (JsonException e) {
+            throw new IOException(Util.createString("Unable to parse the JSON content of document \"{0}\"", key), e);
+        }
+        return schemaKey == null ? new SimpleDocument(key, json) : new TypedDocument(key, json, schemaKey);
+    }
+
+    @Override
+    public Document parse( String key,
+                           InputStream stream,
+                           String schemaKey,
+                           Projection projection ) throws IOException {
+        JsonObject json = null;
+        try (JsonParser parser = Json.createParser(new InputStreamReader(stream, StandardCharsets.UTF_8))) {
+            if (parser.next() != Event.START_OBJECT) {
+                throw new IOException(Util.createString("The content of document \"{0}\" is not a JSON object", key));
+            }
+            json = JsonValues.object(readSelected(parser, Event.END_OBJECT, projection));
+        } catch (JsonException | NoSuchElementException e) {
+            throw new IOException(Util.createString("Unable to parse the JSON content of document \"{0}\"", key), e);
+        }
+        return Projection.document(key, json, schemaKey);
+    }
+
+    /**
+     * Parse the supplied JSON text of a single value, such as a value extracted from a document by the database.
+     * 
+     * @param json the JSON text of a value; may not be null
+     * @return the value; never null
+     * @throws JsonException if the text is not valid JSON
+     */
+    public static JsonValue parseValue( String json ) {
+        // Wrap the text in an array, since a JSON text must be an object or array ...
+        try (JsonParser parser = Json.createParser(new StringReader("[" + json + "]"))) {
+            parser.next();
+            return readValue(parser, parser.next());
+        }
+    }
+
+    /**
+     * Read the fields of the current object (or the elements of the current array) that are selected by the projection,
+     * skipping all other values.
+     * 
+     * @param parser the parser, positioned just after the start of the object or array; may not be null
+     * @param end the event that ends the current object or array; may not be null
+     * @param projection the projection node for the current object or array; may not be null
+     * @return the selected values keyed by field name or array index; never null
+     */
+    protected static Map<String, JsonValue> readSelected( JsonParser parser,
+                                                          Event end,
+                                                          Projection projection ) {
+        Map<String, JsonValue> values = new LinkedHashMap<>();
+        int index = 0;
+        Event event = null;
+        while ((event = parser.next()) != end) {
+            String name = null;
+            if (event == Event.KEY_NAME) {
+                name = parser.getString();
+                event = parser.next();
+            } else {
+                name = Integer.toString(index++);
+            }
+            Projection child = projection.child(name);
+            if (child == null) {
+                skip(parser, event);
+            } else if (child.isSelected()) {
+                values.put(name, readValue(parser, event));
+            } else if (event == Event.START_OBJECT || event == Event.START_ARRAY) {
+                Map<String, JsonValue> nested = readSelected(parser,
+                                                             event == Event.START_OBJECT ? Event.END_OBJECT : Event.END_ARRAY,
+                                                             child);
+                if (!nested.isEmpty()) values.put(name, JsonValues.object(nested));
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Read the value that starts with the supplied event.
+     * 
+     * @param parser the parser; may not be null
+     * @param event the first event of the value; may not be null
+     * @return the value; never null
+     */
+    protected static JsonValue readValue( JsonParser parser,
+                                          Event event ) {
+        switch (event) {
+            case START_OBJECT:
+                Map<String, JsonValue> fields = new LinkedHashMap<>();
+                while ((event = parser.next()) != Event.END_OBJECT) {
+                    String name = parser.getString();
+                    fields.put(name, readValue(parser, parser.next()));
+                }
+                return JsonValues.object(fields);
+            case START_ARRAY:
+                List<JsonValue> values = new ArrayList<>();
+                while ((event = parser.next()) != Event.END_ARRAY) {
+                    values.add(readValue(parser, event));
+                }
+                return JsonValues.array(values);
+            case VALUE_STRING:
+                return JsonValues.string(parser.getString());
+            case VALUE_NUMBER:
+                return JsonValues.number(parser.getBigDecimal());
+            case VALUE_TRUE:
+                return JsonValue.TRUE;
+            case VALUE_FALSE:
+                return JsonValue.FALSE;
+            case VALUE_NULL:
+                return JsonValue.NULL;
+            default:
+                throw new JsonException(Util.createString("Unexpected {0} at {1}", event, parser.getLocation()));
+        }
+    }
+
+    /**
+     * Skip the value that starts with the supplied event, without building it.
+     * 
+     * @param parser the parser; may not be null
+     * @param event the first event of the value; may not be null
+     */
+    protected static void skip( JsonParser parser,
+                                Event event ) {
+        if (event != Event.START_OBJECT && event != Event.START_ARRAY) return;
+        int depth = 1;
+        while (depth != 0) {
+            switch (parser.next()) {
+                case START_OBJECT:
+                case START_ARRAY:
+                    ++depth;
+                    break;
+                case END_OBJECT:
+                case END_ARRAY:
+                    --depth;
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    @Override
+    public InputStream write( Document document ) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        Writer writer = new OutputStreamWriter(bytes, StandardCharsets.UTF_8);
+        try (JsonGenerator generator = Json.createGenerator(writer)) {
+            generator.writeStartObject();
+            writeFields(generator, document.getJsonObject());
+            generator.writeEnd();
+        } catch (JsonException e) {
+            throw new IOException(Util.createString("Unable to write the JSON content of document \"{0}\"", document.getKey()), e);
+        }
+        return new ByteArrayInputStream(bytes.toByteArray());
+    }
+
+    /**
+     * Write the fields of the supplied object. The values are written according to their {@link JsonValue#getValueType() types}
+     * rather than with their {@link Object#toString() string} forms, which some implementations (such as the numbers set on
+     * {@link org.schematica.json.EditableJsonObject edited} objects) do not define as JSON text.
+     * 
+     * @param generator the generator, positioned within an object; may not be null
+     * @param object the object; may not be null
+     */
+    protected static void writeFields( JsonGenerator generator,
+                                       JsonObject object ) {
+        for (Map.Entry<String, JsonValue> entry : object.entrySet()) {
+            String name = entry.getKey();
+            JsonValue value = entry.getValue();
+            switch (value.getValueType()) {
+                case OBJECT:
+                    generator.writeStartObject(name);
+                    writeFields(generator, (JsonObject)value);
+                    generator.writeEnd();
+                    break;
+                case ARRAY:
+                    generator.writeStartArray(name);
+                    writeElements(generator, (JsonArray)value);
+                    generator.writeEnd();
+                    break;
+                case STRING:
+                    generator.write(name, ((JsonString)value).getString());
+                    break;
+                case NUMBER:
+                    JsonNumber number = (JsonNumber)value;
+                    if (JsonValues.isLong(number)) generator.write(name, number.longValue());
+                    else generator.write(name, number.bigDecimalValue());
+                    break;
+                case TRUE:
+                    generator.write(name, true);
+                    break;
+                case FALSE:
+                    generator.write(name, false);
+                    break;
+                case NULL:
+                    generator.writeNull(name);
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Write the elements of the supplied array in the same way as {@link #writeFields(JsonGenerator, JsonObject)}.
+     * 
+     * @param generator the generator, positioned within an array; may not be null
+     * @param array the array; may not be null
+     */
+    protected static void writeElements( JsonGenerator generator,
+                                         JsonArray array ) {
+        for (JsonValue value : array) {
+            switch (value.getValueType()) {
+                case OBJECT:
+                    generator.writeStartObject();
+                    writeFields(generator, (JsonObject)value);
+                    generator.writeEnd();
+                    break;
+                case ARRAY:
+                    generator.writeStartArray();
+                    writeElements(generator, (JsonArray)value);
+                    generator.writeEnd();
+                    break;
+                case STRING:
+                    generator.write(((JsonString)value).getString());
+                    break;
+                case NUMBER:
+                    JsonNumber number = (JsonNumber)value;
+                    if (JsonValues.isLong(number)) generator.write(number.longValue());
+                    else generator.write(number.bigDecimalValue());
+                    break;
+                case TRUE:
+                    generator.write(true);
+                    break;
+                case FALSE:
+                    generator.write(false);
+                    break;
+                case NULL:
+                    generator.writeNull();
+                    break;
+            }
+        }
+    }
+
+    @Override
+    public int getType() {
+        return TYPE;
+    }
+
+    @Override
+    public String getName() {
+        return "json";
+    }
+}
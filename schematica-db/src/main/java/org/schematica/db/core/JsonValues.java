@@ -0,0 +1,665 @@
+/*
+ * Schematica (http://www.schematica.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.schematica.db.core;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.AbstractList;
+import java.util.AbstractMap;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.json.JsonArray;
+import javax.json.JsonNumber;
+import javax.json.JsonObject;
+import javax.json.JsonString;
+import javax.json.JsonValue;
+import org.schematica.json.EditableJsonObject;
+import org.schematica.json.Json;
+import org.schematica.json.JsonObjectBuilder;
+import org.schematica.json.impl.util.Base64;
+
+/**
+ * Immutable implementations of the JSON values, used for content that is decoded without a JSON parser (such as
+ * {@link BsonDocumentFormat BSON}), and factory methods for the values that have a native BSON representation.
+ * <p>
+ * A {@link #date(Date) date} is a {@link JsonNumber} whose value is the number of milliseconds since the epoch, and a
+ * {@link #binary(byte[]) binary} value is a {@link JsonString} whose value is the Base64 encoding of the bytes. These are the
+ * representations used by {@link org.schematica.json.JsonObject#getDate(String)} and
+ * {@link org.schematica.json.JsonObject#getBinary(String)}, so these values can be used anywhere any other JSON value can be
+ * used, but they are written in their native form by the BSON format.
+ * </p>
+ * 
+ * @author Randall Hauch (rhauch@redhat.com)
+ */
+public final class JsonValues {
+
+    private JsonValues() {
+    }
+
+    /**
+     * Create a number value.
+     * 
+     * @param value the value
+     * @return the JSON number; never null
+     */
+    public static JsonNumber number( long value ) {
+        return new NumberValue(value);
+    }
+
+    /**
+     * Create a number value.
+     * 
+     * @param value the value; must be a finite number
+     * @return the JSON number; never null
+     */
+    public static JsonNumber number( double value ) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            throw new NumberFormatException(Util.createString("JSON numbers must be finite, but was {0}", value));
+        }
+        return new NumberValue(value);
+    }
+
+    /**
+     * Create a number value.
+     * 
+     * @param value the value; may not be null
+     * @return the JSON number; never null
+     */
+    public static JsonNumber number( BigDecimal value ) {
+        Util.notNull(value, "value");
+        return new NumberValue(value);
+    }
+
+    /**
+     * Create a string value.
+     * 
+     * @param value the value; may not be null
+     * @return the JSON string; never null
+     */
+    public static JsonString string( String value ) {
+        Util.notNull(value, "value");
+        return new StringValue(value);
+    }
+
+    /**
+     * Create a date value, which is a number with the milliseconds since the epoch.
+     * 
+     * @param value the date; may not be null
+     * @return the JSON number; never null
+     */
+    public static JsonNumber date( Date value ) {
+        Util.notNull(value, "value");
+        return new DateValue(value.getTime());
+    }
+
+    /**
+     * Create a binary value, which is a string with the Base64 encoding of the bytes.
+     * 
+     * @param value the bytes; may not be null
+     * @return the JSON string; never null
+     */
+    public static JsonString binary( byte[] value ) {
+        Util.notNull(value, "value");
+        return new BinaryValue(value.clone());
+    }
+
+    /**
+     * Determine whether the supplied value was created as (or decoded from) a {@link #date(Date) date}.
+     * 
+     * @param value the value; may be null
+     * @return true if the value is a date, or false otherwise
+     */
+    public static boolean isDate( JsonValue value ) {
+        return value instanceof DateValue;
+    }
+
+    /**
+     * Determine whether the supplied value was created as (or decoded from) a {@link #binary(byte[]) binary} value.
+     * 
+     * @param value the value; may be null
+     * @return true if the value is binary, or false otherwise
+     */
+    public static boolean isBinary( JsonValue value ) {
+        return value instanceof BinaryValue;
+    }
+
+    /**
+     * Get the bytes of the supplied binary value, decoding the Base64 content of strings that were not created as binary values.
+     * 
+     * @param value the value; may be null
+     * @return the bytes, or null if the value is not a string or does not contain Base64 content
+     */
+    public static byte[] asBinary( JsonValue value ) {
+        if (value instanceof BinaryValue) return ((BinaryValue)value).bytes.clone();
+        if (!(value instanceof JsonString)) return null;
+        try {
+            return Base64.decode(((JsonString)value).getString());
+        } catch (IOException | IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Get the date represented by the supplied number value.
+     * 
+     * @param value the value; may be null
+     * @return the date, or null if the value is not a number
+     */
+    public static Date asDate( JsonValue value ) {
+        return value instanceof JsonNumber ? new Date(((JsonNumber)value).longValue()) : null;
+    }
+
+    /**
+     * Create an object with the fields of the supplied object, where the fields in the supplied patch are added or replace the
+     * existing fields with the same names. This is how the changes to an {@link org.schematica.json.EditableJsonObject edited}
+     * object are written, so the patch is not merged into the values of the fields it replaces.
+     * 
+     * @param object the object; may not be null
+     * @param patch the fields that are added or replaced; may not be null
+     * @return the patched object; never null
+     */
+    public static JsonObject patch( JsonObject object,
+                                    JsonObject patch ) {
+        if (patch.isEmpty()) return object;
+        Map<String, JsonValue> fields = new LinkedHashMap<>(object);
+        fields.putAll(patch);
+        return new ObjectValue(fields);
+    }
+
+    /**
+     * Obtain an {@link EditableJsonObject editor} for the supplied object, such as the content of a document that was read from a
+     * store. The content of a document read from a store is usually not a {@link org.schematica.json.JsonObject} and so cannot be
+     * {@link org.schematica.json.JsonObject#edit() edited} directly; in that case the editor is based on a shallow copy of the
+     * object. Writing a document whose content is the editor allows a store to write only the
+     * {@link EditableJsonObject#getChanges() changes}.
+     * 
+     * @param object the object; may not be null
+     * @return the editor; never null
+     */
+    public static EditableJsonObject edit( JsonObject object ) {
+        if (object instanceof EditableJsonObject) return (EditableJsonObject)object;
+        if (object instanceof org.schematica.json.JsonObject) return ((org.schematica.json.JsonObject)object).edit();
+        JsonObjectBuilder builder = Json.createObjectBuilder();
+        for (Map.Entry<String, JsonValue> field : object.entrySet()) {
+            builder.add(field.getKey(), field.getValue());
+        }
+        return builder.build().edit();
+    }
+
+    /**
+     * Determine whether the supplied number is an integer that can be written exactly as a long. Such numbers should be written using
+     * {@link JsonNumber#longValue()}, since some implementations compute {@link JsonNumber#bigDecimalValue()} from a double.
+     * 
+     * @param number the number; may not be null
+     * @return true if the number is an integer within the range of a long
+     */
+    static boolean isLong( JsonNumber number ) {
+        // An integer outside the range of a long wraps around to a value with a different sign or magnitude ...
+        return number.isIntegral() && (double)number.longValue() == number.doubleValue();
+    }
+
+    static JsonObject object( Map<String, JsonValue> fields ) {
+        return new ObjectValue(fields);
+    }
+
+    static JsonArray array( List<JsonValue> values ) {
+        return new ArrayValue(values);
+    }
+
+    static JsonValue bool( boolean value ) {
+        return value ? JsonValue.TRUE : JsonValue.FALSE;
+    }
+
+    static JsonNumber numberValue( Number value ) {
+        return new NumberValue(value);
+    }
+
+    static JsonNumber dateValue( long millis ) {
+        return new DateValue(millis);
+    }
+
+    static JsonString binaryValue( byte[] bytes ) {
+        return new BinaryValue(bytes);
+    }
+
+    /**
+     * Append to the supplied builder the JSON text of the supplied string, including the enclosing quotes.
+     * 
+     * @param value the string; may not be null
+     * @param sb the builder; may not be null
+     */
+    static void appendQuoted( CharSequence value,
+                              StringBuilder sb ) {
+        sb.append('"');
+        for (int i = 0, len = value.length(); i != len; ++i) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                case '\\':
+                    sb.append('\\').append(c);
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\r':
+                    sb.append("\\r");
+                    break;
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                case '\b':
+                    sb.append("\\b");
+                    break;
+                case '\f':
+                    sb.append("\\f");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        String hex = Integer.toHexString(c);
+                        sb.append("\\u");
+                        for (int j = hex.length(); j < 4; ++j) {
+                            sb.append('0');
+                        }
+                        sb.append(hex);
+                    } else {
+                        sb.append(c);
+                    }
+            }
+        }
+        sb.append('"');
+    }
+
+    static class NumberValue implements JsonNumber {
+        private final Number value;
+
+        NumberValue( Number value ) {
+            this.value = value;
+        }
+
+        @Override
+        public ValueType getValueType() {
+            return ValueType.NUMBER;
+        }
+
+        @Override
+        public boolean isIntegral() {
+            return value instanceof Long || value instanceof Integer || bigDecimalValue().scale() == 0;
+        }
+
+        @Override
+        public int intValue() {
+            return value.intValue();
+        }
+
+        @Override
+        public int intValueExact() {
+            return bigDecimalValue().intValueExact();
+        }
+
+        @Override
+        public long longValue() {
+            return value.longValue();
+        }
+
+        @Override
+        public long longValueExact() {
+            if (value instanceof Long || value instanceof Integer) return value.longValue();
+            return bigDecimalValue().longValueExact();
+        }
+
+        @Override
+        public BigInteger bigIntegerValue() {
+            return bigDecimalValue().toBigInteger();
+        }
+
+        @Override
+        public BigInteger bigIntegerValueExact() {
+            return bigDecimalValue().toBigIntegerExact();
+        }
+
+        @Override
+        public double doubleValue() {
+            return value.doubleValue();
+        }
+
+        @Override
+        public BigDecimal bigDecimalValue() {
+            if (value instanceof BigDecimal) return (BigDecimal)value;
+            if (value instanceof Long || value instanceof Integer) return BigDecimal.valueOf(value.longValue());
+            return BigDecimal.valueOf(value.doubleValue());
+        }
+
+        @Override
+        public int hashCode() {
+            return bigDecimalValue().hashCode();
+        }
+
+        @Override
+        public boolean equals( Object obj ) {
+            if (obj == this) return true;
+            if (obj instanceof JsonNumber) {
+                return bigDecimalValue().equals(((JsonNumber)obj).bigDecimalValue());
+            }
+            return false;
+        }
+
+        @Override
+        public String toString() {
+            if (value instanceof Long || value instanceof Integer) return value.toString();
+            return bigDecimalValue().toString();
+        }
+    }
+
+    static final class DateValue extends NumberValue {
+        DateValue( long millis ) {
+            super(millis);
+        }
+    }
+
+    static class StringValue implements JsonString {
+        private final String value;
+
+        StringValue( String value ) {
+            this.value = value;
+        }
+
+        @Override
+        public ValueType getValueType() {
+            return ValueType.STRING;
+        }
+
+        @Override
+        public String getString() {
+            return value;
+        }
+
+        @Override
+        public CharSequence getChars() {
+            return value;
+        }
+
+        @Override
+        public int hashCode() {
+            return value.hashCode();
+        }
+
+        @Override
+        public boolean equals( Object obj ) {
+            if (obj == this) return true;
+            if (obj instanceof JsonString) {
+                return value.equals(((JsonString)obj).getString());
+            }
+            return false;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder(value.length() + 2);
+            appendQuoted(value, sb);
+            return sb.toString();
+        }
+    }
+
+    static final class BinaryValue extends StringValue {
+        final byte[] bytes;
+
+        BinaryValue( byte[] bytes ) {
+            super(Base64.encodeBytes(bytes));
+            this.bytes = bytes;
+        }
+    }
+
+    /**
+     * A base class for immutable {@link JsonObject} implementations, which need only implement {@link #entrySet()} and should
+     * override {@link #get(Object)}, {@link #containsKey(Object)} and {@link #size()}.
+     */
+    abstract static class AbstractObject extends AbstractMap<String, JsonValue> implements JsonObject {
+
+        @Override
+        public ValueType getValueType() {
+            return ValueType.OBJECT;
+        }
+
+        @Override
+        public JsonArray getJsonArray( String name ) {
+            return (JsonArray)get(name);
+        }
+
+        @Override
+        public JsonObject getJsonObject( String name ) {
+            return (JsonObject)get(name);
+        }
+
+        @Override
+        public JsonNumber getJsonNumber( String name ) {
+            return (JsonNumber)get(name);
+        }
+
+        @Override
+        public JsonString getJsonString( String name ) {
+            return (JsonString)get(name);
+        }
+
+        @Override
+        public String getString( String name ) {
+            return getJsonString(name).getString();
+        }
+
+        @Override
+        public String getString( String name,
+                                 String defaultValue ) {
+            JsonValue value = get(name);
+            return value instanceof JsonString ? ((JsonString)value).getString() : defaultValue;
+        }
+
+        @Override
+        public int getInt( String name ) {
+            return getJsonNumber(name).intValue();
+        }
+
+        @Override
+        public int getInt( String name,
+                           int defaultValue ) {
+            JsonValue value = get(name);
+            return value instanceof JsonNumber ? ((JsonNumber)value).intValue() : defaultValue;
+        }
+
+        @Override
+        public boolean getBoolean( String name ) {
+            return booleanValue(get(name));
+        }
+
+        @Override
+        public boolean getBoolean( String name,
+                                   boolean defaultValue ) {
+            JsonValue value = get(name);
+            if (JsonValue.TRUE.equals(value)) return true;
+            if (JsonValue.FALSE.equals(value)) return false;
+            return defaultValue;
+        }
+
+        @Override
+        public boolean isNull( String name ) {
+            return JsonValue.NULL.equals(get(name));
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append('{');
+            boolean first = true;
+            for (Map.Entry<String, JsonValue> entry : entrySet()) {
+                if (first) first = false;
+                else sb.append(',');
+                appendQuoted(entry.getKey(), sb);
+                sb.append(':').append(entry.getValue());
+            }
+            return sb.append('}').toString();
+        }
+    }
+
+    static final class ObjectValue extends AbstractObject {
+        private final Map<String, JsonValue> fields;
+
+        ObjectValue( Map<String, JsonValue> fields ) {
+            this.fields = Collections.unmodifiableMap(fields);
+        }
+
+        @Override
+        public Set<Entry<String, JsonValue>> entrySet() {
+            return fields.entrySet();
+        }
+
+        @Override
+        public int size() {
+            return fields.size();
+        }
+
+        @Override
+        public boolean containsKey( Object key ) {
+            return fields.containsKey(key);
+        }
+
+        @Override
+        public JsonValue get( Object key ) {
+            return fields.get(key);
+        }
+    }
+
+    /**
+     * A base class for immutable {@link JsonArray} implementations, which need only implement {@link #get(int)} and
+     * {@link #size()}.
+     */
+    abstract static class AbstractArray extends AbstractList<JsonValue> implements JsonArray {
+
+        @Override
+        public ValueType getValueType() {
+            return ValueType.ARRAY;
+        }
+
+        @Override
+        public JsonObject getJsonObject( int index ) {
+            return (JsonObject)get(index);
+        }
+
+        @Override
+        public JsonArray getJsonArray( int index ) {
+            return (JsonArray)get(index);
+        }
+
+        @Override
+        public JsonNumber getJsonNumber( int index ) {
+            return (JsonNumber)get(index);
+        }
+
+        @Override
+        public JsonString getJsonString( int index ) {
+            return (JsonString)get(index);
+        }
+
+        @SuppressWarnings( "unchecked" )
+        @Override
+        public <T extends JsonValue> List<T> getValuesAs( Class<T> clazz ) {
+            return (List<T>)this;
+        }
+
+        @Override
+        public String getString( int index ) {
+            return getJsonString(index).getString();
+        }
+
+        @Override
+        public String getString( int index,
+                                 String defaultValue ) {
+            JsonValue value = index >= 0 && index < size() ? get(index) : null;
+            return value instanceof JsonString ? ((JsonString)value).getString() : defaultValue;
+        }
+
+        @Override
+        public int getInt( int index ) {
+            return getJsonNumber(index).intValue();
+        }
+
+        @Override
+        public int getInt( int index,
+                           int defaultValue ) {
+            JsonValue value = index >= 0 && index < size() ? get(index) : null;
+            return value instanceof JsonNumber ? ((JsonNumber)value).intValue() : defaultValue;
+        }
+
+        @Override
+        public boolean getBoolean( int index ) {
+            return booleanValue(get(index));
+        }
+
+        @Override
+        public boolean getBoolean( int index,
+                                   boolean defaultValue ) {
+            JsonValue value = index >= 0 && index < size() ? get(index) : null;
+            if (JsonValue.TRUE.equals(value)) return true;
+            if (JsonValue.FALSE.equals(value)) return false;
+            return defaultValue;
+        }
+
+        @Override
+        public boolean isNull( int index ) {
+            return JsonValue.NULL.equals(get(index));
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append('[');
+            boolean first = true;
+            for (JsonValue value : this) {
+                if (first) first = false;
+                else sb.append(',');
+                sb.append(value);
+            }
+            return sb.append(']').toString();
+        }
+    }
+
+    static final class ArrayValue extends AbstractArray {
+        private final List<JsonValue> values;
+
+        ArrayValue( List<JsonValue> values ) {
+            this.values = values;
+        }
+
+        @Override
+        public JsonValue get( int index ) {
+            return values.get(index);
+        }
+
+        @Override
+        public int size() {
+            return values.size();
+        }
+    }
+
+    private static boolean booleanValue( JsonValue value ) {
+        if (JsonValue.TRUE.equals(value)) return true;
+        if (JsonValue.FALSE.equals(value)) return false;
+        throw new ClassCastException(Util.createString("The value {0} is not a boolean", value));
+    }
+}
@@ -0,0 +1,274 @@
+/*
+ * Schematica (http://www.schematica.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.schematica.db.core;
+
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import javax.json.JsonValue;
+import org.schematica.db.Document;
+import org.schematica.db.core.JsonValues.AbstractArray;
+import org.schematica.db.core.JsonValues.AbstractObject;
+
+/**
+ * A {@link Document} that keeps the {@link BsonDocumentFormat BSON} content of the document and that decodes only those parts of
+ * the content that are actually used. The {@link #getJsonObject() object representation} is a view of the content: the first
+ * use of an object or array finds the offsets of its elements by skipping over their values, and each value is decoded the
+ * first time it is used and then retained. Reading a few fields of a large document therefore decodes only those fields, whether
+ * they are found with {@link #valueAtPath(org.schematica.db.Path)} or by navigating the object representation.
+ * <p>
+ * This class is thread-safe.
+ * </p>
+ * 
+ * @author Randall Hauch (rhauch@redhat.com)
+ */
+public class LazyDocument extends SimpleDocument {
+
+    private final String schemaKey;
+    private final byte[] bson;
+
+    /**
+     * Create a document for the supplied BSON content, which must not be modified after this call.
+     * 
+     * @param key the unique key of the document; may not be null
+     * @param bson the BSON content of the document; may not be null
+     * @param schemaKey the unique key of the document's schema; may be null
+     */
+    public LazyDocument( String key,
+                         byte[] bson,
+                         String schemaKey ) {
+        super(key, new LazyObject(bson, 0));
+        this.bson = bson;
+        this.schemaKey = schemaKey;
+    }
+
+    @Override
+    public String getSchemaKey() {
+        return schemaKey;
+    }
+
+    /**
+     * Get the number of bytes in the BSON content of this document.
+     * 
+     * @return the size of the content
+     */
+    public int getSize() {
+        return bson.length;
+    }
+
+    /**
+     * Get a copy of the BSON content of this document.
+     * 
+     * @return the BSON content; never null
+     */
+    public byte[] getBson() {
+        return bson.clone();
+    }
+
+    byte[] content() {
+        return bson;
+    }
+
+    @Override
+    public String toString() {
+        return schemaKey == null ? key + " -> " + json : key + " (" + schemaKey + ") -> " + json;
+    }
+
+    /**
+     * Decode the value of the element at the supplied offset, returning a lazy view of objects and arrays.
+     * 
+     * @param bson the BSON content; may not be null
+     * @param element the offset of the element
+     * @return the value; never null
+     */
+    protected static JsonValue decode( byte[] bson,
+                                       int element ) {
+        byte type = bson[element];
+        int offset = BsonDocumentFormat.valueOffset(bson, element);
+        if (type == BsonDocumentFormat.OBJECT) return new LazyObject(bson, offset);
+        if (type == BsonDocumentFormat.ARRAY) return new LazyArray(bson, offset);
+        return BsonDocumentFormat.readValue(bson, offset, type);
+    }
+
+    /**
+     * Find the offsets of the elements in the object or array at the supplied offset, without decoding any of the values.
+     * 
+     * @param bson the BSON content; may not be null
+     * @param offset the offset of the object or array
+     * @return the offsets of the elements; never null
+     */
+    protected static int[] elements( byte[] bson,
+                                     int offset ) {
+        int[] elements = new int[8];
+        int count = 0;
+        int pos = offset + 4;
+        while (bson[pos] != BsonDocumentFormat.END) {
+            if (count == elements.length) elements = Arrays.copyOf(elements, count * 2);
+            elements[count++] = pos;
+            int valueOffset = BsonDocumentFormat.valueOffset(bson, pos);
+            pos = valueOffset + BsonDocumentFormat.sizeOf(bson, valueOffset, bson[pos]);
+        }
+        return Arrays.copyOf(elements, count);
+    }
+
+    protected static final class LazyObject extends AbstractObject {
+        private final byte[] bson;
+        private final int offset;
+        private int[] elements;
+        private String[] names;
+        private Map<String, Integer> indexes;
+        private JsonValue[] values;
+
+        protected LazyObject( byte[] bson,
+                              int offset ) {
+            this.bson = bson;
+            this.offset = offset;
+        }
+
+        private synchronized void index() {
+            if (elements != null) return;
+            int[] elements = LazyDocument.elements(bson, offset);
+            names = new String[elements.length];
+            indexes = new HashMap<>((int)(elements.length / 0.75f) + 1);
+            for (int i = 0; i != elements.length; ++i) {
+                int nameOffset = elements[i] + 1;
+                int valueOffset = BsonDocumentFormat.valueOffset(bson, elements[i]);
+                names[i] = new String(bson, nameOffset, valueOffset - nameOffset - 1, StandardCharsets.UTF_8);
+                indexes.put(names[i], i);
+            }
+            values = new JsonValue[elements.length];
+            this.elements = elements;
+        }
+
+        private synchronized JsonValue value( int index ) {
+            JsonValue value = values[index];
+            if (value == null) {
+                value = decode(bson, elements[index]);
+                values[index] = value;
+            }
+            return value;
+        }
+
+        private synchronized Integer indexOf( Object name ) {
+            index();
+            return indexes.get(name);
+        }
+
+        @Override
+        public JsonValue get( Object name ) {
+            Integer index = indexOf(name);
+            return index == null ? null : value(index);
+        }
+
+        @Override
+        public boolean containsKey( Object name ) {
+            return indexOf(name) != null;
+        }
+
+        @Override
+        public synchronized int size() {
+            index();
+            return elements.length;
+        }
+
+        @Override
+        public Set<Entry<String, JsonValue>> entrySet() {
+            return new AbstractSet<Entry<String, JsonValue>>() {
+                @Override
+                public Iterator<Entry<String, JsonValue>> iterator() {
+                    final int size = size();
+                    return new Iterator<Entry<String, JsonValue>>() {
+                        private int next = 0;
+
+                        @Override
+                        public boolean hasNext() {
+                            return next < size;
+                        }
+
+                        @Override
+                        public Entry<String, JsonValue> next() {
+                            if (next >= size) throw new NoSuchElementException();
+                            int index = next++;
+                            return new SimpleImmutableEntry<>(name(index), value(index));
+                        }
+
+                        @Override
+                        public void remove() {
+                            throw new UnsupportedOperationException();
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return LazyObject.this.size();
+                }
+            };
+        }
+
+        private synchronized String name( int index ) {
+            return names[index];
+        }
+    }
+
+    protected static final class LazyArray extends AbstractArray {
+        private final byte[] bson;
+        private final int offset;
+        private int[] elements;
+        private JsonValue[] values;
+
+        protected LazyArray( byte[] bson,
+                             int offset ) {
+            this.bson = bson;
+            this.offset = offset;
+        }
+
+        private void index() {
+            if (elements != null) return;
+            elements = LazyDocument.elements(bson, offset);
+            values = new JsonValue[elements.length];
+        }
+
+        @Override
+        public synchronized JsonValue get( int index ) {
+            index();
+            if (index < 0 || index >= elements.length) {
+                throw new IndexOutOfBoundsException(Util.createString("Index {0} is not less than the size {1}",
+                                                                      index,
+                                                                      elements.length));
+            }
+            JsonValue value = values[index];
+            if (value == null) {
+                value = decode(bson, elements[index]);
+                values[index] = value;
+            }
+            return value;
+        }
+
+        @Override
+        public synchronized int size() {
+            index();
+            return elements.length;
+        }
+    }
+}
@@ -0,0 +1,466 @@
+/*
+ * Schematica (http://www.schematica.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.schematica.db.core;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import org.schematica.db.Document;
+import org.schematica.db.task.Mapper;
+import org.schematica.db.task.Mapper.DoubleCollector;
+import org.schematica.db.task.Mapper.LongCollector;
+import org.schematica.db.task.Reducer;
+import org.schematica.db.task.Reducer.Combinable;
+import org.schematica.db.task.Reducer.DoubleReducer;
+import org.schematica.db.task.Reducer.LongReducer;
+
+/**
+ * An engine that runs the MapReduce procedure over a stream of documents using a {@link ForkJoinPool}.
+ * <p>
+ * The documents are read in the calling thread (since the source, such as a database cursor, is usually not thread-safe) and
+ * divided into chunks. Each chunk is mapped in a separate fork/join task into its own buffer of emitted key/value pairs, so the
+ * {@link Mapper.Collector collectors} are never shared between threads. The buffers are merged by key as the tasks complete, and
+ * the number of chunks being mapped at any one time is bounded so that a large stream of documents is not read into memory faster
+ * than it can be mapped. Finally, the values for each key are reduced in parallel by splitting the keys across fork/join tasks.
+ * </p>
+ * <p>
+ * This class is thread-safe, and an instance can be {@link #execute(Iterable) executed} any number of times. The mapper and
+ * reducer, however, are called concurrently from multiple threads and therefore must be thread-safe.
+ * </p>
+ * 
+ * @param <K> the type of key output by the mapper
+ * @param <V> the type of value output by the mapper and reducer
+ * @author Randall Hauch (rhauch@redhat.com)
+ */
+public class MapReduce<K, V> {
+
+    /**
+     * The default number of documents that are mapped in each fork/join task.
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 256;
+
+    /**
+     * The number of buffered values for a key at which a {@link Combinable combinable} reducer is applied to those values.
+     */
+    protected static final int COMBINE_THRESHOLD = 32;
+
+    /**
+     * The maximum number of keys that are reduced in each fork/join task.
+     */
+    protected static final int REDUCE_THRESHOLD = 64;
+
+    private static volatile ForkJoinPool defaultPool;
+
+    /**
+     * Get the shared pool that is used by default, which has one thread for each available processor. The pool's threads are
+     * daemon threads, so the pool does not need to be shut down.
+     * 
+     * @return the shared pool; never null
+     */
+    public static ForkJoinPool defaultPool() {
+        ForkJoinPool pool = defaultPool;
+        if (pool == null) {
+            synchronized (MapReduce.class) {
+                pool = defaultPool;
+                if (pool == null) {
+                    pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+                    defaultPool = pool;
+                }
+            }
+        }
+        return pool;
+    }
+
+    private final ForkJoinPool pool;
+    private final Mapper<K, V> mapper;
+    private final Reducer<K, V> reducer;
+    private final int chunkSize;
+
+    /**
+     * Create an engine that uses the {@link #defaultPool() default pool}.
+     * 
+     * @param mapper the mapper; may not be null
+     * @param reducer the reducer; may not be null
+     */
+    public MapReduce( Mapper<K, V> mapper,
+                      Reducer<K, V> reducer ) {
+        this(defaultPool(), mapper, reducer, DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Create an engine.
+     * 
+     * @param pool the pool in which the documents are mapped and the values reduced; may not be null
+     * @param mapper the mapper; may not be null
+     * @param reducer the reducer; may not be null
+     * @param chunkSize the number of documents that are mapped in each task; must be positive
+     */
+    public MapReduce( ForkJoinPool pool,
+                      Mapper<K, V> mapper,
+                      Reducer<K, V> reducer,
+                      int chunkSize ) {
+        Util.notNull(pool, "pool");
+        Util.notNull(mapper, "mapper");
+        Util.notNull(reducer, "reducer");
+        if (chunkSize < 1) throw new IllegalArgumentException("The chunk size must be positive, but was " + chunkSize);
+        this.pool = pool;
+        this.mapper = mapper;
+        this.reducer = reducer;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Map and reduce the supplied documents. The documents are iterated only once, in the calling thread.
+     * 
+     * @param documents the documents; may not be null
+     * @return the reduced value for each key output by the mapper; never null
+     * @throws RuntimeException if the mapper or reducer fail
+     */
+    @SuppressWarnings( "unchecked" )
+    public Map<K, V> execute( Iterable<Document> documents ) {
+        // The primitive reducers only work with Long or Double values, so V must be the corresponding type ...
+        if (reducer instanceof LongReducer) {
+            Map<K, long[]> accumulated = map(documents, new LongStage((LongReducer<K>)reducer));
+            Map<K, Long> results = new HashMap<>(accumulated.size() * 4 / 3 + 1);
+            for (Map.Entry<K, long[]> entry : accumulated.entrySet()) {
+                results.put(entry.getKey(), entry.getValue()[0]);
+            }
+            return (Map<K, V>)results;
+        }
+        if (reducer instanceof DoubleReducer) {
+            Map<K, double[]> accumulated = map(documents, new DoubleStage((DoubleReducer<K>)reducer));
+            Map<K, Double> results = new HashMap<>(accumulated.size() * 4 / 3 + 1);
+            for (Map.Entry<K, double[]> entry : accumulated.entrySet()) {
+                results.put(entry.getKey(), entry.getValue()[0]);
+            }
+            return (Map<K, V>)results;
+        }
+        Map<K, List<V>> grouped = map(documents, new GroupingStage(reducer instanceof Combinable));
+        if (grouped.isEmpty()) return Collections.emptyMap();
+        List<K> keys = new ArrayList<>(grouped.keySet());
+        if (keys.size() <= REDUCE_THRESHOLD) return new ReduceKeys(grouped, keys, 0, keys.size()).compute();
+        return pool.invoke(new ReduceKeys(grouped, keys, 0, keys.size()));
+    }
+
+    /**
+     * Map the supplied documents in parallel using the supplied stage, and merge the results of each chunk.
+     * 
+     * @param documents the documents; may not be null
+     * @param stage the stage that maps each chunk and merges the results; may not be null
+     * @return the merged results; never null
+     */
+    protected <R> R map( Iterable<Document> documents,
+                         final Stage<R> stage ) {
+        R merged = stage.newResult();
+        int maximumInFlight = Math.max(2, pool.getParallelism() * 2);
+        Deque<ForkJoinTask<R>> inFlight = new ArrayDeque<>(maximumInFlight);
+        boolean success = false;
+        try {
+            List<Document> chunk = new ArrayList<>(chunkSize);
+            for (Document document : documents) {
+                chunk.add(document);
+                if (chunk.size() == chunkSize) {
+                    inFlight.add(pool.submit(new MapChunk<>(stage, chunk)));
+                    chunk = new ArrayList<>(chunkSize);
+                    // Don't read ahead too far while the chunks are being mapped ...
+                    if (inFlight.size() >= maximumInFlight) stage.merge(merged, inFlight.removeFirst().join());
+                }
+            }
+            if (!chunk.isEmpty()) inFlight.add(pool.submit(new MapChunk<>(stage, chunk)));
+            while (!inFlight.isEmpty()) {
+                stage.merge(merged, inFlight.removeFirst().join());
+            }
+            success = true;
+        } finally {
+            if (!success) {
+                for (ForkJoinTask<?> task : inFlight) {
+                    task.cancel(false);
+                }
+            }
+        }
+        return merged;
+    }
+
+    /**
+     * The map stage, which maps a chunk of documents into a partial result and merges the partial results.
+     * 
+     * @param <R> the type of result
+     */
+    protected static abstract class Stage<R> {
+        /**
+         * Create an empty result.
+         * 
+         * @return the new result; never null
+         */
+        protected abstract R newResult();
+
+        /**
+         * Map the supplied documents into a new result. This is called concurrently from multiple threads.
+         * 
+         * @param documents the documents; never null
+         * @return the result; never null
+         */
+        protected abstract R map( List<Document> documents );
+
+        /**
+         * Merge the partial result into the merged result. This is only called from the thread that reads the documents.
+         * 
+         * @param merged the merged result; never null
+         * @param partial the partial result; never null
+         */
+        protected abstract void merge( R merged,
+                                       R partial );
+    }
+
+    /**
+     * The task that maps a chunk of documents into its own result.
+     * 
+     * @param <R> the type of result
+     */
+    protected static final class MapChunk<R> extends RecursiveTask<R> {
+        private static final long serialVersionUID = 1L;
+        private final Stage<R> stage;
+        private final List<Document> documents;
+
+        protected MapChunk( Stage<R> stage,
+                            List<Document> documents ) {
+            this.stage = stage;
+            this.documents = documents;
+        }
+
+        @Override
+        protected R compute() {
+            return stage.map(documents);
+        }
+    }
+
+    /**
+     * The stage that buffers the values for each key, and that combines the values when the reducer is {@link Combinable}.
+     */
+    protected final class GroupingStage extends Stage<Map<K, List<V>>> {
+        private final boolean combinable;
+
+        protected GroupingStage( boolean combinable ) {
+            this.combinable = combinable;
+        }
+
+        @Override
+        protected Map<K, List<V>> newResult() {
+            return new HashMap<>();
+        }
+
+        @Override
+        protected Map<K, List<V>> map( List<Document> documents ) {
+            final Map<K, List<V>> buffer = new HashMap<>();
+            Mapper.Collector<K, V> collector = new Mapper.Collector<K, V>() {
+                @Override
+                public void emit( K key,
+                                  V value ) {
+                    List<V> values = buffer.get(key);
+                    if (values == null) {
+                        values = new ArrayList<>();
+                        buffer.put(key, values);
+                    }
+                    values.add(value);
+                    if (combinable && values.size() >= COMBINE_THRESHOLD) combine(key, values);
+                }
+            };
+            for (Document document : documents) {
+                mapper.map(document, collector);
+            }
+            if (combinable) {
+                for (Map.Entry<K, List<V>> entry : buffer.entrySet()) {
+                    combine(entry.getKey(), entry.getValue());
+                }
+            }
+            return buffer;
+        }
+
+        @Override
+        protected void merge( Map<K, List<V>> merged,
+                              Map<K, List<V>> partial ) {
+            for (Map.Entry<K, List<V>> entry : partial.entrySet()) {
+                List<V> values = merged.get(entry.getKey());
+                if (values == null) {
+                    merged.put(entry.getKey(), entry.getValue());
+                } else {
+                    values.addAll(entry.getValue());
+                    if (combinable) combine(entry.getKey(), values);
+                }
+            }
+        }
+
+        private void combine( K key,
+                              List<V> values ) {
+            if (values.size() < 2) return;
+            V combined = reducer.reduce(key, values.iterator());
+            values.clear();
+            values.add(combined);
+        }
+    }
+
+    /**
+     * The stage that accumulates the values for each key in a primitive long, without buffering or boxing the values.
+     */
+    protected final class LongStage extends Stage<Map<K, long[]>> {
+        private final LongReducer<K> reducer;
+
+        protected LongStage( LongReducer<K> reducer ) {
+            this.reducer = reducer;
+        }
+
+        @Override
+        protected Map<K, long[]> newResult() {
+            return new HashMap<>();
+        }
+
+        @Override
+        @SuppressWarnings( "unchecked" )
+        protected Map<K, long[]> map( List<Document> documents ) {
+            final Map<K, long[]> accumulated = new HashMap<>();
+            LongCollector<K> collector = new LongCollector<K>() {
+                @Override
+                public void emit( K key,
+                                  long value ) {
+                    long[] accumulator = accumulated.get(key);
+                    if (accumulator == null) accumulated.put(key, new long[] {value});
+                    else accumulator[0] = reducer.combine(accumulator[0], value);
+                }
+
+                @Override
+                public void emit( K key,
+                                  Long value ) {
+                    if (value != null) emit(key, value.longValue());
+                }
+            };
+            for (Document document : documents) {
+                // The reducer only accepts Long values, so the mapper must emit them ...
+                mapper.map(document, (Mapper.Collector<K, V>)(Object)collector);
+            }
+            return accumulated;
+        }
+
+        @Override
+        protected void merge( Map<K, long[]> merged,
+                              Map<K, long[]> partial ) {
+            for (Map.Entry<K, long[]> entry : partial.entrySet()) {
+                long[] accumulator = merged.get(entry.getKey());
+                if (accumulator == null) merged.put(entry.getKey(), entry.getValue());
+                else accumulator[0] = reducer.combine(accumulator[0], entry.getValue()[0]);
+            }
+        }
+    }
+
+    /**
+     * The stage that accumulates the values for each key in a primitive double, without buffering or boxing the values.
+     */
+    protected final class DoubleStage extends Stage<Map<K, double[]>> {
+        private final DoubleReducer<K> reducer;
+
+        protected DoubleStage( DoubleReducer<K> reducer ) {
+            this.reducer = reducer;
+        }
+
+        @Override
+        protected Map<K, double[]> newResult() {
+            return new HashMap<>();
+        }
+
+        @Override
+        @SuppressWarnings( "unchecked" )
+        protected Map<K, double[]> map( List<Document> documents ) {
+            final Map<K, double[]> accumulated = new HashMap<>();
+            DoubleCollector<K> collector = new DoubleCollector<K>() {
+                @Override
+                public void emit( K key,
+                                  double value ) {
+                    double[] accumulator = accumulated.get(key);
+                    if (accumulator == null) accumulated.put(key, new double[] {value});
+                    else accumulator[0] = reducer.combine(accumulator[0], value);
+                }
+
+                @Override
+                public void emit( K key,
+                                  Double value ) {
+                    if (value != null) emit(key, value.doubleValue());
+                }
+            };
+            for (Document document : documents) {
+                // The reducer only accepts Double values, so the mapper must emit them ...
+                mapper.map(document, (Mapper.Collector<K, V>)(Object)collector);
+            }
+            return accumulated;
+        }
+
+        @Override
+        protected void merge( Map<K, double[]> merged,
+                              Map<K, double[]> partial ) {
+            for (Map.Entry<K, double[]> entry : partial.entrySet()) {
+                double[] accumulator = merged.get(entry.getKey());
+                if (accumulator == null) merged.put(entry.getKey(), entry.getValue());
+                else accumulator[0] = reducer.combine(accumulator[0], entry.getValue()[0]);
+            }
+        }
+    }
+
+    /**
+     * The task that reduces the values of a range of keys, splitting the range when it is too large.
+     */
+    protected final class ReduceKeys extends RecursiveTask<Map<K, V>> {
+        private static final long serialVersionUID = 1L;
+        private final Map<K, List<V>> grouped;
+        private final List<K> keys;
+        private final int from;
+        private final int to;
+
+        protected ReduceKeys( Map<K, List<V>> grouped,
+                              List<K> keys,
+                              int from,
+                              int to ) {
+            this.grouped = grouped;
+            this.keys = keys;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Map<K, V> compute() {
+            if (to - from <= REDUCE_THRESHOLD) {
+                Map<K, V> reduced = new HashMap<>();
+                for (int i = from; i != to; ++i) {
+                    K key = keys.get(i);
+                    reduced.put(key, reducer.reduce(key, grouped.get(key).iterator()));
+                }
+                return reduced;
+            }
+            int middle = (from + to) >>> 1;
+            ReduceKeys second = new ReduceKeys(grouped, keys, middle, to);
+            second.fork();
+            Map<K, V> reduced = new ReduceKeys(grouped, keys, from, middle).compute();
+            reduced.putAll(second.join());
+            return reduced;
+        }
+    }
+}
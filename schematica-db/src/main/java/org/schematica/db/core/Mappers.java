@@ -0,0 +1,210 @@
+/*
+ * Schematica (http://www.schematica.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.schematica.db.core;
+
+import java.math.BigDecimal;
+import javax.json.JsonNumber;
+import javax.json.JsonValue;
+import org.schematica.db.Document;
+import org.schematica.db.Path;
+import org.schematica.db.task.Mapper;
+import org.schematica.db.task.Mapper.DoubleCollector;
+import org.schematica.db.task.Mapper.LongCollector;
+import org.schematica.db.task.MapperBuilder;
+
+/**
+ * The standard {@link MapperBuilder} implementation. All of the mappers are stateless and thread-safe.
+ * 
+ * @author Randall Hauch (rhauch@redhat.com)
+ */
+public class Mappers implements MapperBuilder {
+
+    public static final Mappers INSTANCE = new Mappers();
+
+    /**
+     * The output key used by the {@link #count()} mapper.
+     */
+    public static final String COUNT = "count";
+
+    private static final Long ONE = Long.valueOf(1L);
+
+    private static final Mapper<String, Long> COUNT_MAPPER = new Mapper<String, Long>() {
+        @Override
+        public void map( Document document,
+                         Collector<String, Long> collector ) {
+            if (collector instanceof LongCollector) ((LongCollector<String>)collector).emit(COUNT, 1L);
+            else collector.emit(COUNT, ONE);
+        }
+
+        @Override
+        public String toString() {
+            return "count";
+        }
+    };
+
+    private static final Mapper<String, Boolean> KEYS_MAPPER = new Mapper<String, Boolean>() {
+        @Override
+        public void map( Document document,
+                         Collector<String, Boolean> collector ) {
+            collector.emit(document.getKey(), Boolean.TRUE);
+        }
+
+        @Override
+        public String toString() {
+            return "keys";
+        }
+    };
+
+    private static final Mapper<String, Document> DOCUMENTS_MAPPER = new Mapper<String, Document>() {
+        @Override
+        public void map( Document document,
+                         Collector<String, Document> collector ) {
+            collector.emit(document.getKey(), document);
+        }
+
+        @Override
+        public String toString() {
+            return "documents";
+        }
+    };
+
+    private Mappers() {
+    }
+
+    @Override
+    public Mapper<String, Long> count() {
+        return COUNT_MAPPER;
+    }
+
+    @Override
+    public Mapper<String, Boolean> keys() {
+        return KEYS_MAPPER;
+    }
+
+    @Override
+    public Mapper<String, Document> documents() {
+        return DOCUMENTS_MAPPER;
+    }
+
+    @Override
+    public Mapper<String, Long> longValue( String path ) {
+        Util.notNull(path, "path");
+        return new LongValue(path, Paths.INSTANCE.parse(path));
+    }
+
+    @Override
+    public Mapper<String, Double> doubleValue( String path ) {
+        Util.notNull(path, "path");
+        return new DoubleValue(path, Paths.INSTANCE.parse(path));
+    }
+
+    /**
+     * A mapper that emits the numeric value of a single field, using the path as the output key. Stores may recognize these
+     * mappers and compute the results more efficiently.
+     * 
+     * @param <V> the type of value
+     */
+    public static abstract class FieldValue<V extends Number> implements Mapper<String, V> {
+        private final String key;
+        private final Path path;
+
+        protected FieldValue( String key,
+                              Path path ) {
+            this.key = key;
+            this.path = path;
+        }
+
+        /**
+         * Get the output key, which is the path as supplied.
+         * 
+         * @return the key; never null
+         */
+        public String getKey() {
+            return key;
+        }
+
+        /**
+         * Get the path of the field.
+         * 
+         * @return the path; never null
+         */
+        public Path getPath() {
+            return path;
+        }
+
+        protected JsonNumber numberIn( Document document ) {
+            JsonValue value = null;
+            try {
+                value = document.valueAtPath(path);
+            } catch (IllegalArgumentException e) {
+                // The path doesn't match the structure of the document ...
+            }
+            return value instanceof JsonNumber ? (JsonNumber)value : null;
+        }
+    }
+
+    /**
+     * The mapper that emits the integral values of a field.
+     */
+    public static final class LongValue extends FieldValue<Long> {
+        protected LongValue( String key,
+                             Path path ) {
+            super(key, path);
+        }
+
+        @Override
+        public void map( Document document,
+                         Collector<String, Long> collector ) {
+            JsonNumber number = numberIn(document);
+            // Numbers like '5.0' have no fractional part, so they are integral even though their scale is not zero ...
+            if (number == null) return;
+            if (!number.isIntegral() && number.bigDecimalValue().remainder(BigDecimal.ONE).signum() != 0) return;
+            if (collector instanceof LongCollector) ((LongCollector<String>)collector).emit(getKey(), number.longValue());
+            else collector.emit(getKey(), number.longValue());
+        }
+
+        @Override
+        public String toString() {
+            return "longValue(" + getKey() + ")";
+        }
+    }
+
+    /**
+     * The mapper that emits the numeric values of a field.
+     */
+    public static final class DoubleValue extends FieldValue<Double> {
+        protected DoubleValue( String key,
+                               Path path ) {
+            super(key, path);
+        }
+
+        @Override
+        public void map( Document document,
+                         Collector<String, Double> collector ) {
+            JsonNumber number = numberIn(document);
+            if (number == null) return;
+            if (collector instanceof DoubleCollector) ((DoubleCollector<String>)collector).emit(getKey(), number.doubleValue());
+            else collector.emit(getKey(), number.doubleValue());
+        }
+
+        @Override
+        public String toString() {
+            return "doubleValue(" + getKey() + ")";
+        }
+    }
+}
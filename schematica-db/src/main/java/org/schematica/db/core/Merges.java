@@ -0,0 +1,125 @@
+/*
+ * Schematica (http://www.schematica.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.schematica.db.core;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import javax.json.JsonObject;
+import javax.json.JsonValue;
+import org.schematica.json.EditableJsonObject;
+
+/**
+ * Functions that merge the changes made to a copy of a document into the stored document.
+ * <p>
+ * The {@link #merge(JsonObject, JsonObject) two-way merge} sets each of the fields in the supplied object, merging nested objects
+ * recursively, as described by {@link org.schematica.db.Store#merge(String, JsonObject)}. The
+ * {@link #merge(JsonObject, JsonObject, JsonObject) three-way merge} also uses the version of the document that the copy was
+ * based on, so that only the fields that were changed in the copy are applied and the fields that were changed concurrently in
+ * the stored document are kept.
+ * </p>
+ * <p>
+ * When the copy is an {@link EditableJsonObject}, its {@link EditableJsonObject#getChanges() recorded changes} determine which
+ * fields were changed, so none of the other fields need to be compared. Unlike {@link org.schematica.json.JsonObject#merge}, these
+ * functions can be used with any JSON object, never concatenate arrays, and allow a field to be replaced with a value of a
+ * different type.
+ * </p>
+ * 
+ * @author Randall Hauch (rhauch@redhat.com)
+ */
+public final class Merges {
+
+    private static final JsonObject EMPTY_OBJECT = JsonValues.object(Collections.<String, JsonValue>emptyMap());
+
+    private Merges() {
+    }
+
+    /**
+     * Merge the fields of the supplied object into the existing object. Each field in the supplied object is added to or replaces
+     * the field with the same name in the existing object, except that when both fields are objects they are merged recursively.
+     * If the supplied object is an {@link EditableJsonObject}, only its changed fields are merged.
+     * 
+     * @param existing the existing object; may not be null
+     * @param document the object whose fields are to be merged; may not be null
+     * @return the merged object; never null
+     */
+    public static JsonObject merge( JsonObject existing,
+                                    JsonObject document ) {
+        if (document instanceof EditableJsonObject) document = ((EditableJsonObject)document).getChanges();
+        if (document.isEmpty()) return existing;
+        Map<String, JsonValue> fields = new LinkedHashMap<>(existing);
+        for (Map.Entry<String, JsonValue> entry : document.entrySet()) {
+            JsonValue value = entry.getValue();
+            JsonValue previous = existing.get(entry.getKey());
+            if (value instanceof JsonObject && previous instanceof JsonObject) {
+                value = merge((JsonObject)previous, (JsonObject)value);
+            }
+            fields.put(entry.getKey(), value);
+        }
+        return JsonValues.object(fields);
+    }
+
+    /**
+     * Merge into the current object the changes that were made to a copy of the base object. A field that is the same in the base
+     * and the edited copy keeps its current value, and a field that was added, changed or removed in the copy is added, changed
+     * or removed in the result. When a field was changed both in the copy and in the current object and both values are objects,
+     * the nested objects are merged in the same way; otherwise the value in the copy is used.
+     * 
+     * @param base the version of the object that the copy was based on; may not be null
+     * @param current the current version of the object; may not be null
+     * @param edited the edited copy of the base object; may not be null
+     * @return the merged object; never null
+     */
+    public static JsonObject merge( JsonObject base,
+                                    JsonObject current,
+                                    JsonObject edited ) {
+        JsonObject changes = null;
+        Set<String> names = null;
+        if (edited instanceof EditableJsonObject) {
+            // The edited copy knows which fields were changed ...
+            changes = ((EditableJsonObject)edited).getChanges();
+            names = changes.keySet();
+        } else {
+            names = new LinkedHashSet<>(base.keySet());
+            names.addAll(edited.keySet());
+        }
+        Map<String, JsonValue> fields = null;
+        for (String name : names) {
+            JsonValue original = base.get(name);
+            JsonValue mine = changes != null ? changes.get(name) : edited.get(name);
+            if (equal(original, mine)) continue;
+            JsonValue theirs = current.get(name);
+            JsonValue value = mine;
+            if (!equal(original, theirs) && mine instanceof JsonObject && theirs instanceof JsonObject) {
+                // The field was changed concurrently, so merge the fields of the nested objects ...
+                JsonObject nestedBase = original instanceof JsonObject ? (JsonObject)original : EMPTY_OBJECT;
+                value = merge(nestedBase, (JsonObject)theirs, (JsonObject)mine);
+            }
+            if (fields == null) fields = new LinkedHashMap<>(current);
+            if (value == null) fields.remove(name);
+            else fields.put(name, value);
+        }
+        return fields == null ? current : JsonValues.object(fields);
+    }
+
+    private static boolean equal( JsonValue value1,
+                                  JsonValue value2 ) {
+        return value1 == null ? value2 == null : value1.equals(value2);
+    }
+}
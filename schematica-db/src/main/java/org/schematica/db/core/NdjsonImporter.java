@@ -0,0 +1,405 @@
+/*
+ * Schematica (http://www.schematica.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.schematica.db.core;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import javax.json.JsonException;
+import javax.json.JsonNumber;
+import javax.json.JsonObject;
+import javax.json.JsonReader;
+import javax.json.JsonString;
+import javax.json.JsonValue;
+import org.schematica.db.Document;
+import org.schematica.db.SchematicaException;
+import org.schematica.db.Store;
+import org.schematica.json.Json;
+
+/**
+ * A component that imports documents into a store from newline-delimited JSON (NDJSON), where each non-blank line is a JSON
+ * object that contains the document's key and, optionally, its schema key. The content is streamed, so it is never held in memory
+ * at once: the lines are read in chunks by the calling thread, each chunk is parsed and {@link BulkLoader#prepare(Document)
+ * prepared} in parallel in the executor, and the chunks are then {@link BulkLoader#load(List) loaded} in order by the calling
+ * thread. Stores that are a {@link BulkLoader.Source} are loaded with their own bulk loader, and all other stores with
+ * {@link Store#writeMultiple(Iterable, boolean)}.
+ * <p>
+ * When the same key appears on several lines, the document on the last line is the one that is stored. The import stops at the
+ * first line that is not valid, but the documents on all of the preceding lines may already have been written.
+ * </p>
+ * <p>
+ * This class is thread-safe, and an instance can import any number of times.
+ * </p>
+ * 
+ * @author Randall Hauch (rhauch@redhat.com)
+ */
+public class NdjsonImporter {
+
+    /**
+     * The name of the field that contains the document key, unless another is specified.
+     */
+    public static final String DEFAULT_KEY_FIELD = "_id";
+
+    /**
+     * The default number of lines in each chunk that is parsed and loaded.
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 1000;
+
+    /**
+     * A listener that is notified of the progress of an import after each chunk is loaded.
+     */
+    public static interface ProgressListener {
+        /**
+         * Notification that another chunk of documents was loaded.
+         * 
+         * @param progress the progress of the import; never null
+         */
+        void loaded( Progress progress );
+    }
+
+    /**
+     * An immutable snapshot of the progress of an import.
+     */
+    public static final class Progress {
+        private final long lines;
+        private final long documents;
+        private final long elapsedNanos;
+        private final boolean complete;
+
+        protected Progress( long lines,
+                            long documents,
+                            long elapsedNanos,
+                            boolean complete ) {
+            this.lines = lines;
+            this.documents = documents;
+            this.elapsedNanos = elapsedNanos;
+            this.complete = complete;
+        }
+
+        /**
+         * Get the number of lines that have been read, including any blank lines.
+         * 
+         * @return the number of lines
+         */
+        public long getLineCount() {
+            return lines;
+        }
+
+        /**
+         * Get the number of documents that have been loaded.
+         * 
+         * @return the number of documents
+         */
+        public long getDocumentCount() {
+            return documents;
+        }
+
+        /**
+         * Get the number of milliseconds since the import began.
+         * 
+         * @return the elapsed time in milliseconds
+         */
+        public long getElapsedMillis() {
+            return elapsedNanos / 1000000L;
+        }
+
+        /**
+         * Get the average number of documents loaded per second since the import began.
+         * 
+         * @return the throughput
+         */
+        public double getDocumentsPerSecond() {
+            return elapsedNanos == 0L ? 0.0d : documents * 1.0e9d / elapsedNanos;
+        }
+
+        /**
+         * Determine whether the whole content has been imported.
+         * 
+         * @return true if the import is complete, or false if it is still in progress
+         */
+        public boolean isComplete() {
+            return complete;
+        }
+
+        @Override
+        public String toString() {
+            return Util.createString("{0} documents from {1} lines in {2} ms ({3} documents/s){4}",
+                                     documents,
+                                     lines,
+                                     getElapsedMillis(),
+                                     (long)getDocumentsPerSecond(),
+                                     complete ? "" : " so far");
+        }
+    }
+
+    private final Store store;
+    private final String keyField;
+    private final String schemaKeyField;
+    private final ExecutorService executor;
+    private final int chunkSize;
+    private final int maximumPendingChunks;
+
+    /**
+     * Create an importer that finds the key in the {@link #DEFAULT_KEY_FIELD default key field}, that does not set the schema
+     * keys, and that parses in the {@link MapReduce#defaultPool() default pool}.
+     * 
+     * @param store the store into which the documents are imported; may not be null
+     */
+    public NdjsonImporter( Store store ) {
+        this(store, DEFAULT_KEY_FIELD, null);
+    }
+
+    /**
+     * Create an importer that parses in the {@link MapReduce#defaultPool() default pool}.
+     * 
+     * @param store the store into which the documents are imported; may not be null
+     * @param keyField the name of the field that contains each document's key; may not be null
+     * @param schemaKeyField the name of the field that contains each document's schema key; may be null if the documents do not
+     *        have schema keys
+     */
+    public NdjsonImporter( Store store,
+                           String keyField,
+                           String schemaKeyField ) {
+        this(MapReduce.defaultPool(), store, keyField, schemaKeyField, DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Create an importer.
+     * 
+     * @param executor the executor in which the chunks are parsed and prepared; may not be null
+     * @param store the store into which the documents are imported; may not be null
+     * @param keyField the name of the field that contains each document's key; may not be null
+     * @param schemaKeyField the name of the field that contains each document's schema key; may be null if the documents do not
+     *        have schema keys
+     * @param chunkSize the number of lines in each chunk that is parsed and loaded; must be positive
+     */
+    public NdjsonImporter( ExecutorService executor,
+                           Store store,
+                           String keyField,
+                           String schemaKeyField,
+                           int chunkSize ) {
+        Util.notNull(executor, "executor");
+        Util.notNull(store, "store");
+        Util.notNull(keyField, "keyField");
+        if (chunkSize < 1) throw new IllegalArgumentException("The chunk size must be positive, but was " + chunkSize);
+        this.executor = executor;
+        this.store = store;
+        this.keyField = keyField;
+        this.schemaKeyField = schemaKeyField;
+        this.chunkSize = chunkSize;
+        // Keep all of the threads busy while the oldest chunk is loaded, but limit the number of chunks held in memory ...
+        this.maximumPendingChunks = 2 * Runtime.getRuntime().availableProcessors() + 1;
+    }
+
+    /**
+     * Import the documents in the supplied file.
+     * 
+     * @param file the NDJSON file; may not be null
+     * @param listener the listener that is notified after each chunk is loaded; may be null
+     * @return the final progress of the import; never null
+     * @throws IOException if the file cannot be read
+     * @throws SchematicaException if a line is not a valid document or the documents cannot be written
+     */
+    public Progress importFrom( File file,
+                                ProgressListener listener ) throws IOException {
+        Util.notNull(file, "file");
+        try (InputStream stream = new FileInputStream(file)) {
+            return importFrom(stream, listener);
+        }
+    }
+
+    /**
+     * Import the documents in the supplied stream, which is read to its end but not closed.
+     * 
+     * @param stream the UTF-8 encoded NDJSON content; may not be null
+     * @param listener the listener that is notified after each chunk is loaded; may be null
+     * @return the final progress of the import; never null
+     * @throws IOException if the stream cannot be read
+     * @throws SchematicaException if a line is not a valid document or the documents cannot be written
+     */
+    public Progress importFrom( InputStream stream,
+                                ProgressListener listener ) throws IOException {
+        Util.notNull(stream, "stream");
+        BulkLoader<?> loader = null;
+        if (store instanceof BulkLoader.Source) loader = ((BulkLoader.Source)store).getBulkLoader();
+        else loader = new StoreLoader(store);
+        return importFrom(new BufferedReader(new InputStreamReader(stream, StandardCharsets.UTF_8)), loader, listener);
+    }
+
+    /**
+     * Import the documents on the lines read from the supplied reader with the supplied bulk loader.
+     * 
+     * @param reader the reader of the NDJSON content; may not be null
+     * @param loader the bulk loader; may not be null
+     * @param listener the listener that is notified after each chunk is loaded; may be null
+     * @return the final progress of the import; never null
+     * @throws IOException if the content cannot be read
+     */
+    protected <R> Progress importFrom( BufferedReader reader,
+                                       BulkLoader<R> loader,
+                                       ProgressListener listener ) throws IOException {
+        long start = System.nanoTime();
+        long lines = 0L;
+        long documents = 0L;
+        Deque<Future<List<R>>> pending = new ArrayDeque<>(maximumPendingChunks);
+        try {
+            List<String> chunk = new ArrayList<>(chunkSize);
+            long firstLine = 1L;
+            String line = null;
+            while ((line = reader.readLine()) != null) {
+                if (chunk.isEmpty()) firstLine = lines + 1;
+                ++lines;
+                chunk.add(line);
+                if (chunk.size() == chunkSize) {
+                    pending.add(executor.submit(new PrepareChunk<R>(loader, chunk, firstLine)));
+                    chunk = new ArrayList<>(chunkSize);
+                }
+                if (pending.size() == maximumPendingChunks) {
+                    documents += load(loader, pending.remove());
+                    if (listener != null) listener.loaded(new Progress(lines, documents, System.nanoTime() - start, false));
+                }
+            }
+            if (!chunk.isEmpty()) pending.add(executor.submit(new PrepareChunk<R>(loader, chunk, firstLine)));
+            while (!pending.isEmpty()) {
+                documents += load(loader, pending.remove());
+                if (listener != null) listener.loaded(new Progress(lines, documents, System.nanoTime() - start, false));
+            }
+        } finally {
+            // Don't bother preparing any chunks that will not be loaded ...
+            for (Future<List<R>> future : pending) {
+                future.cancel(true);
+            }
+        }
+        Progress progress = new Progress(lines, documents, System.nanoTime() - start, true);
+        if (listener != null) listener.loaded(progress);
+        return progress;
+    }
+
+    private static <R> int load( BulkLoader<R> loader,
+                                 Future<List<R>> future ) {
+        List<R> documents = null;
+        try {
+            documents = future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SchematicaException("Interrupted while waiting for documents to be parsed", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) throw (RuntimeException)e.getCause();
+            if (e.getCause() instanceof Error) throw (Error)e.getCause();
+            throw new SchematicaException(e.getCause());
+        }
+        loader.load(documents);
+        return documents.size();
+    }
+
+    /**
+     * Parse the document on the supplied line.
+     * 
+     * @param line the JSON text of the document; may not be null
+     * @param lineNumber the number of the line, used in error messages
+     * @return the document; never null
+     * @throws SchematicaException if the line is not a JSON object or does not contain the key
+     */
+    protected Document parse( String line,
+                              long lineNumber ) {
+        JsonObject json = null;
+        try (JsonReader reader = Json.createReader(new StringReader(line))) {
+            json = reader.readObject();
+        } catch (JsonException e) {
+            String msg = Util.createString("Line {0} is not a valid JSON object: {1}", lineNumber, e.getMessage());
+            throw new SchematicaException(msg, e);
+        }
+        String key = string(json.get(keyField));
+        if (key == null) {
+            String msg = Util.createString("Line {0} does not contain the document key in the \"{1}\" field",
+                                           lineNumber,
+                                           keyField);
+            throw new SchematicaException(msg);
+        }
+        String schemaKey = schemaKeyField != null ? string(json.get(schemaKeyField)) : null;
+        return schemaKey == null ? new SimpleDocument(key, json) : new TypedDocument(key, json, schemaKey);
+    }
+
+    private static String string( JsonValue value ) {
+        if (value instanceof JsonString) return ((JsonString)value).getString();
+        if (value instanceof JsonNumber) return value.toString();
+        return null;
+    }
+
+    /**
+     * The task that parses and prepares the documents on one chunk of lines.
+     */
+    protected final class PrepareChunk<R> implements Callable<List<R>> {
+        private final BulkLoader<R> loader;
+        private final List<String> lines;
+        private final long firstLine;
+
+        protected PrepareChunk( BulkLoader<R> loader,
+                                List<String> lines,
+                                long firstLine ) {
+            this.loader = loader;
+            this.lines = lines;
+            this.firstLine = firstLine;
+        }
+
+        @Override
+        public List<R> call() throws IOException {
+            List<R> documents = new ArrayList<>(lines.size());
+            long lineNumber = firstLine;
+            for (String line : lines) {
+                if (line.trim().length() != 0) documents.add(loader.prepare(parse(line, lineNumber)));
+                ++lineNumber;
+            }
+            return documents;
+        }
+    }
+
+    /**
+     * The {@link BulkLoader} for stores that do not have their own, which writes each chunk with
+     * {@link Store#writeMultiple(Iterable, boolean)}.
+     */
+    protected static final class StoreLoader implements BulkLoader<Document> {
+        private final Store store;
+
+        protected StoreLoader( Store store ) {
+            this.store = store;
+        }
+
+        @Override
+        public Document prepare( Document document ) {
+            return document;
+        }
+
+        @Override
+        public void load( List<Document> documents ) {
+            store.writeMultiple(documents, false);
+        }
+    }
+}
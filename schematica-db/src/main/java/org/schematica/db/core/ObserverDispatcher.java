@@ -0,0 +1,327 @@
+/*
+ * Schematica (http://www.schematica.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.schematica.db.core;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import org.schematica.db.Observer;
+import org.schematica.db.SchematicaException;
+
+/**
+ * An {@link Observer} that hands the changes to another observer on a dedicated thread, so that a slow observer never delays the
+ * delivery of changes to other observers. The changes are added to a bounded {@link RingBuffer}, and the dedicated thread
+ * removes all of the available changes at once, coalesces the changes to the same key into the last of those changes, and
+ * delivers the result as a single {@link ChangeSet}. An observer that falls behind therefore receives fewer, larger change sets
+ * rather than every intermediate change to frequently-changed documents.
+ * <p>
+ * When the buffer does not have room for all of the changes in a change set, the {@link OverflowPolicy overflow policy}
+ * determines what happens. If the other observer throws an exception, the same (coalesced) changes are delivered again after a
+ * short delay. The {@link #getQueueDepth() queue depth} and the counts of the received, delivered, coalesced, dropped and
+ * rejected changes can be used to monitor the observer and to size the buffer.
+ * </p>
+ * <p>
+ * This class is thread-safe, provided that {@link #notify(ChangeSet)} is not called concurrently (which no
+ * {@link org.schematica.db.Observation} does).
+ * </p>
+ * 
+ * @author Randall Hauch (rhauch@redhat.com)
+ */
+public class ObserverDispatcher implements Observer {
+
+    /**
+     * The ways of handling change sets that do not fit in the buffer.
+     */
+    public static enum OverflowPolicy {
+        /**
+         * Wait until the dedicated thread makes room for the changes. No changes are lost, but the caller (and therefore the
+         * delivery to all other observers) is delayed.
+         */
+        BLOCK,
+        /**
+         * Add the changes that fit, and discard the others. The caller is never delayed, but the observer misses the dropped
+         * changes.
+         */
+        DROP,
+        /**
+         * Refuse the whole change set by throwing an exception, so that the {@link org.schematica.db.Observation} delivers it
+         * again later. The caller is never delayed and no changes are lost, but the observer's position does not advance until
+         * there is room.
+         */
+        REJECT;
+    }
+
+    /**
+     * The default minimum number of changes in the buffer.
+     */
+    public static final int DEFAULT_CAPACITY = 4096;
+
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100L);
+    private static final long FULL_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1L);
+    private static final long RETRY_DELAY_NANOS = TimeUnit.SECONDS.toNanos(1L);
+    private static final AtomicInteger THREAD_COUNTER = new AtomicInteger();
+
+    private final Observer delegate;
+    private final RingBuffer<Change> buffer;
+    private final OverflowPolicy policy;
+    private final Thread consumer;
+    private final AtomicLong received = new AtomicLong();
+    private final AtomicLong delivered = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private volatile boolean closed = false;
+
+    /**
+     * Create a dispatcher with the {@link #DEFAULT_CAPACITY default capacity} that {@link OverflowPolicy#BLOCK blocks} when the
+     * buffer is full.
+     * 
+     * @param delegate the observer to which the changes are delivered; may not be null
+     */
+    public ObserverDispatcher( Observer delegate ) {
+        this(delegate, DEFAULT_CAPACITY, OverflowPolicy.BLOCK);
+    }
+
+    /**
+     * Create a dispatcher.
+     * 
+     * @param delegate the observer to which the changes are delivered; may not be null
+     * @param capacity the minimum number of changes in the buffer, which is rounded up to a power of two; must be positive
+     * @param policy the way of handling change sets that do not fit in the buffer; may not be null
+     */
+    public ObserverDispatcher( Observer delegate,
+                               int capacity,
+                               OverflowPolicy policy ) {
+        Util.notNull(delegate, "delegate");
+        Util.notNull(policy, "policy");
+        this.delegate = delegate;
+        this.buffer = new RingBuffer<>(capacity);
+        this.policy = policy;
+        this.consumer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                consume();
+            }
+        }, "schematica-observer-" + THREAD_COUNTER.incrementAndGet());
+        this.consumer.setDaemon(true);
+        this.consumer.start();
+    }
+
+    /**
+     * Get the observer to which the changes are delivered.
+     * 
+     * @return the observer; never null
+     */
+    public Observer getDelegate() {
+        return delegate;
+    }
+
+    /**
+     * Get the way of handling change sets that do not fit in the buffer.
+     * 
+     * @return the overflow policy; never null
+     */
+    public OverflowPolicy getOverflowPolicy() {
+        return policy;
+    }
+
+    /**
+     * Get the maximum number of changes in the buffer.
+     * 
+     * @return the capacity
+     */
+    public int getCapacity() {
+        return buffer.capacity();
+    }
+
+    /**
+     * Get the number of changes in the buffer that have not yet been removed by the dedicated thread.
+     * 
+     * @return the number of buffered changes
+     */
+    public int getQueueDepth() {
+        return buffer.size();
+    }
+
+    /**
+     * Get the number of changes that have been received.
+     * 
+     * @return the number of received changes
+     */
+    public long getReceivedCount() {
+        return received.get();
+    }
+
+    /**
+     * Get the number of changes that have been delivered to the other observer, after coalescing.
+     * 
+     * @return the number of delivered changes
+     */
+    public long getDeliveredCount() {
+        return delivered.get();
+    }
+
+    /**
+     * Get the number of changes that were not delivered because a later change to the same key was delivered instead.
+     * 
+     * @return the number of coalesced changes
+     */
+    public long getCoalescedCount() {
+        return coalesced.get();
+    }
+
+    /**
+     * Get the number of changes that were discarded because they did not fit in the buffer, which is always 0 unless the
+     * overflow policy is {@link OverflowPolicy#DROP}.
+     * 
+     * @return the number of dropped changes
+     */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    /**
+     * Get the number of changes that were refused because they did not fit in the buffer, which is always 0 unless the overflow
+     * policy is {@link OverflowPolicy#REJECT}. Refused changes are usually delivered again, so they may be counted more than
+     * once.
+     * 
+     * @return the number of rejected changes
+     */
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+
+    @Override
+    public void notify( ChangeSet changes ) {
+        if (closed) throw new IllegalStateException("The dispatcher for " + delegate + " is closed");
+        // Only the consumer removes changes, so the free space can only grow while we're adding ...
+        if (policy == OverflowPolicy.REJECT && changes.size() > buffer.capacity() - buffer.size()) {
+            rejected.addAndGet(changes.size());
+            String msg = Util.createString("The buffer of {0} changes for {1} is full", getCapacity(), delegate);
+            throw new SchematicaException(msg);
+        }
+        received.addAndGet(changes.size());
+        for (Change change : changes) {
+            while (!buffer.offer(change)) {
+                if (policy == OverflowPolicy.DROP) {
+                    dropped.incrementAndGet();
+                    break;
+                }
+                // Wake the consumer and wait for it to make room ...
+                LockSupport.unpark(consumer);
+                LockSupport.parkNanos(this, FULL_PARK_NANOS);
+                if (closed) return;
+            }
+        }
+        LockSupport.unpark(consumer);
+    }
+
+    /**
+     * Stop the dedicated thread once it has delivered the changes that are already in the buffer. Changes that cannot be
+     * delivered because the other observer is failing are discarded.
+     */
+    public void close() {
+        closed = true;
+        LockSupport.unpark(consumer);
+    }
+
+    /**
+     * The method run by the dedicated thread, which delivers the buffered changes until this dispatcher is closed.
+     */
+    protected void consume() {
+        List<Change> changes = new ArrayList<>();
+        while (true) {
+            buffer.drainTo(changes, buffer.capacity());
+            if (changes.isEmpty()) {
+                if (closed) return;
+                LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                continue;
+            }
+            ChangeSet changeSet = coalesce(changes);
+            coalesced.addAndGet(changes.size() - changeSet.size());
+            changes.clear();
+            while (true) {
+                try {
+                    delegate.notify(changeSet);
+                    delivered.addAndGet(changeSet.size());
+                    break;
+                } catch (RuntimeException e) {
+                    // Deliver the same changes again after a delay, unless we're closing ...
+                    if (closed) break;
+                    LockSupport.parkNanos(this, RETRY_DELAY_NANOS);
+                }
+            }
+        }
+    }
+
+    /**
+     * Coalesce the changes to the same key into the last of those changes.
+     * 
+     * @param changes the changes in sequence order; may not be empty
+     * @return the change set containing the last change to each key, in sequence order; never null
+     */
+    protected static ChangeSet coalesce( List<Change> changes ) {
+        Map<String, Change> changesByKey = new LinkedHashMap<>();
+        for (Change change : changes) {
+            // Remove any earlier change first, so that the map stays in the order of the last change to each key ...
+            changesByKey.remove(change.getKey());
+            changesByKey.put(change.getKey(), change);
+        }
+        return new CoalescedChangeSet(new ArrayList<>(changesByKey.values()));
+    }
+
+    @Override
+    public String toString() {
+        return "Dispatcher for " + delegate + " (" + getQueueDepth() + " of " + getCapacity() + " buffered, " + getDroppedCount()
+               + " dropped)";
+    }
+
+    protected static final class CoalescedChangeSet implements ChangeSet {
+        private final List<Change> changes;
+
+        protected CoalescedChangeSet( List<Change> changes ) {
+            this.changes = Collections.unmodifiableList(changes);
+        }
+
+        @Override
+        public Iterator<Change> iterator() {
+            return changes.iterator();
+        }
+
+        @Override
+        public int size() {
+            return changes.size();
+        }
+
+        @Override
+        public long getLastSequence() {
+            return changes.get(changes.size() - 1).getSequence();
+        }
+
+        @Override
+        public String toString() {
+            return changes.toString();
+        }
+    }
+}
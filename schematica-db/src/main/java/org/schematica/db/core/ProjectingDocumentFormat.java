@@ -0,0 +1,45 @@
+/*
+ * Schematica (http://www.schematica.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.schematica.db.core;
+
+import java.io.IOException;
+import java.io.InputStream;
+import org.schematica.db.Document;
+
+/**
+ * A {@link DocumentFormat} that can parse just the {@link Projection projection} of a document, without building the values of
+ * the fields that are not selected.
+ * 
+ * @author Randall Hauch (rhauch@redhat.com)
+ */
+public interface ProjectingDocumentFormat extends DocumentFormat {
+
+    /**
+     * Parse the projection of the document in the supplied input stream.
+     * 
+     * @param key the unique document key; may not be null
+     * @param stream the stream containing the document's content; may not be null
+     * @param schemaKey the unique key for the document's schema; may be null
+     * @param projection the paths of the values that are to be included in the document; may not be null
+     * @return the projected document, as defined by {@link Projection}; never null
+     * @throws IOException if there is a problem reading the stream
+     */
+    Document parse( String key,
+                    InputStream stream,
+                    String schemaKey,
+                    Projection projection ) throws IOException;
+}
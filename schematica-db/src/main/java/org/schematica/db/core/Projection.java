@@ -0,0 +1,278 @@
+/*
+ * Schematica (http://www.schematica.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.schematica.db.core;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import javax.json.JsonArray;
+import javax.json.JsonObject;
+import javax.json.JsonValue;
+import org.schematica.db.Document;
+import org.schematica.db.Path;
+
+/**
+ * The set of paths selected from documents, and the tree of the segments of those paths. The projection of a document is an
+ * object that contains only the values at the selected paths, nested within objects just as they are in the document, so that
+ * {@link Document#valueAtPath(Path)} on the projected document returns the same value for each selected path. Paths that do not
+ * exist in a document are simply absent from its projection, and a path through an array is represented in the projection with
+ * an object whose field names are the array indexes.
+ * <p>
+ * When both a path and one of its ancestors are selected, only the ancestor is used since it contains the other.
+ * </p>
+ * 
+ * @author Randall Hauch (rhauch@redhat.com)
+ */
+public final class Projection implements Iterable<Path> {
+
+    /**
+     * Create the projection that selects the supplied paths.
+     * 
+     * @param paths the paths; may not be null
+     * @return the projection; never null
+     */
+    public static Projection of( Iterable<Path> paths ) {
+        Util.notNull(paths, "paths");
+        if (paths instanceof Projection) return (Projection)paths;
+        Projection root = new Projection();
+        List<Path> selected = new ArrayList<>();
+        for (Path path : paths) {
+            if (path.size() == 0) continue;
+            if (root.add(path)) selected.add(path);
+        }
+        // Remove any paths that were later made redundant by one of their ancestors ...
+        List<Path> result = new ArrayList<>(selected.size());
+        for (Path path : selected) {
+            if (root.find(path) != null) result.add(path);
+        }
+        root.paths = Collections.unmodifiableList(result);
+        return root;
+    }
+
+    private final Map<String, Projection> children = new LinkedHashMap<>();
+    private boolean selected;
+    private List<Path> paths = Collections.emptyList();
+
+    private Projection() {
+    }
+
+    private boolean add( Path path ) {
+        Projection node = this;
+        for (String segment : path) {
+            if (node.selected) return false;
+            Projection child = node.children.get(segment);
+            if (child == null) {
+                child = new Projection();
+                node.children.put(segment, child);
+            }
+            node = child;
+        }
+        if (node.selected) return false;
+        node.selected = true;
+        node.children.clear();
+        return true;
+    }
+
+    private Projection find( Path path ) {
+        Projection node = this;
+        for (String segment : path) {
+            if (node == null || node.selected) return null;
+            node = node.children.get(segment);
+        }
+        return node != null && node.selected ? node : null;
+    }
+
+    /**
+     * Get the selected paths, in the order they were supplied and excluding those whose ancestors are also selected.
+     * 
+     * @return the paths; never null
+     */
+    public List<Path> getPaths() {
+        return paths;
+    }
+
+    @Override
+    public Iterator<Path> iterator() {
+        return paths.iterator();
+    }
+
+    /**
+     * Determine whether the whole value at the path of this node is selected.
+     * 
+     * @return true if the value is selected, or false if only some of the values nested within it are selected
+     */
+    public boolean isSelected() {
+        return selected;
+    }
+
+    /**
+     * Get the node for the supplied segment below this node.
+     * 
+     * @param segment the field name or array index; may not be null
+     * @return the node, or null if no selected path includes the segment
+     */
+    public Projection child( String segment ) {
+        return children.get(segment);
+    }
+
+    /**
+     * Get the field names and array indexes of the nodes below this node.
+     * 
+     * @return the segments; never null
+     */
+    public Iterable<String> segments() {
+        return children.keySet();
+    }
+
+    /**
+     * Get the projection of the supplied document.
+     * 
+     * @param document the document; may not be null
+     * @return the projected document with the same key and schema key; never null
+     */
+    public Document apply( Document document ) {
+        return document(document.getKey(), apply(document.getJsonObject()), document.getSchemaKey());
+    }
+
+    /**
+     * Get the projection of the supplied object.
+     * 
+     * @param object the object; may not be null
+     * @return the projected object; never null
+     */
+    public JsonObject apply( JsonObject object ) {
+        return JsonValues.object(project(object, this));
+    }
+
+    private static Map<String, JsonValue> project( JsonValue value,
+                                                   Projection node ) {
+        Map<String, JsonValue> fields = new LinkedHashMap<>();
+        for (Map.Entry<String, Projection> entry : node.children.entrySet()) {
+            JsonValue child = null;
+            if (value instanceof JsonObject) {
+                child = ((JsonObject)value).get(entry.getKey());
+            } else if (value instanceof JsonArray) {
+                int index = index(entry.getKey());
+                JsonArray array = (JsonArray)value;
+                if (index >= 0 && index < array.size()) child = array.get(index);
+            }
+            if (child == null) continue;
+            if (entry.getValue().selected) {
+                fields.put(entry.getKey(), child);
+            } else if (child instanceof JsonObject || child instanceof JsonArray) {
+                Map<String, JsonValue> nested = project(child, entry.getValue());
+                if (!nested.isEmpty()) fields.put(entry.getKey(), JsonValues.object(nested));
+            }
+        }
+        return fields;
+    }
+
+    private static int index( String segment ) {
+        try {
+            return Integer.parseInt(segment);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Build the projected object from the values of the {@link #getPaths() selected paths}.
+     * 
+     * @param values the values at each of the selected paths, in the same order as the paths; null elements denote paths that
+     *        do not exist
+     * @return the projected object; never null
+     */
+    public JsonObject object( List<JsonValue> values ) {
+        Map<String, Object> root = new LinkedHashMap<>();
+        for (int i = 0; i != paths.size(); ++i) {
+            JsonValue value = values.get(i);
+            if (value == null) continue;
+            Map<String, Object> fields = root;
+            Path path = paths.get(i);
+            for (int j = 0, last = path.size() - 1; j != last; ++j) {
+                @SuppressWarnings( "unchecked" )
+                Map<String, Object> nested = (Map<String, Object>)fields.get(path.get(j));
+                if (nested == null) {
+                    nested = new LinkedHashMap<>();
+                    fields.put(path.get(j), nested);
+                }
+                fields = nested;
+            }
+            fields.put(path.getLast(), value);
+        }
+        return toObject(root);
+    }
+
+    private static JsonObject toObject( Map<String, Object> fields ) {
+        Map<String, JsonValue> values = new LinkedHashMap<>();
+        for (Map.Entry<String, Object> entry : fields.entrySet()) {
+            Object value = entry.getValue();
+            if (value instanceof JsonValue) {
+                values.put(entry.getKey(), (JsonValue)value);
+            } else {
+                @SuppressWarnings( "unchecked" )
+                Map<String, Object> nested = (Map<String, Object>)value;
+                values.put(entry.getKey(), toObject(nested));
+            }
+        }
+        return JsonValues.object(values);
+    }
+
+    /**
+     * Parse the projection of the document in the supplied stream, using the format's own support for projections if it has any.
+     * 
+     * @param format the format of the content; may not be null
+     * @param key the unique document key; may not be null
+     * @param stream the stream containing the document's content; may not be null
+     * @param schemaKey the unique key for the document's schema; may be null
+     * @return the projected document; never null
+     * @throws IOException if there is a problem reading the stream
+     */
+    public Document parse( DocumentFormat format,
+                           String key,
+                           InputStream stream,
+                           String schemaKey ) throws IOException {
+        if (format instanceof ProjectingDocumentFormat) {
+            return ((ProjectingDocumentFormat)format).parse(key, stream, schemaKey, this);
+        }
+        return apply(format.parse(key, stream, schemaKey));
+    }
+
+    /**
+     * Create a document with the supplied projected object.
+     * 
+     * @param key the unique document key; may not be null
+     * @param json the projected object; may not be null
+     * @param schemaKey the unique key for the document's schema; may be null
+     * @return the document; never null
+     */
+    public static Document document( String key,
+                                     JsonObject json,
+                                     String schemaKey ) {
+        return schemaKey == null ? new SimpleDocument(key, json) : new TypedDocument(key, json, schemaKey);
+    }
+
+    @Override
+    public String toString() {
+        return paths.toString();
+    }
+}
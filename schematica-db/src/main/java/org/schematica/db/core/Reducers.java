@@ -0,0 +1,289 @@
+/*
+ * Schematica (http://www.schematica.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.schematica.db.core;
+
+import java.util.Iterator;
+import org.schematica.db.task.Reducer;
+import org.schematica.db.task.Reducer.Combinable;
+import org.schematica.db.task.Reducer.DoubleReducer;
+import org.schematica.db.task.Reducer.LongReducer;
+import org.schematica.db.task.ReducerBuilder;
+
+/**
+ * The standard {@link ReducerBuilder} implementation. All of the reducers are stateless and thread-safe, and they ignore null
+ * values. The reducers return null only when there are no (non-null) values.
+ * <p>
+ * All of the reducers are {@link Combinable combinable}, and the {@link #longs() long} and {@link #doubles() double} reducers are
+ * {@link LongReducer}s and {@link DoubleReducer}s that can accumulate values without boxing them.
+ * </p>
+ * 
+ * @author Randall Hauch (rhauch@redhat.com)
+ */
+public class Reducers implements ReducerBuilder {
+
+    public static final Reducers INSTANCE = new Reducers();
+
+    private static final NumericReducer<Integer> INTEGERS = new NumericReducer<Integer>() {
+        private final Reducer<String, Integer> sum = new IntegerSum();
+        private final Reducer<String, Integer> maximum = new IntegerMaximum();
+        private final Reducer<String, Integer> minimum = new IntegerMinimum();
+
+        @Override
+        public Reducer<String, Integer> sum() {
+            return sum;
+        }
+
+        @Override
+        public Reducer<String, Integer> maximum() {
+            return maximum;
+        }
+
+        @Override
+        public Reducer<String, Integer> minimum() {
+            return minimum;
+        }
+    };
+
+    private static final NumericReducer<Long> LONGS = new NumericReducer<Long>() {
+        private final Reducer<String, Long> sum = new LongSum();
+        private final Reducer<String, Long> maximum = new LongMaximum();
+        private final Reducer<String, Long> minimum = new LongMinimum();
+
+        @Override
+        public Reducer<String, Long> sum() {
+            return sum;
+        }
+
+        @Override
+        public Reducer<String, Long> maximum() {
+            return maximum;
+        }
+
+        @Override
+        public Reducer<String, Long> minimum() {
+            return minimum;
+        }
+    };
+
+    private static final NumericReducer<Double> DOUBLES = new NumericReducer<Double>() {
+        private final Reducer<String, Double> sum = new DoubleSum();
+        private final Reducer<String, Double> maximum = new DoubleMaximum();
+        private final Reducer<String, Double> minimum = new DoubleMinimum();
+
+        @Override
+        public Reducer<String, Double> sum() {
+            return sum;
+        }
+
+        @Override
+        public Reducer<String, Double> maximum() {
+            return maximum;
+        }
+
+        @Override
+        public Reducer<String, Double> minimum() {
+            return minimum;
+        }
+    };
+
+    private Reducers() {
+    }
+
+    @Override
+    public NumericReducer<Integer> integers() {
+        return INTEGERS;
+    }
+
+    @Override
+    public NumericReducer<Double> doubles() {
+        return DOUBLES;
+    }
+
+    @Override
+    public NumericReducer<Long> longs() {
+        return LONGS;
+    }
+
+    protected static abstract class IntegerReduction implements Combinable<String, Integer> {
+        @Override
+        public Integer reduce( String reducedKey,
+                               Iterator<Integer> values ) {
+            boolean found = false;
+            int result = 0;
+            while (values.hasNext()) {
+                Integer value = values.next();
+                if (value == null) continue;
+                result = found ? combine(result, value.intValue()) : value.intValue();
+                found = true;
+            }
+            return found ? Integer.valueOf(result) : null;
+        }
+
+        protected abstract int combine( int first,
+                                        int second );
+    }
+
+    public static final class IntegerSum extends IntegerReduction {
+        @Override
+        protected int combine( int first,
+                               int second ) {
+            return first + second;
+        }
+
+        @Override
+        public String toString() {
+            return "integer sum";
+        }
+    }
+
+    public static final class IntegerMaximum extends IntegerReduction {
+        @Override
+        protected int combine( int first,
+                               int second ) {
+            return Math.max(first, second);
+        }
+
+        @Override
+        public String toString() {
+            return "integer maximum";
+        }
+    }
+
+    public static final class IntegerMinimum extends IntegerReduction {
+        @Override
+        protected int combine( int first,
+                               int second ) {
+            return Math.min(first, second);
+        }
+
+        @Override
+        public String toString() {
+            return "integer minimum";
+        }
+    }
+
+    protected static abstract class LongReduction implements LongReducer<String> {
+        @Override
+        public Long reduce( String reducedKey,
+                            Iterator<Long> values ) {
+            boolean found = false;
+            long result = 0L;
+            while (values.hasNext()) {
+                Long value = values.next();
+                if (value == null) continue;
+                result = found ? combine(result, value.longValue()) : value.longValue();
+                found = true;
+            }
+            return found ? Long.valueOf(result) : null;
+        }
+    }
+
+    public static final class LongSum extends LongReduction {
+        @Override
+        public long combine( long first,
+                             long second ) {
+            return first + second;
+        }
+
+        @Override
+        public String toString() {
+            return "long sum";
+        }
+    }
+
+    public static final class LongMaximum extends LongReduction {
+        @Override
+        public long combine( long first,
+                             long second ) {
+            return Math.max(first, second);
+        }
+
+        @Override
+        public String toString() {
+            return "long maximum";
+        }
+    }
+
+    public static final class LongMinimum extends LongReduction {
+        @Override
+        public long combine( long first,
+                             long second ) {
+            return Math.min(first, second);
+        }
+
+        @Override
+        public String toString() {
+            return "long minimum";
+        }
+    }
+
+    protected static abstract class DoubleReduction implements DoubleReducer<String> {
+        @Override
+        public Double reduce( String reducedKey,
+                              Iterator<Double> values ) {
+            boolean found = false;
+            double result = 0.0d;
+            while (values.hasNext()) {
+                Double value = values.next();
+                if (value == null) continue;
+                result = found ? combine(result, value.doubleValue()) : value.doubleValue();
+                found = true;
+            }
+            return found ? Double.valueOf(result) : null;
+        }
+    }
+
+    public static final class DoubleSum extends DoubleReduction {
+        @Override
+        public double combine( double first,
+                               double second ) {
+            return first + second;
+        }
+
+        @Override
+        public String toString() {
+            return "double sum";
+        }
+    }
+
+    public static final class DoubleMaximum extends DoubleReduction {
+        @Override
+        public double combine( double first,
+                               double second ) {
+            return Math.max(first, second);
+        }
+
+        @Override
+        public String toString() {
+            return "double maximum";
+        }
+    }
+
+    public static final class DoubleMinimum extends DoubleReduction {
+        @Override
+        public double combine( double first,
+                               double second ) {
+            return Math.min(first, second);
+        }
+
+        @Override
+        public String toString() {
+            return "double minimum";
+        }
+    }
+}
@@ -0,0 +1,278 @@
+/*
+ * Schematica (http://www.schematica.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.schematica.db.core;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.json.JsonObject;
+import org.schematica.db.BulkWriteReport;
+import org.schematica.db.Document;
+import org.schematica.db.Indexes;
+import org.schematica.db.Observation;
+import org.schematica.db.Path;
+import org.schematica.db.ReadConsistency;
+import org.schematica.db.Schemas;
+import org.schematica.db.Sequence;
+import org.schematica.db.Statistics;
+import org.schematica.db.Store;
+import org.schematica.db.task.Filter;
+import org.schematica.db.task.TaskBuilder;
+
+/**
+ * A {@link Store} that writes to a primary store and that reads from either the primary store or one of several replica stores,
+ * such as {@link org.schematica.db.jdbc.JdbcStore}s that use the primary database and its read-only replicas. Writes, merges and
+ * removals always use the primary store, as do the {@link #getIndexes() indexes}, {@link #getStatistics() statistics} and
+ * {@link #getObservation() observation}. Reads and {@link #filter(Filter) tasks} use the primary store when the
+ * {@link #getConsistency() consistency} is {@link ReadConsistency#PRIMARY}, or otherwise use the replicas in turn.
+ * <p>
+ * The consistency of a single call can be chosen with {@link #withConsistency(ReadConsistency)}, which returns a lightweight view
+ * that shares the primary and replica stores. Only this store (and not its views) closes those stores.
+ * </p>
+ * <p>
+ * This class is thread-safe if the primary and replica stores are thread-safe.
+ * </p>
+ * 
+ * @author Randall Hauch (rhauch@redhat.com)
+ */
+public class ReplicatedStore implements Store {
+
+    private final Store primary;
+    private final List<Store> replicas;
+    private final ReadConsistency consistency;
+    private final AtomicInteger next;
+    private final boolean view;
+
+    /**
+     * Create a store that writes to the primary store and reads with the supplied default consistency.
+     * 
+     * @param primary the store that is written to; may not be null
+     * @param replicas the stores that contain replicas of the primary store's documents; may not be null but may be empty
+     * @param consistency the consistency of reads that do not specify one; may not be null
+     */
+    public ReplicatedStore( Store primary,
+                            List<? extends Store> replicas,
+                            ReadConsistency consistency ) {
+        Util.notNull(primary, "primary");
+        Util.notNull(replicas, "replicas");
+        Util.notNull(consistency, "consistency");
+        this.primary = primary;
+        this.replicas = Collections.unmodifiableList(new ArrayList<Store>(replicas));
+        this.consistency = consistency;
+        this.next = new AtomicInteger();
+        this.view = false;
+    }
+
+    protected ReplicatedStore( ReplicatedStore original,
+                               ReadConsistency consistency ) {
+        this.primary = original.primary;
+        this.replicas = original.replicas;
+        this.consistency = consistency;
+        this.next = original.next;
+        this.view = true;
+    }
+
+    /**
+     * Get the store that is written to.
+     * 
+     * @return the primary store; never null
+     */
+    public Store getPrimary() {
+        return primary;
+    }
+
+    /**
+     * Get the stores that contain replicas of the primary store's documents.
+     * 
+     * @return the immutable list of replica stores; never null but possibly empty
+     */
+    public List<Store> getReplicas() {
+        return replicas;
+    }
+
+    /**
+     * Get the consistency of the reads done by this store.
+     * 
+     * @return the consistency; never null
+     */
+    public ReadConsistency getConsistency() {
+        return consistency;
+    }
+
+    /**
+     * Get the store that is used for the next read. The replicas are used in turn, so that the reads are spread evenly over
+     * them.
+     * 
+     * @return the store; never null
+     */
+    protected Store reader() {
+        if (consistency == ReadConsistency.PRIMARY || replicas.isEmpty()) return primary;
+        int index = (next.getAndIncrement() & Integer.MAX_VALUE) % replicas.size();
+        return replicas.get(index);
+    }
+
+    @Override
+    public Store withConsistency( ReadConsistency consistency ) {
+        Util.notNull(consistency, "consistency");
+        return consistency == this.consistency ? this : new ReplicatedStore(this, consistency);
+    }
+
+    @Override
+    public long size() {
+        return reader().size();
+    }
+
+    @Override
+    public boolean has( String key ) {
+        return reader().has(key);
+    }
+
+    @Override
+    public Document read( String key ) {
+        return reader().read(key);
+    }
+
+    @Override
+    public Document read( String key,
+                          Iterable<Path> paths ) {
+        return reader().read(key, paths);
+    }
+
+    @Override
+    public boolean write( String key,
+                          JsonObject document ) {
+        return primary.write(key, document);
+    }
+
+    @Override
+    public boolean write( Document document ) {
+        return primary.write(document);
+    }
+
+    @Override
+    public boolean writeIfAbsent( String key,
+                                  JsonObject document ) {
+        return primary.writeIfAbsent(key, document);
+    }
+
+    @Override
+    public boolean writeIfAbsent( Document document ) {
+        return primary.writeIfAbsent(document);
+    }
+
+    @Override
+    public boolean writeIfVersion( Document document,
+                                   long version ) {
+        return primary.writeIfVersion(document, version);
+    }
+
+    @Override
+    public void merge( String key,
+                       JsonObject document ) {
+        primary.merge(key, document);
+    }
+
+    @Override
+    public void merge( String key,
+                       JsonObject base,
+                       JsonObject document ) {
+        primary.merge(key, base, document);
+    }
+
+    @Override
+    public boolean mergeIfVersion( String key,
+                                   JsonObject document,
+                                   long version ) {
+        return primary.mergeIfVersion(key, document, version);
+    }
+
+    @Override
+    public void remove( String key ) {
+        primary.remove(key);
+    }
+
+    @Override
+    public Sequence<Document> readMultiple( Iterable<String> keys ) {
+        return reader().readMultiple(keys);
+    }
+
+    @Override
+    public Sequence<Document> readMultiple( Iterable<String> keys,
+                                            Iterable<Path> paths ) {
+        return reader().readMultiple(keys, paths);
+    }
+
+    @Override
+    public BulkWriteReport writeMultiple( Iterable<Document> documents,
+                                          boolean captureResults ) {
+        return primary.writeMultiple(documents, captureResults);
+    }
+
+    @Override
+    public void remove( Iterable<String> keys ) {
+        primary.remove(keys);
+    }
+
+    @Override
+    public TaskBuilder filter( Filter filter ) {
+        return reader().filter(filter);
+    }
+
+    @Override
+    public TaskBuilder all() {
+        return reader().all();
+    }
+
+    @Override
+    public Schemas getSchemas() {
+        return primary.getSchemas();
+    }
+
+    @Override
+    public Indexes getIndexes() {
+        return primary.getIndexes();
+    }
+
+    @Override
+    public Statistics getStatistics() {
+        return primary.getStatistics();
+    }
+
+    @Override
+    public Observation getObservation() {
+        return primary.getObservation();
+    }
+
+    @Override
+    public void close() {
+        // The stores are shared by the views, and are closed only by the original ...
+        if (view) return;
+        try {
+            for (Store replica : replicas) {
+                replica.close();
+            }
+        } finally {
+            primary.close();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ReplicatedStore(" + consistency + ") " + primary + " " + replicas;
+    }
+}
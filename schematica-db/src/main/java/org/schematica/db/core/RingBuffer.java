@@ -0,0 +1,156 @@
+/*
+ * Schematica (http://www.schematica.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.schematica.db.core;
+
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded, lock-free queue for exactly one producer thread and one consumer thread. The elements are kept in an array whose
+ * size is a power of two, and the producer and consumer each advance their own counter, so neither ever waits for the other and
+ * neither writes to a field written by the other. The counters are published with ordered writes, which makes each element
+ * visible to the consumer before the producer's counter includes it, and makes each slot reusable by the producer only after the
+ * consumer has cleared it.
+ * <p>
+ * This class is thread-safe only when {@link #offer(Object)} is always called by the same thread and {@link #poll()} and
+ * {@link #drainTo(Collection, int)} are always called by the same thread. The other methods may be called by any thread.
+ * </p>
+ * 
+ * @param <T> the type of elements
+ * @author Randall Hauch (rhauch@redhat.com)
+ */
+public final class RingBuffer<T> {
+
+    private final Object[] elements;
+    private final int mask;
+    /**
+     * The number of elements that have been removed by the consumer, which is written only by the consumer.
+     */
+    private final AtomicLong head = new AtomicLong();
+    /**
+     * The number of elements that have been added by the producer, which is written only by the producer.
+     */
+    private final AtomicLong tail = new AtomicLong();
+
+    /**
+     * Create a ring buffer that holds at least the supplied number of elements. The capacity is rounded up to a power of two.
+     * 
+     * @param minimumCapacity the minimum number of elements; must be positive and no larger than 2^30
+     */
+    public RingBuffer( int minimumCapacity ) {
+        if (minimumCapacity < 1 || minimumCapacity > (1 << 30)) {
+            throw new IllegalArgumentException("The capacity must be between 1 and 2^30, but was " + minimumCapacity);
+        }
+        int capacity = Integer.highestOneBit(minimumCapacity);
+        if (capacity < minimumCapacity) capacity <<= 1;
+        this.elements = new Object[capacity];
+        this.mask = capacity - 1;
+    }
+
+    /**
+     * Get the maximum number of elements in this buffer.
+     * 
+     * @return the capacity; always a power of two
+     */
+    public int capacity() {
+        return elements.length;
+    }
+
+    /**
+     * Get the number of elements in this buffer. The result may already be out of date when the producer or consumer are
+     * concurrently adding or removing elements.
+     * 
+     * @return the number of elements; never negative and never more than the capacity
+     */
+    public int size() {
+        // Read the head first, so that the tail can never be behind it ...
+        long currentHead = head.get();
+        long currentTail = tail.get();
+        return (int)Math.min(currentTail - currentHead, elements.length);
+    }
+
+    /**
+     * Determine whether this buffer contains no elements.
+     * 
+     * @return true if there are no elements, or false otherwise
+     */
+    public boolean isEmpty() {
+        return head.get() == tail.get();
+    }
+
+    /**
+     * Add the element to the end of this buffer, if there is room. This must only be called by the producer thread.
+     * 
+     * @param element the element; may not be null
+     * @return true if the element was added, or false if the buffer is full
+     */
+    public boolean offer( T element ) {
+        Util.notNull(element, "element");
+        long currentTail = tail.get();
+        if (currentTail - head.get() == elements.length) return false;
+        elements[(int)currentTail & mask] = element;
+        // Publish the element before the consumer can see the new tail ...
+        tail.lazySet(currentTail + 1L);
+        return true;
+    }
+
+    /**
+     * Remove the element at the front of this buffer. This must only be called by the consumer thread.
+     * 
+     * @return the element, or null if the buffer is empty
+     */
+    public T poll() {
+        long currentHead = head.get();
+        if (currentHead == tail.get()) return null;
+        int index = (int)currentHead & mask;
+        @SuppressWarnings( "unchecked" )
+        T element = (T)elements[index];
+        elements[index] = null;
+        // Release the slot only after it has been cleared ...
+        head.lazySet(currentHead + 1L);
+        return element;
+    }
+
+    /**
+     * Remove up to the supplied number of elements from the front of this buffer and add them to the collection. This must only
+     * be called by the consumer thread.
+     * 
+     * @param collection the collection to which the elements are added; may not be null
+     * @param maximum the maximum number of elements to remove
+     * @return the number of elements that were removed
+     */
+    public int drainTo( Collection<? super T> collection,
+                        int maximum ) {
+        long currentHead = head.get();
+        int count = (int)Math.min(tail.get() - currentHead, maximum);
+        for (int i = 0; i < count; ++i) {
+            int index = (int)(currentHead + i) & mask;
+            @SuppressWarnings( "unchecked" )
+            T element = (T)elements[index];
+            elements[index] = null;
+            collection.add(element);
+        }
+        // Release all of the slots at once ...
+        if (count > 0) head.lazySet(currentHead + count);
+        return Math.max(count, 0);
+    }
+
+    @Override
+    public String toString() {
+        return "RingBuffer (" + size() + " of " + capacity() + ")";
+    }
+}
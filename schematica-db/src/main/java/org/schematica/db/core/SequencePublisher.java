@@ -0,0 +1,186 @@
+/*
+ * Schematica (http://www.schematica.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.schematica.db.core;
+
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.schematica.db.Sequence;
+import org.schematica.db.task.Publisher;
+import org.schematica.db.task.Results;
+import org.schematica.db.task.Subscriber;
+import org.schematica.db.task.Subscription;
+import org.schematica.db.task.Task;
+
+/**
+ * A {@link Publisher} of the values in the {@link Sequence} produced by a {@link Task}. Each subscriber runs the task when it
+ * first requests values, and the values are then pulled from the sequence only as they are requested, so a lazy sequence (such
+ * as one read from a database cursor) is consumed at the rate the subscriber requests values. The task's results are closed when
+ * the sequence is exhausted, when the subscription is cancelled, or when there is a failure.
+ * <p>
+ * The values are delivered in whichever thread calls {@link Subscription#request(long)}, including when that is called from
+ * within {@link Subscriber#onNext(Object)}; such reentrant requests simply add to the demand and do not grow the stack.
+ * </p>
+ * 
+ * @param <T> the type of values
+ * @author Randall Hauch (rhauch@redhat.com)
+ */
+public class SequencePublisher<T> implements Publisher<T> {
+
+    private final Task<? extends Sequence<T>> task;
+
+    /**
+     * Create a publisher of the sequence produced by the supplied task.
+     * 
+     * @param task the task that produces the sequence; may not be null
+     */
+    public SequencePublisher( Task<? extends Sequence<T>> task ) {
+        Util.notNull(task, "task");
+        this.task = task;
+    }
+
+    @Override
+    public void subscribe( Subscriber<? super T> subscriber ) {
+        Util.notNull(subscriber, "subscriber");
+        SequenceSubscription<T> subscription = new SequenceSubscription<T>(task, subscriber);
+        subscriber.onSubscribe(subscription);
+    }
+
+    protected static final class SequenceSubscription<T> implements Subscription {
+        private final Task<? extends Sequence<T>> task;
+        private final Subscriber<? super T> subscriber;
+        private final AtomicLong requested = new AtomicLong();
+        /**
+         * The number of times {@link #drain()} was called while it was already running. Only the thread that increments this from
+         * zero delivers values, so the subscriber is never called concurrently or recursively.
+         */
+        private final AtomicInteger pending = new AtomicInteger();
+        private volatile boolean cancelled = false;
+        private volatile Throwable invalidRequest;
+        // The following are only used by the thread that is draining ...
+        private Results<? extends Sequence<T>> results;
+        private Iterator<T> iterator;
+        private boolean done = false;
+
+        protected SequenceSubscription( Task<? extends Sequence<T>> task,
+                                        Subscriber<? super T> subscriber ) {
+            this.task = task;
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void request( long n ) {
+            if (n <= 0L) {
+                invalidRequest = new IllegalArgumentException("The number of requested values must be positive, but was " + n);
+            } else {
+                // Add to the demand, but never overflow ...
+                long current = 0L;
+                long updated = 0L;
+                do {
+                    current = requested.get();
+                    if (current == Long.MAX_VALUE) break;
+                    updated = current + n;
+                    if (updated < 0L) updated = Long.MAX_VALUE;
+                } while (!requested.compareAndSet(current, updated));
+            }
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            drain();
+        }
+
+        private void drain() {
+            if (pending.getAndIncrement() != 0) return;
+            int missed = 1;
+            do {
+                deliver();
+                missed = pending.addAndGet(-missed);
+            } while (missed != 0);
+        }
+
+        private void deliver() {
+            if (done) return;
+            if (cancelled) {
+                finish();
+                return;
+            }
+            if (invalidRequest != null) {
+                fail(invalidRequest);
+                return;
+            }
+            long demand = requested.get();
+            if (demand == 0L) return;
+            long delivered = 0L;
+            while (delivered != demand) {
+                if (cancelled) {
+                    finish();
+                    return;
+                }
+                T value = null;
+                try {
+                    if (iterator == null) {
+                        // Run the task only when the first values are requested ...
+                        results = task.call();
+                        iterator = results.output().iterator();
+                    }
+                    if (iterator.hasNext()) value = iterator.next();
+                } catch (Exception e) {
+                    fail(e);
+                    return;
+                }
+                if (value == null) {
+                    finish();
+                    subscriber.onComplete();
+                    return;
+                }
+                try {
+                    subscriber.onNext(value);
+                } catch (RuntimeException e) {
+                    // A subscriber that fails is considered to have cancelled its subscription ...
+                    cancelled = true;
+                    finish();
+                    throw e;
+                }
+                ++delivered;
+            }
+            // Reduce the outstanding demand by the number of values delivered, unless the demand is unbounded ...
+            if (demand != Long.MAX_VALUE) requested.addAndGet(-delivered);
+        }
+
+        private void fail( Throwable error ) {
+            finish();
+            subscriber.onError(error);
+        }
+
+        private void finish() {
+            done = true;
+            iterator = null;
+            if (results != null) {
+                try {
+                    results.close();
+                } catch (Exception e) {
+                    // The values have already been delivered, so there's nothing more to do ...
+                } finally {
+                    results = null;
+                }
+            }
+        }
+    }
+}
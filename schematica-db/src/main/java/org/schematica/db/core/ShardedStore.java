@@ -0,0 +1,619 @@
+/*
+ * Schematica (http://www.schematica.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.schematica.db.core;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.json.JsonObject;
+import org.schematica.db.BulkWriteReport;
+import org.schematica.db.Document;
+import org.schematica.db.Indexes;
+import org.schematica.db.Observation;
+import org.schematica.db.Observer;
+import org.schematica.db.Path;
+import org.schematica.db.ReadConsistency;
+import org.schematica.db.Schemas;
+import org.schematica.db.SchematicaException;
+import org.schematica.db.Sequence;
+import org.schematica.db.Statistics;
+import org.schematica.db.Store;
+import org.schematica.db.core.BulkWriteReports.ReportBuilder;
+import org.schematica.db.core.Collectors.Collector;
+import org.schematica.db.task.Filter;
+import org.schematica.db.task.TaskBuilder;
+
+/**
+ * A {@link Store} that spreads its documents over several other stores (the <i>shards</i>), such as
+ * {@link org.schematica.db.jdbc.JdbcStore}s that each use a different database. Each key is assigned to one of the shards with a
+ * {@link ConsistentHash consistent hash}, and the operations on a single document are simply forwarded to the document's shard.
+ * The operations on multiple documents are split by shard and run on all of the affected shards in parallel, and the
+ * {@link #filter(Filter) tasks} are run on every shard in parallel and their results gathered.
+ * <p>
+ * The shard of a key depends only on the position of the shard in the list of shards, so a sharded store must always be created
+ * with the same stores in the same order. Shards can be appended to the list, but the documents whose keys are then assigned to
+ * the new shards must be moved to those shards.
+ * </p>
+ * <p>
+ * This class is thread-safe if the shards are thread-safe.
+ * </p>
+ * 
+ * @author Randall Hauch (rhauch@redhat.com)
+ */
+public class ShardedStore implements Store {
+
+    /**
+     * The default maximum number of documents that {@link #writeMultiple(Iterable, boolean)} splits by shard and writes at a
+     * time.
+     */
+    public static final int DEFAULT_SPLIT_SIZE = 10000;
+
+    private static final AtomicInteger POOL_COUNTER = new AtomicInteger();
+
+    /**
+     * Create the default executor, which uses a new daemon thread for each shard operation unless an idle thread is available.
+     * 
+     * @return the new executor; never null
+     */
+    public static ExecutorService defaultExecutor() {
+        final String prefix = "schematica-shards-" + POOL_COUNTER.incrementAndGet() + "-";
+        return Executors.newCachedThreadPool(new ThreadFactory() {
+            private final AtomicInteger counter = new AtomicInteger();
+
+            @Override
+            public Thread newThread( Runnable runnable ) {
+                Thread thread = new Thread(runnable, prefix + counter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    private final ConsistentHash<Store> hash;
+    private final ExecutorService executor;
+    private final boolean ownsExecutor;
+    private final int splitSize;
+
+    /**
+     * Create a sharded store that uses a {@link #defaultExecutor() default executor}, which is shut down when this store is
+     * {@link #close() closed}.
+     * 
+     * @param shards the stores that each contain some of the documents; may not be null or empty
+     */
+    public ShardedStore( List<? extends Store> shards ) {
+        this(shards, defaultExecutor(), true, DEFAULT_SPLIT_SIZE);
+    }
+
+    /**
+     * Create a sharded store that uses the supplied executor, which is not shut down when this store is {@link #close() closed}.
+     * 
+     * @param shards the stores that each contain some of the documents; may not be null or empty
+     * @param executor the executor that runs the operations on multiple shards; may not be null
+     */
+    public ShardedStore( List<? extends Store> shards,
+                         ExecutorService executor ) {
+        this(shards, executor, false, DEFAULT_SPLIT_SIZE);
+    }
+
+    protected ShardedStore( List<? extends Store> shards,
+                            ExecutorService executor,
+                            boolean ownsExecutor,
+                            int splitSize ) {
+        Util.notNull(shards, "shards");
+        Util.notNull(executor, "executor");
+        if (splitSize < 1) throw new IllegalArgumentException("The split size must be positive, but was " + splitSize);
+        this.hash = new ConsistentHash<Store>(shards);
+        this.executor = executor;
+        this.ownsExecutor = ownsExecutor;
+        this.splitSize = splitSize;
+    }
+
+    /**
+     * Get the shards, in the order they were supplied.
+     * 
+     * @return the immutable list of shards; never null
+     */
+    public List<Store> getShards() {
+        return hash.getNodes();
+    }
+
+    /**
+     * Get the shard that contains the document with the supplied key.
+     * 
+     * @param key the unique document key; may not be null
+     * @return the shard; never null
+     */
+    public Store shardFor( String key ) {
+        return hash.get(key);
+    }
+
+    @Override
+    public long size() {
+        long size = 0L;
+        for (Long count : forEachShard(new ShardFunction<Long>() {
+            @Override
+            public Long apply( Store shard ) {
+                return shard.size();
+            }
+        })) {
+            size += count.longValue();
+        }
+        return size;
+    }
+
+    @Override
+    public boolean has( String key ) {
+        return shardFor(key).has(key);
+    }
+
+    @Override
+    public Document read( String key ) {
+        return shardFor(key).read(key);
+    }
+
+    @Override
+    public Document read( String key,
+                          Iterable<Path> paths ) {
+        return shardFor(key).read(key, paths);
+    }
+
+    @Override
+    public boolean write( String key,
+                          JsonObject document ) {
+        return shardFor(key).write(key, document);
+    }
+
+    @Override
+    public boolean write( Document document ) {
+        return shardFor(document.getKey()).write(document);
+    }
+
+    @Override
+    public boolean writeIfAbsent( String key,
+                                  JsonObject document ) {
+        return shardFor(key).writeIfAbsent(key, document);
+    }
+
+    @Override
+    public boolean writeIfAbsent( Document document ) {
+        return shardFor(document.getKey()).writeIfAbsent(document);
+    }
+
+    @Override
+    public boolean writeIfVersion( Document document,
+                                   long version ) {
+        return shardFor(document.getKey()).writeIfVersion(document, version);
+    }
+
+    @Override
+    public void merge( String key,
+                       JsonObject document ) {
+        shardFor(key).merge(key, document);
+    }
+
+    @Override
+    public void merge( String key,
+                       JsonObject base,
+                       JsonObject document ) {
+        shardFor(key).merge(key, base, document);
+    }
+
+    @Override
+    public boolean mergeIfVersion( String key,
+                                   JsonObject document,
+                                   long version ) {
+        return shardFor(key).mergeIfVersion(key, document, version);
+    }
+
+    @Override
+    public void remove( String key ) {
+        shardFor(key).remove(key);
+    }
+
+    @Override
+    public Sequence<Document> readMultiple( Iterable<String> keys ) {
+        return readMultiple(keys, null);
+    }
+
+    @Override
+    public Sequence<Document> readMultiple( Iterable<String> keys,
+                                            final Iterable<Path> paths ) {
+        List<List<String>> split = split();
+        for (String key : keys) {
+            split.get(hash.indexOf(key)).add(key);
+        }
+        List<Callable<Sequence<Document>>> reads = new ArrayList<>();
+        for (int i = 0; i != split.size(); ++i) {
+            final Store shard = getShards().get(i);
+            final List<String> shardKeys = split.get(i);
+            if (shardKeys.isEmpty()) continue;
+            reads.add(new Callable<Sequence<Document>>() {
+                @Override
+                public Sequence<Document> call() {
+                    return paths == null ? shard.readMultiple(shardKeys) : shard.readMultiple(shardKeys, paths);
+                }
+            });
+        }
+        if (reads.size() == 1) return invokeAll(reads).get(0);
+        Collector<Document, List<Document>> documents = Collectors.listOfDocuments(-1);
+        for (Sequence<Document> sequence : invokeAll(reads)) {
+            for (Document document : sequence) {
+                documents.add(document);
+            }
+        }
+        return documents.asSequence();
+    }
+
+    @Override
+    public BulkWriteReport writeMultiple( Iterable<Document> documents,
+                                          boolean captureResults ) {
+        ReportBuilder reportBuilder = BulkWriteReports.create(captureResults);
+        // Split only a limited number of documents at a time, so that the documents are not all held in memory at once ...
+        List<List<Document>> split = split();
+        int count = 0;
+        for (Document document : documents) {
+            split.get(hash.indexOf(document.getKey())).add(document);
+            if (++count == splitSize) {
+                writeMultiple(split, captureResults, reportBuilder);
+                split = split();
+                count = 0;
+            }
+        }
+        if (count != 0) writeMultiple(split, captureResults, reportBuilder);
+        return reportBuilder.getReport();
+    }
+
+    /**
+     * Write in parallel the documents that were split by shard, and record the results in the supplied report.
+     * 
+     * @param split the documents for each shard, in the same order as the shards; may not be null
+     * @param captureResults true if the report should include the outcome for each document
+     * @param reportBuilder the builder of the report; may not be null
+     */
+    protected void writeMultiple( List<List<Document>> split,
+                                  final boolean captureResults,
+                                  ReportBuilder reportBuilder ) {
+        List<Callable<BulkWriteReport>> writes = new ArrayList<>();
+        for (int i = 0; i != split.size(); ++i) {
+            final Store shard = getShards().get(i);
+            final List<Document> shardDocuments = split.get(i);
+            if (shardDocuments.isEmpty()) continue;
+            writes.add(new Callable<BulkWriteReport>() {
+                @Override
+                public BulkWriteReport call() {
+                    return shard.writeMultiple(shardDocuments, captureResults);
+                }
+            });
+        }
+        for (BulkWriteReport report : invokeAll(writes)) {
+            if (!reportBuilder.isRecording()) continue;
+            for (String key : report.updatedKeys()) {
+                reportBuilder.recordUpdated(key);
+            }
+            for (String key : report.overwrittenKeys()) {
+                reportBuilder.recordOverwritten(key);
+            }
+        }
+    }
+
+    @Override
+    public void remove( Iterable<String> keys ) {
+        List<List<String>> split = split();
+        for (String key : keys) {
+            split.get(hash.indexOf(key)).add(key);
+        }
+        List<Callable<Void>> removes = new ArrayList<>();
+        for (int i = 0; i != split.size(); ++i) {
+            final Store shard = getShards().get(i);
+            final List<String> shardKeys = split.get(i);
+            if (shardKeys.isEmpty()) continue;
+            removes.add(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    shard.remove(shardKeys);
+                    return null;
+                }
+            });
+        }
+        invokeAll(removes);
+    }
+
+    @Override
+    public TaskBuilder filter( final Filter filter ) {
+        Util.notNull(filter, "filter");
+        List<TaskBuilder> builders = new ArrayList<>(getShards().size());
+        for (Store shard : getShards()) {
+            builders.add(shard.filter(filter));
+        }
+        return new ShardedTaskBuilder(this, builders);
+    }
+
+    @Override
+    public TaskBuilder all() {
+        List<TaskBuilder> builders = new ArrayList<>(getShards().size());
+        for (Store shard : getShards()) {
+            builders.add(shard.all());
+        }
+        return new ShardedTaskBuilder(this, builders);
+    }
+
+    @Override
+    public Store withConsistency( ReadConsistency consistency ) {
+        Util.notNull(consistency, "consistency");
+        // Each shard reads with its own consistency ...
+        return this;
+    }
+
+    @Override
+    public Schemas getSchemas() {
+        // The schemas are not specific to the documents in any one shard ...
+        return getShards().get(0).getSchemas();
+    }
+
+    @Override
+    public Indexes getIndexes() {
+        return new ShardedIndexes();
+    }
+
+    @Override
+    public Statistics getStatistics() {
+        return new ShardedStatistics();
+    }
+
+    @Override
+    public Observation getObservation() {
+        for (Store shard : getShards()) {
+            if (shard.getObservation() == null) return null;
+        }
+        return new ShardedObservation();
+    }
+
+    @Override
+    public void close() {
+        try {
+            for (Store shard : getShards()) {
+                shard.close();
+            }
+        } finally {
+            if (ownsExecutor) executor.shutdown();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ShardedStore" + getShards();
+    }
+
+    private <T> List<List<T>> split() {
+        List<List<T>> split = new ArrayList<>(getShards().size());
+        for (int i = 0; i != getShards().size(); ++i) {
+            split.add(new ArrayList<T>());
+        }
+        return split;
+    }
+
+    /**
+     * An operation on a single shard.
+     * 
+     * @param <T> the type of result
+     */
+    protected static interface ShardFunction<T> {
+        T apply( Store shard );
+    }
+
+    /**
+     * Apply the supplied function to every shard in parallel.
+     * 
+     * @param function the function; may not be null
+     * @return the results for each shard, in the same order as the shards; never null
+     */
+    protected <T> List<T> forEachShard( final ShardFunction<T> function ) {
+        List<Callable<T>> calls = new ArrayList<>(getShards().size());
+        for (final Store shard : getShards()) {
+            calls.add(new Callable<T>() {
+                @Override
+                public T call() {
+                    return function.apply(shard);
+                }
+            });
+        }
+        return invokeAll(calls);
+    }
+
+    /**
+     * Run the supplied operations in parallel and wait for all of them to complete. A single operation is simply run in the
+     * calling thread.
+     * 
+     * @param calls the operations; may not be null
+     * @return the results of the operations, in the same order as the operations; never null
+     * @throws SchematicaException if any of the operations failed or the calling thread was interrupted
+     */
+    protected <T> List<T> invokeAll( List<? extends Callable<T>> calls ) {
+        try {
+            if (calls.size() == 1) return Collections.singletonList(calls.get(0).call());
+            List<T> results = new ArrayList<>(calls.size());
+            for (Future<T> future : executor.invokeAll(calls)) {
+                results.add(future.get());
+            }
+            return results;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SchematicaException("Interrupted while waiting for the shards", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) throw (RuntimeException)e.getCause();
+            if (e.getCause() instanceof Error) throw (Error)e.getCause();
+            throw new SchematicaException(e.getCause());
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new SchematicaException(e);
+        }
+    }
+
+    /**
+     * The {@link Indexes} of a sharded store, which adds and removes the indexed paths in every shard.
+     */
+    protected class ShardedIndexes implements Indexes {
+        @Override
+        public Set<Path> getIndexedPaths() {
+            return getShards().get(0).getIndexes().getIndexedPaths();
+        }
+
+        @Override
+        public boolean isIndexed( Path path ) {
+            return getShards().get(0).getIndexes().isIndexed(path);
+        }
+
+        @Override
+        public boolean add( final Path path ) {
+            boolean added = false;
+            for (Boolean result : forEachShard(new ShardFunction<Boolean>() {
+                @Override
+                public Boolean apply( Store shard ) {
+                    return shard.getIndexes().add(path);
+                }
+            })) {
+                added |= result.booleanValue();
+            }
+            return added;
+        }
+
+        @Override
+        public boolean remove( final Path path ) {
+            boolean removed = false;
+            for (Boolean result : forEachShard(new ShardFunction<Boolean>() {
+                @Override
+                public Boolean apply( Store shard ) {
+                    return shard.getIndexes().remove(path);
+                }
+            })) {
+                removed |= result.booleanValue();
+            }
+            return removed;
+        }
+
+        @Override
+        public void refresh() {
+            for (Store shard : getShards()) {
+                shard.getIndexes().refresh();
+            }
+        }
+    }
+
+    /**
+     * The {@link Statistics} of a sharded store, which are the sums of the statistics of the shards.
+     */
+    protected class ShardedStatistics implements Statistics {
+        @Override
+        public boolean isMaintained() {
+            for (Store shard : getShards()) {
+                if (!shard.getStatistics().isMaintained()) return false;
+            }
+            return true;
+        }
+
+        @Override
+        public long getDocumentCount() {
+            return size();
+        }
+
+        @Override
+        public long getDocumentCount( String schemaKey ) {
+            Long count = getDocumentCounts().get(schemaKey);
+            return count != null ? count.longValue() : 0L;
+        }
+
+        @Override
+        public Map<String, Long> getDocumentCounts() {
+            Map<String, Long> counts = new TreeMap<>();
+            for (Map<String, Long> shardCounts : forEachShard(new ShardFunction<Map<String, Long>>() {
+                @Override
+                public Map<String, Long> apply( Store shard ) {
+                    return shard.getStatistics().getDocumentCounts();
+                }
+            })) {
+                for (Map.Entry<String, Long> entry : shardCounts.entrySet()) {
+                    Long count = counts.get(entry.getKey());
+                    counts.put(entry.getKey(), count == null ? entry.getValue() : count + entry.getValue());
+                }
+            }
+            return counts;
+        }
+
+        @Override
+        public long getApproximateDocumentCount() {
+            long count = 0L;
+            for (Store shard : getShards()) {
+                count += shard.getStatistics().getApproximateDocumentCount();
+            }
+            return count;
+        }
+
+        @Override
+        public void recompute() {
+            forEachShard(new ShardFunction<Void>() {
+                @Override
+                public Void apply( Store shard ) {
+                    shard.getStatistics().recompute();
+                    return null;
+                }
+            });
+        }
+    }
+
+    /**
+     * The {@link Observation} of a sharded store, which adds each observer to every shard. Each shard has its own sequence of
+     * changes, so the observers are notified of each shard's changes separately (and possibly concurrently), and the methods that
+     * use a single sequence number are not supported.
+     */
+    protected class ShardedObservation implements Observation {
+        @Override
+        public void addObserver( Observer observer ) {
+            for (Store shard : getShards()) {
+                shard.getObservation().addObserver(observer);
+            }
+        }
+
+        @Override
+        public void addObserver( Observer observer,
+                                 long afterSequence ) {
+            throw new UnsupportedOperationException("Each shard of a sharded store has its own sequence of changes");
+        }
+
+        @Override
+        public void removeObserver( Observer observer ) {
+            for (Store shard : getShards()) {
+                shard.getObservation().removeObserver(observer);
+            }
+        }
+
+        @Override
+        public long getLastSequence() {
+            throw new UnsupportedOperationException("Each shard of a sharded store has its own sequence of changes");
+        }
+    }
+}
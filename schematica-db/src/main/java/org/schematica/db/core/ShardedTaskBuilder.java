@@ -0,0 +1,377 @@
+/*
+ * Schematica (http://www.schematica.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.schematica.db.core;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import org.schematica.db.Document;
+import org.schematica.db.Path;
+import org.schematica.db.Sequence;
+import org.schematica.db.core.Collectors.Collector;
+import org.schematica.db.task.Mapper;
+import org.schematica.db.task.Publisher;
+import org.schematica.db.task.Reducer;
+import org.schematica.db.task.Reducer.Combinable;
+import org.schematica.db.task.Reducer.DoubleReducer;
+import org.schematica.db.task.Reducer.LongReducer;
+import org.schematica.db.task.Results;
+import org.schematica.db.task.Task;
+import org.schematica.db.task.TaskBuilder;
+
+/**
+ * The {@link TaskBuilder} implementation for a {@link ShardedStore}, which scatters each task to the task builders of all of the
+ * shards, runs them in parallel, and gathers their results. The sequences of the shards are concatenated, and are read only as
+ * the concatenated sequence is iterated. A MapReduce procedure with a {@link Combinable combinable} reducer is run on each shard
+ * and the reduced values of the shards are then combined; with any other reducer, the documents of all shards are mapped and
+ * reduced together.
+ * 
+ * @author Randall Hauch (rhauch@redhat.com)
+ */
+public class ShardedTaskBuilder implements TaskBuilder {
+
+    protected final ShardedStore store;
+    protected final List<TaskBuilder> builders;
+
+    /**
+     * Create a task builder that gathers the results of the supplied task builders of the shards.
+     * 
+     * @param store the sharded store; may not be null
+     * @param builders the task builders of the shards, in the same order as the shards; may not be null
+     */
+    protected ShardedTaskBuilder( ShardedStore store,
+                                  List<TaskBuilder> builders ) {
+        this.store = store;
+        this.builders = builders;
+    }
+
+    @Override
+    public Task<Long> totalCount() {
+        final List<Task<Long>> tasks = new ArrayList<>(builders.size());
+        for (TaskBuilder builder : builders) {
+            tasks.add(builder.totalCount());
+        }
+        // Return a new task that, when called, counts the documents in all shards and returns the sum ...
+        return new Task<Long>() {
+            @Override
+            public Results<Long> call() throws Exception {
+                long count = 0L;
+                for (Results<Long> results : callAll(tasks)) {
+                    try (Results<Long> shardResults = results) {
+                        count += shardResults.output().longValue();
+                    }
+                }
+                final long value = count;
+                return new Results<Long>() {
+                    @Override
+                    public Long output() {
+                        return value;
+                    }
+
+                    @Override
+                    public void close() {
+                    }
+                };
+            }
+        };
+    }
+
+    @Override
+    public Task<Sequence<String>> keys() {
+        List<Task<Sequence<String>>> tasks = new ArrayList<>(builders.size());
+        for (TaskBuilder builder : builders) {
+            tasks.add(builder.keys());
+        }
+        return concatenate(tasks);
+    }
+
+    @Override
+    public Task<Sequence<Document>> documents() {
+        List<Task<Sequence<Document>>> tasks = new ArrayList<>(builders.size());
+        for (TaskBuilder builder : builders) {
+            tasks.add(builder.documents());
+        }
+        return concatenate(tasks);
+    }
+
+    @Override
+    public Task<Sequence<Document>> documents( Iterable<Path> paths ) {
+        // Compute the projection only once for all shards ...
+        Projection projection = Projection.of(paths);
+        List<Task<Sequence<Document>>> tasks = new ArrayList<>(builders.size());
+        for (TaskBuilder builder : builders) {
+            tasks.add(builder.documents(projection));
+        }
+        return concatenate(tasks);
+    }
+
+    @Override
+    public Task<Map<String, Document>> documentsByKey() {
+        final List<Task<Map<String, Document>>> tasks = new ArrayList<>(builders.size());
+        for (TaskBuilder builder : builders) {
+            tasks.add(builder.documentsByKey());
+        }
+        // Return a new task that, when called, reads the documents of all shards in parallel into a single map ...
+        return new Task<Map<String, Document>>() {
+            @Override
+            public Results<Map<String, Document>> call() throws Exception {
+                List<Results<Map<String, Document>>> shardResults = callAll(tasks);
+                long size = 0L;
+                for (Results<Map<String, Document>> results : shardResults) {
+                    size += results.output().size();
+                }
+                final Collector<Document, Map<String, Document>> documents = Collectors.mapOfDocuments(size);
+                for (Results<Map<String, Document>> results : shardResults) {
+                    try (Results<Map<String, Document>> closeable = results) {
+                        for (Document document : closeable.output().values()) {
+                            documents.add(document);
+                        }
+                    }
+                }
+                return documents;
+            }
+        };
+    }
+
+    @Override
+    public Publisher<String> publishKeys() {
+        // Each subscriber opens its own cursors, which are read only as the subscriber requests more keys ...
+        return new SequencePublisher<>(keys());
+    }
+
+    @Override
+    public Publisher<Document> publishDocuments() {
+        // Each subscriber opens its own cursors, which are read only as the subscriber requests more documents ...
+        return new SequencePublisher<>(documents());
+    }
+
+    @Override
+    public <Kout, Vout> Reducible<Kout, Vout> map( final Mapper<Kout, Vout> mapper ) {
+        Util.notNull(mapper, "mapper");
+        return new Reducible<Kout, Vout>() {
+            @Override
+            public Task<Map<Kout, Vout>> reduce( final Reducer<Kout, Vout> reducer ) {
+                Util.notNull(reducer, "reducer");
+                // Return a new task that, when called, maps and reduces the documents of all shards ...
+                return new Task<Map<Kout, Vout>>() {
+                    @Override
+                    public Results<Map<Kout, Vout>> call() throws Exception {
+                        final Map<Kout, Vout> output = mapReduce(mapper, reducer);
+                        return new Results<Map<Kout, Vout>>() {
+                            @Override
+                            public Map<Kout, Vout> output() {
+                                return output;
+                            }
+
+                            @Override
+                            public void close() {
+                            }
+                        };
+                    }
+                };
+            }
+        };
+    }
+
+    /**
+     * Run the MapReduce procedure over the documents of all shards. When the reducer is {@link Combinable combinable}, the
+     * procedure is run by each shard in parallel (allowing each shard to use its own optimizations) and the reduced values of
+     * each key are then reduced again; otherwise, the documents of all shards are streamed through a single {@link MapReduce}
+     * engine.
+     * 
+     * @param mapper the mapper; may not be null
+     * @param reducer the reducer; may not be null
+     * @return the reduced values keyed by the mapper's output keys; never null
+     * @throws Exception if there is a problem running the procedure
+     */
+    @SuppressWarnings( "unchecked" )
+    protected <Kout, Vout> Map<Kout, Vout> mapReduce( Mapper<Kout, Vout> mapper,
+                                                      Reducer<Kout, Vout> reducer ) throws Exception {
+        if (!(reducer instanceof Combinable)) {
+            MapReduce<Kout, Vout> engine = new MapReduce<>(mapper, reducer);
+            try (Results<Sequence<Document>> documents = documents().call()) {
+                return engine.execute(documents.output());
+            }
+        }
+        List<Task<Map<Kout, Vout>>> tasks = new ArrayList<>(builders.size());
+        for (TaskBuilder builder : builders) {
+            tasks.add(builder.map(mapper).reduce(reducer));
+        }
+        Map<Kout, List<Vout>> partials = new LinkedHashMap<>();
+        for (Results<Map<Kout, Vout>> results : callAll(tasks)) {
+            try (Results<Map<Kout, Vout>> shardResults = results) {
+                for (Map.Entry<Kout, Vout> entry : shardResults.output().entrySet()) {
+                    List<Vout> values = partials.get(entry.getKey());
+                    if (values == null) {
+                        values = new ArrayList<>(builders.size());
+                        partials.put(entry.getKey(), values);
+                    }
+                    values.add(entry.getValue());
+                }
+            }
+        }
+        Map<Kout, Vout> output = new LinkedHashMap<>((int)(partials.size() / 0.75f) + 1);
+        for (Map.Entry<Kout, List<Vout>> entry : partials.entrySet()) {
+            List<Vout> values = entry.getValue();
+            Object result = values.get(0);
+            if (values.size() == 1) {
+                // Nothing to combine ...
+            } else if (reducer instanceof LongReducer) {
+                LongReducer<Kout> longReducer = (LongReducer<Kout>)reducer;
+                long value = ((Long)result).longValue();
+                for (int i = 1; i != values.size(); ++i) {
+                    value = longReducer.combine(value, ((Long)values.get(i)).longValue());
+                }
+                result = value;
+            } else if (reducer instanceof DoubleReducer) {
+                DoubleReducer<Kout> doubleReducer = (DoubleReducer<Kout>)reducer;
+                double value = ((Double)result).doubleValue();
+                for (int i = 1; i != values.size(); ++i) {
+                    value = doubleReducer.combine(value, ((Double)values.get(i)).doubleValue());
+                }
+                result = value;
+            } else {
+                result = reducer.reduce(entry.getKey(), values.iterator());
+            }
+            output.put(entry.getKey(), (Vout)result);
+        }
+        return output;
+    }
+
+    /**
+     * Create a task that calls the supplied tasks of the shards in parallel and concatenates their sequences.
+     * 
+     * @param tasks the tasks of the shards; may not be null
+     * @return the task; never null
+     */
+    protected <T> Task<Sequence<T>> concatenate( final List<Task<Sequence<T>>> tasks ) {
+        return new Task<Sequence<T>>() {
+            @Override
+            public Results<Sequence<T>> call() throws Exception {
+                return new ConcatenatedResults<T>(callAll(tasks));
+            }
+        };
+    }
+
+    /**
+     * Call the supplied tasks of the shards in parallel. If any task fails, the results of the other tasks are closed.
+     * 
+     * @param tasks the tasks; may not be null
+     * @return the results of the tasks, in the same order as the tasks; never null
+     */
+    protected <T> List<Results<T>> callAll( List<? extends Task<T>> tasks ) {
+        List<Callable<Results<T>>> calls = new ArrayList<>(tasks.size());
+        final List<Results<T>> opened = new ArrayList<>(tasks.size());
+        for (final Task<T> task : tasks) {
+            calls.add(new Callable<Results<T>>() {
+                @Override
+                public Results<T> call() throws Exception {
+                    Results<T> results = task.call();
+                    synchronized (opened) {
+                        opened.add(results);
+                    }
+                    return results;
+                }
+            });
+        }
+        try {
+            return store.invokeAll(calls);
+        } catch (RuntimeException | Error e) {
+            // Release the cursors of the tasks that did succeed ...
+            synchronized (opened) {
+                for (Results<T> results : opened) {
+                    results.close();
+                }
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * The results of several shards whose output is the concatenation of the shards' sequences.
+     * 
+     * @param <T> the type of values
+     */
+    protected static final class ConcatenatedResults<T> implements Results<Sequence<T>>, Sequence<T> {
+        private final List<Results<Sequence<T>>> results;
+
+        protected ConcatenatedResults( List<Results<Sequence<T>>> results ) {
+            this.results = results;
+        }
+
+        @Override
+        public Sequence<T> output() {
+            return this;
+        }
+
+        @Override
+        public int size() {
+            int size = 0;
+            for (Results<Sequence<T>> shardResults : results) {
+                size += shardResults.output().size();
+            }
+            return size;
+        }
+
+        @Override
+        public boolean isEmpty() {
+            for (Results<Sequence<T>> shardResults : results) {
+                if (!shardResults.output().isEmpty()) return false;
+            }
+            return true;
+        }
+
+        @Override
+        public Iterator<T> iterator() {
+            final Iterator<Results<Sequence<T>>> shards = results.iterator();
+            return new Iterator<T>() {
+                private Iterator<T> current;
+
+                @Override
+                public boolean hasNext() {
+                    while (current == null || !current.hasNext()) {
+                        if (!shards.hasNext()) return false;
+                        current = shards.next().output().iterator();
+                    }
+                    return true;
+                }
+
+                @Override
+                public T next() {
+                    if (!hasNext()) throw new NoSuchElementException();
+                    return current.next();
+                }
+
+                @Override
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+            };
+        }
+
+        @Override
+        public void close() {
+            for (Results<Sequence<T>> shardResults : results) {
+                shardResults.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Schematica (http://www.schematica.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.schematica.db.core;
+
+import javax.json.JsonObject;
+import javax.json.JsonValue;
+import org.schematica.db.Document;
+import org.schematica.db.Path;
+import org.schematica.db.VersionedDocument;
+
+/**
+ * A {@link VersionedDocument} that adds the version to another document, so that the version can be added to a document of
+ * any type (such as a {@link LazyDocument}) after its content has been read.
+ * 
+ * @author Randall Hauch (rhauch@redhat.com)
+ */
+public class VersionedDocumentWrapper implements VersionedDocument {
+
+    /**
+     * Get the document that is wrapped by the supplied document, if it is a wrapper.
+     * 
+     * @param document the document; may be null
+     * @return the wrapped document, or the supplied document if it is not a wrapper
+     */
+    public static Document unwrap( Document document ) {
+        return document instanceof VersionedDocumentWrapper ? ((VersionedDocumentWrapper)document).getDocument() : document;
+    }
+
+    private final Document document;
+    private final long version;
+
+    /**
+     * Create a document with the supplied version.
+     * 
+     * @param document the document; may not be null
+     * @param version the version of the document; must be positive
+     */
+    public VersionedDocumentWrapper( Document document,
+                                     long version ) {
+        this.document = unwrap(document);
+        this.version = version;
+    }
+
+    /**
+     * Get the document that has the version.
+     * 
+     * @return the document; never null
+     */
+    public Document getDocument() {
+        return document;
+    }
+
+    @Override
+    public long getVersion() {
+        return version;
+    }
+
+    @Override
+    public String getKey() {
+        return document.getKey();
+    }
+
+    @Override
+    public JsonObject getJsonObject() {
+        return document.getJsonObject();
+    }
+
+    @Override
+    public String getSchemaKey() {
+        return document.getSchemaKey();
+    }
+
+    @Override
+    public JsonValue valueAtPath( Path path ) {
+        return document.valueAtPath(path);
+    }
+
+    @Override
+    public int hashCode() {
+        return document.hashCode();
+    }
+
+    @Override
+    public boolean equals( Object obj ) {
+        if (obj == this) return true;
+        if (obj instanceof Document) {
+            Document that = (Document)obj;
+            return getKey().equals(that.getKey());
+        }
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        return document + " (version " + version + ")";
+    }
+}
@@ -0,0 +1,555 @@
+/*
+ * Schematica (http://www.schematica.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.schematica.db.core;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import javax.json.JsonObject;
+import org.schematica.db.BulkWriteReport;
+import org.schematica.db.Document;
+import org.schematica.db.Indexes;
+import org.schematica.db.Observation;
+import org.schematica.db.Path;
+import org.schematica.db.ReadConsistency;
+import org.schematica.db.Schemas;
+import org.schematica.db.SchematicaException;
+import org.schematica.db.Sequence;
+import org.schematica.db.Statistics;
+import org.schematica.db.Store;
+import org.schematica.db.core.Collectors.Collector;
+import org.schematica.db.task.Filter;
+import org.schematica.db.task.TaskBuilder;
+
+/**
+ * A {@link Store} implementation that buffers the {@link #write(Document) writes} of single documents and periodically writes
+ * all of the buffered documents to the delegate store in a single {@link Store#writeMultiple(Iterable, boolean) bulk write}
+ * (and therefore in a single transaction and round trip). This is known as <i>group commit</i>: when many threads each write
+ * a document, the cost of each commit is shared by all of the documents written since the previous commit.
+ * <p>
+ * The buffered documents are written when there are {@link #getMaximumBatchSize() enough} of them, or when the oldest has been
+ * buffered for the {@link #getMaximumDelay() maximum delay}, whichever comes first. Writing the same key more than once before
+ * the buffer is written simply replaces the buffered document, so only the last document is written.
+ * </p>
+ * <p>
+ * The {@link #writeBehind(Document)} method returns immediately with a {@link Future} that completes once the document has been
+ * durably written, while the {@link #write(Document)} methods block until then, so they still have the same semantics as other
+ * stores. Buffered documents are visible to the {@link #read(String) read} methods and to {@link #has(String)};
+ * all other operations first write the buffered documents and then delegate to the other store.
+ * </p>
+ * <p>
+ * This class is thread-safe if the delegate store is thread-safe.
+ * </p>
+ * 
+ * @author Randall Hauch (rhauch@redhat.com)
+ */
+public class WriteBehindStore implements Store {
+
+    /**
+     * The default maximum number of buffered documents.
+     */
+    public static final int DEFAULT_MAXIMUM_BATCH_SIZE = 500;
+
+    /**
+     * The default maximum number of milliseconds that a document is buffered.
+     */
+    public static final long DEFAULT_MAXIMUM_DELAY_MILLIS = 10L;
+
+    protected final Store delegate;
+    private final int maximumBatchSize;
+    private final long maximumDelayNanos;
+    /**
+     * The lock that protects the buffer, and upon which the flushing thread waits.
+     */
+    private final Object bufferLock = new Object();
+    /**
+     * The lock held while writing a batch, so that batches are always written in the order they were buffered.
+     */
+    private final Object flushLock = new Object();
+    private Map<String, PendingWrite> buffer = new LinkedHashMap<>();
+    /**
+     * The batch that is currently being written, whose documents must remain visible to readers until they have been written.
+     */
+    private Map<String, PendingWrite> writing = null;
+    private long oldestBufferedNanos;
+    private boolean closed = false;
+    private final Thread flusher;
+
+    /**
+     * Create a new write-behind store with the default thresholds.
+     * 
+     * @param delegate the store to which the documents are written; may not be null
+     */
+    public WriteBehindStore( Store delegate ) {
+        this(delegate, DEFAULT_MAXIMUM_BATCH_SIZE, DEFAULT_MAXIMUM_DELAY_MILLIS);
+    }
+
+    /**
+     * Create a new write-behind store.
+     * 
+     * @param delegate the store to which the documents are written; may not be null
+     * @param maximumBatchSize the number of buffered documents that causes them to be written; must be positive
+     * @param maximumDelayMillis the maximum number of milliseconds that a document is buffered; must not be negative
+     */
+    public WriteBehindStore( Store delegate,
+                             int maximumBatchSize,
+                             long maximumDelayMillis ) {
+        Util.notNull(delegate, "delegate");
+        if (maximumBatchSize < 1) {
+            throw new IllegalArgumentException("The maximum batch size must be positive, but was " + maximumBatchSize);
+        }
+        if (maximumDelayMillis < 0L) {
+            throw new IllegalArgumentException("The maximum delay must not be negative, but was " + maximumDelayMillis);
+        }
+        this.delegate = delegate;
+        this.maximumBatchSize = maximumBatchSize;
+        this.maximumDelayNanos = TimeUnit.MILLISECONDS.toNanos(maximumDelayMillis);
+        this.flusher = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                flushContinuously();
+            }
+        }, "schematica-write-behind");
+        this.flusher.setDaemon(true);
+        this.flusher.start();
+    }
+
+    /**
+     * Get the number of buffered documents that causes them to be written.
+     * 
+     * @return the maximum batch size
+     */
+    public int getMaximumBatchSize() {
+        return maximumBatchSize;
+    }
+
+    /**
+     * Get the maximum number of milliseconds that a document is buffered before it is written.
+     * 
+     * @return the maximum delay in milliseconds
+     */
+    public long getMaximumDelay() {
+        return TimeUnit.NANOSECONDS.toMillis(maximumDelayNanos);
+    }
+
+    /**
+     * Buffer the supplied document so that it is written with other documents, and return immediately.
+     * 
+     * @param document the document; may not be null
+     * @return the future that completes when the document has been written, with true if the document overwrote an existing
+     *         document; never null
+     */
+    public Future<Boolean> writeBehind( Document document ) {
+        Util.notNull(document, "document");
+        WriteResult result = new WriteResult();
+        synchronized (bufferLock) {
+            if (closed) throw new IllegalStateException("The store has been closed");
+            PendingWrite pending = buffer.get(document.getKey());
+            if (pending != null) {
+                // Only the last document written with the key needs to be written ...
+                pending.document = document;
+            } else {
+                pending = new PendingWrite(document);
+                if (buffer.isEmpty()) oldestBufferedNanos = System.nanoTime();
+                buffer.put(document.getKey(), pending);
+            }
+            pending.results.add(result);
+            if (buffer.size() >= maximumBatchSize || buffer.size() == 1) bufferLock.notifyAll();
+        }
+        return result;
+    }
+
+    /**
+     * Write all of the buffered documents, and block until they have been written.
+     * 
+     * @throws SchematicaException if the documents could not be written
+     */
+    public void flush() {
+        synchronized (flushLock) {
+            Map<String, PendingWrite> batch = null;
+            synchronized (bufferLock) {
+                if (buffer.isEmpty()) return;
+                batch = buffer;
+                buffer = new LinkedHashMap<>();
+                writing = batch;
+            }
+            try {
+                write(batch);
+            } finally {
+                synchronized (bufferLock) {
+                    writing = null;
+                }
+            }
+        }
+    }
+
+    /**
+     * Write the supplied batch of documents to the delegate store, and complete each of their futures.
+     * 
+     * @param batch the buffered writes keyed by document key; may not be null
+     * @throws SchematicaException if the documents could not be written
+     */
+    protected void write( Map<String, PendingWrite> batch ) {
+        List<Document> documents = new ArrayList<>(batch.size());
+        for (PendingWrite pending : batch.values()) {
+            documents.add(pending.document);
+        }
+        BulkWriteReport report = null;
+        try {
+            report = delegate.writeMultiple(documents, true);
+        } catch (RuntimeException e) {
+            for (PendingWrite pending : batch.values()) {
+                pending.fail(e);
+            }
+            throw e;
+        }
+        for (Map.Entry<String, PendingWrite> entry : batch.entrySet()) {
+            entry.getValue().complete(report.isOverwritten(entry.getKey()));
+        }
+    }
+
+    /**
+     * The method run by the flushing thread, which writes the buffered documents whenever there are enough of them or the oldest
+     * has been buffered for long enough, and which stops once this store is closed.
+     */
+    protected void flushContinuously() {
+        while (true) {
+            synchronized (bufferLock) {
+                try {
+                    while (!closed) {
+                        if (buffer.size() >= maximumBatchSize) break;
+                        if (buffer.isEmpty()) {
+                            bufferLock.wait();
+                            continue;
+                        }
+                        long remaining = oldestBufferedNanos + maximumDelayNanos - System.nanoTime();
+                        if (remaining <= 0L) break;
+                        TimeUnit.NANOSECONDS.timedWait(bufferLock, remaining);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                if (closed) return;
+            }
+            try {
+                flush();
+            } catch (RuntimeException e) {
+                // The failure has already been reported to each writer ...
+            }
+        }
+    }
+
+    protected Document buffered( String key ) {
+        synchronized (bufferLock) {
+            PendingWrite pending = buffer.get(key);
+            if (pending == null && writing != null) pending = writing.get(key);
+            return pending != null ? pending.document : null;
+        }
+    }
+
+    @Override
+    public long size() {
+        flush();
+        return delegate.size();
+    }
+
+    @Override
+    public boolean has( String key ) {
+        return buffered(key) != null || delegate.has(key);
+    }
+
+    @Override
+    public Document read( String key ) {
+        Document document = buffered(key);
+        return document != null ? document : delegate.read(key);
+    }
+
+    @Override
+    public Sequence<Document> readMultiple( Iterable<String> keys ) {
+        Collector<Document, List<Document>> documents = Collectors.listOfDocuments(-1);
+        List<String> unbufferedKeys = new ArrayList<>();
+        for (String key : keys) {
+            Document document = buffered(key);
+            if (document != null) documents.add(document);
+            else unbufferedKeys.add(key);
+        }
+        if (!unbufferedKeys.isEmpty()) {
+            for (Document document : delegate.readMultiple(unbufferedKeys)) {
+                if (document != null) documents.add(document);
+            }
+        }
+        return documents.asSequence();
+    }
+
+    @Override
+    public Document read( String key,
+                          Iterable<Path> paths ) {
+        Document document = buffered(key);
+        return document != null ? Projection.of(paths).apply(document) : delegate.read(key, paths);
+    }
+
+    @Override
+    public Sequence<Document> readMultiple( Iterable<String> keys,
+                                            Iterable<Path> paths ) {
+        Projection projection = Projection.of(paths);
+        Collector<Document, List<Document>> documents = Collectors.listOfDocuments(-1);
+        List<String> unbufferedKeys = new ArrayList<>();
+        for (String key : keys) {
+            Document document = buffered(key);
+            if (document != null) documents.add(projection.apply(document));
+            else unbufferedKeys.add(key);
+        }
+        if (!unbufferedKeys.isEmpty()) {
+            for (Document document : delegate.readMultiple(unbufferedKeys, projection)) {
+                if (document != null) documents.add(document);
+            }
+        }
+        return documents.asSequence();
+    }
+
+    @Override
+    public boolean write( String key,
+                          JsonObject document ) {
+        return write(new SimpleDocument(key, document));
+    }
+
+    @Override
+    public boolean write( Document document ) {
+        return await(writeBehind(document));
+    }
+
+    @Override
+    public boolean writeIfAbsent( String key,
+                                  JsonObject document ) {
+        flush();
+        return delegate.writeIfAbsent(key, document);
+    }
+
+    @Override
+    public boolean writeIfAbsent( Document document ) {
+        flush();
+        return delegate.writeIfAbsent(document);
+    }
+
+    @Override
+    public boolean writeIfVersion( Document document,
+                                   long version ) {
+        flush();
+        return delegate.writeIfVersion(document, version);
+    }
+
+    @Override
+    public BulkWriteReport writeMultiple( Iterable<Document> documents,
+                                          boolean captureResults ) {
+        flush();
+        return delegate.writeMultiple(documents, captureResults);
+    }
+
+    @Override
+    public void merge( String key,
+                       JsonObject document ) {
+        flush();
+        delegate.merge(key, document);
+    }
+
+    @Override
+    public void merge( String key,
+                       JsonObject base,
+                       JsonObject document ) {
+        flush();
+        delegate.merge(key, base, document);
+    }
+
+    @Override
+    public boolean mergeIfVersion( String key,
+                                   JsonObject document,
+                                   long version ) {
+        flush();
+        return delegate.mergeIfVersion(key, document, version);
+    }
+
+    @Override
+    public void remove( String key ) {
+        flush();
+        delegate.remove(key);
+    }
+
+    @Override
+    public void remove( Iterable<String> keys ) {
+        flush();
+        delegate.remove(keys);
+    }
+
+    @Override
+    public TaskBuilder filter( Filter filter ) {
+        flush();
+        return delegate.filter(filter);
+    }
+
+    @Override
+    public TaskBuilder all() {
+        flush();
+        return delegate.all();
+    }
+
+    @Override
+    public Store withConsistency( ReadConsistency consistency ) {
+        Util.notNull(consistency, "consistency");
+        // Reads must see the buffered writes, so they always use the delegate ...
+        return this;
+    }
+
+    @Override
+    public Schemas getSchemas() {
+        return delegate.getSchemas();
+    }
+
+    @Override
+    public Indexes getIndexes() {
+        return delegate.getIndexes();
+    }
+
+    @Override
+    public Statistics getStatistics() {
+        flush();
+        return delegate.getStatistics();
+    }
+
+    @Override
+    public Observation getObservation() {
+        return delegate.getObservation();
+    }
+
+    /**
+     * Write any buffered documents, stop the flushing thread, and close the delegate store.
+     */
+    @Override
+    public void close() {
+        synchronized (bufferLock) {
+            closed = true;
+            bufferLock.notifyAll();
+        }
+        try {
+            flush();
+        } finally {
+            delegate.close();
+        }
+    }
+
+    private static boolean await( Future<Boolean> future ) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SchematicaException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) throw (RuntimeException)cause;
+            throw new SchematicaException(cause);
+        }
+    }
+
+    protected static final class PendingWrite {
+        protected Document document;
+        protected final List<WriteResult> results = new ArrayList<>(1);
+
+        protected PendingWrite( Document document ) {
+            this.document = document;
+        }
+
+        protected void complete( boolean overwritten ) {
+            for (WriteResult result : results) {
+                result.complete(overwritten, null);
+            }
+        }
+
+        protected void fail( Throwable error ) {
+            for (WriteResult result : results) {
+                result.complete(null, error);
+            }
+        }
+    }
+
+    /**
+     * The {@link Future} for a single buffered write, which cannot be cancelled.
+     */
+    protected static final class WriteResult implements Future<Boolean> {
+        private boolean done = false;
+        private Boolean overwritten;
+        private Throwable error;
+
+        protected synchronized void complete( Boolean overwritten,
+                                              Throwable error ) {
+            this.overwritten = overwritten;
+            this.error = error;
+            this.done = true;
+            notifyAll();
+        }
+
+        @Override
+        public boolean cancel( boolean mayInterruptIfRunning ) {
+            return false;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return false;
+        }
+
+        @Override
+        public synchronized boolean isDone() {
+            return done;
+        }
+
+        @Override
+        public synchronized Boolean get() throws InterruptedException, ExecutionException {
+            while (!done) {
+                wait();
+            }
+            return result();
+        }
+
+        @Override
+        public synchronized Boolean get( long timeout,
+                                         TimeUnit unit ) throws InterruptedException, ExecutionException, TimeoutException {
+            long remaining = unit.toNanos(timeout);
+            long deadline = System.nanoTime() + remaining;
+            while (!done) {
+                if (remaining <= 0L) throw new TimeoutException();
+                TimeUnit.NANOSECONDS.timedWait(this, remaining);
+                remaining = deadline - System.nanoTime();
+            }
+            return result();
+        }
+
+        private Boolean result() throws ExecutionException {
+            if (error != null) throw new ExecutionException(error);
+            return overwritten;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "Write-behind " + delegate + " (batch=" + maximumBatchSize + ", delay=" + getMaximumDelay() + "ms)";
+    }
+}
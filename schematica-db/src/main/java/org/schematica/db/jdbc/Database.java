@@ -22,10 +22,14 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Properties;
 import org.schematica.db.SchematicaException;
@@ -82,6 +86,11 @@ public class Database {
     protected static final String DEFAULT_STATEMENTS_FILE_PATH = STATEMENTS_FILE_PATH + STATEMENTS_FILE_PREFIX + "default"
                                                                  + STATEMENTS_FILENAME_SUFFIX;
 
+    /**
+     * The number of rows fetched in each round trip when streaming results, unless otherwise specified for a database type.
+     */
+    public static final int DEFAULT_FETCH_SIZE = 1000;
+
     public static enum Type {
         MYSQL,
         POSTGRES,
@@ -102,26 +111,23 @@ public class Database {
         UNKNOWN;
     }
 
+    /**
+     * The default maximum number of prepared statements that are cached for each connection.
+     */
+    public static final int DEFAULT_STATEMENT_CACHE_SIZE = 32;
+
+    /**
+     * The smallest allowed statement cache size, which is large enough to hold all of the statements used concurrently by a single
+     * operation.
+     */
+    protected static final int MINIMUM_STATEMENT_CACHE_SIZE = 4;
+
     private final Connection connection;
     private final Type databaseType;
     private final String prefix;
     private final String tableName;
     private final Properties statements;
-    private PreparedStatement createTableSql;
-    private PreparedStatement hasDocumentSql;
-    private PreparedStatement readDocumentSql;
-    private PreparedStatement read4DocumentsSql;
-    private PreparedStatement read11DocumentsSql;
-    private PreparedStatement read51DocumentsSql;
-    private PreparedStatement writeDocumentSql;
-    private PreparedStatement insertIfAbsentDocumentSql;
-    private PreparedStatement removeDocumentSql;
-    private PreparedStatement remove4DocumentsSql;
-    private PreparedStatement remove11DocumentsSql;
-    private PreparedStatement remove51DocumentsSql;
-    private PreparedStatement readAllDocumentsSql;
-    private PreparedStatement readAllKeysSql;
-    private PreparedStatement countAllDocumentsSql;
+    private final Map<String, PreparedStatement> statementCache;
 
     /**
      * Creates new instance of the database.
@@ -144,8 +150,26 @@ public class Database {
     public Database( Connection connection,
                      Type type,
                      String prefix ) throws SchematicaException {
+        this(connection, type, prefix, DEFAULT_STATEMENT_CACHE_SIZE);
+    }
+
+    /**
+     * Creates new instance of the database.
+     * 
+     * @param connection connection to a database
+     * @param type the type of database; may be null if the type is to be determined
+     * @param prefix the prefix for the table name; may be null or blank
+     * @param statementCacheSize the maximum number of prepared statements that are kept open for the connection; the least
+     *        recently used statement is closed when the limit is reached
+     * @throws SchematicaException if the database type cannot be determined
+     */
+    public Database( Connection connection,
+                     Type type,
+                     String prefix,
+                     int statementCacheSize ) throws SchematicaException {
         assert connection != null;
         this.connection = connection;
+        this.statementCache = new StatementCache(Math.max(MINIMUM_STATEMENT_CACHE_SIZE, statementCacheSize));
         this.databaseType = type != null ? type : determineType();
         this.prefix = prefix == null ? null : prefix.trim();
         this.tableName = this.prefix != null && this.prefix.length() != 0 ? this.prefix + TABLE_NAME : TABLE_NAME;
@@ -195,51 +219,75 @@ public class Database {
      * @throws SchematicaException if there is a problem
      */
     public void initialize() throws SchematicaException {
-        try {
-            // First, prepare a statement to see if the table exists ...
-            boolean createTable = true;
-            try (PreparedStatement exists = prepareStatement("table_exists_query")) {
-                // LOGGER.trace("Running statement: {0}", exists);
-                exists.execute();
-                createTable = false;
+        createTableIfMissing("table_exists_query", "create_table");
+        // Tables created before documents were versioned do not have the version column ...
+        createTableIfMissing("version_column_exists_query", "add_version_column");
+        createTableIfMissing("indexed_paths_table_exists_query", "create_indexed_paths_table");
+        createTableIfMissing("index_table_exists_query",
+                             "create_index_table",
+                             "create_index_table_key_index",
+                             "create_index_table_text_index",
+                             "create_index_table_number_index");
+        createTableIfMissing("statistics_table_exists_query", "create_statistics_table");
+        createTableIfMissing("changes_table_exists_query", "create_changes_table");
+        createTableIfMissing("patches_table_exists_query", "create_patches_table", "create_patches_table_key_index");
+        // The remaining statements are prepared and cached as they are needed ...
+    }
+
+    /**
+     * Create a table (and any of its indexes) if the table does not yet exist.
+     * 
+     * @param existsQueryKey the key of the query that succeeds only if the table exists; may not be null
+     * @param createStatementKeys the keys of the statements that create the table and its indexes; may not be null
+     * @throws SchematicaException if the table could not be created
+     */
+    protected void createTableIfMissing( String existsQueryKey,
+                                         String... createStatementKeys ) throws SchematicaException {
+        // First, prepare a statement to see if the table exists ...
+        try (PreparedStatement exists = prepareStatement(existsQueryKey)) {
+            // LOGGER.trace("Running statement: {0}", exists);
+            exists.execute();
+            return;
+        } catch (SQLException e) {
+            // proceed to create the table ...
+        }
+
+        // LOGGER.debug("Unable to find existing table. Attempting to create '{0}' table in {1}", tableName, connection);
+        for (String createStatementKey : createStatementKeys) {
+            try (PreparedStatement create = prepareStatement(createStatementKey)) {
+                // LOGGER.trace("Running statement: {0}", create);
+                create.execute();
             } catch (SQLException e) {
-                // proceed to create the table ...
+                String msg = Util.createString("Error running {0} for table {1} in database {2} using connection {3}: {4}",
+                                               createStatementKey,
+                                               tableName,
+                                               databaseType,
+                                               connection,
+                                               e.getMessage());
+                throw new SchematicaException(msg);
             }
+        }
+    }
 
-            if (createTable) {
-                // LOGGER.debug("Unable to find existing table. Attempting to create '{0}' table in {1}", tableName, connection);
-                try (PreparedStatement create = prepareStatement("create_table")) {
-                    // LOGGER.trace("Running statement: {0}", create);
-                    create.execute();
-                } catch (SQLException e) {
-                    String msg = Util.createString("Error creating database table {0} in database {1} using connection {2}: {3}",
-                                                   tableName,
-                                                   databaseType,
-                                                   connection,
-                                                   e.getMessage());
-                    throw new SchematicaException(msg);
-                }
+    /**
+     * Get the cached statement with the given key, preparing and caching it if required. The returned statement is shared by all
+     * users of this object and therefore must not be closed.
+     * 
+     * @param statementKey the key of the statement in the statements properties; may not be null
+     * @return the prepared statement; never null
+     * @throws SchematicaException if there is a problem preparing the statement
+     */
+    protected PreparedStatement statement( String statementKey ) throws SchematicaException {
+        PreparedStatement statement = statementCache.get(statementKey);
+        if (statement == null) {
+            try {
+                statement = prepareStatement(statementKey);
+            } catch (SQLException e) {
+                throw new SchematicaException(e);
             }
-
-            // Now prepare all of the SQL statements ...
-            createTableSql = prepareStatement("create_table");
-            hasDocumentSql = prepareStatement("has_document");
-            readDocumentSql = prepareStatement("read_document");
-            read4DocumentsSql = prepareStatement("read_4_documents");
-            read11DocumentsSql = prepareStatement("read_11_documents");
-            read51DocumentsSql = prepareStatement("read_51_documents");
-            writeDocumentSql = prepareStatement("write_document");
-            insertIfAbsentDocumentSql = prepareStatement("insert_document");
-            removeDocumentSql = prepareStatement("remove_document");
-            remove4DocumentsSql = prepareStatement("remove_4_documents");
-            remove11DocumentsSql = prepareStatement("remove_11_documents");
-            remove51DocumentsSql = prepareStatement("remove_51_documents");
-            readAllDocumentsSql = prepareStatement("read_all_documents");
-            readAllKeysSql = prepareStatement("read_all_keys");
-            countAllDocumentsSql = prepareStatement("count_all_documents");
-        } catch (SQLException e) {
-            throw new SchematicaException(e);
+            statementCache.put(statementKey, statement);
         }
+        return statement;
     }
 
     protected PreparedStatement prepareStatement( String statementKey ) throws SQLException {
@@ -249,6 +297,156 @@ public class Database {
         return connection.prepareStatement(statementString);
     }
 
+    /**
+     * Prepare a new forward-only, read-only statement suitable for streaming the (potentially very large) results through an open
+     * cursor. The statement's fetch size is set to the {@link #fetchSize() dialect-specific value}. Unlike the other statements
+     * used by this object, the returned statement is not shared and must be closed by the caller.
+     * 
+     * @param statementKey the key of the statement in the statements properties; may not be null
+     * @return the new statement; never null
+     * @throws SchematicaException if there is a problem preparing the statement
+     */
+    public PreparedStatement prepareCursorStatement( String statementKey ) throws SchematicaException {
+        // The statement has no criteria, so only the table name is substituted ...
+        return prepareCursor(Util.createString(statements.getProperty(statementKey), tableName));
+    }
+
+    /**
+     * Prepare a new forward-only, read-only statement suitable for streaming the (potentially very large) results through an open
+     * cursor, where the statement's criteria is supplied by the caller. The statement's WHERE clause is substituted for the
+     * '<code>{1}</code>' variable in the statement. The returned statement is not shared and must be closed by the caller.
+     * 
+     * @param statementKey the key of the statement in the statements properties; may not be null
+     * @param whereClause the SQL boolean expression used as the statement's criteria; may not be null
+     * @return the new statement; never null
+     * @throws SchematicaException if there is a problem preparing the statement
+     */
+    public PreparedStatement prepareCursorStatement( String statementKey,
+                                                     String whereClause ) throws SchematicaException {
+        return prepareCursor(Util.createString(statements.getProperty(statementKey), tableName, whereClause));
+    }
+
+    /**
+     * Prepare a new forward-only, read-only statement suitable for streaming the (potentially very large) results through an open
+     * cursor, where the statement's criteria and selected expression are supplied by the caller. The statement's WHERE clause is
+     * substituted for the '<code>{1}</code>' variable, and the expression for the '<code>{2}</code>' variable. The returned
+     * statement is not shared and must be closed by the caller.
+     * 
+     * @param statementKey the key of the statement in the statements properties; may not be null
+     * @param whereClause the SQL boolean expression used as the statement's criteria; may not be null
+     * @param expression the SQL expression that is selected; may not be null
+     * @return the new statement; never null
+     * @throws SchematicaException if there is a problem preparing the statement
+     */
+    public PreparedStatement prepareCursorStatement( String statementKey,
+                                                     String whereClause,
+                                                     String expression ) throws SchematicaException {
+        return prepareCursor(Util.createString(statements.getProperty(statementKey), tableName, whereClause, expression));
+    }
+
+    /**
+     * Prepare a new forward-only, read-only statement for streaming results through a cursor, using the fetch size for this
+     * database.
+     * 
+     * @param statementString the SQL statement, with all variables already substituted; may not be null
+     * @return the new statement; never null
+     * @throws SchematicaException if there is a problem preparing the statement
+     */
+    protected PreparedStatement prepareCursor( String statementString ) throws SchematicaException {
+        try {
+            // LOGGER.trace("Preparing cursor statement: {0}", statementString);
+            PreparedStatement statement = connection.prepareStatement(statementString,
+                                                                      ResultSet.TYPE_FORWARD_ONLY,
+                                                                      ResultSet.CONCUR_READ_ONLY);
+            statement.setFetchSize(fetchSize());
+            if (databaseType == Type.POSTGRES && connection.getAutoCommit()) {
+                // The driver only uses a server-side cursor outside of auto-commit mode; the pool restores it upon release ...
+                connection.setAutoCommit(false);
+            }
+            return statement;
+        } catch (SQLException e) {
+            throw new SchematicaException(e);
+        }
+    }
+
+    /**
+     * Prepare a new statement whose criteria is supplied by the caller. The statement's WHERE clause is substituted for the
+     * '<code>{1}</code>' variable in the statement. The returned statement is not shared and must be closed by the caller.
+     * 
+     * @param statementKey the key of the statement in the statements properties; may not be null
+     * @param whereClause the SQL boolean expression used as the statement's criteria; may not be null
+     * @return the new statement; never null
+     * @throws SchematicaException if there is a problem preparing the statement
+     */
+    public PreparedStatement prepareStatement( String statementKey,
+                                               String whereClause ) throws SchematicaException {
+        try {
+            String statementString = Util.createString(statements.getProperty(statementKey), tableName, whereClause);
+            // LOGGER.trace("Preparing statement: {0}", statementString);
+            return connection.prepareStatement(statementString);
+        } catch (SQLException e) {
+            throw new SchematicaException(e);
+        }
+    }
+
+    /**
+     * Prepare a new statement whose criteria and selected expression are supplied by the caller. The statement's WHERE clause is
+     * substituted for the '<code>{1}</code>' variable, and the expression for the '<code>{2}</code>' variable. The returned
+     * statement is not shared and must be closed by the caller.
+     * 
+     * @param statementKey the key of the statement in the statements properties; may not be null
+     * @param whereClause the SQL boolean expression used as the statement's criteria; may not be null
+     * @param expression the SQL expression that is selected; may not be null
+     * @return the new statement; never null
+     * @throws SchematicaException if there is a problem preparing the statement
+     */
+    public PreparedStatement prepareStatement( String statementKey,
+                                               String whereClause,
+                                               String expression ) throws SchematicaException {
+        try {
+            String statementString = Util.createString(statements.getProperty(statementKey), tableName, whereClause, expression);
+            // LOGGER.trace("Preparing statement: {0}", statementString);
+            return connection.prepareStatement(statementString);
+        } catch (SQLException e) {
+            throw new SchematicaException(e);
+        }
+    }
+
+    /**
+     * Get the raw value of the property with the given key in the statements file for this database, such as the expressions used
+     * to extract values from JSON content.
+     * 
+     * @param key the property key; may not be null
+     * @return the property value, or null if there is no such property
+     */
+    public String getStatement( String key ) {
+        return statements.getProperty(key);
+    }
+
+    /**
+     * Get the number of rows that should be fetched from the database in each round trip when streaming results through a cursor.
+     * The value can be set with the "{@code fetch_size}" property in the statements file; otherwise a default suitable for the
+     * database type is used. Note that MySQL's driver only streams results when the fetch size is {@link Integer#MIN_VALUE}, while
+     * PostgreSQL's driver only honors the fetch size when the connection is not in auto-commit mode.
+     * 
+     * @return the fetch size
+     */
+    public int fetchSize() {
+        String fetchSize = statements.getProperty("fetch_size");
+        if (fetchSize != null && fetchSize.trim().length() != 0) {
+            return Integer.parseInt(fetchSize.trim());
+        }
+        switch (databaseType) {
+            case MYSQL:
+                return Integer.MIN_VALUE;
+            case SQLITE:
+            case ACCESS:
+                return 0; // let the driver decide
+            default:
+                return DEFAULT_FETCH_SIZE;
+        }
+    }
+
     protected Type determineType() throws SchematicaException {
         try {
             String name = connection.getMetaData().getDatabaseProductName().toLowerCase();
@@ -296,21 +494,9 @@ public class Database {
         if (connection != null) {
             boolean failed = false;
             try {
-                if (createTableSql != null) createTableSql.close();
-                if (hasDocumentSql != null) hasDocumentSql.close();
-                if (readDocumentSql != null) readDocumentSql.close();
-                if (read4DocumentsSql != null) read4DocumentsSql.close();
-                if (read11DocumentsSql != null) read11DocumentsSql.close();
-                if (read51DocumentsSql != null) read51DocumentsSql.close();
-                if (writeDocumentSql != null) writeDocumentSql.close();
-                if (insertIfAbsentDocumentSql != null) insertIfAbsentDocumentSql.close();
-                if (removeDocumentSql != null) removeDocumentSql.close();
-                if (remove4DocumentsSql != null) remove4DocumentsSql.close();
-                if (remove11DocumentsSql != null) remove11DocumentsSql.close();
-                if (remove51DocumentsSql != null) remove51DocumentsSql.close();
-                if (readAllDocumentsSql != null) readAllDocumentsSql.close();
-                if (readAllKeysSql != null) readAllKeysSql.close();
-                if (countAllDocumentsSql != null) countAllDocumentsSql.close();
+                for (PreparedStatement statement : statementCache.values()) {
+                    statement.close();
+                }
             } catch (SQLException e) {
                 failed = true;
                 throw new SchematicaException(e);
@@ -320,21 +506,7 @@ public class Database {
                 } catch (SQLException e) {
                     if (!failed) throw new SchematicaException(e);
                 } finally {
-                    createTableSql = null;
-                    hasDocumentSql = null;
-                    readDocumentSql = null;
-                    read4DocumentsSql = null;
-                    read11DocumentsSql = null;
-                    read51DocumentsSql = null;
-                    writeDocumentSql = null;
-                    insertIfAbsentDocumentSql = null;
-                    removeDocumentSql = null;
-                    remove4DocumentsSql = null;
-                    remove11DocumentsSql = null;
-                    remove51DocumentsSql = null;
-                    readAllDocumentsSql = null;
-                    readAllKeysSql = null;
-                    countAllDocumentsSql = null;
+                    statementCache.clear();
                 }
             }
         }
@@ -349,6 +521,45 @@ public class Database {
         return connection;
     }
 
+    /**
+     * Get the name of the table that contains the documents. The tables used for the indexes are named by appending a suffix.
+     * 
+     * @return the table name; never null
+     */
+    public String getTableName() {
+        return tableName;
+    }
+
+    /**
+     * Start a transaction on the connection, so that subsequent statements are applied atomically upon {@link #commit()}. The
+     * transaction is rolled back if the database is {@link DatabasePool#release(Database) released} without committing.
+     * 
+     * @throws SchematicaException if there is a problem
+     */
+    public void beginTransaction() throws SchematicaException {
+        try {
+            if (connection.getAutoCommit()) connection.setAutoCommit(false);
+        } catch (SQLException e) {
+            throw new SchematicaException(e);
+        }
+    }
+
+    /**
+     * Commit the transaction started with {@link #beginTransaction()}, and return the connection to auto-commit mode.
+     * 
+     * @throws SchematicaException if there is a problem
+     */
+    public void commit() throws SchematicaException {
+        try {
+            if (!connection.getAutoCommit()) {
+                connection.commit();
+                connection.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            throw new SchematicaException(e);
+        }
+    }
+
     /**
      * Shows type of this database.
      * 
@@ -376,6 +587,7 @@ public class Database {
      */
     public PreparedStatement hasDocumentSql( String key ) throws SchematicaException {
         try {
+            PreparedStatement hasDocumentSql = statement("has_document");
             hasDocumentSql.setString(1, key.toString());
             return hasDocumentSql;
         } catch (SQLException e) {
@@ -392,6 +604,7 @@ public class Database {
      */
     public PreparedStatement readDocumentSql( String key ) throws SchematicaException {
         try {
+            PreparedStatement readDocumentSql = statement("read_document");
             readDocumentSql.setString(1, key.toString());
             return readDocumentSql;
         } catch (SQLException e) {
@@ -410,13 +623,13 @@ public class Database {
         try {
             PreparedStatement statement = null;
             if (keys.size() == Batched.LARGE_BATCH) {
-                statement = read51DocumentsSql;
+                statement = statement("read_51_documents");
             } else if (keys.size() == Batched.MEDIUM_BATCH) {
-                statement = read11DocumentsSql;
+                statement = statement("read_11_documents");
             } else if (keys.size() == Batched.SMALL_BATCH) {
-                statement = read4DocumentsSql;
+                statement = statement("read_4_documents");
             } else if (keys.size() == Batched.SINGLE_BATCH) {
-                statement = readDocumentSql;
+                statement = statement("read_document");
             } else {
                 String msg = Util.createString("Invalid number of keys: {0} but should have been {1}, {2}, {3}, or {4}",
                                                keys.size(),
@@ -437,6 +650,49 @@ public class Database {
         }
     }
 
+    /**
+     * Query statement that gets the values at the selected paths of the documents with the given keys, using the
+     * "{@code read_projected_documents}" statement with the supplied select list. The statement is cached for each number of keys
+     * and each select list, and its parameters are those of the select list followed by the keys.
+     * 
+     * @param keys the unique identifiers of the documents to be read; may not be empty
+     * @param projection the SQL select list that extracts the values; may not be null
+     * @param projectionParameters the values of the parameters in the select list; may not be null
+     * @return SQL statement.
+     * @throws SchematicaException
+     */
+    public PreparedStatement readProjectedDocumentsSql( Collection<String> keys,
+                                                        String projection,
+                                                        List<Object> projectionParameters ) throws SchematicaException {
+        String statementKey = "read_projected_documents/" + keys.size() + "/" + projection;
+        try {
+            PreparedStatement statement = statementCache.get(statementKey);
+            if (statement == null) {
+                StringBuilder where = new StringBuilder("doc_key IN (");
+                for (int i = 0; i != keys.size(); ++i) {
+                    where.append(i == 0 ? "?" : ",?");
+                }
+                where.append(')');
+                String statementString = Util.createString(statements.getProperty("read_projected_documents"),
+                                                           tableName,
+                                                           where.toString(),
+                                                           projection);
+                statement = connection.prepareStatement(statementString);
+                statementCache.put(statementKey, statement);
+            }
+            int index = 0;
+            for (Object parameter : projectionParameters) {
+                statement.setObject(++index, parameter);
+            }
+            for (String key : keys) {
+                statement.setString(++index, key);
+            }
+            return statement;
+        } catch (SQLException e) {
+            throw new SchematicaException(e);
+        }
+    }
+
     /**
      * Create statement for inserting or updating a document to the store.
      * 
@@ -453,6 +709,7 @@ public class Database {
                                                int format ) throws SchematicaException {
         java.sql.Timestamp now = new java.sql.Timestamp(now());
         try {
+            PreparedStatement writeDocumentSql = statement("write_document");
             writeDocumentSql.setString(1, key);
             writeDocumentSql.setString(2, schemaKey);
             writeDocumentSql.setInt(3, format);
@@ -465,6 +722,81 @@ public class Database {
         }
     }
 
+    /**
+     * Create statement for inserting or updating several documents in the store with a single multi-row statement, using the
+     * "{@code write_documents}" statement. The statement is cached for each number of documents.
+     * 
+     * @param keys the unique identifiers of the documents, which must all be different; may not be empty
+     * @param schemaKeys the unique identifiers of the schemas of the documents, in the same order as the keys; may not be null
+     * @param streams the contents of the documents, in the same order as the keys; may not be null
+     * @param format the format of the document representations
+     * @return SQL statement.
+     * @throws SchematicaException
+     */
+    public PreparedStatement writeDocumentsSql( List<String> keys,
+                                                List<String> schemaKeys,
+                                                List<InputStream> streams,
+                                                int format ) throws SchematicaException {
+        String statementKey = "write_documents/" + keys.size();
+        java.sql.Timestamp now = new java.sql.Timestamp(now());
+        try {
+            PreparedStatement statement = statementCache.get(statementKey);
+            if (statement == null) {
+                StringBuilder values = new StringBuilder();
+                for (int i = 0; i != keys.size(); ++i) {
+                    values.append(i == 0 ? "(?,?,?,?,?,?)" : ",(?,?,?,?,?,?)");
+                }
+                String statementString = Util.createString(statements.getProperty("write_documents"),
+                                                           tableName,
+                                                           values.toString());
+                statement = connection.prepareStatement(statementString);
+                statementCache.put(statementKey, statement);
+            }
+            int index = 0;
+            for (int i = 0; i != keys.size(); ++i) {
+                statement.setString(++index, keys.get(i));
+                statement.setString(++index, schemaKeys.get(i));
+                statement.setInt(++index, format);
+                statement.setTimestamp(++index, now); // created
+                statement.setTimestamp(++index, now); // modified
+                statement.setBinaryStream(++index, streams.get(i));
+            }
+            return statement;
+        } catch (SQLException e) {
+            throw new SchematicaException(e);
+        }
+    }
+
+    /**
+     * Create statement for updating a document in the store only if the document has the supplied version.
+     * 
+     * @param key unique document identifier
+     * @param schemaKey unique identifier of the schema for this document; may be null
+     * @param stream the document contents
+     * @param format the format of the document representation
+     * @param version the version that the existing document must have
+     * @return SQL statement.
+     * @throws SchematicaException
+     */
+    public PreparedStatement writeDocumentIfVersionSql( String key,
+                                                        String schemaKey,
+                                                        InputStream stream,
+                                                        int format,
+                                                        long version ) throws SchematicaException {
+        try {
+            PreparedStatement statement = statement("write_document_if_version");
+            statement.setString(1, schemaKey);
+            statement.setInt(2, format);
+            statement.setTimestamp(3, new java.sql.Timestamp(now())); // modified
+            statement.setBinaryStream(4, stream);
+            statement.setString(5, key);
+            statement.setLong(6, version);
+            return statement;
+        } catch (SQLException e) {
+            throw new SchematicaException(e);
+        }
+    }
+
     /**
      * Create statement for inserting a document to the store only if it does not already exist.
      * 
@@ -481,6 +813,7 @@ public class Database {
                                                         int format ) throws SchematicaException {
         java.sql.Timestamp now = new java.sql.Timestamp(now());
         try {
+            PreparedStatement insertIfAbsentDocumentSql = statement("insert_if_absent_document");
             insertIfAbsentDocumentSql.setString(1, key);
             insertIfAbsentDocumentSql.setString(2, schemaKey);
             insertIfAbsentDocumentSql.setInt(3, format);
@@ -502,6 +835,7 @@ public class Database {
      */
     public PreparedStatement removeDocumentSql( String key ) throws SchematicaException {
         try {
+            PreparedStatement removeDocumentSql = statement("remove_document");
             removeDocumentSql.setString(1, key);
             return removeDocumentSql;
         } catch (SQLException e) {
@@ -520,13 +854,13 @@ public class Database {
         try {
             PreparedStatement statement = null;
             if (keys.size() == Batched.LARGE_BATCH) {
-                statement = remove51DocumentsSql;
+                statement = statement("remove_51_documents");
             } else if (keys.size() == Batched.MEDIUM_BATCH) {
-                statement = remove11DocumentsSql;
+                statement = statement("remove_11_documents");
             } else if (keys.size() == Batched.SMALL_BATCH) {
-                statement = remove4DocumentsSql;
+                statement = statement("remove_4_documents");
             } else if (keys.size() == Batched.SINGLE_BATCH) {
-                statement = removeDocumentSql;
+                statement = statement("remove_document");
             } else {
                 String msg = Util.createString("Invalid number of keys: {0} but should have been {1}, {2}, {3}, or {4}",
                                                keys.size(),
@@ -554,7 +888,7 @@ public class Database {
      * @throws SchematicaException
      */
     public PreparedStatement readAllDocumentsSql() throws SchematicaException {
-        return readAllDocumentsSql;
+        return statement("read_all_documents");
     }
 
     /**
@@ -564,7 +898,501 @@ public class Database {
      * @throws SchematicaException
      */
     public PreparedStatement readAllDocumentKeysSql() throws SchematicaException {
-        return readAllKeysSql;
+        return statement("read_all_keys");
+    }
+
+    /**
+     * Statement that counts all of the documents.
+     * 
+     * @return SQL statement.
+     * @throws SchematicaException
+     */
+    public PreparedStatement countAllDocumentsSql() throws SchematicaException {
+        return statement("count_all_documents");
+    }
+
+    /**
+     * Query statement that gets a page of documents in key order.
+     * 
+     * @param afterKey the key of the last document in the previous page; may be null for the first page
+     * @param pageSize the maximum number of documents in the page
+     * @return SQL statement.
+     * @throws SchematicaException
+     */
+    public PreparedStatement readDocumentsAfterKeySql( String afterKey,
+                                                       int pageSize ) throws SchematicaException {
+        try {
+            PreparedStatement statement = null;
+            if (afterKey == null) {
+                statement = statement("read_first_documents_by_key");
+            } else {
+                statement = statement("read_documents_after_key");
+                statement.setString(1, afterKey);
+            }
+            statement.setMaxRows(pageSize);
+            return statement;
+        } catch (SQLException e) {
+            throw new SchematicaException(e);
+        }
+    }
+
+    /**
+     * Query statement that selects all of the indexed paths.
+     * 
+     * @return SQL statement.
+     * @throws SchematicaException
+     */
+    public PreparedStatement readIndexedPathsSql() throws SchematicaException {
+        return statement("read_indexed_paths");
+    }
+
+    /**
+     * Statement that adds a path to the set of indexed paths.
+     * 
+     * @param path the string form of the path
+     * @return SQL statement.
+     * @throws SchematicaException
+     */
+    public PreparedStatement insertIndexedPathSql( String path ) throws SchematicaException {
+        try {
+            PreparedStatement statement = statement("insert_indexed_path");
+            statement.setString(1, path);
+            return statement;
+        } catch (SQLException e) {
+            throw new SchematicaException(e);
+        }
+    }
+
+    /**
+     * Statement that removes a path from the set of indexed paths.
+     * 
+     * @param path the string form of the path
+     * @return SQL statement.
+     * @throws SchematicaException
+     */
+    public PreparedStatement removeIndexedPathSql( String path ) throws SchematicaException {
+        try {
+            PreparedStatement statement = statement("remove_indexed_path");
+            statement.setString(1, path);
+            return statement;
+        } catch (SQLException e) {
+            throw new SchematicaException(e);
+        }
+    }
+
+    /**
+     * Statement that adds to the index a value at a path within a document.
+     * 
+     * @param key the unique identifier of the document
+     * @param path the string form of the path
+     * @param textValue the textual value; may be null
+     * @param numberValue the numeric value; may be null
+     * @return SQL statement.
+     * @throws SchematicaException
+     */
+    public PreparedStatement insertIndexValueSql( String key,
+                                                  String path,
+                                                  String textValue,
+                                                  Double numberValue ) throws SchematicaException {
+        try {
+            PreparedStatement statement = statement("insert_index_value");
+            statement.setString(1, key);
+            statement.setString(2, path);
+            if (textValue != null) statement.setString(3, textValue);
+            else statement.setNull(3, Types.VARCHAR);
+            if (numberValue != null) statement.setDouble(4, numberValue.doubleValue());
+            else statement.setNull(4, Types.DOUBLE);
+            return statement;
+        } catch (SQLException e) {
+            throw new SchematicaException(e);
+        }
+    }
+
+    /**
+     * Statement that removes from the index all of the values for a document.
+     * 
+     * @param key the unique identifier of the document
+     * @return SQL statement.
+     * @throws SchematicaException
+     */
+    public PreparedStatement removeIndexValuesSql( String key ) throws SchematicaException {
+        try {
+            PreparedStatement statement = statement("remove_index_values");
+            statement.setString(1, key);
+            return statement;
+        } catch (SQLException e) {
+            throw new SchematicaException(e);
+        }
+    }
+
+    /**
+     * Statement that removes from the index all of the values at a path within a document.
+     * 
+     * @param key the unique identifier of the document
+     * @param path the string form of the path
+     * @return SQL statement.
+     * @throws SchematicaException
+     */
+    public PreparedStatement removeIndexValuesSql( String key,
+                                                   String path ) throws SchematicaException {
+        try {
+            PreparedStatement statement = statement("remove_index_values_for_key_and_path");
+            statement.setString(1, key);
+            statement.setString(2, path);
+            return statement;
+        } catch (SQLException e) {
+            throw new SchematicaException(e);
+        }
+    }
+
+    /**
+     * Statement that removes from the index all of the values at a path.
+     * 
+     * @param path the string form of the path
+     * @return SQL statement.
+     * @throws SchematicaException
+     */
+    public PreparedStatement removeIndexValuesForPathSql( String path ) throws SchematicaException {
+        try {
+            PreparedStatement statement = statement("remove_index_values_for_path");
+            statement.setString(1, path);
+            return statement;
+        } catch (SQLException e) {
+            throw new SchematicaException(e);
+        }
+    }
+
+    /**
+     * Query statement that gets the number of documents for each schema key from the table of statistics.
+     * 
+     * @return SQL statement.
+     * @throws SchematicaException
+     */
+    public PreparedStatement readStatisticsSql() throws SchematicaException {
+        return statement("read_statistics");
+    }
+
+    /**
+     * Statement that adds a change in the number of documents with a schema key to the table of statistics.
+     * 
+     * @param schemaKey the schema key, which is empty for documents without a schema; may not be null
+     * @param slot the slot to which the change is added
+     * @param delta the (possibly negative) change in the number of documents
+     * @return SQL statement.
+     * @throws SchematicaException
+     */
+    public PreparedStatement updateStatisticsSql( String schemaKey,
+                                                  int slot,
+                                                  long delta ) throws SchematicaException {
+        try {
+            PreparedStatement statement = statement("update_statistics");
+            statement.setString(1, schemaKey);
+            statement.setInt(2, slot);
+            statement.setLong(3, delta);
+            return statement;
+        } catch (SQLException e) {
+            throw new SchematicaException(e);
+        }
+    }
+
+    /**
+     * Statement that removes all of the statistics.
+     * 
+     * @return SQL statement.
+     * @throws SchematicaException
+     */
+    public PreparedStatement clearStatisticsSql() throws SchematicaException {
+        return statement("clear_statistics");
+    }
+
+    /**
+     * Statement that computes the statistics from the documents.
+     * 
+     * @return SQL statement.
+     * @throws SchematicaException
+     */
+    public PreparedStatement rebuildStatisticsSql() throws SchematicaException {
+        return statement("rebuild_statistics");
+    }
+
+    /**
+     * Statement that records a change to a document in the change log.
+     * 
+     * @param key the key of the changed document; may not be null
+     * @param schemaKey the schema key of the written document; may be null
+     * @param changeType the code of the type of change
+     * @param timestamp the time of the change in milliseconds since the epoch
+     * @return SQL statement.
+     * @throws SchematicaException
+     */
+    public PreparedStatement insertChangeSql( String key,
+                                              String schemaKey,
+                                              int changeType,
+                                              long timestamp ) throws SchematicaException {
+        try {
+            PreparedStatement statement = statement("insert_change");
+            statement.setString(1, key);
+            statement.setString(2, schemaKey);
+            statement.setInt(3, changeType);
+            statement.setTimestamp(4, new java.sql.Timestamp(timestamp));
+            return statement;
+        } catch (SQLException e) {
+            throw new SchematicaException(e);
+        }
+    }
+
+    /**
+     * Query statement that gets the changes in the change log after the given sequence number, in sequence order.
+     * 
+     * @param afterSequence the sequence number of the last change that is not to be read
+     * @param maximum the maximum number of changes to be read; must be positive
+     * @return SQL statement.
+     * @throws SchematicaException
+     */
+    public PreparedStatement readChangesSql( long afterSequence,
+                                             int maximum ) throws SchematicaException {
+        try {
+            PreparedStatement statement = statement("read_changes");
+            statement.setLong(1, afterSequence);
+            statement.setMaxRows(maximum);
+            return statement;
+        } catch (SQLException e) {
+            throw new SchematicaException(e);
+        }
+    }
+
+    /**
+     * Query statement that gets the sequence number of the last change in the change log.
+     * 
+     * @return SQL statement.
+     * @throws SchematicaException
+     */
+    public PreparedStatement readLastChangeSql() throws SchematicaException {
+        return statement("read_last_change");
+    }
+
+    /**
+     * Statement that removes the changes in the change log up to and including the given sequence number.
+     * 
+     * @param throughSequence the sequence number of the last change to be removed
+     * @return SQL statement.
+     * @throws SchematicaException
+     */
+    public PreparedStatement removeChangesSql( long throughSequence ) throws SchematicaException {
+        try {
+            PreparedStatement statement = statement("remove_changes");
+            statement.setLong(1, throughSequence);
+            return statement;
+        } catch (SQLException e) {
+            throw new SchematicaException(e);
+        }
+    }
+
+    /**
+     * Statement that records a patch to a document.
+     * 
+     * @param key the key of the patched document; may not be null
+     * @param stream the content of the patch
+     * @param format the format of the patch representation
+     * @return SQL statement.
+     * @throws SchematicaException
+     */
+    public PreparedStatement insertPatchSql( String key,
+                                             InputStream stream,
+                                             int format ) throws SchematicaException {
+        try {
+            PreparedStatement statement = statement("insert_patch");
+            statement.setString(1, key);
+            statement.setInt(2, format);
+            statement.setBinaryStream(3, stream);
+            return statement;
+        } catch (SQLException e) {
+            throw new SchematicaException(e);
+        }
+    }
+
+    /**
+     * Statement that updates the modification time of a document that has been patched.
+     * 
+     * @param key the key of the patched document; may not be null
+     * @return SQL statement.
+     * @throws SchematicaException
+     */
+    public PreparedStatement touchDocumentSql( String key ) throws SchematicaException {
+        try {
+            PreparedStatement statement = statement("touch_document");
+            statement.setTimestamp(1, new java.sql.Timestamp(now()));
+            statement.setString(2, key);
+            return statement;
+        } catch (SQLException e) {
+            throw new SchematicaException(e);
+        }
+    }
+
+    /**
+     * Query statement that gets the information about the documents with the given keys followed by each of their patches, using
+     * the "{@code read_patched_documents}" statement. The statement is cached for each number of keys.
+     * 
+     * @param keys the unique identifiers of the documents to be read; may not be empty
+     * @return SQL statement.
+     * @throws SchematicaException
+     */
+    public PreparedStatement readPatchedDocumentsSql( Collection<String> keys ) throws SchematicaException {
+        String statementKey = "read_patched_documents/" + keys.size();
+        try {
+            PreparedStatement statement = statementCache.get(statementKey);
+            if (statement == null) {
+                StringBuilder where = new StringBuilder("doc_key IN (");
+                for (int i = 0; i != keys.size(); ++i) {
+                    where.append(i == 0 ? "?" : ",?");
+                }
+                where.append(')');
+                String statementString = Util.createString(statements.getProperty("read_patched_documents"),
+                                                           tableName,
+                                                           where.toString());
+                statement = connection.prepareStatement(statementString);
+                statementCache.put(statementKey, statement);
+            }
+            // The keys are used in the criteria of both the documents and the patches ...
+            int index = 0;
+            for (int i = 0; i != 2; ++i) {
+                for (String key : keys) {
+                    statement.setString(++index, key);
+                }
+            }
+            return statement;
+        } catch (SQLException e) {
+            throw new SchematicaException(e);
+        }
+    }
+
+    /**
+     * Query statement that gets the keys of the documents that have patches.
+     * 
+     * @param maximum the maximum number of keys to be read; must be positive
+     * @return SQL statement.
+     * @throws SchematicaException
+     */
+    public PreparedStatement readPatchedKeysSql( int maximum ) throws SchematicaException {
+        try {
+            PreparedStatement statement = statement("read_patched_keys");
+            statement.setMaxRows(maximum);
+            return statement;
+        } catch (SQLException e) {
+            throw new SchematicaException(e);
+        }
+    }
+
+    /**
+     * Statement that replaces the content of an existing document without changing any of its other information.
+     * 
+     * @param key the key of the document; may not be null
+     * @param stream the document contents
+     * @param format the format of the document representation
+     * @return SQL statement.
+     * @throws SchematicaException
+     */
+    public PreparedStatement updateDocumentContentSql( String key,
+                                                       InputStream stream,
+                                                       int format ) throws SchematicaException {
+        try {
+            PreparedStatement statement = statement("update_document_content");
+            statement.setInt(1, format);
+            statement.setBinaryStream(2, stream);
+            statement.setString(3, key);
+            return statement;
+        } catch (SQLException e) {
+            throw new SchematicaException(e);
+        }
+    }
+
+    /**
+     * Statement that removes all of the patches of a document.
+     * 
+     * @param key the key of the document; may not be null
+     * @return SQL statement.
+     * @throws SchematicaException
+     */
+    public PreparedStatement removePatchesSql( String key ) throws SchematicaException {
+        try {
+            PreparedStatement statement = statement("remove_patches");
+            statement.setString(1, key);
+            return statement;
+        } catch (SQLException e) {
+            throw new SchematicaException(e);
+        }
+    }
+
+    /**
+     * Statement that removes the patches of a document up to and including the given sequence number.
+     * 
+     * @param key the key of the document; may not be null
+     * @param throughSequence the sequence number of the last patch to be removed
+     * @return SQL statement.
+     * @throws SchematicaException
+     */
+    public PreparedStatement removePatchesSql( String key,
+                                               long throughSequence ) throws SchematicaException {
+        try {
+            PreparedStatement statement = statement("remove_compacted_patches");
+            statement.setString(1, key);
+            statement.setLong(2, throughSequence);
+            return statement;
+        } catch (SQLException e) {
+            throw new SchematicaException(e);
+        }
+    }
+
+    /**
+     * Query statement that counts the documents for each schema key.
+     * 
+     * @return SQL statement.
+     * @throws SchematicaException
+     */
+    public PreparedStatement countDocumentsBySchemaSql() throws SchematicaException {
+        return statement("count_documents_by_schema");
+    }
+
+    /**
+     * Query statement that estimates the number of documents.
+     * 
+     * @return SQL statement, or null if the database has no such query
+     * @throws SchematicaException
+     */
+    public PreparedStatement estimateDocumentCountSql() throws SchematicaException {
+        return statements.getProperty("estimate_document_count") != null ? statement("estimate_document_count") : null;
+    }
+
+    /**
+     * Query statement that gets and locks the current schema keys of the documents with the supplied keys. Unlike most other
+     * statements used by this object, the returned statement is not shared and must be closed by the caller.
+     * 
+     * @param keys the unique identifiers of the documents; may not be empty
+     * @return SQL statement.
+     * @throws SchematicaException
+     */
+    public PreparedStatement readSchemaKeysSql( Collection<String> keys ) throws SchematicaException {
+        assert !keys.isEmpty();
+        StringBuilder criteria = new StringBuilder("doc_key IN (?");
+        for (int i = 1; i != keys.size(); ++i) {
+            criteria.append(",?");
+        }
+        criteria.append(')');
+        PreparedStatement statement = prepareStatement("read_schema_keys", criteria.toString());
+        try {
+            int index = 0;
+            for (String key : keys) {
+                statement.setString(++index, key);
+            }
+            return statement;
+        } catch (SQLException e) {
+            try {
+                statement.close();
+            } catch (SQLException e2) {
+                // ignore and throw the original ...
+            }
+            throw new SchematicaException(e);
+        }
     }
 
     /**
@@ -634,6 +1462,48 @@ public class Database {
         }
     }
 
+    /**
+     * Add the current set of parameters of the supplied statement to the statement's batch of commands. The batch is not sent to
+     * the database until {@link #executeBatch(PreparedStatement)} is called.
+     * 
+     * @param sql the statement whose parameters have been set; may not be null
+     * @throws SchematicaException
+     */
+    public static void addBatch( PreparedStatement sql ) throws SchematicaException {
+        try {
+            sql.addBatch();
+        } catch (SQLException e) {
+            throw new SchematicaException(e);
+        }
+    }
+
+    /**
+     * Submits the batch of commands accumulated on the supplied statement to the database in a single round trip.
+     * <p>
+     * Note that some drivers need additional configuration to actually send batches as a single request (e.g., MySQL's
+     * {@code rewriteBatchedStatements=true} connection property); without it the driver still executes one statement per
+     * command, but at least avoids the per-statement overhead in Schematica.
+     * </p>
+     * 
+     * @param sql the statement with one or more batched commands; may not be null
+     * @return the update counts for each command in the batch, in the order the commands were added; the counts may be
+     *         {@link Statement#SUCCESS_NO_INFO} when the driver cannot determine the number of affected rows
+     * @throws SchematicaException
+     */
+    public static int[] executeBatch( PreparedStatement sql ) throws SchematicaException {
+        try {
+            // LOGGER.trace("Running batch statement: {0}", sql);
+            return sql.executeBatch();
+        } catch (SQLException e) {
+            try {
+                sql.clearBatch();
+            } catch (SQLException e2) {
+                // ignore, since we're already going to throw the original exception ...
+            }
+            throw new SchematicaException(e);
+        }
+    }
+
     /**
      * A component that processes a {@link ResultSet}.
      * 
@@ -803,6 +1673,30 @@ public class Database {
         };
     }
 
+    /**
+     * A size-bounded cache of prepared statements that closes the least-recently used statement when the limit is exceeded.
+     */
+    protected static final class StatementCache extends LinkedHashMap<String, PreparedStatement> {
+        private static final long serialVersionUID = 1L;
+        private final int maximumSize;
+
+        protected StatementCache( int maximumSize ) {
+            super(maximumSize + 1, 0.75f, true);
+            this.maximumSize = maximumSize;
+        }
+
+        @Override
+        protected boolean removeEldestEntry( Map.Entry<String, PreparedStatement> eldest ) {
+            if (size() <= maximumSize) return false;
+            try {
+                eldest.getValue().close();
+            } catch (SQLException e) {
+                // The statement is no longer needed, so ignore this ...
+            }
+            return true;
+        }
+    }
+
     public <T> Iterable<Collection<T>> determineBatchesOf( Iterator<T> values ) {
         return new Batched<T>(values);
     }
@@ -866,15 +1760,23 @@ public class Database {
                 assert currentBatch.size() < LARGE_BATCH;
             }
 
+            int size = 0;
             if (currentBatch.size() == LARGE_BATCH) {
-                nextBatch = currentBatch;
-            } else if (currentBatch.size() > MEDIUM_BATCH) {
-                nextBatch = currentBatch.subList(0, MEDIUM_BATCH);
-            } else if (currentBatch.size() > SMALL_BATCH) {
-                nextBatch = currentBatch.subList(0, SMALL_BATCH);
+                size = LARGE_BATCH;
+            } else if (currentBatch.size() >= MEDIUM_BATCH) {
+                size = MEDIUM_BATCH;
+            } else if (currentBatch.size() >= SMALL_BATCH) {
+                size = SMALL_BATCH;
+            } else if (!currentBatch.isEmpty()) {
+                size = SINGLE_BATCH;
             } else {
-                nextBatch = currentBatch.subList(0, SINGLE_BATCH);
+                // There are no more values ...
+                return;
             }
+            // Copy the values out of the current batch and remove them, so the remaining values are used in the next batches ...
+            List<T> batch = currentBatch.subList(0, size);
+            nextBatch = new ArrayList<T>(batch);
+            batch.clear();
         }
     }
 }
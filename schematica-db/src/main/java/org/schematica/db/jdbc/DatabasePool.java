@@ -0,0 +1,253 @@
+/*
+ * Schematica (http://www.schematica.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.schematica.db.jdbc;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.sql.DataSource;
+import org.schematica.db.SchematicaException;
+import org.schematica.db.core.Util;
+
+/**
+ * A thread-safe pool of {@link Database} instances, each of which owns a single {@link Connection} and caches the prepared
+ * statements for that connection. Each operation should {@link #checkout() check out} a Database, use it exclusively, and then
+ * {@link #release(Database) release} it back to the pool:
+ * 
+ * <pre>
+ * Database database = pool.checkout();
+ * try {
+ *     // use the database ...
+ * } finally {
+ *     pool.release(database);
+ * }
+ * </pre>
+ * 
+ * Connections are obtained from the {@link DataSource} only as needed, up to the maximum pool size. When all connections are in
+ * use, {@link #checkout()} blocks until one is released or the timeout expires.
+ * 
+ * @author Randall Hauch (rhauch@redhat.com)
+ */
+public class DatabasePool {
+
+    /**
+     * The default maximum number of connections in the pool.
+     */
+    public static final int DEFAULT_POOL_SIZE = 10;
+
+    /**
+     * The default number of milliseconds that {@link #checkout()} waits for a connection to become available.
+     */
+    public static final long DEFAULT_CHECKOUT_TIMEOUT_MILLIS = 30 * 1000L;
+
+    private final DataSource dataSource;
+    private final Database.Type databaseType;
+    private final String prefix;
+    private final int maximumSize;
+    private final int statementCacheSize;
+    private final long checkoutTimeoutInMillis;
+    private final BlockingQueue<Database> available;
+    private final AtomicInteger size = new AtomicInteger();
+    private volatile boolean closed = false;
+
+    /**
+     * Create a pool that obtains its connections from the supplied data source.
+     * 
+     * @param dataSource the source of connections; may not be null
+     * @param type the type of database; may be null if the type is to be determined from the first connection
+     * @param prefix the prefix for the table name; may be null or blank
+     * @param maximumSize the maximum number of connections in the pool; must be positive
+     * @param statementCacheSize the maximum number of prepared statements cached for each connection
+     * @param checkoutTimeoutInMillis the maximum number of milliseconds to wait for an available connection
+     * @throws SchematicaException if the first connection cannot be obtained or the database cannot be initialized
+     */
+    public DatabasePool( DataSource dataSource,
+                         Database.Type type,
+                         String prefix,
+                         int maximumSize,
+                         int statementCacheSize,
+                         long checkoutTimeoutInMillis ) throws SchematicaException {
+        Util.notNull(dataSource, "dataSource");
+        if (maximumSize < 1) throw new IllegalArgumentException("The pool size must be positive, but was " + maximumSize);
+        this.dataSource = dataSource;
+        this.prefix = prefix;
+        this.maximumSize = maximumSize;
+        this.statementCacheSize = statementCacheSize;
+        this.checkoutTimeoutInMillis = checkoutTimeoutInMillis;
+        this.available = new LinkedBlockingQueue<>(maximumSize);
+        // Create the first database eagerly, so that we can determine the type and make sure the table exists ...
+        size.incrementAndGet();
+        Database first = newDatabase(type);
+        first.initialize();
+        this.databaseType = first.getDatabaseType();
+        this.available.add(first);
+    }
+
+    /**
+     * Create a pool that contains only the supplied connection. This is primarily useful when the application manages its own
+     * connection; operations will be serialized on that connection, and each waits up to
+     * {@value #DEFAULT_CHECKOUT_TIMEOUT_MILLIS} milliseconds for the connection to be released.
+     * 
+     * @param connection the connection; may not be null
+     * @throws SchematicaException if the database cannot be initialized
+     */
+    public DatabasePool( Connection connection ) throws SchematicaException {
+        this(connection, DEFAULT_CHECKOUT_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * Create a pool that contains only the supplied connection. This is primarily useful when the application manages its own
+     * connection; operations will be serialized on that connection. An operation that needs the connection while it is still
+     * checked out (for example, by a cursor that is still open in the same thread) fails once the timeout expires rather than
+     * waiting forever. A {@link JdbcStore} that uses such a pool reads the results of its tasks into memory, so that it never
+     * leaves a cursor open after a task completes.
+     * 
+     * @param connection the connection; may not be null
+     * @param checkoutTimeoutInMillis the maximum number of milliseconds to wait for the connection to be released
+     * @throws SchematicaException if the database cannot be initialized
+     */
+    public DatabasePool( Connection connection,
+                         long checkoutTimeoutInMillis ) throws SchematicaException {
+        Util.notNull(connection, "connection");
+        this.dataSource = null;
+        this.prefix = null;
+        this.maximumSize = 1;
+        this.statementCacheSize = Database.DEFAULT_STATEMENT_CACHE_SIZE;
+        this.checkoutTimeoutInMillis = checkoutTimeoutInMillis;
+        this.available = new LinkedBlockingQueue<>(1);
+        Database database = new Database(connection, null, null, statementCacheSize);
+        database.initialize();
+        this.databaseType = database.getDatabaseType();
+        this.size.incrementAndGet();
+        this.available.add(database);
+    }
+
+    /**
+     * Create a new database with a new connection. The caller must have already reserved the slot in the pool by incrementing the
+     * size, which this method will decrement if the database cannot be created.
+     * 
+     * @param type the type of database; may be null if it is to be determined
+     * @return the new database; never null
+     * @throws SchematicaException if a connection cannot be obtained
+     */
+    protected Database newDatabase( Database.Type type ) throws SchematicaException {
+        try {
+            return new Database(dataSource.getConnection(), type, prefix, statementCacheSize);
+        } catch (SQLException | RuntimeException e) {
+            size.decrementAndGet();
+            throw e instanceof SchematicaException ? (SchematicaException)e : new SchematicaException(e);
+        }
+    }
+
+    /**
+     * Get the type of database.
+     * 
+     * @return the database type; never null
+     */
+    public Database.Type getDatabaseType() {
+        return databaseType;
+    }
+
+    /**
+     * Get the maximum number of connections in this pool.
+     * 
+     * @return the maximum number of connections; always positive
+     */
+    public int getMaximumSize() {
+        return maximumSize;
+    }
+
+    /**
+     * Check out a {@link Database} for the exclusive use of the calling thread. The caller must {@link #release(Database)
+     * release} the database when finished with it, even if there are errors.
+     * 
+     * @return the database; never null
+     * @throws SchematicaException if the pool is closed, or if no connection becomes available within the timeout
+     */
+    public Database checkout() throws SchematicaException {
+        if (closed) throw new SchematicaException("The connection pool has been closed");
+        Database database = available.poll();
+        if (database != null) return database;
+        // None are available, so create a new one if we're not yet at the maximum size ...
+        while (true) {
+            int current = size.get();
+            if (current >= maximumSize) break;
+            if (size.compareAndSet(current, current + 1)) return newDatabase(databaseType);
+        }
+        // Otherwise, wait for one to be released ...
+        try {
+            database = available.poll(checkoutTimeoutInMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SchematicaException("Interrupted while waiting for a database connection", e);
+        }
+        if (database == null) {
+            String msg = Util.createString("No database connection became available within {0} ms; consider increasing the pool size of {1}",
+                                           checkoutTimeoutInMillis,
+                                           maximumSize);
+            throw new SchematicaException(msg);
+        }
+        return database;
+    }
+
+    /**
+     * Return a previously {@link #checkout() checked-out} database to the pool. Connections that have been closed or are no longer
+     * valid are discarded.
+     * 
+     * @param database the database; may be null
+     */
+    public void release( Database database ) {
+        if (database == null) return;
+        Connection connection = database.getConnection();
+        boolean reusable = false;
+        try {
+            if (!connection.isClosed()) {
+                // Restore the default connection state, in case the caller changed it ...
+                if (!connection.getAutoCommit()) {
+                    connection.rollback();
+                    connection.setAutoCommit(true);
+                }
+                reusable = true;
+            }
+        } catch (SQLException e) {
+            // Not reusable ...
+        }
+        if (reusable && !closed && available.offer(database)) return;
+        // Otherwise, discard the connection ...
+        size.decrementAndGet();
+        try {
+            database.disconnect();
+        } catch (SchematicaException e) {
+            // ignore, since the connection is being discarded ...
+        }
+    }
+
+    /**
+     * Close all of the connections in the pool. Connections that are currently checked out are closed when they are released.
+     */
+    public void close() {
+        closed = true;
+        Database database = null;
+        while ((database = available.poll()) != null) {
+            size.decrementAndGet();
+            database.disconnect();
+        }
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Schematica (http://www.schematica.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.schematica.db.jdbc;
+
+import java.io.PrintWriter;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.logging.Logger;
+import javax.sql.DataSource;
+
+/**
+ * A simple {@link DataSource} that obtains a new connection from the {@link DriverManager} each time one is requested. It is
+ * intended to be used with {@link DatabasePool}, which does the pooling.
+ * 
+ * @author Randall Hauch (rhauch@redhat.com)
+ */
+public class DriverManagerDataSource implements DataSource {
+
+    private final String url;
+    private final String username;
+    private final String password;
+    private volatile PrintWriter logWriter;
+    private volatile int loginTimeout;
+
+    /**
+     * Create a data source for the given JDBC URL.
+     * 
+     * @param url the JDBC URL; may not be null
+     * @param username the username; may be null
+     * @param password the password; may be null
+     */
+    public DriverManagerDataSource( String url,
+                                    String username,
+                                    String password ) {
+        assert url != null;
+        this.url = url;
+        this.username = username;
+        this.password = password;
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        return getConnection(username, password);
+    }
+
+    @Override
+    public Connection getConnection( String username,
+                                     String password ) throws SQLException {
+        if (username == null) return DriverManager.getConnection(url);
+        return DriverManager.getConnection(url, username, password);
+    }
+
+    @Override
+    public PrintWriter getLogWriter() {
+        return logWriter;
+    }
+
+    @Override
+    public void setLogWriter( PrintWriter out ) {
+        this.logWriter = out;
+    }
+
+    @Override
+    public void setLoginTimeout( int seconds ) {
+        this.loginTimeout = seconds;
+    }
+
+    @Override
+    public int getLoginTimeout() {
+        return loginTimeout;
+    }
+
+    @Override
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        throw new SQLFeatureNotSupportedException();
+    }
+
+    @Override
+    public <T> T unwrap( Class<T> iface ) throws SQLException {
+        if (iface.isInstance(this)) return iface.cast(this);
+        throw new SQLException("Not a wrapper for " + iface);
+    }
+
+    @Override
+    public boolean isWrapperFor( Class<?> iface ) {
+        return iface.isInstance(this);
+    }
+
+    @Override
+    public String toString() {
+        return url;
+    }
+}
@@ -0,0 +1,624 @@
+/*
+ * Schematica (http://www.schematica.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.schematica.db.jdbc;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import javax.json.JsonNumber;
+import javax.json.JsonString;
+import javax.json.JsonValue;
+import javax.json.JsonValue.ValueType;
+import org.schematica.db.Path;
+import org.schematica.db.core.Filters;
+import org.schematica.db.core.Filters.DateFilter;
+import org.schematica.db.core.Filters.FieldAbsent;
+import org.schematica.db.core.Filters.FieldArrayWith;
+import org.schematica.db.core.Filters.FieldComparison;
+import org.schematica.db.core.Filters.FieldEquals;
+import org.schematica.db.core.Filters.FieldExists;
+import org.schematica.db.core.Filters.FieldFilter;
+import org.schematica.db.core.Filters.FieldHasOneOf;
+import org.schematica.db.core.Filters.FieldLike;
+import org.schematica.db.core.Filters.SchemaFilter;
+import org.schematica.db.core.Filters.SelectAll;
+import org.schematica.db.core.Filters.SelectNone;
+import org.schematica.db.core.Util;
+import org.schematica.db.task.Filter;
+import org.schematica.db.task.FilterBuilder.Operator;
+
+/**
+ * A component that translates {@link Filter} trees into SQL WHERE clauses. The translation is conservative: the resulting
+ * {@link WhereClause} always selects a <em>superset</em> of the documents that satisfy the filter, and it is {@link
+ * WhereClause#isExact() exact} only when it selects precisely those documents. Any part of the filter that cannot be expressed
+ * in SQL is left for the caller to evaluate in-memory against the (smaller) set of rows returned by the query.
+ * <p>
+ * The criteria on the document metadata (the {@link FilterBuilder#withSchema(String) schema} and the
+ * {@link FilterBuilder#createdDate(Operator, java.sql.Date) created} and
+ * {@link FilterBuilder#lastModifiedDate(Operator, java.sql.Date) last modified} dates) are always translated exactly. Criteria
+ * on the fields within the documents are translated only when the statements file for the database defines the
+ * "{@code json_text}", "{@code json_number}" and (optionally) "{@code json_type}" expressions that extract a value from JSON
+ * content. Each '{@code ?}' in those expressions is bound to the path of the field, formatted according to the
+ * "{@code json_path_style}" property. Because the database's comparison semantics may differ slightly from those of the JSON
+ * values, field criteria are never considered exact.
+ * </p>
+ * <p>
+ * Criteria on {@link org.schematica.db.Indexes indexed} fields are instead translated into subqueries against the index table
+ * (using the "{@code index_criteria}" statement), which avoids examining the content of every document. Criteria on whether
+ * indexed fields exist are exact, while the other criteria on indexed values are not, since string values are truncated and
+ * numeric values are approximated in the index.
+ * </p>
+ * 
+ * @author Randall Hauch (rhauch@redhat.com)
+ * @see org.schematica.db.task.FilterBuilder
+ */
+public class FilterTranslator {
+
+    protected static final String JSON_TEXT = "json_text";
+    protected static final String JSON_NUMBER = "json_number";
+    protected static final String JSON_TYPE = "json_type";
+    protected static final String JSON_VALUE = "json_value";
+    protected static final String JSON_PATH_STYLE = "json_path_style";
+    protected static final String INDEX_CRITERIA = "index_criteria";
+
+    /**
+     * The styles of JSON path expressions.
+     */
+    public static enum PathStyle {
+        /** Paths like <code>$."customer"."addresses"[0]</code> */
+        MYSQL,
+        /** Paths like <code>{"customer","addresses","0"}</code> */
+        POSTGRES;
+    }
+
+    private final String jsonText;
+    private final String jsonNumber;
+    private final String jsonType;
+    private final String jsonValue;
+    private final PathStyle pathStyle;
+    private final int jsonFormatCode;
+    private final Set<Path> indexedPaths;
+    private final String indexCriteria;
+    private final String tableName;
+
+    /**
+     * Create a translator that uses the JSON expressions defined in the statements for the supplied database.
+     * 
+     * @param database the database; may not be null
+     * @param jsonFormatCode the {@link org.schematica.db.core.DocumentFormat#getType() code} of the JSON format; field criteria
+     *        are applied only to rows with this format
+     */
+    public FilterTranslator( Database database,
+                             int jsonFormatCode ) {
+        this(database, jsonFormatCode, Collections.<Path>emptySet());
+    }
+
+    /**
+     * Create a translator that uses the index for the criteria on the supplied paths, and the JSON expressions defined in the
+     * statements for the supplied database for the criteria on other paths.
+     * 
+     * @param database the database; may not be null
+     * @param jsonFormatCode the {@link org.schematica.db.core.DocumentFormat#getType() code} of the JSON format; field criteria
+     *        are applied only to rows with this format
+     * @param indexedPaths the paths that are completely indexed; may not be null
+     */
+    public FilterTranslator( Database database,
+                             int jsonFormatCode,
+                             Set<Path> indexedPaths ) {
+        this.indexedPaths = indexedPaths;
+        this.indexCriteria = database.getStatement(INDEX_CRITERIA);
+        this.tableName = database.getTableName();
+        this.jsonText = database.getStatement(JSON_TEXT);
+        this.jsonNumber = database.getStatement(JSON_NUMBER);
+        this.jsonType = database.getStatement(JSON_TYPE);
+        this.jsonValue = database.getStatement(JSON_VALUE);
+        String style = database.getStatement(JSON_PATH_STYLE);
+        this.pathStyle = style != null && style.trim().length() != 0 ? PathStyle.valueOf(style.trim().toUpperCase()) : PathStyle.MYSQL;
+        this.jsonFormatCode = jsonFormatCode;
+    }
+
+    /**
+     * Get the SQL expression that extracts the numeric value of the field at the supplied path from JSON content. The expression
+     * is null for rows whose field is missing or is not a number, and when {@code integral} is true, for rows whose number has a
+     * fractional part.
+     * 
+     * @param path the path of the field; may not be null
+     * @param integral true if only integral values are to be returned
+     * @return the expression and its parameters, or null if the database does not define the "{@code json_number}" expression
+     */
+    public WhereClause jsonNumber( Path path,
+                                   boolean integral ) {
+        if (jsonNumber == null) return null;
+        Builder expression = new Builder();
+        if (integral) {
+            expression.append("(CASE WHEN ").number(path).append(" = FLOOR(").number(path).append(") THEN ").number(path);
+            expression.append(" END)");
+        } else {
+            expression.number(path);
+        }
+        return expression.build(true);
+    }
+
+    /**
+     * Get the SQL select list that extracts the values at the supplied paths from JSON content, so that only those values rather
+     * than the whole content are transferred from the database. The first column is the content of the rows that are not stored
+     * in JSON format (and is null for those that are), and it is followed by one column for each path containing the JSON text
+     * of the value (or null if the row is not stored in JSON format or if the path does not exist).
+     * 
+     * @param paths the paths of the values; may not be null
+     * @return the select list and its parameters, or null if the database does not define the "{@code json_value}" expression
+     */
+    public WhereClause jsonProjection( List<Path> paths ) {
+        if (jsonValue == null) return null;
+        Builder columns = new Builder();
+        columns.append("(CASE WHEN format = ? THEN NULL ELSE doc_content END)").parameter(jsonFormatCode);
+        for (Path path : paths) {
+            columns.append(", (CASE WHEN format = ? THEN ").parameter(jsonFormatCode);
+            columns.expression(jsonValue, path).append(" END)");
+        }
+        return columns.build(true);
+    }
+
+    /**
+     * Get the clause that selects the rows that are, or are not, stored in JSON format.
+     * 
+     * @param json true if the rows stored in JSON format are to be selected, or false if the other rows are to be selected
+     * @return the clause; never null
+     */
+    public WhereClause jsonFormat( boolean json ) {
+        return new WhereClause(json ? "(format = ?)" : "(format <> ?)", Collections.<Object>singletonList(jsonFormatCode), true);
+    }
+
+    /**
+     * Translate the supplied filter into a WHERE clause.
+     * 
+     * @param filter the filter; may be null if all documents are to be selected
+     * @return the WHERE clause; never null
+     */
+    public WhereClause translate( Filter filter ) {
+        if (filter == null) return WhereClause.ALL;
+        WhereClause clause = translateFilter(filter);
+        return clause != null ? clause : WhereClause.ALL.inexact();
+    }
+
+    /**
+     * Translate the supplied filter into a WHERE clause.
+     * 
+     * @param filter the filter; never null
+     * @return the clause, or null if the filter cannot be translated into SQL at all
+     */
+    protected WhereClause translateFilter( Filter filter ) {
+        if (filter instanceof Filter.And) {
+            Filter.And and = (Filter.And)filter;
+            WhereClause first = translateFilter(and.getFirst());
+            WhereClause second = translateFilter(and.getSecond());
+            // Either side can be dropped, since the other side then still selects a superset ...
+            if (first == null) return second != null ? second.inexact() : null;
+            if (second == null) return first.inexact();
+            return WhereClause.combine("AND", first, second);
+        }
+        if (filter instanceof Filter.Or) {
+            Filter.Or or = (Filter.Or)filter;
+            WhereClause first = translateFilter(or.getFirst());
+            if (first == null) return null;
+            WhereClause second = translateFilter(or.getSecond());
+            if (second == null) return null;
+            return WhereClause.combine("OR", first, second);
+        }
+        if (filter instanceof Filter.Not) {
+            // The negation of a superset is not a superset, so only exact clauses can be negated ...
+            WhereClause negated = translateFilter(((Filter.Not)filter).notted());
+            if (negated == null || !negated.isExact()) return null;
+            return new WhereClause("NOT " + negated.getSql(), negated.getParameters(), true);
+        }
+        if (filter instanceof SelectAll) return WhereClause.ALL;
+        if (filter instanceof SelectNone) return WhereClause.NONE;
+        if (filter instanceof SchemaFilter) {
+            String schemaKey = ((SchemaFilter)filter).getSchemaKey();
+            if (schemaKey == null) return new WhereClause("(schema_key IS NULL)", Collections.emptyList(), true);
+            // Written so that the result is never NULL, which allows the clause to be negated ...
+            return new WhereClause("(schema_key IS NOT NULL AND schema_key = ?)", Collections.<Object>singletonList(schemaKey), true);
+        }
+        if (filter instanceof DateFilter) {
+            DateFilter dateFilter = (DateFilter)filter;
+            String column = dateFilter.getField() == Filters.DateField.CREATED ? "created_instant" : "last_modified_instant";
+            Timestamp timestamp = new Timestamp(dateFilter.getDate().getTime());
+            String sql = "(" + column + " " + operator(dateFilter.getOperator()) + " ?)";
+            return new WhereClause(sql, Collections.<Object>singletonList(timestamp), true);
+        }
+        if (filter instanceof FieldFilter) {
+            return translateField((FieldFilter)filter);
+        }
+        // Otherwise it's a custom filter that can only be evaluated in-memory ...
+        return null;
+    }
+
+    protected WhereClause translateField( FieldFilter filter ) {
+        if (indexCriteria != null && indexedPaths.contains(filter.getPath())) return translateIndexed(filter);
+        if (jsonText == null || jsonNumber == null) return null;
+        Path path = filter.getPath();
+        Builder predicate = new Builder();
+        if (filter instanceof FieldExists) {
+            predicate.text(path).append(" IS NOT NULL");
+        } else if (filter instanceof FieldAbsent) {
+            // Some databases return the JSON null literal as the text 'null' ...
+            predicate.append("(").text(path).append(" IS NULL OR ").text(path).append(" = 'null')");
+        } else if (filter instanceof FieldEquals) {
+            if (!equalTo(predicate, path, ((FieldEquals)filter).getValue())) return null;
+        } else if (filter instanceof FieldComparison) {
+            FieldComparison comparison = (FieldComparison)filter;
+            predicate.number(path).append(" " + operator(comparison.getOperator()) + " ?");
+            predicate.parameter(comparison.getValue().bigDecimalValue());
+        } else if (filter instanceof FieldHasOneOf) {
+            // Arrays are matched when they contain one of the values, which we can't express, so select all arrays ...
+            if (jsonType == null) return null;
+            predicate.append("(").isArray(path);
+            for (JsonValue value : ((FieldHasOneOf)filter).getValues()) {
+                predicate.append(" OR ");
+                if (!equalTo(predicate, path, value)) return null;
+            }
+            predicate.append(")");
+        } else if (filter instanceof FieldArrayWith) {
+            if (jsonType == null) return null;
+            predicate.isArray(path);
+        } else if (filter instanceof FieldLike) {
+            String pattern = ((FieldLike)filter).getLikePattern();
+            // Character lists and escapes are not handled consistently by all databases ...
+            if (pattern.indexOf('[') >= 0 || pattern.indexOf('\\') >= 0) return null;
+            predicate.text(path).append(" LIKE ?");
+            predicate.parameter(pattern);
+        } else {
+            // Regular expressions and other field criteria are evaluated in-memory ...
+            return null;
+        }
+        // Apply the criteria only to JSON content; other formats are evaluated in-memory ...
+        Builder clause = new Builder();
+        clause.append("(CASE WHEN format = ? THEN ").parameter(jsonFormatCode);
+        clause.append(predicate).append(" ELSE 1 = 1 END)");
+        return clause.build(false);
+    }
+
+    /**
+     * Translate the criteria on an indexed field into subqueries against the index table. Every existing, non-null value has at
+     * least one row in the index, so the criteria on whether the field exists are exact. The criteria on values are not exact but
+     * select a superset: strings are compared after {@link JdbcIndexes#indexedText(String) truncation}, and numbers are compared
+     * as {@link JdbcIndexes#indexedNumber(JsonNumber) doubles} using non-strict comparisons.
+     * 
+     * @param filter the filter on an indexed field; never null
+     * @return the clause, or null if the filter cannot be translated
+     */
+    protected WhereClause translateIndexed( FieldFilter filter ) {
+        Path path = filter.getPath();
+        if (filter instanceof FieldExists) {
+            return indexed(path, new Builder().append("1 = 1")).build(true);
+        }
+        if (filter instanceof FieldAbsent) {
+            return new Builder().append("NOT ").append(indexed(path, new Builder().append("1 = 1"))).build(true);
+        }
+        if (filter instanceof FieldEquals) {
+            JsonValue value = ((FieldEquals)filter).getValue();
+            if (value == null || value.getValueType() == ValueType.NULL) {
+                return new Builder().append("NOT ").append(indexed(path, new Builder().append("1 = 1"))).build(true);
+            }
+            Builder predicate = new Builder();
+            if (!indexedValue(predicate, value)) return null;
+            return indexed(path, predicate).build(false);
+        }
+        if (filter instanceof FieldComparison) {
+            FieldComparison comparison = (FieldComparison)filter;
+            Builder predicate = new Builder();
+            Operator op = comparison.getOperator();
+            switch (op) {
+                case NOT_EQUALS:
+                    // Different numbers may be equal when approximated ...
+                    predicate.append("number_value IS NOT NULL");
+                    break;
+                case GREATER_THAN:
+                    op = Operator.GREATER_THAN_OR_EQUALS;
+                    break;
+                case LESS_THAN:
+                    op = Operator.LESS_THAN_OR_EQUALS;
+                    break;
+                default:
+                    break;
+            }
+            if (op != Operator.NOT_EQUALS) {
+                predicate.append("number_value " + operator(op) + " ?");
+                predicate.parameter(JdbcIndexes.indexedNumber(comparison.getValue()));
+            }
+            return indexed(path, predicate).build(false);
+        }
+        if (filter instanceof FieldHasOneOf) {
+            Builder clause = new Builder().append("(");
+            boolean first = true;
+            for (JsonValue value : ((FieldHasOneOf)filter).getValues()) {
+                if (first) first = false;
+                else clause.append(" OR ");
+                if (value == null || value.getValueType() == ValueType.NULL) {
+                    clause.append("NOT ").append(indexed(path, new Builder().append("1 = 1")));
+                    continue;
+                }
+                Builder predicate = new Builder();
+                if (!indexedValue(predicate, value)) return null;
+                clause.append(indexed(path, predicate));
+            }
+            if (first) return WhereClause.NONE;
+            return clause.append(")").build(false);
+        }
+        if (filter instanceof FieldArrayWith) {
+            // The array elements are indexed, but so are non-array values ...
+            Builder predicate = new Builder();
+            if (!indexedValue(predicate, ((FieldArrayWith)filter).getValue())) return null;
+            return indexed(path, predicate).build(false);
+        }
+        if (filter instanceof FieldLike) {
+            String pattern = ((FieldLike)filter).getLikePattern();
+            // Only prefix patterns can be evaluated against truncated values ...
+            int wildcard = pattern.indexOf('%');
+            if (wildcard != pattern.length() - 1 || wildcard > JdbcIndexes.MAXIMUM_TEXT_LENGTH) return null;
+            if (pattern.indexOf('[') >= 0 || pattern.indexOf('\\') >= 0) return null;
+            return indexed(path, new Builder().append("text_value LIKE ?").parameter(pattern)).build(false);
+        }
+        // Regular expressions and other field criteria are evaluated in-memory ...
+        return null;
+    }
+
+    private Builder indexed( Path path,
+                             Builder predicate ) {
+        Builder clause = new Builder();
+        clause.append("(").append(Util.createString(indexCriteria, tableName, predicate.sql.toString())).append(")");
+        clause.parameter(path.toString());
+        clause.parameters.addAll(predicate.parameters);
+        return clause;
+    }
+
+    private boolean indexedValue( Builder predicate,
+                                  JsonValue value ) {
+        if (value == null) return false;
+        switch (value.getValueType()) {
+            case STRING:
+                predicate.append("text_value = ?").parameter(JdbcIndexes.indexedText(((JsonString)value).getString()));
+                return true;
+            case NUMBER:
+                predicate.append("number_value = ?").parameter(JdbcIndexes.indexedNumber((JsonNumber)value));
+                return true;
+            case TRUE:
+                predicate.append("text_value = 'true'");
+                return true;
+            case FALSE:
+                predicate.append("text_value = 'false'");
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private boolean equalTo( Builder predicate,
+                             Path path,
+                             JsonValue value ) {
+        switch (value.getValueType()) {
+            case STRING:
+                predicate.text(path).append(" = ?").parameter(((JsonString)value).getString());
+                return true;
+            case NUMBER:
+                predicate.number(path).append(" = ?").parameter(((JsonNumber)value).bigDecimalValue());
+                return true;
+            case TRUE:
+                predicate.text(path).append(" = 'true'");
+                return true;
+            case FALSE:
+                predicate.text(path).append(" = 'false'");
+                return true;
+            case NULL:
+                predicate.append("(").text(path).append(" IS NULL OR ").text(path).append(" = 'null')");
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    protected static String operator( Operator op ) {
+        switch (op) {
+            case EQUALS:
+                return "=";
+            case NOT_EQUALS:
+                return "<>";
+            case GREATER_THAN:
+                return ">";
+            case GREATER_THAN_OR_EQUALS:
+                return ">=";
+            case LESS_THAN:
+                return "<";
+            case LESS_THAN_OR_EQUALS:
+                return "<=";
+        }
+        throw new IllegalArgumentException("Unknown operator: " + op);
+    }
+
+    /**
+     * Format the supplied path in the style expected by the database's JSON functions.
+     * 
+     * @param path the path; may not be null
+     * @return the path expression; never null
+     */
+    protected String jsonPath( Path path ) {
+        StringBuilder sb = new StringBuilder();
+        if (pathStyle == PathStyle.POSTGRES) {
+            sb.append('{');
+            boolean first = true;
+            for (String segment : path) {
+                if (first) first = false;
+                else sb.append(',');
+                sb.append('"').append(segment.replace("\\", "\\\\").replace("\"", "\\\"")).append('"');
+            }
+            sb.append('}');
+        } else {
+            sb.append('$');
+            for (String segment : path) {
+                if (isIndex(segment)) sb.append('[').append(segment).append(']');
+                else sb.append(".\"").append(segment.replace("\\", "\\\\").replace("\"", "\\\"")).append('"');
+            }
+        }
+        return sb.toString();
+    }
+
+    private static boolean isIndex( String segment ) {
+        for (int i = 0; i != segment.length(); ++i) {
+            if (!Character.isDigit(segment.charAt(i))) return false;
+        }
+        return segment.length() != 0;
+    }
+
+    /**
+     * Helper for building the SQL and the parameters in the order they appear in the SQL.
+     */
+    private final class Builder {
+        private final StringBuilder sql = new StringBuilder();
+        private final List<Object> parameters = new ArrayList<>();
+
+        Builder append( String text ) {
+            sql.append(text);
+            return this;
+        }
+
+        Builder append( Builder other ) {
+            sql.append(other.sql);
+            parameters.addAll(other.parameters);
+            return this;
+        }
+
+        Builder parameter( Object value ) {
+            parameters.add(value);
+            return this;
+        }
+
+        Builder text( Path path ) {
+            return expression(jsonText, path);
+        }
+
+        Builder number( Path path ) {
+            return expression(jsonNumber, path);
+        }
+
+        Builder isArray( Path path ) {
+            return append("LOWER(").expression(jsonType, path).append(") = 'array'");
+        }
+
+        private Builder expression( String template,
+                                    Path path ) {
+            String jsonPath = jsonPath(path);
+            for (int i = 0; i != template.length(); ++i) {
+                if (template.charAt(i) == '?') parameters.add(jsonPath);
+            }
+            sql.append(template.trim());
+            return this;
+        }
+
+        WhereClause build( boolean exact ) {
+            return new WhereClause(sql.toString(), parameters, exact);
+        }
+    }
+
+    /**
+     * A SQL boolean expression and the values of its parameters.
+     */
+    public static final class WhereClause {
+
+        protected static final WhereClause ALL = new WhereClause("1 = 1", Collections.emptyList(), true);
+        protected static final WhereClause NONE = new WhereClause("1 = 0", Collections.emptyList(), true);
+
+        protected static WhereClause combine( String operator,
+                                              WhereClause first,
+                                              WhereClause second ) {
+            List<Object> parameters = new ArrayList<>(first.parameters.size() + second.parameters.size());
+            parameters.addAll(first.parameters);
+            parameters.addAll(second.parameters);
+            String sql = "(" + first.sql + " " + operator + " " + second.sql + ")";
+            return new WhereClause(sql, parameters, first.exact && second.exact);
+        }
+
+        private final String sql;
+        private final List<Object> parameters;
+        private final boolean exact;
+
+        protected WhereClause( String sql,
+                               List<Object> parameters,
+                               boolean exact ) {
+            this.sql = sql;
+            this.parameters = Collections.unmodifiableList(parameters);
+            this.exact = exact;
+        }
+
+        /**
+         * Get the SQL boolean expression.
+         * 
+         * @return the SQL; never null
+         */
+        public String getSql() {
+            return sql;
+        }
+
+        /**
+         * Get the values of the parameters in the {@link #getSql() SQL}, in the order they appear.
+         * 
+         * @return the parameter values; never null
+         */
+        public List<Object> getParameters() {
+            return parameters;
+        }
+
+        /**
+         * Determine whether this clause selects exactly the documents that satisfy the filter. If not, the selected documents
+         * must also be evaluated in-memory with the filter.
+         * 
+         * @return true if the clause is exact, or false if it selects a superset
+         */
+        public boolean isExact() {
+            return exact;
+        }
+
+        protected WhereClause inexact() {
+            return exact ? new WhereClause(sql, parameters, false) : this;
+        }
+
+        /**
+         * Bind the parameter values to the supplied statement.
+         * 
+         * @param statement the statement; may not be null
+         * @param firstIndex the index of the first parameter of this clause within the statement
+         * @return the index of the next parameter after those of this clause
+         * @throws SQLException if there is a problem binding the values
+         */
+        public int bind( PreparedStatement statement,
+                         int firstIndex ) throws SQLException {
+            int index = firstIndex;
+            for (Object parameter : parameters) {
+                statement.setObject(index++, parameter);
+            }
+            return index;
+        }
+
+        @Override
+        public String toString() {
+            return sql + " " + parameters + (exact ? "" : " (inexact)");
+        }
+    }
+}
@@ -0,0 +1,398 @@
+/*
+ * Schematica (http://www.schematica.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.schematica.db.jdbc;
+
+import java.io.IOException;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.json.JsonArray;
+import javax.json.JsonNumber;
+import javax.json.JsonString;
+import javax.json.JsonValue;
+import org.schematica.db.Document;
+import org.schematica.db.Indexes;
+import org.schematica.db.Path;
+import org.schematica.db.SchematicaException;
+import org.schematica.db.core.Collectors;
+import org.schematica.db.core.Collectors.Collector;
+import org.schematica.db.core.Paths;
+import org.schematica.db.core.Util;
+import org.schematica.db.jdbc.Database.ResultSetProcessor;
+
+/**
+ * The {@link Indexes} implementation for a {@link JdbcStore}. The indexed paths are recorded in the
+ * "<code>{table}_INDEXED_PATHS</code>" table, and the values at those paths are stored in the "<code>{table}_INDEX</code>" table,
+ * which contains a row for each value at an indexed path in each document:
+ * <ul>
+ * <li>string values are stored in the <code>text_value</code> column, truncated to {@link #MAXIMUM_TEXT_LENGTH} characters;</li>
+ * <li>numeric values are stored in the <code>number_value</code> column;</li>
+ * <li>boolean values are stored as "<code>true</code>" or "<code>false</code>" in the <code>text_value</code> column;</li>
+ * <li>arrays and nested objects are stored as a row with no values, and each of the scalar elements of an array are stored as
+ * an additional row; and</li>
+ * <li>null values and missing fields have no rows.</li>
+ * </ul>
+ * The store updates the rows for each document in the same transaction that writes or removes the document.
+ * 
+ * @author Randall Hauch (rhauch@redhat.com)
+ */
+public class JdbcIndexes implements Indexes {
+
+    /**
+     * The maximum number of characters of each string value that are stored in the index.
+     */
+    public static final int MAXIMUM_TEXT_LENGTH = 255;
+
+    /**
+     * The number of documents that are read and indexed in each transaction when a new index is added.
+     */
+    protected static final int BACKFILL_PAGE_SIZE = 500;
+
+    private final JdbcStore store;
+    /**
+     * The paths whose values are maintained as documents are written, keyed by their string form. This includes the paths whose
+     * existing values are still being indexed. Like {@link #indexedPaths}, the map is never modified but is replaced upon every
+     * change.
+     */
+    private volatile Map<String, Path> maintainedPaths = Collections.emptyMap();
+    /**
+     * The paths whose values are completely indexed and can be used in queries, keyed by their string form.
+     */
+    private volatile Map<String, Path> indexedPaths = Collections.emptyMap();
+
+    protected JdbcIndexes( JdbcStore store ) {
+        this.store = store;
+    }
+
+    @Override
+    public Set<Path> getIndexedPaths() {
+        return Collections.unmodifiableSet(new LinkedHashSet<>(indexedPaths.values()));
+    }
+
+    @Override
+    public boolean isIndexed( Path path ) {
+        Util.notNull(path, "path");
+        return indexedPaths.containsKey(path.toString());
+    }
+
+    /**
+     * Determine whether there are no paths whose values need to be maintained as documents are written and removed.
+     * 
+     * @return true if nothing is indexed, or false otherwise
+     */
+    public boolean isEmpty() {
+        return maintainedPaths.isEmpty();
+    }
+
+    @Override
+    public boolean add( Path path ) {
+        Util.notNull(path, "path");
+        String pathStr = path.toString();
+        if (pathStr.length() == 0 || pathStr.length() > MAXIMUM_TEXT_LENGTH) {
+            String msg = Util.createString("The path ''{0}'' cannot be indexed because it is empty or longer than {1} characters",
+                                           pathStr,
+                                           MAXIMUM_TEXT_LENGTH);
+            throw new SchematicaException(msg);
+        }
+        synchronized (this) {
+            if (maintainedPaths.containsKey(pathStr)) return false;
+            // Maintain the path first, so that concurrent writes are indexed while the existing documents are indexed ...
+            maintainedPaths = with(maintainedPaths, pathStr, path);
+        }
+        Database database = store.pool.checkout();
+        try {
+            database.beginTransaction();
+            Database.executeUpdate(database.insertIndexedPathSql(pathStr));
+            Database.executeUpdate(database.removeIndexValuesForPathSql(pathStr));
+            database.commit();
+            backfill(database, path);
+        } catch (RuntimeException e) {
+            unregister(pathStr);
+            throw e;
+        } finally {
+            store.pool.release(database);
+        }
+        synchronized (this) {
+            // Only now can queries use the index (unless it was removed in the meantime) ...
+            if (maintainedPaths.containsKey(pathStr)) indexedPaths = with(indexedPaths, pathStr, path);
+        }
+        return true;
+    }
+
+    /**
+     * Index the values at the supplied path in all existing documents. The documents are read in pages ordered by key, and each
+     * page is indexed in a separate transaction so that concurrent writes are not blocked for long. The documents in each page
+     * are locked by the "<code>read_documents_after_key</code>" query until the transaction is committed, so that a concurrent
+     * write cannot be overwritten in the index with the values of the previous version.
+     * 
+     * @param database the database; may not be null
+     * @param path the newly-indexed path; may not be null
+     */
+    protected void backfill( Database database,
+                             final Path path ) {
+        final String pathStr = path.toString();
+        final List<Document> page = new ArrayList<>(BACKFILL_PAGE_SIZE);
+        ResultSetProcessor<Void> pageReader = new ResultSetProcessor<Void>() {
+            @Override
+            public Void process( ResultSet resultSet ) throws SQLException, IOException {
+                while (resultSet.next()) {
+                    page.add(store.readDocument(resultSet));
+                }
+                return null;
+            }
+        };
+        String lastKey = null;
+        do {
+            page.clear();
+            database.beginTransaction();
+            Database.executeQuery(database.readDocumentsAfterKeySql(lastKey, BACKFILL_PAGE_SIZE), pageReader);
+            if (page.isEmpty()) break;
+            if (store.getPatches() != null) readPatched(database, page);
+            // Replace any values written concurrently for these documents ...
+            for (Document document : page) {
+                Database.addBatch(database.removeIndexValuesSql(document.getKey(), pathStr));
+            }
+            Database.executeBatch(database.statement("remove_index_values_for_key_and_path"));
+            boolean hasValues = false;
+            for (Document document : page) {
+                hasValues |= addValues(database, document.getKey(), pathStr, valueAt(document, path));
+            }
+            if (hasValues) Database.executeBatch(database.statement("insert_index_value"));
+            database.commit();
+            lastKey = page.get(page.size() - 1).getKey();
+        } while (page.size() == BACKFILL_PAGE_SIZE);
+        database.commit();
+    }
+
+    /**
+     * Replace the documents in the supplied page with the same documents after their patches have been applied. The documents are
+     * locked by the page's transaction, so no patches can be added until it is committed.
+     * 
+     * @param database the database with the page's transaction; may not be null
+     * @param page the documents in the page, in key order; may not be null
+     */
+    protected void readPatched( Database database,
+                                List<Document> page ) {
+        List<String> keys = new ArrayList<>(page.size());
+        for (Document document : page) {
+            keys.add(document.getKey());
+        }
+        Collector<Document, Map<String, Document>> patched = Collectors.mapOfDocuments(page.size());
+        for (Collection<String> batch : database.determineBatchesOf(keys.iterator())) {
+            store.getPatches().read(database, batch, patched);
+        }
+        // The last key determines the next page, so keep the documents in the order they were read ...
+        page.clear();
+        for (String key : keys) {
+            page.add(patched.getCollected().get(key));
+        }
+    }
+
+    @Override
+    public boolean remove( Path path ) {
+        Util.notNull(path, "path");
+        String pathStr = path.toString();
+        if (!unregister(pathStr)) return false;
+        Database database = store.pool.checkout();
+        try {
+            database.beginTransaction();
+            Database.executeUpdate(database.removeIndexedPathSql(pathStr));
+            Database.executeUpdate(database.removeIndexValuesForPathSql(pathStr));
+            database.commit();
+        } finally {
+            store.pool.release(database);
+        }
+        return true;
+    }
+
+    private synchronized boolean unregister( String pathStr ) {
+        if (!maintainedPaths.containsKey(pathStr)) return false;
+        maintainedPaths = without(maintainedPaths, pathStr);
+        indexedPaths = without(indexedPaths, pathStr);
+        return true;
+    }
+
+    @Override
+    public void refresh() {
+        List<String> pathStrs = null;
+        Database database = store.pool.checkout();
+        try {
+            pathStrs = Database.executeQuery(database.readIndexedPathsSql(), Database.asStringList());
+        } finally {
+            store.pool.release(database);
+        }
+        Map<String, Path> paths = new HashMap<>();
+        for (String pathStr : pathStrs) {
+            paths.put(pathStr, Paths.INSTANCE.parse(pathStr));
+        }
+        synchronized (this) {
+            // Keep maintaining the paths that are still being added by this process ...
+            Map<String, Path> maintained = new HashMap<>(paths);
+            for (Map.Entry<String, Path> entry : maintainedPaths.entrySet()) {
+                if (!indexedPaths.containsKey(entry.getKey())) maintained.put(entry.getKey(), entry.getValue());
+            }
+            maintainedPaths = Collections.unmodifiableMap(maintained);
+            indexedPaths = Collections.unmodifiableMap(paths);
+        }
+    }
+
+    private static Map<String, Path> with( Map<String, Path> paths,
+                                           String pathStr,
+                                           Path path ) {
+        Map<String, Path> result = new HashMap<>(paths);
+        result.put(pathStr, path);
+        return Collections.unmodifiableMap(result);
+    }
+
+    private static Map<String, Path> without( Map<String, Path> paths,
+                                              String pathStr ) {
+        Map<String, Path> result = new HashMap<>(paths);
+        result.remove(pathStr);
+        return Collections.unmodifiableMap(result);
+    }
+
+    /**
+     * Add to the batches of the supplied database the statements that replace the indexed values for the supplied document. The
+     * caller must then {@link #executeBatches(Database) execute} the batches, preferably in the same transaction that writes the
+     * document.
+     * 
+     * @param database the database; may not be null
+     * @param document the document that is being written; may not be null
+     */
+    public void addToBatch( Database database,
+                            Document document ) {
+        removeFromBatch(database, document.getKey());
+        for (Map.Entry<String, Path> entry : maintainedPaths.entrySet()) {
+            addValues(database, document.getKey(), entry.getKey(), valueAt(document, entry.getValue()));
+        }
+    }
+
+    /**
+     * Add to the batches of the supplied database the statement that removes the indexed values for the document with the
+     * supplied key. The caller must then {@link #executeBatches(Database) execute} the batches.
+     * 
+     * @param database the database; may not be null
+     * @param key the key of the document that is being removed or replaced; may not be null
+     */
+    public void removeFromBatch( Database database,
+                                 String key ) {
+        Database.addBatch(database.removeIndexValuesSql(key));
+    }
+
+    /**
+     * Execute the batches built with {@link #addToBatch(Database, Document)} and {@link #removeFromBatch(Database, String)},
+     * removing the old values before inserting the new values.
+     * 
+     * @param database the database; may not be null
+     */
+    public void executeBatches( Database database ) {
+        Database.executeBatch(database.statement("remove_index_values"));
+        Database.executeBatch(database.statement("insert_index_value"));
+    }
+
+    private boolean addValues( Database database,
+                               String key,
+                               String pathStr,
+                               JsonValue value ) {
+        if (value == null) return false;
+        switch (value.getValueType()) {
+            case NULL:
+                return false;
+            case ARRAY:
+                addValue(database, key, pathStr, null, null);
+                for (JsonValue element : (JsonArray)value) {
+                    switch (element.getValueType()) {
+                        case ARRAY:
+                        case OBJECT:
+                        case NULL:
+                            break;
+                        default:
+                            addValues(database, key, pathStr, element);
+                    }
+                }
+                return true;
+            case OBJECT:
+                addValue(database, key, pathStr, null, null);
+                return true;
+            case STRING:
+                addValue(database, key, pathStr, indexedText(((JsonString)value).getString()), null);
+                return true;
+            case NUMBER:
+                addValue(database, key, pathStr, null, indexedNumber((JsonNumber)value));
+                return true;
+            case TRUE:
+                addValue(database, key, pathStr, "true", null);
+                return true;
+            case FALSE:
+                addValue(database, key, pathStr, "false", null);
+                return true;
+        }
+        return false;
+    }
+
+    private void addValue( Database database,
+                           String key,
+                           String pathStr,
+                           String textValue,
+                           Double numberValue ) {
+        Database.addBatch(database.insertIndexValueSql(key, pathStr, textValue, numberValue));
+    }
+
+    /**
+     * Get the form of the supplied string that is stored in the index.
+     * 
+     * @param value the string value; may not be null
+     * @return the indexed value; never null
+     */
+    public static String indexedText( String value ) {
+        return value.length() <= MAXIMUM_TEXT_LENGTH ? value : value.substring(0, MAXIMUM_TEXT_LENGTH);
+    }
+
+    /**
+     * Get the form of the supplied number that is stored in the index. Because the conversion to a double is monotonic, two
+     * numbers that are equal are always equal in the index, but two numbers that are not equal may be equal in the index.
+     * 
+     * @param value the number; may not be null
+     * @return the indexed value; never null
+     */
+    public static Double indexedNumber( JsonNumber value ) {
+        return value.doubleValue();
+    }
+
+    private static JsonValue valueAt( Document document,
+                                      Path path ) {
+        try {
+            return document.valueAtPath(path);
+        } catch (IllegalArgumentException e) {
+            // The path doesn't match the structure of the document ...
+            return null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "Indexes on " + indexedPaths.keySet();
+    }
+}
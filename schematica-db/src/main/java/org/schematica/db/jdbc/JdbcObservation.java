@@ -0,0 +1,498 @@
+/*
+ * Schematica (http://www.schematica.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.schematica.db.jdbc;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import org.schematica.db.Observation;
+import org.schematica.db.Observer;
+import org.schematica.db.Observer.Change;
+import org.schematica.db.Observer.ChangeSet;
+import org.schematica.db.Observer.ChangeType;
+import org.schematica.db.SchematicaException;
+import org.schematica.db.core.ObserverDispatcher;
+import org.schematica.db.core.Util;
+import org.schematica.db.jdbc.Database.ResultSetProcessor;
+
+/**
+ * The {@link Observation} implementation for a {@link JdbcStore}. The store records each write and removal of a document in the
+ * "<code>{table}_CHANGES</code>" table in the same transaction as the change itself, so the log contains exactly the committed
+ * changes no matter which process made them. A single thread polls the log for the changes after each observer's position, and
+ * delivers them to the observer in batches ordered by sequence number.
+ * <p>
+ * Each observer is notified by its own {@link ObserverDispatcher}, so a slow observer never delays the others. Observers that are
+ * themselves dispatchers are used as is, which allows the buffer size and {@link ObserverDispatcher.OverflowPolicy overflow
+ * policy} to be chosen for each observer and the dispatcher's metrics to be monitored; otherwise a dispatcher with the default
+ * settings is created for the observer, and it is closed when the observer is removed.
+ * </p>
+ * <p>
+ * Observers at the same position share each read of the log, and while any observer is behind, full batches are read one after
+ * the other without waiting for the {@link #getPollInterval() poll interval}. Because the sequence number is the table's
+ * primary key, each batch is a range scan of that index, so an observer that resumes after a long time catches up efficiently.
+ * Writes made through this store also wake the polling thread, so their changes are delivered without waiting.
+ * </p>
+ * <p>
+ * Sequence numbers are assigned when the changes are recorded rather than when their transactions are committed, so a change
+ * may become visible before a change with a smaller sequence number. A change is therefore not delivered while there is a gap
+ * before it, unless the change was recorded more than the {@link #getGapTimeout() gap timeout} ago, in which case the missing
+ * sequence numbers are assumed to belong to transactions that were rolled back. The gap timeout must therefore be longer than
+ * any transaction that writes documents (plus any difference between the clocks of the writers).
+ * </p>
+ * <p>
+ * The log is never trimmed automatically; changes that all observers have processed can be removed with
+ * {@link #removeChangesThrough(long)}.
+ * </p>
+ * 
+ * @author Randall Hauch (rhauch@redhat.com)
+ */
+public class JdbcObservation implements Observation {
+
+    /**
+     * The default number of milliseconds between polls of the change log.
+     */
+    public static final long DEFAULT_POLL_INTERVAL_MILLIS = 1000L;
+
+    /**
+     * The default maximum number of changes read from the change log and delivered in each {@link ChangeSet}.
+     */
+    public static final int DEFAULT_BATCH_SIZE = 500;
+
+    /**
+     * The default number of milliseconds after which a gap in the sequence numbers is assumed to be permanent.
+     */
+    public static final long DEFAULT_GAP_TIMEOUT_MILLIS = 10 * 1000L;
+
+    /**
+     * The codes of the {@link ChangeType change types} in the change log.
+     */
+    protected static final int WRITTEN = 1;
+    protected static final int REMOVED = 2;
+
+    private final JdbcStore store;
+    private final long pollIntervalMillis;
+    private final int batchSize;
+    private final long gapTimeoutMillis;
+    private final Object lock = new Object();
+    private final Map<Observer, Long> positions = new LinkedHashMap<>();
+    private final Map<Observer, ObserverDispatcher> dispatchers = new HashMap<>();
+    private Thread poller;
+    private boolean signalled = false;
+    private boolean closed = false;
+
+    protected JdbcObservation( JdbcStore store ) {
+        this(store, DEFAULT_POLL_INTERVAL_MILLIS, DEFAULT_BATCH_SIZE, DEFAULT_GAP_TIMEOUT_MILLIS);
+    }
+
+    protected JdbcObservation( JdbcStore store,
+                               long pollIntervalMillis,
+                               int batchSize,
+                               long gapTimeoutMillis ) {
+        if (pollIntervalMillis < 1L) {
+            throw new IllegalArgumentException("The poll interval must be positive, but was " + pollIntervalMillis);
+        }
+        if (batchSize < 1) throw new IllegalArgumentException("The batch size must be positive, but was " + batchSize);
+        if (gapTimeoutMillis < 0L) {
+            throw new IllegalArgumentException("The gap timeout must not be negative, but was " + gapTimeoutMillis);
+        }
+        this.store = store;
+        this.pollIntervalMillis = pollIntervalMillis;
+        this.batchSize = batchSize;
+        this.gapTimeoutMillis = gapTimeoutMillis;
+    }
+
+    /**
+     * Get the number of milliseconds between polls of the change log when all observers have caught up.
+     * 
+     * @return the poll interval in milliseconds
+     */
+    public long getPollInterval() {
+        return pollIntervalMillis;
+    }
+
+    /**
+     * Get the number of milliseconds after which a gap in the sequence numbers is assumed to be permanent.
+     * 
+     * @return the gap timeout in milliseconds
+     */
+    public long getGapTimeout() {
+        return gapTimeoutMillis;
+    }
+
+    @Override
+    public void addObserver( Observer observer ) {
+        Util.notNull(observer, "observer");
+        addObserver(observer, getLastSequence());
+    }
+
+    @Override
+    public void addObserver( Observer observer,
+                             long afterSequence ) {
+        Util.notNull(observer, "observer");
+        if (afterSequence < 0L) {
+            throw new IllegalArgumentException("The sequence number must not be negative, but was " + afterSequence);
+        }
+        synchronized (lock) {
+            if (closed) throw new SchematicaException(Util.createString("The observation of {0} is closed", store));
+            removeDispatcher(observer);
+            ObserverDispatcher dispatcher = null;
+            if (observer instanceof ObserverDispatcher) {
+                dispatcher = (ObserverDispatcher)observer;
+            } else {
+                dispatcher = new ObserverDispatcher(observer);
+            }
+            dispatchers.put(observer, dispatcher);
+            positions.put(dispatcher, afterSequence);
+            if (poller == null) {
+                poller = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        pollContinuously();
+                    }
+                }, "schematica-observation");
+                poller.setDaemon(true);
+                poller.start();
+            }
+            signalled = true;
+            lock.notifyAll();
+        }
+    }
+
+    @Override
+    public void removeObserver( Observer observer ) {
+        synchronized (lock) {
+            removeDispatcher(observer);
+        }
+    }
+
+    private void removeDispatcher( Observer observer ) {
+        assert Thread.holdsLock(lock);
+        ObserverDispatcher dispatcher = dispatchers.remove(observer);
+        if (dispatcher == null) return;
+        positions.remove(dispatcher);
+        // Only close the dispatchers that we created ...
+        if (dispatcher != observer) dispatcher.close();
+    }
+
+    @Override
+    public long getLastSequence() {
+        Database database = store.pool.checkout();
+        try {
+            Long sequence = Database.executeQuery(database.readLastChangeSql(), Database.asLong(1));
+            return sequence != null ? sequence.longValue() : 0L;
+        } finally {
+            store.pool.release(database);
+        }
+    }
+
+    /**
+     * Remove from the change log the changes up to and including the supplied sequence number, which should be no larger than the
+     * last sequence number processed by every observer (including those that will later resume).
+     * 
+     * @param sequence the sequence number of the last change to be removed
+     */
+    public void removeChangesThrough( long sequence ) {
+        Database database = store.pool.checkout();
+        try {
+            Database.execute(database.removeChangesSql(sequence));
+        } finally {
+            store.pool.release(database);
+        }
+    }
+
+    /**
+     * Record in the current transaction the writing of the documents with the supplied keys and schema keys.
+     * 
+     * @param database the database with the transaction; may not be null
+     * @param keys the keys of the documents that are being written; may not be null
+     * @param schemaKeys the schema keys of the documents that are being written, in the same order as the keys; may not be null
+     */
+    protected void recordWrites( Database database,
+                                 List<String> keys,
+                                 List<String> schemaKeys ) {
+        assert keys.size() == schemaKeys.size();
+        long now = System.currentTimeMillis();
+        PreparedStatement sql = null;
+        for (int i = 0; i != keys.size(); ++i) {
+            sql = database.insertChangeSql(keys.get(i), schemaKeys.get(i), WRITTEN, now);
+            Database.addBatch(sql);
+        }
+        if (sql != null) Database.executeBatch(sql);
+    }
+
+    /**
+     * Record in the current transaction the removal of the documents with the supplied keys.
+     * 
+     * @param database the database with the transaction; may not be null
+     * @param keys the keys of the documents that are being removed; may not be null
+     */
+    protected void recordRemoves( Database database,
+                                  Collection<String> keys ) {
+        long now = System.currentTimeMillis();
+        PreparedStatement sql = null;
+        for (String key : keys) {
+            sql = database.insertChangeSql(key, null, REMOVED, now);
+            Database.addBatch(sql);
+        }
+        if (sql != null) Database.executeBatch(sql);
+    }
+
+    /**
+     * Wake the polling thread, since changes have just been committed.
+     */
+    protected void signal() {
+        synchronized (lock) {
+            if (poller == null) return;
+            signalled = true;
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Stop delivering changes to the observers.
+     */
+    protected void close() {
+        synchronized (lock) {
+            closed = true;
+            for (Observer observer : new ArrayList<>(dispatchers.keySet())) {
+                removeDispatcher(observer);
+            }
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * The method run by the polling thread, which delivers the changes to the observers until there are no more observers or this
+     * observation is closed.
+     */
+    protected void pollContinuously() {
+        while (true) {
+            // Group the observers by position, so that each batch of changes is read only once ...
+            Map<Long, List<Observer>> observersByPosition = new TreeMap<>();
+            synchronized (lock) {
+                if (closed || positions.isEmpty()) {
+                    poller = null;
+                    return;
+                }
+                for (Map.Entry<Observer, Long> entry : positions.entrySet()) {
+                    List<Observer> observers = observersByPosition.get(entry.getValue());
+                    if (observers == null) {
+                        observers = new ArrayList<>();
+                        observersByPosition.put(entry.getValue(), observers);
+                    }
+                    observers.add(entry.getKey());
+                }
+                signalled = false;
+            }
+            boolean behind = false;
+            try {
+                behind = poll(observersByPosition);
+            } catch (RuntimeException e) {
+                // The database may be unavailable, so simply try again after the poll interval ...
+            }
+            if (behind) continue;
+            synchronized (lock) {
+                try {
+                    if (!signalled && !closed) lock.wait(pollIntervalMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    poller = null;
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Read and deliver the next batch of changes for each group of observers.
+     * 
+     * @param observersByPosition the observers keyed by the sequence number of the last change they have processed; may not be
+     *        null
+     * @return true if at least one observer received a full batch and may therefore have more changes to process, or false if
+     *         all of the observers have caught up
+     */
+    protected boolean poll( Map<Long, List<Observer>> observersByPosition ) {
+        boolean behind = false;
+        for (Map.Entry<Long, List<Observer>> entry : observersByPosition.entrySet()) {
+            long position = entry.getKey().longValue();
+            List<Change> changes = readChanges(position);
+            if (changes.isEmpty()) continue;
+            ChangeSet changeSet = new RecordedChangeSet(changes);
+            for (Observer observer : entry.getValue()) {
+                if (deliver(observer, position, changeSet) && changes.size() == batchSize) behind = true;
+            }
+        }
+        return behind;
+    }
+
+    private boolean deliver( Observer observer,
+                             long position,
+                             ChangeSet changes ) {
+        synchronized (lock) {
+            // The observer may have been removed or re-added since the positions were read ...
+            Long current = positions.get(observer);
+            if (current == null || current.longValue() != position) return false;
+        }
+        try {
+            observer.notify(changes);
+        } catch (RuntimeException e) {
+            // Leave the observer's position unchanged, so that the same changes are delivered again ...
+            return false;
+        }
+        synchronized (lock) {
+            Long current = positions.get(observer);
+            if (current != null && current.longValue() == position) positions.put(observer, changes.getLastSequence());
+        }
+        return true;
+    }
+
+    /**
+     * Read the next batch of changes after the supplied sequence number, stopping before any gap in the sequence numbers that may
+     * still be filled by a transaction that has not yet been committed.
+     * 
+     * @param afterSequence the sequence number of the last change that has been processed
+     * @return the changes in sequence order; never null
+     */
+    protected List<Change> readChanges( long afterSequence ) {
+        List<Change> changes = null;
+        Database database = store.pool.checkout();
+        try {
+            PreparedStatement sql = database.readChangesSql(afterSequence, batchSize);
+            changes = Database.executeQuery(sql, new ResultSetProcessor<List<Change>>() {
+                @Override
+                public List<Change> process( ResultSet resultSet ) throws SQLException {
+                    List<Change> changes = new ArrayList<>();
+                    while (resultSet.next()) {
+                        ChangeType type = resultSet.getInt(4) == REMOVED ? ChangeType.REMOVED : ChangeType.WRITTEN;
+                        changes.add(new RecordedChange(resultSet.getLong(1),
+                                                       type,
+                                                       resultSet.getString(2),
+                                                       resultSet.getString(3),
+                                                       resultSet.getTimestamp(5).getTime()));
+                    }
+                    return changes;
+                }
+            });
+        } finally {
+            store.pool.release(database);
+        }
+        long expected = afterSequence + 1L;
+        long now = System.currentTimeMillis();
+        for (int i = 0; i != changes.size(); ++i) {
+            Change change = changes.get(i);
+            if (change.getSequence() != expected && now - change.getTimestamp() < gapTimeoutMillis) {
+                // The missing changes may still be committed, so deliver them in order later ...
+                return changes.subList(0, i);
+            }
+            expected = change.getSequence() + 1L;
+        }
+        return changes;
+    }
+
+    @Override
+    public String toString() {
+        return "Observation of " + store;
+    }
+
+    protected static final class RecordedChange implements Change {
+        private final long sequence;
+        private final ChangeType type;
+        private final String key;
+        private final String schemaKey;
+        private final long timestamp;
+
+        protected RecordedChange( long sequence,
+                                  ChangeType type,
+                                  String key,
+                                  String schemaKey,
+                                  long timestamp ) {
+            this.sequence = sequence;
+            this.type = type;
+            this.key = key;
+            this.schemaKey = schemaKey;
+            this.timestamp = timestamp;
+        }
+
+        @Override
+        public long getSequence() {
+            return sequence;
+        }
+
+        @Override
+        public ChangeType getType() {
+            return type;
+        }
+
+        @Override
+        public String getKey() {
+            return key;
+        }
+
+        @Override
+        public String getSchemaKey() {
+            return schemaKey;
+        }
+
+        @Override
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        @Override
+        public String toString() {
+            return sequence + ": " + type + " " + key;
+        }
+    }
+
+    protected static final class RecordedChangeSet implements ChangeSet {
+        private final List<Change> changes;
+
+        protected RecordedChangeSet( List<Change> changes ) {
+            assert !changes.isEmpty();
+            this.changes = Collections.unmodifiableList(new ArrayList<>(changes));
+        }
+
+        @Override
+        public Iterator<Change> iterator() {
+            return changes.iterator();
+        }
+
+        @Override
+        public int size() {
+            return changes.size();
+        }
+
+        @Override
+        public long getLastSequence() {
+            return changes.get(changes.size() - 1).getSequence();
+        }
+
+        @Override
+        public String toString() {
+            return changes.toString();
+        }
+    }
+}
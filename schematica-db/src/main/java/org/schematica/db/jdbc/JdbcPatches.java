@@ -0,0 +1,349 @@
+/*
+ * Schematica (http://www.schematica.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.schematica.db.jdbc;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.json.JsonObject;
+import org.schematica.db.Document;
+import org.schematica.db.SchematicaException;
+import org.schematica.db.VersionedDocument;
+import org.schematica.db.core.Collectors;
+import org.schematica.db.core.Collectors.Collector;
+import org.schematica.db.core.DocumentFormat;
+import org.schematica.db.core.JsonValues;
+import org.schematica.db.core.SimpleDocument;
+import org.schematica.db.core.TypedDocument;
+import org.schematica.db.core.Util;
+import org.schematica.db.core.VersionedDocumentWrapper;
+import org.schematica.db.jdbc.Database.ResultSetProcessor;
+
+/**
+ * The patches of the documents in a {@link JdbcStore} that writes the changes to {@link org.schematica.json.EditableJsonObject
+ * edited} documents as patches rather than rewriting the whole content of the documents. Each patch is a row in the
+ * "<code>{table}_PATCHES</code>" table that contains only the changed fields, so a small change to a large document writes a
+ * number of bytes proportional to the change.
+ * <p>
+ * Whenever a document is read by key, its content and its patches are read with a single query and the patches are applied in
+ * the order they were written. A background thread periodically folds the patches into the content of their documents, so that
+ * the number of patches of each document remains small. Because the database cannot evaluate filters against the patches, all
+ * patches are also folded into their documents before the documents are queried with a filter or scanned.
+ * </p>
+ * <p>
+ * Every store that uses the same table must write patches (or must at least fold the existing patches into their documents
+ * with {@link #compact()} before writing documents without patches), since a store that does not write patches ignores them.
+ * </p>
+ * 
+ * @author Randall Hauch (rhauch@redhat.com)
+ */
+public class JdbcPatches {
+
+    /**
+     * The default number of milliseconds between the compactions of the patches.
+     */
+    public static final long DEFAULT_COMPACTION_INTERVAL_MILLIS = 10 * 1000L;
+
+    /**
+     * The default number of patches written by the store after which a compaction is started without waiting for the
+     * {@link #getCompactionInterval() compaction interval}.
+     */
+    public static final int DEFAULT_COMPACTION_THRESHOLD = 1000;
+
+    /**
+     * The default number of documents whose patches are found with each query during a compaction.
+     */
+    public static final int DEFAULT_BATCH_SIZE = 100;
+
+    private final JdbcStore store;
+    private final DocumentFormat format;
+    private final long compactionIntervalMillis;
+    private final int compactionThreshold;
+    private final int batchSize;
+    private final AtomicInteger written = new AtomicInteger();
+    private final Object lock = new Object();
+    private Thread compactor;
+    private boolean signalled = false;
+    private boolean closed = false;
+
+    protected JdbcPatches( JdbcStore store,
+                           DocumentFormat format ) {
+        this(store, format, DEFAULT_COMPACTION_INTERVAL_MILLIS, DEFAULT_COMPACTION_THRESHOLD, DEFAULT_BATCH_SIZE);
+    }
+
+    protected JdbcPatches( JdbcStore store,
+                           DocumentFormat format,
+                           long compactionIntervalMillis,
+                           int compactionThreshold,
+                           int batchSize ) {
+        if (compactionIntervalMillis < 1L) {
+            throw new IllegalArgumentException("The compaction interval must be positive, but was " + compactionIntervalMillis);
+        }
+        if (compactionThreshold < 1) {
+            throw new IllegalArgumentException("The compaction threshold must be positive, but was " + compactionThreshold);
+        }
+        if (batchSize < 1) throw new IllegalArgumentException("The batch size must be positive, but was " + batchSize);
+        this.store = store;
+        this.format = format;
+        this.compactionIntervalMillis = compactionIntervalMillis;
+        this.compactionThreshold = compactionThreshold;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Get the number of milliseconds between the compactions of the patches.
+     * 
+     * @return the compaction interval in milliseconds
+     */
+    public long getCompactionInterval() {
+        return compactionIntervalMillis;
+    }
+
+    /**
+     * Get the number of patches written by the store after which a compaction is started without waiting for the
+     * {@link #getCompactionInterval() compaction interval}.
+     * 
+     * @return the compaction threshold
+     */
+    public int getCompactionThreshold() {
+        return compactionThreshold;
+    }
+
+    /**
+     * Record in the current transaction a patch to the document with the supplied key. The caller must have locked the document.
+     * 
+     * @param database the database with the transaction; may not be null
+     * @param key the key of the patched document; may not be null
+     * @param changes the fields that are added to or replaced in the document; may not be null
+     * @throws IOException if the patch could not be converted
+     */
+    protected void record( Database database,
+                           String key,
+                           JsonObject changes ) throws IOException {
+        InputStream content = format.write(new SimpleDocument(key, changes));
+        Database.executeUpdate(database.touchDocumentSql(key));
+        Database.executeUpdate(database.insertPatchSql(key, content, format.getType()));
+    }
+
+    /**
+     * Note that a patch recorded with {@link #record(Database, String, JsonObject)} has been committed, and start a compaction if
+     * enough patches have been written since the last one.
+     */
+    protected void written() {
+        boolean threshold = written.incrementAndGet() >= compactionThreshold;
+        synchronized (lock) {
+            if (closed) return;
+            if (compactor == null) {
+                compactor = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        compactContinuously();
+                    }
+                }, "schematica-compaction");
+                compactor.setDaemon(true);
+                compactor.start();
+            }
+            if (threshold) {
+                signalled = true;
+                lock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Remove in the current transaction all of the patches of the documents with the supplied keys, since the documents are being
+     * replaced or removed.
+     * 
+     * @param database the database with the transaction; may not be null
+     * @param keys the keys of the documents; may not be null
+     */
+    protected void removeAll( Database database,
+                              Collection<String> keys ) {
+        PreparedStatement sql = null;
+        for (String key : keys) {
+            sql = database.removePatchesSql(key);
+            Database.addBatch(sql);
+        }
+        if (sql != null) Database.executeBatch(sql);
+    }
+
+    /**
+     * Read the documents with the supplied keys and apply their patches.
+     * 
+     * @param database the database; may not be null
+     * @param keys the keys of the documents; may not be empty
+     * @param documents the collector for the patched documents; may not be null
+     */
+    protected void read( Database database,
+                         Collection<String> keys,
+                         Collector<Document, ?> documents ) {
+        Database.executeQuery(database.readPatchedDocumentsSql(keys), new PatchedDocumentsReader(documents));
+    }
+
+    /**
+     * Fold all of the patches into the content of their documents.
+     */
+    public void compact() {
+        Database database = store.pool.checkout();
+        try {
+            written.set(0);
+            List<String> keys = null;
+            do {
+                keys = Database.executeQuery(database.readPatchedKeysSql(batchSize), Database.asStringList());
+                for (String key : keys) {
+                    compact(database, key);
+                }
+            } while (keys.size() == batchSize);
+        } finally {
+            store.pool.release(database);
+        }
+    }
+
+    /**
+     * Fold the patches of the document with the supplied key into the content of the document, in a separate transaction that
+     * locks the document so that it cannot be replaced or patched until the compacted content is committed.
+     * 
+     * @param database the database; may not be null
+     * @param key the key of the document; may not be null
+     */
+    protected void compact( Database database,
+                            String key ) {
+        database.beginTransaction();
+        try (PreparedStatement lockDocument = database.readSchemaKeysSql(Collections.singleton(key))) {
+            Database.executeQuery(lockDocument, Database.atLeastOneRow());
+        } catch (SQLException e) {
+            throw new SchematicaException(e);
+        }
+        Collector<Document, List<Document>> documents = Collectors.listOfDocuments(1);
+        PatchedDocumentsReader reader = new PatchedDocumentsReader(documents);
+        Database.executeQuery(database.readPatchedDocumentsSql(Collections.singleton(key)), reader);
+        if (documents.getCollected().isEmpty()) {
+            // The document no longer exists ...
+            Database.execute(database.removePatchesSql(key));
+        } else {
+            try {
+                InputStream content = format.write(documents.getCollected().get(0));
+                Database.executeUpdate(database.updateDocumentContentSql(key, content, format.getType()));
+            } catch (IOException e) {
+                String msg = Util.createString("Error converting document {0} while compacting its patches: {1}", key, e);
+                throw new SchematicaException(msg);
+            }
+            Database.execute(database.removePatchesSql(key, reader.getLastSequence()));
+        }
+        database.commit();
+    }
+
+    /**
+     * Stop compacting the patches in the background.
+     */
+    protected void close() {
+        synchronized (lock) {
+            closed = true;
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * The method run by the compaction thread, which compacts the patches after each interval (or sooner if signalled) until this
+     * object is closed.
+     */
+    protected void compactContinuously() {
+        while (true) {
+            synchronized (lock) {
+                try {
+                    if (!signalled && !closed) lock.wait(compactionIntervalMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    compactor = null;
+                    return;
+                }
+                if (closed) {
+                    compactor = null;
+                    return;
+                }
+                signalled = false;
+            }
+            try {
+                compact();
+            } catch (RuntimeException e) {
+                // The database may be unavailable, so simply try again after the compaction interval ...
+            }
+        }
+    }
+
+    /**
+     * The processor of the rows returned by the "{@code read_patched_documents}" query, in which the row of each document is
+     * followed by the rows of its patches. The patches of documents that do not exist are ignored, and each document has the
+     * version read from the row of the document.
+     */
+    protected class PatchedDocumentsReader implements ResultSetProcessor<Void> {
+        private final Collector<Document, ?> documents;
+        private long lastSequence = 0L;
+
+        protected PatchedDocumentsReader( Collector<Document, ?> documents ) {
+            this.documents = documents;
+        }
+
+        /**
+         * Get the largest sequence number of the patches that were read.
+         * 
+         * @return the sequence number, or 0 if no patches were read
+         */
+        public long getLastSequence() {
+            return lastSequence;
+        }
+
+        @Override
+        public Void process( ResultSet resultSet ) throws SQLException, IOException {
+            VersionedDocument document = null;
+            JsonObject json = null;
+            while (resultSet.next()) {
+                String key = resultSet.getString(1);
+                long sequence = resultSet.getLong(5);
+                if (sequence == 0L) {
+                    // The row of the document precedes those of its patches ...
+                    if (document != null) documents.add(patched(document, json));
+                    document = store.readVersionedDocument(resultSet, 6);
+                    json = document.getJsonObject();
+                } else if (document != null && document.getKey().equals(key)) {
+                    DocumentFormat patchFormat = store.getFormat(resultSet.getInt(3));
+                    try (InputStream stream = resultSet.getBinaryStream(4)) {
+                        json = JsonValues.patch(json, patchFormat.parse(key, stream, null).getJsonObject());
+                    }
+                    lastSequence = Math.max(lastSequence, sequence);
+                }
+            }
+            if (document != null) documents.add(patched(document, json));
+            return null;
+        }
+
+        private Document patched( VersionedDocument document,
+                                  JsonObject json ) {
+            if (json == document.getJsonObject()) return document;
+            String key = document.getKey();
+            String schemaKey = document.getSchemaKey();
+            Document patched = schemaKey == null ? new SimpleDocument(key, json) : new TypedDocument(key, json, schemaKey);
+            return new VersionedDocumentWrapper(patched, document.getVersion());
+        }
+    }
+}
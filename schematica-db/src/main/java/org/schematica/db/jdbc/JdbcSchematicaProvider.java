@@ -16,15 +16,35 @@
 
 package org.schematica.db.jdbc;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.ExecutorService;
 import javax.json.JsonObject;
+import javax.naming.InitialContext;
+import javax.naming.NamingException;
+import javax.sql.DataSource;
+import org.schematica.db.AsyncStore;
 import org.schematica.db.Document;
 import org.schematica.db.PathBuilder;
+import org.schematica.db.ReadConsistency;
 import org.schematica.db.SchematicaException;
 import org.schematica.db.Store;
+import org.schematica.db.core.CachingStore;
+import org.schematica.db.core.CompressedDocumentFormat;
+import org.schematica.db.core.CompressedDocumentFormat.Codec;
+import org.schematica.db.core.DocumentFormat;
+import org.schematica.db.core.ExecutorAsyncStore;
+import org.schematica.db.core.Filters;
+import org.schematica.db.core.Mappers;
 import org.schematica.db.core.Paths;
+import org.schematica.db.core.Reducers;
+import org.schematica.db.core.ReplicatedStore;
+import org.schematica.db.core.ShardedStore;
 import org.schematica.db.core.SimpleDocument;
 import org.schematica.db.core.TypedDocument;
+import org.schematica.db.core.WriteBehindStore;
+import org.schematica.db.core.Util;
 import org.schematica.db.spi.SchematicaProvider;
 import org.schematica.db.task.FilterBuilder;
 import org.schematica.db.task.MapperBuilder;
@@ -35,9 +55,365 @@ import org.schematica.db.task.ReducerBuilder;
  */
 public class JdbcSchematicaProvider implements SchematicaProvider {
 
+    /**
+     * The name of the property that specifies the JNDI name of the {@link DataSource}. Either this or {@link #URL} is required.
+     */
+    public static final String DATA_SOURCE = "jdbc.datasource";
+
+    /**
+     * The name of the property that specifies the JDBC URL of the database. Either this or {@link #DATA_SOURCE} is required.
+     */
+    public static final String URL = "jdbc.url";
+
+    /**
+     * The name of the property that specifies the comma-separated JDBC URLs of several databases that each contain some of the
+     * documents, in which case the documents are {@link ShardedStore sharded} across the databases by key and the {@link #URL}
+     * and {@link #DATA_SOURCE} properties are not used. Every database is used with the same username, password and other
+     * properties, and the URLs must always be listed in the same order.
+     */
+    public static final String SHARDS = "jdbc.shards";
+
+    /**
+     * The name of the property that specifies the username used to connect to the database given by {@link #URL} or to the
+     * databases given by {@link #SHARDS}.
+     */
+    public static final String USERNAME = "jdbc.user";
+
+    /**
+     * The name of the property that specifies the password used to connect to the database given by {@link #URL} or to the
+     * databases given by {@link #SHARDS}.
+     */
+    public static final String PASSWORD = "jdbc.password";
+
+    /**
+     * The name of the property that specifies the comma-separated JDBC URLs of read-only replicas of the database, in which case
+     * documents are {@link ReplicatedStore read} from the replicas (or the primary database, depending upon the
+     * {@link #READ_CONSISTENCY consistency}) and written to the primary database given by {@link #URL} or {@link #DATA_SOURCE}.
+     * The replicas must already contain the tables, and cannot be used with {@link #SHARDS}.
+     */
+    public static final String REPLICAS = "jdbc.replicas";
+
+    /**
+     * The name of the property that specifies the username used to connect to the replicas given by {@link #REPLICAS}. The
+     * default is the value of {@link #USERNAME}.
+     */
+    public static final String REPLICA_USERNAME = "jdbc.replica.user";
+
+    /**
+     * The name of the property that specifies the password used to connect to the replicas given by {@link #REPLICAS}. The
+     * default is the value of {@link #PASSWORD}.
+     */
+    public static final String REPLICA_PASSWORD = "jdbc.replica.password";
+
+    /**
+     * The name of the property that specifies the {@link ReadConsistency consistency} of reads that do not
+     * {@link Store#withConsistency(ReadConsistency) specify one} when {@link #REPLICAS} are used, either "{@code primary}" or
+     * "{@code any}" (meaning any replica). The default is "{@code any}".
+     */
+    public static final String READ_CONSISTENCY = "read.consistency";
+
+    /**
+     * The name of the property that specifies the prefix of the table name.
+     */
+    public static final String TABLE_PREFIX = "jdbc.table.prefix";
+
+    /**
+     * The name of the property that specifies the maximum number of connections used by the store. The default is
+     * {@value DatabasePool#DEFAULT_POOL_SIZE}.
+     */
+    public static final String POOL_SIZE = "jdbc.pool.size";
+
+    /**
+     * The name of the property that specifies the maximum number of milliseconds that an operation waits for an available
+     * connection. The default is {@value DatabasePool#DEFAULT_CHECKOUT_TIMEOUT_MILLIS}.
+     */
+    public static final String POOL_TIMEOUT = "jdbc.pool.timeout";
+
+    /**
+     * The name of the property that specifies the maximum number of prepared statements cached for each connection. The default
+     * is {@value Database#DEFAULT_STATEMENT_CACHE_SIZE}.
+     */
+    public static final String STATEMENT_CACHE_SIZE = "jdbc.statement.cache.size";
+
+    /**
+     * The name of the property that specifies the number of documents written in each batch. The default is
+     * {@value JdbcStore#DEFAULT_BATCH_SIZE}.
+     */
+    public static final String BATCH_SIZE = "jdbc.batch.size";
+
+    /**
+     * The name of the property that specifies whether the store maintains the number of documents with each schema key as
+     * documents are written and removed, making {@link Store#size()} and the {@link Store#getStatistics() statistics} inexpensive
+     * at the cost of slightly more work for each write. The default is "false".
+     */
+    public static final String STATISTICS = "jdbc.statistics";
+
+    /**
+     * The name of the property that specifies whether the store records each write and removal of a document in a change log, so
+     * that the changes can be delivered to the {@link Store#getObservation() observers}. The default is "false", in which case
+     * the store does not support observation.
+     */
+    public static final String CHANGES = "jdbc.changes";
+
+    /**
+     * The name of the property that specifies whether the store writes the changes to
+     * {@link org.schematica.json.EditableJsonObject edited} documents as patches that are later folded into the documents, so
+     * that small changes to large documents are inexpensive at the cost of slightly more work for each read. The default is
+     * "false". Every store that uses the same tables must use the same value.
+     * 
+     * @see JdbcPatches
+     */
+    public static final String PATCHES = "jdbc.patches";
+
+    /**
+     * The name of the property that specifies the format in which the content of documents is written, either "{@code json}" or
+     * "{@code bson}". The default is "{@code json}". Documents written in either format can always be read.
+     */
+    public static final String FORMAT = "jdbc.format";
+
+    /**
+     * The name of the property that specifies the {@link CompressedDocumentFormat.Codec codec} used to compress the content of
+     * documents, either "{@code fast}" or "{@code small}". The default is "{@code none}", which means documents are not
+     * compressed. Documents written with any codec (or none) can always be read.
+     */
+    public static final String COMPRESSION = "jdbc.compression";
+
+    /**
+     * The name of the property that specifies the minimum number of bytes of content that are compressed when
+     * {@link #COMPRESSION} is used. The default is {@value CompressedDocumentFormat#DEFAULT_THRESHOLD}.
+     */
+    public static final String COMPRESSION_THRESHOLD = "jdbc.compression.threshold";
+
+    /**
+     * The name of the property that specifies the number of single-document writes that are buffered and then written together in
+     * one transaction. The default is 0, which means writes are not buffered.
+     * 
+     * @see WriteBehindStore
+     */
+    public static final String WRITE_BEHIND_SIZE = "write.behind.size";
+
+    /**
+     * The name of the property that specifies the maximum number of milliseconds that a single-document write is buffered when
+     * {@link #WRITE_BEHIND_SIZE} is positive. The default is {@value WriteBehindStore#DEFAULT_MAXIMUM_DELAY_MILLIS}.
+     */
+    public static final String WRITE_BEHIND_DELAY = "write.behind.delay";
+
+    /**
+     * The name of the property that specifies the maximum total size (in characters of JSON) of the documents cached in memory by
+     * the store. The default is 0, which means documents are not cached.
+     * 
+     * @see CachingStore
+     */
+    public static final String CACHE_SIZE = "cache.size";
+
     @Override
     public Store getStore( Properties properties ) throws SchematicaException {
-        return null;
+        if (properties == null) properties = new Properties();
+        Store store = null;
+        String shards = properties.getProperty(SHARDS);
+        String replicas = properties.getProperty(REPLICAS);
+        boolean replicated = replicas != null && replicas.trim().length() != 0;
+        if (shards != null && shards.trim().length() != 0) {
+            if (replicated) {
+                String msg = Util.createString("The \"{0}\" and \"{1}\" properties cannot be used together", SHARDS, REPLICAS);
+                throw new SchematicaException(msg);
+            }
+            List<Store> stores = new ArrayList<>();
+            for (String url : shards.split(",")) {
+                if (url.trim().length() == 0) continue;
+                String username = properties.getProperty(USERNAME);
+                String password = properties.getProperty(PASSWORD);
+                stores.add(jdbcStore(properties, new DriverManagerDataSource(url.trim(), username, password)));
+            }
+            store = new ShardedStore(stores);
+        } else {
+            store = jdbcStore(properties, dataSource(properties));
+        }
+        int writeBehindSize = intProperty(properties, WRITE_BEHIND_SIZE, 0);
+        if (writeBehindSize > 0) {
+            long delay = longProperty(properties, WRITE_BEHIND_DELAY, WriteBehindStore.DEFAULT_MAXIMUM_DELAY_MILLIS);
+            store = new WriteBehindStore(store, writeBehindSize, delay);
+        }
+        long cacheSize = longProperty(properties, CACHE_SIZE, 0L);
+        if (cacheSize > 0L) store = new CachingStore(store, cacheSize);
+        if (!replicated) return store;
+        // Reads from the replicas bypass the write-behind buffer and the cache, which apply only to the primary database ...
+        ReadConsistency consistency = readConsistency(properties);
+        String username = properties.getProperty(REPLICA_USERNAME, properties.getProperty(USERNAME));
+        String password = properties.getProperty(REPLICA_PASSWORD, properties.getProperty(PASSWORD));
+        List<Store> replicaStores = new ArrayList<>();
+        for (String url : replicas.split(",")) {
+            if (url.trim().length() == 0) continue;
+            replicaStores.add(replicaStore(properties, new DriverManagerDataSource(url.trim(), username, password)));
+        }
+        return new ReplicatedStore(store, replicaStores, consistency);
+    }
+
+    /**
+     * Create the JDBC store that uses the supplied data source.
+     * 
+     * @param properties the configuration properties; never null
+     * @param dataSource the data source; may not be null
+     * @return the store; never null
+     * @throws SchematicaException if the properties are not valid
+     */
+    protected JdbcStore jdbcStore( Properties properties,
+                                   DataSource dataSource ) throws SchematicaException {
+        int batchSize = intProperty(properties, BATCH_SIZE, JdbcStore.DEFAULT_BATCH_SIZE);
+        DatabasePool pool = pool(properties, dataSource);
+        boolean statistics = Boolean.parseBoolean(properties.getProperty(STATISTICS, "false").trim());
+        boolean changes = Boolean.parseBoolean(properties.getProperty(CHANGES, "false").trim());
+        boolean patches = Boolean.parseBoolean(properties.getProperty(PATCHES, "false").trim());
+        DocumentFormat format = format(properties);
+        return new JdbcStore(pool, format, batchSize, statistics, changes, patches);
+    }
+
+    /**
+     * Create the JDBC store that reads from the read-only replica of the database that uses the supplied data source.
+     * 
+     * @param properties the configuration properties; never null
+     * @param dataSource the data source of the replica; may not be null
+     * @return the store; never null
+     * @throws SchematicaException if the properties are not valid
+     */
+    protected JdbcStore replicaStore( Properties properties,
+                                      DataSource dataSource ) throws SchematicaException {
+        int batchSize = intProperty(properties, BATCH_SIZE, JdbcStore.DEFAULT_BATCH_SIZE);
+        boolean patches = Boolean.parseBoolean(properties.getProperty(PATCHES, "false").trim());
+        return new ReplicaStore(pool(properties, dataSource), format(properties), batchSize, patches);
+    }
+
+    /**
+     * Create the pool of connections obtained from the supplied data source.
+     * 
+     * @param properties the configuration properties; never null
+     * @param dataSource the data source; may not be null
+     * @return the pool; never null
+     * @throws SchematicaException if the properties are not valid or the database cannot be initialized
+     */
+    protected DatabasePool pool( Properties properties,
+                                 DataSource dataSource ) throws SchematicaException {
+        String prefix = properties.getProperty(TABLE_PREFIX);
+        int poolSize = intProperty(properties, POOL_SIZE, DatabasePool.DEFAULT_POOL_SIZE);
+        int statementCacheSize = intProperty(properties, STATEMENT_CACHE_SIZE, Database.DEFAULT_STATEMENT_CACHE_SIZE);
+        long timeout = longProperty(properties, POOL_TIMEOUT, DatabasePool.DEFAULT_CHECKOUT_TIMEOUT_MILLIS);
+        return new DatabasePool(dataSource, null, prefix, poolSize, statementCacheSize, timeout);
+    }
+
+    /**
+     * Determine the {@link #READ_CONSISTENCY consistency} of reads that do not specify one.
+     * 
+     * @param properties the configuration properties; never null
+     * @return the consistency; never null
+     * @throws SchematicaException if the property is not valid
+     */
+    protected ReadConsistency readConsistency( Properties properties ) throws SchematicaException {
+        String name = properties.getProperty(READ_CONSISTENCY, "any").trim();
+        if ("any".equalsIgnoreCase(name)) return ReadConsistency.ANY_REPLICA;
+        if ("primary".equalsIgnoreCase(name)) return ReadConsistency.PRIMARY;
+        String msg = Util.createString("The \"{0}\" property must be \"primary\" or \"any\", but was \"{1}\"",
+                                       READ_CONSISTENCY,
+                                       name);
+        throw new SchematicaException(msg);
+    }
+
+    /**
+     * A {@link JdbcStore} for a read-only replica of the database, which neither maintains the statistics nor records the changes
+     * (since the primary database does both), and which never folds the patches of documents.
+     */
+    protected static class ReplicaStore extends JdbcStore {
+        protected ReplicaStore( DatabasePool pool,
+                                DocumentFormat format,
+                                int batchSize,
+                                boolean readPatches ) {
+            super(pool, format, batchSize, false, false, readPatches);
+        }
+
+        @Override
+        protected void compactPatches() {
+            // The replica cannot be written, so the patches are folded only by the primary store and then replicated ...
+        }
+    }
+
+    @Override
+    public AsyncStore getAsyncStore( Store store,
+                                     ExecutorService executor ) {
+        return executor == null ? new ExecutorAsyncStore(store) : new ExecutorAsyncStore(store, executor);
+    }
+
+    /**
+     * Determine the format used to write documents, which is the {@link #FORMAT configured format} or a compressed form of it.
+     * 
+     * @param properties the configuration properties; never null
+     * @return the format; never null
+     * @throws SchematicaException if the format or compression properties are not valid
+     */
+    protected DocumentFormat format( Properties properties ) throws SchematicaException {
+        String name = properties.getProperty(FORMAT, JdbcStore.JSON_FORMAT.getName()).trim();
+        if (JdbcStore.JSON_FORMAT.getName().equalsIgnoreCase(name)) return format(properties, JdbcStore.JSON_FORMAT);
+        if (JdbcStore.BSON_FORMAT.getName().equalsIgnoreCase(name)) return format(properties, JdbcStore.BSON_FORMAT);
+        String msg = Util.createString("The \"{0}\" property must be \"json\" or \"bson\", but was \"{1}\"", FORMAT, name);
+        throw new SchematicaException(msg);
+    }
+
+    /**
+     * Determine the format used to write documents, which is the supplied format or a compressed form of it.
+     * 
+     * @param properties the configuration properties; never null
+     * @param format the format of the content before any compression; may not be null
+     * @return the format; never null
+     * @throws SchematicaException if the compression properties are not valid
+     */
+    protected DocumentFormat format( Properties properties,
+                                     DocumentFormat format ) throws SchematicaException {
+        String name = properties.getProperty(COMPRESSION);
+        if (name == null || name.trim().length() == 0 || "none".equalsIgnoreCase(name.trim())) return format;
+        Codec codec = Codec.forName(name.trim());
+        if (codec == null) {
+            String msg = Util.createString("The \"{0}\" property must be \"none\", \"fast\" or \"small\", but was \"{1}\"",
+                                           COMPRESSION,
+                                           name);
+            throw new SchematicaException(msg);
+        }
+        int threshold = intProperty(properties, COMPRESSION_THRESHOLD, CompressedDocumentFormat.DEFAULT_THRESHOLD);
+        return new CompressedDocumentFormat(format, codec, threshold);
+    }
+
+    protected DataSource dataSource( Properties properties ) throws SchematicaException {
+        String jndiName = properties.getProperty(DATA_SOURCE);
+        if (jndiName != null && jndiName.trim().length() != 0) {
+            try {
+                return (DataSource)new InitialContext().lookup(jndiName.trim());
+            } catch (NamingException | ClassCastException e) {
+                String msg = Util.createString("Unable to find the data source \"{0}\" in JNDI: {1}", jndiName, e);
+                throw new SchematicaException(msg, e);
+            }
+        }
+        String url = properties.getProperty(URL);
+        if (url == null || url.trim().length() == 0) {
+            String msg = Util.createString("Either the \"{0}\" or \"{1}\" property is required", DATA_SOURCE, URL);
+            throw new SchematicaException(msg);
+        }
+        return new DriverManagerDataSource(url.trim(), properties.getProperty(USERNAME), properties.getProperty(PASSWORD));
+    }
+
+    private static int intProperty( Properties properties,
+                                    String name,
+                                    int defaultValue ) {
+        return (int)longProperty(properties, name, defaultValue);
+    }
+
+    private static long longProperty( Properties properties,
+                                      String name,
+                                      long defaultValue ) {
+        String value = properties.getProperty(name);
+        if (value == null || value.trim().length() == 0) return defaultValue;
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            String msg = Util.createString("The \"{0}\" property must be a number, but was \"{1}\"", name, value);
+            throw new SchematicaException(msg, e);
+        }
     }
 
     @Override
@@ -54,16 +430,16 @@ public class JdbcSchematicaProvider implements SchematicaProvider {
 
     @Override
     public FilterBuilder getFilterBuilder() {
-        return null;
+        return Filters.INSTANCE;
     }
 
     @Override
     public MapperBuilder getMapperBuilder() {
-        return null;
+        return Mappers.INSTANCE;
     }
 
     @Override
     public ReducerBuilder getReducerBuilder() {
-        return null;
+        return Reducers.INSTANCE;
     }
 }
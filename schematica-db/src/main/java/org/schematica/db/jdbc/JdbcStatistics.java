@@ -0,0 +1,316 @@
+/*
+ * Schematica (http://www.schematica.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.schematica.db.jdbc;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ThreadLocalRandom;
+import org.schematica.db.SchematicaException;
+import org.schematica.db.Statistics;
+import org.schematica.db.jdbc.Database.ResultSetProcessor;
+
+/**
+ * The {@link Statistics} implementation for a {@link JdbcStore}. When the statistics are {@link #isMaintained() maintained}, the
+ * number of documents with each schema key is recorded in the "<code>{table}_STATISTICS</code>" table, which the store updates
+ * in the same transaction that writes or removes the documents. Each count is spread over {@link #SLOTS} rows, and each
+ * transaction adds its changes to a randomly-chosen row, so that concurrent writers rarely wait for each other. Obtaining the
+ * counts then only requires reading a few rows rather than scanning all of the documents.
+ * <p>
+ * The store determines whether each write adds or replaces a document by first reading (and locking) the existing rows, so the
+ * counts remain exact except when two transactions concurrently add the same new key; any such drift can be corrected with
+ * {@link #recompute()}.
+ * </p>
+ * <p>
+ * When the statistics are not maintained, all counts are computed by querying the documents, and the
+ * {@link #getApproximateDocumentCount() approximate count} uses the database's own estimate when one is available.
+ * </p>
+ * 
+ * @author Randall Hauch (rhauch@redhat.com)
+ */
+public class JdbcStatistics implements Statistics {
+
+    /**
+     * The number of rows over which the count for each schema key is spread.
+     */
+    public static final int SLOTS = 16;
+
+    /**
+     * The schema key under which the documents without a schema are counted in the table.
+     */
+    protected static final String NO_SCHEMA = "";
+
+    private final JdbcStore store;
+    private final boolean maintained;
+
+    protected JdbcStatistics( JdbcStore store,
+                              boolean maintained ) {
+        this.store = store;
+        this.maintained = maintained;
+    }
+
+    @Override
+    public boolean isMaintained() {
+        return maintained;
+    }
+
+    @Override
+    public long getDocumentCount() {
+        Database database = store.pool.checkout();
+        try {
+            return documentCount(database);
+        } finally {
+            store.pool.release(database);
+        }
+    }
+
+    @Override
+    public long getDocumentCount( String schemaKey ) {
+        Long count = getDocumentCounts().get(schemaKey);
+        return count != null ? count.longValue() : 0L;
+    }
+
+    @Override
+    public Map<String, Long> getDocumentCounts() {
+        Database database = store.pool.checkout();
+        try {
+            return documentCounts(database);
+        } finally {
+            store.pool.release(database);
+        }
+    }
+
+    @Override
+    public long getApproximateDocumentCount() {
+        Database database = store.pool.checkout();
+        try {
+            return approximateDocumentCount(database);
+        } finally {
+            store.pool.release(database);
+        }
+    }
+
+    @Override
+    public void recompute() {
+        if (!maintained) return;
+        Database database = store.pool.checkout();
+        try {
+            database.beginTransaction();
+            Database.execute(database.clearStatisticsSql());
+            Database.execute(database.rebuildStatisticsSql());
+            database.commit();
+        } finally {
+            store.pool.release(database);
+        }
+    }
+
+    /**
+     * Get the number of documents using the supplied database connection.
+     * 
+     * @param database the database; may not be null
+     * @return the number of documents; never negative
+     */
+    protected long documentCount( Database database ) {
+        if (!maintained) {
+            Long count = Database.executeQuery(database.countAllDocumentsSql(), Database.asLong(1));
+            return count != null ? count.longValue() : 0L;
+        }
+        long total = 0L;
+        for (Long count : documentCounts(database).values()) {
+            total += count.longValue();
+        }
+        return total;
+    }
+
+    /**
+     * Get the number of documents for each schema key using the supplied database connection.
+     * 
+     * @param database the database; may not be null
+     * @return the counts keyed by schema key; never null
+     */
+    protected Map<String, Long> documentCounts( Database database ) {
+        PreparedStatement sql = maintained ? database.readStatisticsSql() : database.countDocumentsBySchemaSql();
+        return Database.executeQuery(sql, new ResultSetProcessor<Map<String, Long>>() {
+            @Override
+            public Map<String, Long> process( ResultSet resultSet ) throws SQLException {
+                Map<String, Long> counts = new HashMap<>();
+                while (resultSet.next()) {
+                    String schemaKey = resultSet.getString(1);
+                    long count = resultSet.getLong(2);
+                    if (NO_SCHEMA.equals(schemaKey)) schemaKey = null;
+                    if (count > 0L) counts.put(schemaKey, count);
+                }
+                return counts;
+            }
+        });
+    }
+
+    /**
+     * Get an estimate of the number of documents that is suitable for sizing collections, but only if the estimate can be obtained
+     * without counting the documents.
+     * 
+     * @return the estimated number of documents, or -1 if there is no inexpensive estimate
+     */
+    public long getSizeHint() {
+        Database database = store.pool.checkout();
+        try {
+            return sizeHint(database);
+        } finally {
+            store.pool.release(database);
+        }
+    }
+
+    /**
+     * Estimate the number of documents using the supplied database connection.
+     * 
+     * @param database the database; may not be null
+     * @return the estimated number of documents; never negative
+     */
+    protected long approximateDocumentCount( Database database ) {
+        long estimate = sizeHint(database);
+        return estimate >= 0L ? estimate : documentCount(database);
+    }
+
+    /**
+     * Estimate the number of documents using the supplied database connection, but only if the documents need not be counted.
+     * 
+     * @param database the database; may not be null
+     * @return the estimated number of documents, or -1 if there is no inexpensive estimate
+     */
+    protected long sizeHint( Database database ) {
+        if (maintained) return documentCount(database);
+        PreparedStatement estimate = database.estimateDocumentCountSql();
+        if (estimate == null) return -1L;
+        // Some databases return a negative (or no) estimate until the table has been analyzed ...
+        Long count = Database.executeQuery(estimate, Database.asLong(1));
+        return count != null && count.longValue() >= 0L ? count.longValue() : -1L;
+    }
+
+    /**
+     * Record in the current transaction the writing of the documents with the supplied keys and schema keys. This must be called
+     * before the documents are written, since it reads and locks the existing documents to determine which writes add a new
+     * document and which replace an existing one.
+     * 
+     * @param database the database with the transaction; may not be null
+     * @param keys the keys of the documents that are being written; may not be null
+     * @param schemaKeys the schema keys of the documents that are being written, in the same order as the keys; may not be null
+     */
+    protected void recordWrites( Database database,
+                                 List<String> keys,
+                                 List<String> schemaKeys ) {
+        assert keys.size() == schemaKeys.size();
+        if (keys.isEmpty()) return;
+        Map<String, String> existing = existingSchemaKeys(database, keys);
+        Map<String, Long> changes = new TreeMap<>();
+        for (int i = 0; i != keys.size(); ++i) {
+            String key = keys.get(i);
+            // Any previous write of the same key (even in this batch) is replaced ...
+            if (existing.containsKey(key)) change(changes, existing.get(key), -1L);
+            change(changes, schemaKeys.get(i), 1L);
+            existing.put(key, schemaKeys.get(i));
+        }
+        apply(database, changes);
+    }
+
+    /**
+     * Record in the current transaction the insertion of a new document.
+     * 
+     * @param database the database with the transaction; may not be null
+     * @param schemaKey the schema key of the new document; may be null
+     */
+    protected void recordInsert( Database database,
+                                 String schemaKey ) {
+        Map<String, Long> changes = new TreeMap<>();
+        change(changes, schemaKey, 1L);
+        apply(database, changes);
+    }
+
+    /**
+     * Record in the current transaction the removal of the documents with the supplied keys. This must be called before the
+     * documents are removed, since it reads and locks the existing documents to determine their schema keys.
+     * 
+     * @param database the database with the transaction; may not be null
+     * @param keys the keys of the documents that are being removed; may not be null
+     */
+    protected void recordRemoves( Database database,
+                                  Collection<String> keys ) {
+        if (keys.isEmpty()) return;
+        Map<String, Long> changes = new TreeMap<>();
+        for (String schemaKey : existingSchemaKeys(database, keys).values()) {
+            change(changes, schemaKey, -1L);
+        }
+        apply(database, changes);
+    }
+
+    /**
+     * Read and lock the existing documents with the supplied keys.
+     * 
+     * @param database the database with the transaction; may not be null
+     * @param keys the keys of the documents; may not be empty
+     * @return the (possibly null) schema keys keyed by the keys of the existing documents; never null
+     */
+    protected Map<String, String> existingSchemaKeys( Database database,
+                                                      Collection<String> keys ) {
+        try (PreparedStatement sql = database.readSchemaKeysSql(keys)) {
+            return Database.executeQuery(sql, new ResultSetProcessor<Map<String, String>>() {
+                @Override
+                public Map<String, String> process( ResultSet resultSet ) throws SQLException {
+                    Map<String, String> schemaKeys = new HashMap<>();
+                    while (resultSet.next()) {
+                        schemaKeys.put(resultSet.getString(1), resultSet.getString(2));
+                    }
+                    return schemaKeys;
+                }
+            });
+        } catch (SQLException e) {
+            throw new SchematicaException(e);
+        }
+    }
+
+    private static void change( Map<String, Long> changes,
+                                String schemaKey,
+                                long delta ) {
+        if (schemaKey == null) schemaKey = NO_SCHEMA;
+        Long existing = changes.get(schemaKey);
+        changes.put(schemaKey, existing != null ? existing.longValue() + delta : delta);
+    }
+
+    /**
+     * Add the changes to the table in a single batch. The rows are always updated in schema key order, so that concurrent
+     * transactions that happen to use the same slot cannot deadlock.
+     * 
+     * @param database the database with the transaction; may not be null
+     * @param changes the changes in the counts keyed by the (non-null) schema key, in schema key order; may not be null
+     */
+    private void apply( Database database,
+                        Map<String, Long> changes ) {
+        int slot = ThreadLocalRandom.current().nextInt(SLOTS);
+        PreparedStatement sql = null;
+        for (Map.Entry<String, Long> entry : changes.entrySet()) {
+            long delta = entry.getValue().longValue();
+            if (delta == 0L) continue;
+            sql = database.updateStatisticsSql(entry.getKey(), slot, delta);
+            Database.addBatch(sql);
+        }
+        if (sql != null) Database.executeBatch(sql);
+    }
+}
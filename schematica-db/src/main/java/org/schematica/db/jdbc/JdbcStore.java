@@ -22,44 +22,91 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import javax.json.JsonException;
 import javax.json.JsonObject;
+import javax.json.JsonValue;
 import org.schematica.db.BulkWriteReport;
 import org.schematica.db.Document;
 import org.schematica.db.Observation;
+import org.schematica.db.Path;
+import org.schematica.db.ReadConsistency;
 import org.schematica.db.Schemas;
 import org.schematica.db.SchematicaException;
 import org.schematica.db.Sequence;
 import org.schematica.db.Store;
+import org.schematica.db.VersionedDocument;
+import org.schematica.db.core.BsonDocumentFormat;
+import org.schematica.db.core.BulkLoader;
 import org.schematica.db.core.BulkWriteReports;
 import org.schematica.db.core.BulkWriteReports.ReportBuilder;
 import org.schematica.db.core.Collectors;
 import org.schematica.db.core.Collectors.Collector;
+import org.schematica.db.core.CompressedDocumentFormat;
 import org.schematica.db.core.DocumentFormat;
+import org.schematica.db.core.JsonDocumentFormat;
+import org.schematica.db.core.Merges;
+import org.schematica.db.core.Projection;
 import org.schematica.db.core.SimpleDocument;
+import org.schematica.db.core.TypedDocument;
 import org.schematica.db.core.Util;
+import org.schematica.db.core.VersionedDocumentWrapper;
 import org.schematica.db.jdbc.Database.ResultSetProcessor;
+import org.schematica.db.jdbc.FilterTranslator.WhereClause;
+import org.schematica.db.jdbc.ResultSetSequence.RowReader;
 import org.schematica.db.task.Filter;
-import org.schematica.db.task.Mapper;
-import org.schematica.db.task.Results;
-import org.schematica.db.task.Task;
 import org.schematica.db.task.TaskBuilder;
+import org.schematica.json.EditableJsonObject;
 
 /**
  * @author Randall Hauch (rhauch@redhat.com)
  */
-public class JdbcStore implements Store {
+public class JdbcStore implements Store, BulkLoader.Source {
 
-    protected static final DocumentFormat JSON_FORMAT = null;
-    protected static final DocumentFormat BSON_FORMAT = null;
+    protected static final DocumentFormat JSON_FORMAT = new JsonDocumentFormat();
+    protected static final DocumentFormat BSON_FORMAT = new BsonDocumentFormat();
     protected static final int JSON_FORMAT_CODE = JSON_FORMAT.getType();
     protected static final int BSON_FORMAT_CODE = BSON_FORMAT.getType();
 
-    protected final Database database;
+    /**
+     * The default number of documents that are sent to the database in each batch by {@link #writeMultiple(Iterable, boolean)}.
+     */
+    public static final int DEFAULT_BATCH_SIZE = 500;
+
+    /**
+     * The maximum number of documents that the {@link #getBulkLoader() bulk loader} writes with each multi-row statement.
+     */
+    public static final int MAXIMUM_ROWS_PER_STATEMENT = 100;
+
+    /**
+     * The number of times that {@link #merge(String, JsonObject)} reads, merges and conditionally writes a document that others
+     * keep changing in the meantime, before it instead locks the document while merging.
+     */
+    public static final int MAXIMUM_MERGE_ATTEMPTS = 5;
+
+    /**
+     * The version that denotes that a document is to be written regardless of its current version.
+     */
+    protected static final long ANY_VERSION = -1L;
+
+    protected final DatabasePool pool;
     private final DocumentFormat converter;
+    private final int batchSize;
+    private final JdbcIndexes indexes;
+    private final JdbcStatistics statistics;
+    private final JdbcObservation observation;
+    private final JdbcPatches patches;
+    private final ConcurrentMap<Integer, DocumentFormat> compressedFormats = new ConcurrentHashMap<>();
 
     public JdbcStore( Connection connection ) {
         this(connection, JSON_FORMAT);
@@ -67,33 +114,195 @@ public class JdbcStore implements Store {
 
     public JdbcStore( Connection connection,
                       DocumentFormat defaultFormat ) {
-        this.database = new Database(connection);
+        this(connection, defaultFormat, DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * Create a new store that uses a single connection. All operations are serialized on that connection.
+     * <p>
+     * Because no other connection is available, the {@link Sequence sequences} produced by this store's tasks are read completely
+     * into memory before they are returned rather than streamed from an open cursor, so that the store can be used while the
+     * results are being processed. Use a {@link DatabasePool} with more than one connection to stream very large results.
+     * </p>
+     * 
+     * @param connection the connection to the database; may not be null
+     * @param defaultFormat the format used to write documents; may not be null
+     * @param batchSize the maximum number of documents written in each batch by {@link #writeMultiple(Iterable, boolean)}; must
+     *        be positive
+     */
+    public JdbcStore( Connection connection,
+                      DocumentFormat defaultFormat,
+                      int batchSize ) {
+        this(new DatabasePool(connection), defaultFormat, batchSize);
+    }
+
+    /**
+     * Create a new thread-safe store that checks out a connection from the supplied pool for each operation.
+     * 
+     * @param pool the pool of database connections; may not be null
+     * @param defaultFormat the format used to write documents; may not be null
+     * @param batchSize the maximum number of documents written in each batch by {@link #writeMultiple(Iterable, boolean)}; must
+     *        be positive
+     */
+    public JdbcStore( DatabasePool pool,
+                      DocumentFormat defaultFormat,
+                      int batchSize ) {
+        this(pool, defaultFormat, batchSize, false);
+    }
+
+    /**
+     * Create a new thread-safe store that checks out a connection from the supplied pool for each operation, and that optionally
+     * maintains the {@link #getStatistics() document counts} as documents are written and removed.
+     * 
+     * @param pool the pool of database connections; may not be null
+     * @param defaultFormat the format used to write documents; may not be null
+     * @param batchSize the maximum number of documents written in each batch by {@link #writeMultiple(Iterable, boolean)}; must
+     *        be positive
+     * @param maintainStatistics true if the document counts are to be maintained, or false if they are to be computed on demand
+     */
+    public JdbcStore( DatabasePool pool,
+                      DocumentFormat defaultFormat,
+                      int batchSize,
+                      boolean maintainStatistics ) {
+        this(pool, defaultFormat, batchSize, maintainStatistics, false);
+    }
+
+    /**
+     * Create a new thread-safe store that checks out a connection from the supplied pool for each operation, and that optionally
+     * maintains the {@link #getStatistics() document counts} and records the changes to documents for {@link #getObservation()
+     * observers} as documents are written and removed.
+     * 
+     * @param pool the pool of database connections; may not be null
+     * @param defaultFormat the format used to write documents; may not be null
+     * @param batchSize the maximum number of documents written in each batch by {@link #writeMultiple(Iterable, boolean)}; must
+     *        be positive
+     * @param maintainStatistics true if the document counts are to be maintained, or false if they are to be computed on demand
+     * @param recordChanges true if the changes to documents are to be recorded in the change log, or false if this store does not
+     *        support {@link Observation observation}
+     */
+    public JdbcStore( DatabasePool pool,
+                      DocumentFormat defaultFormat,
+                      int batchSize,
+                      boolean maintainStatistics,
+                      boolean recordChanges ) {
+        this(pool, defaultFormat, batchSize, maintainStatistics, recordChanges, false);
+    }
+
+    /**
+     * Create a new thread-safe store that checks out a connection from the supplied pool for each operation, and that optionally
+     * maintains the {@link #getStatistics() document counts}, records the changes to documents for {@link #getObservation()
+     * observers}, and writes the changes to {@link EditableJsonObject edited} documents as {@link JdbcPatches patches}.
+     * 
+     * @param pool the pool of database connections; may not be null
+     * @param defaultFormat the format used to write documents; may not be null
+     * @param batchSize the maximum number of documents written in each batch by {@link #writeMultiple(Iterable, boolean)}; must
+     *        be positive
+     * @param maintainStatistics true if the document counts are to be maintained, or false if they are to be computed on demand
+     * @param recordChanges true if the changes to documents are to be recorded in the change log, or false if this store does not
+     *        support {@link Observation observation}
+     * @param writePatches true if the changes to edited documents are to be written as patches, or false if the whole content of
+     *        every written document is to be written
+     */
+    public JdbcStore( DatabasePool pool,
+                      DocumentFormat defaultFormat,
+                      int batchSize,
+                      boolean maintainStatistics,
+                      boolean recordChanges,
+                      boolean writePatches ) {
+        if (batchSize < 1) throw new IllegalArgumentException("The batch size must be positive, but was " + batchSize);
+        this.pool = pool;
         this.converter = defaultFormat;
+        this.batchSize = batchSize;
+        this.indexes = new JdbcIndexes(this);
+        this.indexes.refresh();
+        this.statistics = new JdbcStatistics(this, maintainStatistics);
+        this.observation = recordChanges ? new JdbcObservation(this) : null;
+        this.patches = writePatches ? new JdbcPatches(this, defaultFormat) : null;
+        if (maintainStatistics && this.statistics.getDocumentCounts().isEmpty()) {
+            // The statistics have never been maintained for this table, so count any existing documents ...
+            this.statistics.recompute();
+        }
     }
 
     @Override
     public long size() {
-        return Database.executeQuery(database.readAllDocumentsSql(), Database.asLong(1));
+        return statistics.getDocumentCount();
     }
 
     @Override
     public boolean has( String key ) {
-        return Database.executeQuery(database.hasDocumentSql(key), Database.atLeastOneRow());
+        Database database = pool.checkout();
+        try {
+            return Database.executeQuery(database.hasDocumentSql(key), Database.atLeastOneRow());
+        } finally {
+            pool.release(database);
+        }
     }
 
     @Override
     public Sequence<Document> readMultiple( Iterable<String> keys ) {
         Collector<Document, List<Document>> documents = Collectors.listOfDocuments(-1);
-        ResultSetProcessor<Void> processor = readDocumentsFromResultsSet(documents);
-        for (Collection<String> batch : database.determineBatchesOf(keys.iterator())) {
-            Database.executeQuery(database.readMultipleDocumentSql(batch), processor);
+        ResultSetProcessor<Void> processor = readVersionedDocumentsFromResultsSet(documents);
+        Database database = pool.checkout();
+        try {
+            for (Collection<String> batch : database.determineBatchesOf(keys.iterator())) {
+                if (patches != null) patches.read(database, batch, documents);
+                else Database.executeQuery(database.readMultipleDocumentSql(batch), processor);
+            }
+        } finally {
+            pool.release(database);
         }
         return documents.asSequence();
     }
 
+    @Override
+    public Sequence<Document> readMultiple( Iterable<String> keys,
+                                            Iterable<Path> paths ) {
+        Projection projection = Projection.of(paths);
+        Collector<Document, List<Document>> documents = Collectors.listOfDocuments(-1);
+        if (patches != null) {
+            // The patches can only be applied to whole documents ...
+            for (Document document : readMultiple(keys)) {
+                documents.add(projection.apply(document));
+            }
+            return documents.asSequence();
+        }
+        Database database = pool.checkout();
+        try {
+            // Extract the values within the database if possible, so that the rest of the content is never transferred ...
+            WhereClause selection = new FilterTranslator(database, JSON_FORMAT_CODE).jsonProjection(projection.getPaths());
+            ResultSetProcessor<Void> processor = readProjectionsFromResultsSet(documents, projection, selection != null);
+            for (Collection<String> batch : database.determineBatchesOf(keys.iterator())) {
+                PreparedStatement statement = null;
+                if (selection != null) {
+                    statement = database.readProjectedDocumentsSql(batch, selection.getSql(), selection.getParameters());
+                } else {
+                    statement = database.readMultipleDocumentSql(batch);
+                }
+                Database.executeQuery(statement, processor);
+            }
+        } finally {
+            pool.release(database);
+        }
+        return documents.asSequence();
+    }
+
+    @Override
+    public Document read( String key,
+                          Iterable<Path> paths ) {
+        Iterator<Document> documents = readMultiple(Collections.singleton(key), paths).iterator();
+        return documents.hasNext() ? documents.next() : null;
+    }
+
     @Override
     public Document read( final String key ) {
-        Document result = Database.executeQuery(database.readDocumentSql(key), readDocumentFromResultsSet());
+        Document result = null;
+        Database database = pool.checkout();
+        try {
+            result = read(database, key);
+        } finally {
+            pool.release(database);
+        }
         if (result == null) {
             String msg = Util.createString("Document with key {0} was not found", key);
             throw new SchematicaException(msg);
@@ -101,22 +310,141 @@ public class JdbcStore implements Store {
         return result;
     }
 
+    /**
+     * Read the document with the supplied key and its version, applying any of its patches.
+     * 
+     * @param database the database; may not be null
+     * @param key the unique document key; may not be null
+     * @return the document, or null if there is no such document
+     */
+    protected VersionedDocument read( Database database,
+                                      String key ) {
+        if (patches == null) return Database.executeQuery(database.readDocumentSql(key), readVersionedDocumentFromResultsSet());
+        Collector<Document, List<Document>> documents = Collectors.listOfDocuments(1);
+        patches.read(database, Collections.singleton(key), documents);
+        return documents.getCollected().isEmpty() ? null : (VersionedDocument)documents.getCollected().get(0);
+    }
+
     @Override
     public boolean write( String key,
                           JsonObject document ) {
         return write(new SimpleDocument(key, document));
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * When this store writes patches and the document's content is an {@link EditableJsonObject edited} object, only the
+     * {@link EditableJsonObject#getChanges() changes} are written as a patch to the existing document with the same key and
+     * schema key, so the changed fields replace those of the stored document. Otherwise the whole content is written. The content
+     * of a document read from this store can be edited with {@link org.schematica.db.core.JsonValues#edit(JsonObject)}.
+     * </p>
+     */
     @Override
     public boolean write( Document document ) {
         String key = document.getKey();
+        if (patches != null && document.getJsonObject() instanceof EditableJsonObject) {
+            if (writePatch(document, ((EditableJsonObject)document.getJsonObject()).getChanges())) return true;
+        }
+        Database database = pool.checkout();
         try {
-            PreparedStatement sql = database.writeDocumentSQL(key, null, converter.write(document), converter.getType());
-            int affected = Database.executeUpdate(sql);
+            // Update the indexes, statistics, change log and patches in the same transaction ...
+            boolean transaction = !indexes.isEmpty() || statistics.isMaintained() || observation != null || patches != null;
+            if (transaction) database.beginTransaction();
+            int affected = write(database, document, ANY_VERSION);
+            if (transaction) database.commit();
+            if (observation != null) observation.signal();
             return affected > 1;
         } catch (IOException e) {
             String msg = Util.createString("Error converting document {0}->{1} was not found: {2}", key, document, e);
             throw new SchematicaException(msg);
+        } finally {
+            pool.release(database);
+        }
+    }
+
+    /**
+     * Write the whole content of the supplied document, and update the statistics, indexes, change log and patches. The caller is
+     * responsible for beginning and committing a transaction if one is required, and for rolling back the transaction if the
+     * document was not written because it has a different version.
+     * 
+     * @param database the database; may not be null
+     * @param document the document; may not be null
+     * @param version the version that the existing document must have, or {@link #ANY_VERSION} if the document is to be written
+     *        (or inserted) regardless of its version
+     * @return the number of rows affected by writing the document, which is 0 only if the existing document does not have the
+     *         supplied version
+     * @throws IOException if the document could not be converted
+     */
+    protected int write( Database database,
+                         Document document,
+                         long version ) throws IOException {
+        String key = document.getKey();
+        List<String> keys = Collections.singletonList(key);
+        List<String> schemaKeys = Collections.singletonList(document.getSchemaKey());
+        if (statistics.isMaintained()) statistics.recordWrites(database, keys, schemaKeys);
+        String schemaKey = document.getSchemaKey();
+        InputStream content = converter.write(document);
+        PreparedStatement sql = null;
+        if (version == ANY_VERSION) {
+            sql = database.writeDocumentSQL(key, schemaKey, content, converter.getType());
+        } else {
+            // Compare the version and write the document in a single statement ...
+            sql = database.writeDocumentIfVersionSql(key, schemaKey, content, converter.getType(), version);
+        }
+        int affected = Database.executeUpdate(sql);
+        if (affected == 0) return 0;
+        if (patches != null) patches.removeAll(database, keys);
+        if (!indexes.isEmpty()) {
+            indexes.addToBatch(database, document);
+            indexes.executeBatches(database);
+        }
+        if (observation != null) observation.recordWrites(database, keys, schemaKeys);
+        return affected;
+    }
+
+    /**
+     * Write the supplied changes as a patch to the existing document with the same key, provided that the existing document has
+     * the same schema key. The document is locked while the patch, its indexed values and the change log are written.
+     * 
+     * @param document the edited document; may not be null
+     * @param changes the fields that are added to or replaced in the existing document; may not be null
+     * @return true if the patch was written, or false if there is no such document or its schema key is different
+     */
+    protected boolean writePatch( Document document,
+                                  JsonObject changes ) {
+        String key = document.getKey();
+        List<String> keys = Collections.singletonList(key);
+        Database database = pool.checkout();
+        try {
+            database.beginTransaction();
+            List<String> existing = null;
+            try (PreparedStatement sql = database.readSchemaKeysSql(keys)) {
+                existing = Database.executeQuery(sql, Database.asStringList(2));
+            } catch (SQLException e) {
+                throw new SchematicaException(e);
+            }
+            if (existing.isEmpty() || !Objects.equals(existing.get(0), document.getSchemaKey())) return false;
+            if (changes.isEmpty()) return true;
+            patches.record(database, key, changes);
+            boolean logged = observation != null;
+            if (!indexes.isEmpty()) {
+                // The indexed values are replaced with those of the whole patched document ...
+                Collector<Document, List<Document>> patched = Collectors.listOfDocuments(1);
+                patches.read(database, keys, patched);
+                indexes.addToBatch(database, patched.getCollected().get(0));
+                indexes.executeBatches(database);
+            }
+            if (logged) observation.recordWrites(database, keys, Collections.singletonList(document.getSchemaKey()));
+            database.commit();
+            patches.written();
+            if (logged) observation.signal();
+            return true;
+        } catch (IOException e) {
+            String msg = Util.createString("Error converting the changes to document {0}->{1}: {2}", key, changes, e);
+            throw new SchematicaException(msg);
+        } finally {
+            pool.release(database);
         }
     }
 
@@ -124,23 +452,184 @@ public class JdbcStore implements Store {
     public BulkWriteReport writeMultiple( Iterable<Document> documents,
                                           boolean captureResults ) {
         ReportBuilder reportBuilder = BulkWriteReports.create(captureResults);
-        for (Document document : documents) {
-            String key = document.getKey();
-            try {
-                PreparedStatement sql = database.writeDocumentSQL(key, null, converter.write(document), converter.getType());
-                int affected = Database.executeUpdate(sql);
-                if (reportBuilder.isRecording()) {
-                    if (affected > 1) reportBuilder.recordOverwritten(key);
-                    else reportBuilder.recordUpdated(key);
+        // Add the documents to the statement's batch, and submit each full batch in a single round trip ...
+        List<String> batchedKeys = new ArrayList<>(batchSize);
+        List<String> batchedSchemaKeys = new ArrayList<>(batchSize);
+        PreparedStatement sql = null;
+        Database database = pool.checkout();
+        try {
+            // Each batch of documents and their indexed values, statistics and changes are written and committed in a single
+            // transaction, rather than committing each document separately ...
+            boolean indexed = !indexes.isEmpty();
+            boolean counted = statistics.isMaintained();
+            boolean logged = observation != null;
+            boolean patched = patches != null;
+            for (Document document : documents) {
+                String key = document.getKey();
+                if (batchedKeys.isEmpty()) database.beginTransaction();
+                try {
+                    sql = database.writeDocumentSQL(key, document.getSchemaKey(), converter.write(document), converter.getType());
+                    Database.addBatch(sql);
+                    batchedKeys.add(key);
+                    batchedSchemaKeys.add(document.getSchemaKey());
+                } catch (IOException e) {
+                    String msg = Util.createString("Error converting document {0}->{1} was not found: {2}", key, document, e);
+                    throw new SchematicaException(msg);
                 }
-            } catch (IOException e) {
-                String msg = Util.createString("Error converting document {0}->{1} was not found: {2}", key, document, e);
-                throw new SchematicaException(msg);
+                if (indexed) indexes.addToBatch(database, document);
+                if (batchedKeys.size() >= batchSize) {
+                    if (counted) statistics.recordWrites(database, batchedKeys, batchedSchemaKeys);
+                    if (logged) observation.recordWrites(database, batchedKeys, batchedSchemaKeys);
+                    if (patched) patches.removeAll(database, batchedKeys);
+                    executeBatch(database, sql, batchedKeys, reportBuilder, indexed);
+                    batchedKeys.clear();
+                    batchedSchemaKeys.clear();
+                }
+            }
+            if (!batchedKeys.isEmpty()) {
+                // Submit the last partial batch ...
+                if (counted) statistics.recordWrites(database, batchedKeys, batchedSchemaKeys);
+                if (logged) observation.recordWrites(database, batchedKeys, batchedSchemaKeys);
+                if (patched) patches.removeAll(database, batchedKeys);
+                executeBatch(database, sql, batchedKeys, reportBuilder, indexed);
             }
+        } finally {
+            pool.release(database);
         }
         return reportBuilder.getReport();
     }
 
+    @Override
+    public BulkLoader<?> getBulkLoader() {
+        return new JdbcBulkLoader();
+    }
+
+    /**
+     * A document that has been converted by the {@link JdbcBulkLoader} into the format in which it is written.
+     */
+    protected static final class ConvertedDocument {
+        protected final Document document;
+        protected final InputStream content;
+
+        protected ConvertedDocument( Document document,
+                                     InputStream content ) {
+            this.document = document;
+            this.content = content;
+        }
+    }
+
+    /**
+     * The {@link BulkLoader} of this store, which converts the documents in parallel and then writes them with multi-row
+     * "{@code write_documents}" statements of up to {@value #MAXIMUM_ROWS_PER_STATEMENT} documents each, rather than sending a
+     * separate command for each document as {@link JdbcStore#writeMultiple(Iterable, boolean)} does. Each batch of up to the
+     * {@link JdbcStore#DEFAULT_BATCH_SIZE batch size} documents is written and committed in a single transaction, together with
+     * its indexed values, statistics and changes.
+     */
+    protected class JdbcBulkLoader implements BulkLoader<ConvertedDocument> {
+        @Override
+        public ConvertedDocument prepare( Document document ) throws IOException {
+            return new ConvertedDocument(document, converter.write(document));
+        }
+
+        @Override
+        public void load( List<ConvertedDocument> documents ) {
+            // A multi-row statement cannot write the same row twice, so write only the last document with each key ...
+            Map<String, ConvertedDocument> unique = new LinkedHashMap<>((int)(documents.size() / 0.75f) + 1);
+            for (ConvertedDocument document : documents) {
+                unique.put(document.document.getKey(), document);
+            }
+            List<ConvertedDocument> batch = new ArrayList<>(batchSize);
+            for (ConvertedDocument document : unique.values()) {
+                batch.add(document);
+                if (batch.size() == batchSize) {
+                    write(batch);
+                    batch.clear();
+                }
+            }
+            if (!batch.isEmpty()) write(batch);
+        }
+
+        /**
+         * Write and commit the supplied documents in a single transaction.
+         * 
+         * @param documents the documents, whose keys are all different; may not be empty
+         */
+        protected void write( List<ConvertedDocument> documents ) {
+            List<String> keys = new ArrayList<>(documents.size());
+            List<String> schemaKeys = new ArrayList<>(documents.size());
+            List<InputStream> contents = new ArrayList<>(documents.size());
+            for (ConvertedDocument document : documents) {
+                keys.add(document.document.getKey());
+                schemaKeys.add(document.document.getSchemaKey());
+                contents.add(document.content);
+            }
+            boolean indexed = !indexes.isEmpty();
+            Database database = pool.checkout();
+            try {
+                database.beginTransaction();
+                if (statistics.isMaintained()) statistics.recordWrites(database, keys, schemaKeys);
+                if (observation != null) observation.recordWrites(database, keys, schemaKeys);
+                if (patches != null) patches.removeAll(database, keys);
+                for (int start = 0; start < keys.size(); start += MAXIMUM_ROWS_PER_STATEMENT) {
+                    int end = Math.min(start + MAXIMUM_ROWS_PER_STATEMENT, keys.size());
+                    Database.executeUpdate(database.writeDocumentsSql(keys.subList(start, end),
+                                                                      schemaKeys.subList(start, end),
+                                                                      contents.subList(start, end),
+                                                                      converter.getType()));
+                }
+                if (indexed) {
+                    for (ConvertedDocument document : documents) {
+                        indexes.addToBatch(database, document.document);
+                    }
+                    indexes.executeBatches(database);
+                }
+                database.commit();
+            } finally {
+                pool.release(database);
+            }
+            if (observation != null) observation.signal();
+        }
+    }
+
+    /**
+     * Submit the batch of document writes and, if required, the batches that update the indexes and then commit the transaction.
+     * 
+     * @param database the database; may not be null
+     * @param sql the statement with the batch of document writes; may not be null
+     * @param keys the keys of the documents in the batch, in the same order as they were added to the batch
+     * @param reportBuilder the report builder; may not be null
+     * @param indexed true if the indexes are to be updated, or false otherwise
+     */
+    protected void executeBatch( Database database,
+                                 PreparedStatement sql,
+                                 List<String> keys,
+                                 ReportBuilder reportBuilder,
+                                 boolean indexed ) {
+        recordBatchResults(keys, Database.executeBatch(sql), reportBuilder);
+        if (indexed) indexes.executeBatches(database);
+        database.commit();
+        if (observation != null) observation.signal();
+    }
+
+    /**
+     * Record in the report the outcome of each document write within a batch.
+     * 
+     * @param keys the keys of the documents in the batch, in the same order as they were added to the batch
+     * @param updateCounts the update counts returned by the database for the batch
+     * @param reportBuilder the report builder; may not be null
+     */
+    protected void recordBatchResults( List<String> keys,
+                                       int[] updateCounts,
+                                       ReportBuilder reportBuilder ) {
+        if (!reportBuilder.isRecording()) return;
+        for (int i = 0; i != keys.size(); ++i) {
+            // Drivers may return fewer counts than commands, or SUCCESS_NO_INFO (-2) when the count is not known ...
+            int affected = i < updateCounts.length ? updateCounts[i] : Statement.SUCCESS_NO_INFO;
+            if (affected > 1) reportBuilder.recordOverwritten(keys.get(i));
+            else reportBuilder.recordUpdated(keys.get(i));
+        }
+    }
+
     @Override
     public boolean writeIfAbsent( String key,
                                   JsonObject document ) {
@@ -150,123 +639,350 @@ public class JdbcStore implements Store {
     @Override
     public boolean writeIfAbsent( Document document ) {
         String key = document.getKey();
+        Database database = pool.checkout();
         try {
-            PreparedStatement sql = database.insertIfAbsentDocumentSQL(key, null, converter.write(document), converter.getType());
-            int affected = Database.executeUpdate(sql);
+            boolean transaction = !indexes.isEmpty() || statistics.isMaintained() || observation != null;
+            if (transaction) database.beginTransaction();
+            int affected = writeIfAbsent(database, document);
+            if (transaction) database.commit();
+            if (observation != null && affected > 0) observation.signal();
             return affected > 0;
         } catch (IOException e) {
             String msg = Util.createString("Error converting document {0}->{1} was not found: {2}", key, document, e);
             throw new SchematicaException(msg);
+        } finally {
+            pool.release(database);
+        }
+    }
+
+    /**
+     * Insert the supplied document if there is no document with the same key, and update the indexes, statistics and change log.
+     * The caller is responsible for beginning and committing a transaction if one is required.
+     * 
+     * @param database the database; may not be null
+     * @param document the document; may not be null
+     * @return the number of rows affected by inserting the document, which is 0 if there already is a document with the key
+     * @throws IOException if the document could not be converted
+     */
+    protected int writeIfAbsent( Database database,
+                                 Document document ) throws IOException {
+        String key = document.getKey();
+        String schemaKey = document.getSchemaKey();
+        InputStream content = converter.write(document);
+        PreparedStatement sql = database.insertIfAbsentDocumentSQL(key, schemaKey, content, converter.getType());
+        int affected = Database.executeUpdate(sql);
+        if (affected == 0) return 0;
+        // Only index, count and log the document if it was actually inserted ...
+        if (!indexes.isEmpty()) {
+            indexes.addToBatch(database, document);
+            indexes.executeBatches(database);
+        }
+        if (statistics.isMaintained()) statistics.recordInsert(database, schemaKey);
+        if (observation != null) {
+            observation.recordWrites(database, Collections.singletonList(key), Collections.singletonList(schemaKey));
+        }
+        return affected;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The version is compared and the whole content of the document written with a single conditional update, so the existing
+     * document is never locked between the time it is read and the time it is written.
+     * </p>
+     */
+    @Override
+    public boolean writeIfVersion( Document document,
+                                   long version ) {
+        if (version < 0L) throw new IllegalArgumentException("The version may not be negative, but was " + version);
+        if (version == VersionedDocument.ABSENT) return writeIfAbsent(document);
+        String key = document.getKey();
+        Database database = pool.checkout();
+        try {
+            database.beginTransaction();
+            if (write(database, document, version) == 0) return false;
+            database.commit();
+            if (observation != null) observation.signal();
+            return true;
+        } catch (IOException e) {
+            String msg = Util.createString("Error converting document {0}->{1}: {2}", key, document, e);
+            throw new SchematicaException(msg);
+        } finally {
+            pool.release(database);
         }
     }
 
     @Override
     public void merge( String key,
                        JsonObject document ) {
-        // Read the existing document ...
-        Document existing = read(key);
-        if (existing != null) {
-            // TODO: merge documents ...
-            // document = merge(existing,document);
+        Util.notNull(document, "document");
+        merge(key, null, document, false);
+    }
+
+    @Override
+    public void merge( String key,
+                       JsonObject base,
+                       JsonObject document ) {
+        Util.notNull(base, "base");
+        Util.notNull(document, "document");
+        merge(key, base, document, true);
+    }
+
+    @Override
+    public boolean mergeIfVersion( String key,
+                                   JsonObject document,
+                                   long version ) {
+        Util.notNull(document, "document");
+        if (version < 0L) throw new IllegalArgumentException("The version may not be negative, but was " + version);
+        return mergeIfVersion(key, null, document, false, version);
+    }
+
+    /**
+     * Merge the supplied document into the existing document with the same key. The existing document is read, merged and then
+     * written with a {@link #writeIfVersion(Document, long) conditional update} that fails if others have changed the document in
+     * the meantime, in which case this is repeated up to {@link #MAXIMUM_MERGE_ATTEMPTS} times. Only then is the existing
+     * document locked from the time it is read until the merged document is written, so that the merge always completes.
+     * 
+     * @param key the unique document key; may not be null
+     * @param base the version of the document that the supplied document was based on; may be null for a two-way merge
+     * @param document the document to be merged; may not be null
+     * @param threeWay true if the changes from the base version are to be merged, or false if the fields of the document are to
+     *        be merged
+     * @see Merges
+     */
+    protected void merge( String key,
+                          JsonObject base,
+                          JsonObject document,
+                          boolean threeWay ) {
+        for (int attempt = 0; attempt != MAXIMUM_MERGE_ATTEMPTS; ++attempt) {
+            if (mergeIfVersion(key, base, document, threeWay, ANY_VERSION)) return;
+        }
+        // The document keeps changing, so lock it while merging ...
+        mergeWhileLocked(key, base, document, threeWay);
+    }
+
+    /**
+     * Read the existing document, merge the supplied document into it, and write the merged document only if the existing
+     * document has not been changed since it was read. The existing document is not locked while the documents are merged.
+     * 
+     * @param key the unique document key; may not be null
+     * @param base the version of the document that the supplied document was based on; may be null for a two-way merge
+     * @param document the document to be merged; may not be null
+     * @param threeWay true if the changes from the base version are to be merged, or false if the fields of the document are to
+     *        be merged
+     * @param expectedVersion the version that the existing document must have, or {@link #ANY_VERSION} if the existing document
+     *        may have any version
+     * @return true if the merged document was written or is the same as the existing document, or false if the existing document
+     *         does not have the expected version or was changed after it was read
+     */
+    protected boolean mergeIfVersion( String key,
+                                      JsonObject base,
+                                      JsonObject document,
+                                      boolean threeWay,
+                                      long expectedVersion ) {
+        Database database = pool.checkout();
+        try {
+            VersionedDocument existing = read(database, key);
+            long version = existing == null ? VersionedDocument.ABSENT : existing.getVersion();
+            if (expectedVersion != ANY_VERSION && version != expectedVersion) return false;
+            Document merged = existing == null ? new SimpleDocument(key, document) : merged(existing, base, document, threeWay);
+            if (merged == null) return true;
+            database.beginTransaction();
+            int affected = existing == null ? writeIfAbsent(database, merged) : write(database, merged, version);
+            if (affected == 0) return false;
+            database.commit();
+            if (observation != null) observation.signal();
+            return true;
+        } catch (IOException e) {
+            String msg = Util.createString("Error converting merged document {0}->{1}: {2}", key, document, e);
+            throw new SchematicaException(msg);
+        } finally {
+            pool.release(database);
+        }
+    }
+
+    /**
+     * Merge the supplied document into the existing document with the same key in a single transaction, which locks the existing
+     * document from the time it is read until the merged document is written so that no concurrent changes are lost.
+     * 
+     * @param key the unique document key; may not be null
+     * @param base the version of the document that the supplied document was based on; may be null for a two-way merge
+     * @param document the document to be merged; may not be null
+     * @param threeWay true if the changes from the base version are to be merged, or false if the fields of the document are to
+     *        be merged
+     */
+    protected void mergeWhileLocked( String key,
+                                     JsonObject base,
+                                     JsonObject document,
+                                     boolean threeWay ) {
+        Database database = pool.checkout();
+        try {
+            database.beginTransaction();
+            List<String> existingSchemaKeys = null;
+            try (PreparedStatement sql = database.readSchemaKeysSql(Collections.singletonList(key))) {
+                existingSchemaKeys = Database.executeQuery(sql, Database.asStringList(2));
+            } catch (SQLException e) {
+                throw new SchematicaException(e);
+            }
+            Document existing = existingSchemaKeys.isEmpty() ? null : read(database, key);
+            // There is nothing to merge with if there is no existing document ...
+            Document merged = existing == null ? new SimpleDocument(key, document) : merged(existing, base, document, threeWay);
+            if (merged == null) return;
+            write(database, merged, ANY_VERSION);
+            database.commit();
+            if (observation != null) observation.signal();
+        } catch (IOException e) {
+            String msg = Util.createString("Error converting merged document {0}->{1}: {2}", key, document, e);
+            throw new SchematicaException(msg);
+        } finally {
+            pool.release(database);
         }
-        // then write ...
-        write(key, document);
+    }
+
+    /**
+     * Merge the supplied document into the existing document.
+     * 
+     * @param existing the existing document; may not be null
+     * @param base the version of the document that the supplied document was based on; may be null for a two-way merge
+     * @param document the document to be merged; may not be null
+     * @param threeWay true if the changes from the base version are to be merged, or false if the fields of the document are to
+     *        be merged
+     * @return the merged document with the key and schema key of the existing document, or null if merging does not change the
+     *         existing document
+     */
+    protected Document merged( Document existing,
+                               JsonObject base,
+                               JsonObject document,
+                               boolean threeWay ) {
+        JsonObject current = existing.getJsonObject();
+        JsonObject json = threeWay ? Merges.merge(base, current, document) : Merges.merge(current, document);
+        if (json == current) return null;
+        String key = existing.getKey();
+        String schemaKey = existing.getSchemaKey();
+        return schemaKey == null ? new SimpleDocument(key, json) : new TypedDocument(key, json, schemaKey);
     }
 
     @Override
     public void remove( String key ) {
-        Database.execute(database.removeDocumentSql(key));
+        Database database = pool.checkout();
+        try {
+            boolean indexed = !indexes.isEmpty();
+            boolean counted = statistics.isMaintained();
+            boolean logged = observation != null;
+            boolean patched = patches != null;
+            if (indexed || counted || logged || patched) database.beginTransaction();
+            if (counted) statistics.recordRemoves(database, Collections.singletonList(key));
+            Database.execute(database.removeDocumentSql(key));
+            if (patched) patches.removeAll(database, Collections.singletonList(key));
+            if (indexed) {
+                indexes.removeFromBatch(database, key);
+                indexes.executeBatches(database);
+            }
+            if (logged) observation.recordRemoves(database, Collections.singletonList(key));
+            if (indexed || counted || logged || patched) database.commit();
+            if (logged) observation.signal();
+        } finally {
+            pool.release(database);
+        }
     }
 
     @Override
     public void remove( Iterable<String> keys ) {
-        for (Collection<String> batch : database.determineBatchesOf(keys.iterator())) {
-            Database.execute(database.removeMultipleDocumentsSql(batch));
+        Database database = pool.checkout();
+        try {
+            boolean indexed = !indexes.isEmpty();
+            boolean counted = statistics.isMaintained();
+            boolean logged = observation != null;
+            boolean patched = patches != null;
+            if (indexed || counted || logged || patched) database.beginTransaction();
+            for (Collection<String> batch : database.determineBatchesOf(keys.iterator())) {
+                if (counted) statistics.recordRemoves(database, batch);
+                Database.execute(database.removeMultipleDocumentsSql(batch));
+                if (patched) patches.removeAll(database, batch);
+                if (logged) observation.recordRemoves(database, batch);
+                if (indexed) {
+                    for (String key : batch) {
+                        indexes.removeFromBatch(database, key);
+                    }
+                }
+            }
+            if (indexed) indexes.executeBatches(database);
+            if (indexed || counted || logged || patched) database.commit();
+            if (logged) observation.signal();
+        } finally {
+            pool.release(database);
         }
     }
 
     @Override
     public TaskBuilder filter( Filter filter ) {
-        return null;
+        Util.notNull(filter, "filter");
+        return new JdbcTaskBuilder(this, filter);
     }
 
     @Override
     public TaskBuilder all() {
-        return new TaskBuilder() {
-            @Override
-            public Task<Long> totalCount() {
-                // Return a new task that, when called, queries for the number of documents and returns that count ...
-                return new Task<Long>() {
-                    @Override
-                    public Results<Long> call() throws Exception {
-                        final long value = size();
-                        return new Results<Long>() {
-                            @Override
-                            public Long output() {
-                                return value;
-                            }
-
-                            @Override
-                            public void close() {
-                            }
-                        };
-                    }
-                };
-            }
+        return new JdbcTaskBuilder(this, null);
+    }
 
-            @Override
-            public Task<Sequence<Document>> documents() {
-                // Return a new task that, when called, queries for all documents and returns a sequence ...
-                return new Task<Sequence<Document>>() {
+    /**
+     * Check out a connection and open a cursor using the specified statement. The connection remains checked out until the
+     * returned sequence is closed (or fully iterated).
+     * 
+     * @param statementKey the key of the query in the statements properties; may not be null
+     * @param reader the component that reads each row; may not be null
+     * @return the lazy sequence; never null
+     */
+    protected <T> ResultSetSequence<T> openCursor( String statementKey,
+                                                   RowReader<T> reader ) {
+        compactPatches();
+        final Database database = pool.checkout();
+        try {
+            PreparedStatement query = database.prepareCursorStatement(statementKey);
+            Runnable release = new Runnable() {
+                @Override
+                public void run() {
+                    pool.release(database);
+                }
+            };
+            if (statistics.isMaintained()) {
+                // The size of the sequence can be obtained from the statistics rather than by counting the documents ...
+                return new ResultSetSequence<T>(query, null, reader, release) {
                     @Override
-                    public Results<Sequence<Document>> call() throws Exception {
-                        // Even though we're calling the database twice in this method, we don't need to do this in a single
-                        // transaction because we just need an estimated count to know what kind of DocumentCollector to get ...
-                        long estimatedCount = size();
-                        Collector<Document, List<Document>> documents = Collectors.listOfDocuments(estimatedCount);
-                        Database.executeQuery(database.readAllDocumentsSql(), readDocumentsFromResultsSet(documents));
-                        return documents.asSequenceResult();
+                    protected long count() {
+                        return statistics.documentCount(database);
                     }
                 };
             }
+            return new ResultSetSequence<>(query, database.countAllDocumentsSql(), reader, release);
+        } catch (RuntimeException e) {
+            pool.release(database);
+            throw e;
+        }
+    }
 
-            @Override
-            public Task<Map<String, Document>> documentsByKey() {
-                // Return a new task that, when called, queries for all documents and returns a map ...
-                return new Task<Map<String, Document>>() {
-                    @Override
-                    public Results<Map<String, Document>> call() throws Exception {
-                        // Even though we're calling the database twice in this method, we don't need to do this in a single
-                        // transaction because we just need an estimated count to know what kind of DocumentCollector to get ...
-                        long estimatedCount = size();
-                        final Collector<Document, Map<String, Document>> documents = Collectors.mapOfDocuments(estimatedCount);
-                        Database.executeQuery(database.readAllDocumentsSql(), readDocumentsFromResultsSet(documents));
-                        return documents;
-                    }
-                };
-            }
+    /**
+     * Get the patches of the documents in this store.
+     * 
+     * @return the patches, or null if this store does not write patches
+     */
+    public JdbcPatches getPatches() {
+        return patches;
+    }
 
-            @Override
-            public Task<Sequence<String>> keys() {
-                // Return a new task that, when called, queries for all documents and returns a map ...
-                return new Task<Sequence<String>>() {
-                    @Override
-                    public Results<Sequence<String>> call() throws Exception {
-                        // Even though we're calling the database twice in this method, we don't need to do this in a single
-                        // transaction because we just need an estimated count to know what kind of DocumentCollector to get ...
-                        long estimatedCount = size();
-                        final Collector<String, Set<String>> keys = Collectors.setOfKeys(estimatedCount);
-                        Database.executeQuery(database.readAllDocumentKeysSql(), readKeysFromResultsSet(keys));
-                        return keys.asSequenceResult();
-                    }
-                };
-            }
+    /**
+     * Fold any patches into the content of their documents, which is required before the content is queried or scanned by the
+     * database. This does nothing if this store does not write patches.
+     */
+    protected void compactPatches() {
+        if (patches != null) patches.compact();
+    }
 
-            @Override
-            public <Kout, Vout> Reducible<Kout, Vout> map( Mapper<Kout, Vout> mapper ) {
-                return null;
-            }
-        };
+    @Override
+    public Store withConsistency( ReadConsistency consistency ) {
+        Util.notNull(consistency, "consistency");
+        // A single database has no replicas ...
+        return this;
     }
 
     @Override
@@ -274,64 +990,178 @@ public class JdbcStore implements Store {
         return null;
     }
 
+    @Override
+    public JdbcIndexes getIndexes() {
+        return indexes;
+    }
+
+    @Override
+    public JdbcStatistics getStatistics() {
+        return statistics;
+    }
+
     @Override
     public Observation getObservation() {
-        return null;
+        return observation;
     }
 
     @Override
     public void close() {
+        if (observation != null) observation.close();
+        if (patches != null) patches.close();
+        pool.close();
     }
 
-    protected ResultSetProcessor<Document> readDocumentFromResultsSet() {
-        return new ResultSetProcessor<Document>() {
+    protected ResultSetProcessor<VersionedDocument> readVersionedDocumentFromResultsSet() {
+        return new ResultSetProcessor<VersionedDocument>() {
             @Override
-            public Document process( ResultSet resultSet ) throws SQLException, IOException, SchematicaException {
-                if (resultSet.next()) {
-                    String key = resultSet.getString(1);
-                    String schemaKey = resultSet.getString(2);
-                    DocumentFormat format = getFormat(resultSet.getInt(3));
-                    InputStream stream = resultSet.getBinaryStream(4);
-                    assert format != null;
-                    assert stream != null;
-                    try {
-                        return format.parse(key, stream, schemaKey);
-                    } finally {
-                        stream.close();
-                    }
+            public VersionedDocument process( ResultSet resultSet ) throws SQLException, IOException, SchematicaException {
+                return resultSet.next() ? readVersionedDocument(resultSet, 5) : null;
+            }
+        };
+    }
+
+    protected ResultSetProcessor<Void> readVersionedDocumentsFromResultsSet( final Collector<Document, ?> documents ) {
+        return new ResultSetProcessor<Void>() {
+            @Override
+            public Void process( ResultSet resultSet ) throws SQLException, IOException, SchematicaException {
+                while (resultSet.next()) {
+                    documents.add(readVersionedDocument(resultSet, 5));
                 }
                 return null;
             }
         };
     }
 
-    protected ResultSetProcessor<Void> readDocumentsFromResultsSet( final Collector<Document, ?> documents ) {
+    protected RowReader<Document> documentReader() {
+        return new RowReader<Document>() {
+            @Override
+            public Document read( ResultSet resultSet ) throws SQLException, IOException {
+                return readDocument(resultSet);
+            }
+        };
+    }
+
+    protected ResultSetProcessor<Void> readProjectionsFromResultsSet( final Collector<Document, ?> documents,
+                                                                      final Projection projection,
+                                                                      final boolean extracted ) {
         return new ResultSetProcessor<Void>() {
             @Override
             public Void process( ResultSet resultSet ) throws SQLException, IOException, SchematicaException {
                 while (resultSet.next()) {
-                    String key = resultSet.getString(1);
-                    String schemaKey = resultSet.getString(2);
-                    DocumentFormat format = getFormat(resultSet.getInt(3));
-                    InputStream stream = resultSet.getBinaryStream(4);
-                    assert format != null;
-                    assert stream != null;
-                    try {
-                        documents.add(format.parse(key, stream, schemaKey));
-                    } finally {
-                        stream.close();
-                    }
+                    documents.add(readProjection(resultSet, projection, extracted));
                 }
                 return null;
             }
         };
     }
 
+    protected RowReader<Document> projectionReader( final Projection projection,
+                                                    final boolean extracted ) {
+        return new RowReader<Document>() {
+            @Override
+            public Document read( ResultSet resultSet ) throws SQLException, IOException {
+                return readProjection(resultSet, projection, extracted);
+            }
+        };
+    }
+
+    protected RowReader<String> keyReader() {
+        return new RowReader<String>() {
+            @Override
+            public String read( ResultSet resultSet ) throws SQLException {
+                return resultSet.getString(1);
+            }
+        };
+    }
+
+    /**
+     * Read the document in the current row of the supplied result set, which is expected to contain the key, schema key, format,
+     * and content in the first four columns.
+     * 
+     * @param resultSet the result set positioned at the row; may not be null
+     * @return the document; never null
+     * @throws SQLException if there is a problem operating against the result set
+     * @throws IOException if there is a problem parsing the document content
+     */
+    protected Document readDocument( ResultSet resultSet ) throws SQLException, IOException {
+        String key = resultSet.getString(1);
+        String schemaKey = resultSet.getString(2);
+        DocumentFormat format = getFormat(resultSet.getInt(3));
+        InputStream stream = resultSet.getBinaryStream(4);
+        assert format != null;
+        assert stream != null;
+        try {
+            return format.parse(key, stream, schemaKey);
+        } finally {
+            stream.close();
+        }
+    }
+
+    /**
+     * Read the document in the current row of the supplied result set, as with {@link #readDocument(ResultSet)}, along with the
+     * document's version in the supplied column.
+     * 
+     * @param resultSet the result set positioned at the row; may not be null
+     * @param versionColumn the number of the column that contains the version
+     * @return the document; never null
+     * @throws SQLException if there is a problem operating against the result set
+     * @throws IOException if there is a problem parsing the document content
+     */
+    protected VersionedDocument readVersionedDocument( ResultSet resultSet,
+                                                       int versionColumn ) throws SQLException, IOException {
+        Document document = readDocument(resultSet);
+        return new VersionedDocumentWrapper(document, resultSet.getLong(versionColumn));
+    }
+
+    /**
+     * Read the projection of the document in the current row of the supplied result set, which is expected to contain the key,
+     * schema key, format, and content in the first four columns. When the values were extracted by the database (see
+     * {@link FilterTranslator#jsonProjection(List)}), the content is null for rows in JSON format and the JSON text of the values
+     * at each of the projection's paths is in the subsequent columns.
+     * 
+     * @param resultSet the result set positioned at the row; may not be null
+     * @param projection the projection; may not be null
+     * @param extracted true if the result set contains the values extracted by the database
+     * @return the projected document; never null
+     * @throws SQLException if there is a problem operating against the result set
+     * @throws IOException if there is a problem parsing the document content or the extracted values
+     */
+    protected Document readProjection( ResultSet resultSet,
+                                       Projection projection,
+                                       boolean extracted ) throws SQLException, IOException {
+        String key = resultSet.getString(1);
+        String schemaKey = resultSet.getString(2);
+        int format = resultSet.getInt(3);
+        if (extracted && format == JSON_FORMAT_CODE) {
+            List<JsonValue> values = new ArrayList<>(projection.getPaths().size());
+            for (int i = 0; i != projection.getPaths().size(); ++i) {
+                String json = resultSet.getString(5 + i);
+                try {
+                    values.add(json != null ? JsonDocumentFormat.parseValue(json) : null);
+                } catch (JsonException e) {
+                    String msg = Util.createString("Unable to parse the value at \"{0}\" in document \"{1}\"",
+                                                   projection.getPaths().get(i),
+                                                   key);
+                    throw new IOException(msg, e);
+                }
+            }
+            return Projection.document(key, projection.object(values), schemaKey);
+        }
+        InputStream stream = resultSet.getBinaryStream(4);
+        assert stream != null;
+        try {
+            return projection.parse(getFormat(format), key, stream, schemaKey);
+        } finally {
+            stream.close();
+        }
+    }
+
     protected ResultSetProcessor<Void> readKeysFromResultsSet( final Collector<String, ?> keys ) {
         return new ResultSetProcessor<Void>() {
             @Override
             public Void process( ResultSet resultSet ) throws SQLException, SchematicaException {
-                if (resultSet.next()) {
+                while (resultSet.next()) {
                     String key = resultSet.getString(1);
                     assert key != null;
                     keys.add(key);
@@ -341,9 +1171,28 @@ public class JdbcStore implements Store {
         };
     }
 
+    /**
+     * Get the format with the supplied type code. Documents written with any of the built-in formats (with or without
+     * compression) can be read, regardless of the format currently used to write documents.
+     * 
+     * @param format the type code of the format
+     * @return the format; never null
+     * @throws SchematicaException if the format is not known
+     */
     protected DocumentFormat getFormat( int format ) throws SchematicaException {
+        if (format == converter.getType()) return converter;
         if (format == JSON_FORMAT_CODE) return JSON_FORMAT;
         if (format == BSON_FORMAT_CODE) return BSON_FORMAT;
+        if (CompressedDocumentFormat.isCompressed(format)) {
+            DocumentFormat compressed = compressedFormats.get(format);
+            if (compressed == null) {
+                // The codec and wrapped format are determined by the type code, and the threshold is irrelevant for reading ...
+                DocumentFormat wrapped = getFormat(CompressedDocumentFormat.getWrappedType(format));
+                compressed = new CompressedDocumentFormat(wrapped, CompressedDocumentFormat.getCodec(format), 0);
+                compressedFormats.putIfAbsent(format, compressed);
+            }
+            return compressed;
+        }
         throw new SchematicaException(Util.createString("Unknown persistence format {0}", format));
     }
 
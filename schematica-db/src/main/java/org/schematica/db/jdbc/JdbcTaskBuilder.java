@@ -0,0 +1,565 @@
+/*
+ * Schematica (http://www.schematica.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.schematica.db.jdbc;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import javax.json.JsonObject;
+import org.schematica.db.Document;
+import org.schematica.db.Path;
+import org.schematica.db.SchematicaException;
+import org.schematica.db.Sequence;
+import org.schematica.db.core.Collectors;
+import org.schematica.db.core.Collectors.Collector;
+import org.schematica.db.core.Filters;
+import org.schematica.db.core.MapReduce;
+import org.schematica.db.core.Mappers;
+import org.schematica.db.core.Projection;
+import org.schematica.db.core.Reducers;
+import org.schematica.db.core.SequencePublisher;
+import org.schematica.db.core.Util;
+import org.schematica.db.jdbc.Database.ResultSetProcessor;
+import org.schematica.db.jdbc.FilterTranslator.WhereClause;
+import org.schematica.db.jdbc.ResultSetSequence.RowReader;
+import org.schematica.db.task.Filter;
+import org.schematica.db.task.Mapper;
+import org.schematica.db.task.Publisher;
+import org.schematica.db.task.Reducer;
+import org.schematica.db.task.Reducer.DoubleReducer;
+import org.schematica.db.task.Reducer.LongReducer;
+import org.schematica.db.task.Results;
+import org.schematica.db.task.Task;
+import org.schematica.db.task.TaskBuilder;
+
+/**
+ * The {@link TaskBuilder} implementation for a {@link JdbcStore}. When a {@link Filter} is supplied, as much of the filter as
+ * possible is {@link FilterTranslator translated} into the criteria of the SQL queries, and the remainder is evaluated in-memory
+ * as the (fewer) selected rows are streamed from the database.
+ * 
+ * @author Randall Hauch (rhauch@redhat.com)
+ */
+public class JdbcTaskBuilder implements TaskBuilder {
+
+    protected final JdbcStore store;
+    protected final Filter filter;
+
+    /**
+     * Create a task builder for the documents in the supplied store that satisfy the filter.
+     * 
+     * @param store the store; may not be null
+     * @param filter the filter; may be null if all documents are to be included
+     */
+    protected JdbcTaskBuilder( JdbcStore store,
+                               Filter filter ) {
+        this.store = store;
+        this.filter = filter;
+    }
+
+    @Override
+    public Task<Long> totalCount() {
+        // Return a new task that, when called, queries for the number of documents and returns that count ...
+        return new Task<Long>() {
+            @Override
+            public Results<Long> call() throws Exception {
+                final long value = filter == null ? store.size() : countFiltered();
+                return new Results<Long>() {
+                    @Override
+                    public Long output() {
+                        return value;
+                    }
+
+                    @Override
+                    public void close() {
+                    }
+                };
+            }
+        };
+    }
+
+    @Override
+    public Task<Sequence<Document>> documents() {
+        // Return a new task that, when called, opens a cursor over the documents and returns a lazy sequence ...
+        return new Task<Sequence<Document>>() {
+            @Override
+            public Results<Sequence<Document>> call() throws Exception {
+                // The documents are read and parsed only as the sequence is iterated, and the cursor (and its
+                // connection) is released when the iteration completes or the results are closed ...
+                return results(openDocuments());
+            }
+        };
+    }
+
+    @Override
+    public Task<Sequence<Document>> documents( Iterable<Path> paths ) {
+        final Projection projection = Projection.of(paths);
+        // Return a new task that, when called, opens a cursor over the projected documents and returns a lazy sequence ...
+        return new Task<Sequence<Document>>() {
+            @Override
+            public Results<Sequence<Document>> call() throws Exception {
+                return results(openProjections(projection));
+            }
+        };
+    }
+
+    @Override
+    public Task<Map<String, Document>> documentsByKey() {
+        // Return a new task that, when called, streams the documents into a map ...
+        return new Task<Map<String, Document>>() {
+            @Override
+            public Results<Map<String, Document>> call() throws Exception {
+                // Size the map using the estimate of the number of documents, if it can be obtained without counting them ...
+                long size = filter == null ? store.getStatistics().getSizeHint() : -1L;
+                final Collector<Document, Map<String, Document>> documents = Collectors.mapOfDocuments(size);
+                try (ResultSetSequence<Document> sequence = openDocuments()) {
+                    for (Document document : sequence) {
+                        documents.add(document);
+                    }
+                }
+                return documents;
+            }
+        };
+    }
+
+    @Override
+    public Task<Sequence<String>> keys() {
+        // Return a new task that, when called, opens a cursor over the document keys and returns a lazy sequence ...
+        return new Task<Sequence<String>>() {
+            @Override
+            public Results<Sequence<String>> call() throws Exception {
+                return results(openKeys());
+            }
+        };
+    }
+
+    @Override
+    public Publisher<String> publishKeys() {
+        // Each subscriber opens its own cursor, which is read only as the subscriber requests more keys ...
+        return new SequencePublisher<>(keys());
+    }
+
+    @Override
+    public Publisher<Document> publishDocuments() {
+        // Each subscriber opens its own cursor, which is read only as the subscriber requests more documents ...
+        return new SequencePublisher<>(documents());
+    }
+
+    @Override
+    public <Kout, Vout> Reducible<Kout, Vout> map( final Mapper<Kout, Vout> mapper ) {
+        Util.notNull(mapper, "mapper");
+        return new Reducible<Kout, Vout>() {
+            @Override
+            public Task<Map<Kout, Vout>> reduce( final Reducer<Kout, Vout> reducer ) {
+                Util.notNull(reducer, "reducer");
+                // Return a new task that, when called, streams the documents through the map-reduce engine ...
+                return new Task<Map<Kout, Vout>>() {
+                    @Override
+                    public Results<Map<Kout, Vout>> call() throws Exception {
+                        final Map<Kout, Vout> output = mapReduce(mapper, reducer);
+                        return new Results<Map<Kout, Vout>>() {
+                            @Override
+                            public Map<Kout, Vout> output() {
+                                return output;
+                            }
+
+                            @Override
+                            public void close() {
+                            }
+                        };
+                    }
+                };
+            }
+        };
+    }
+
+    /**
+     * Run the MapReduce procedure over the documents that satisfy the filter. The documents are streamed from the database in the
+     * calling thread, while the mapping and reducing is done in parallel by a {@link MapReduce} engine.
+     * 
+     * @param mapper the mapper; may not be null
+     * @param reducer the reducer; may not be null
+     * @return the reduced values keyed by the mapper's output keys; never null
+     */
+    protected <Kout, Vout> Map<Kout, Vout> mapReduce( Mapper<Kout, Vout> mapper,
+                                                      Reducer<Kout, Vout> reducer ) {
+        Map<Kout, Vout> aggregated = aggregate(mapper, reducer);
+        if (aggregated != null) return aggregated;
+        MapReduce<Kout, Vout> engine = new MapReduce<>(mapper, reducer);
+        try (ResultSetSequence<Document> documents = openDocuments()) {
+            return engine.execute(documents);
+        }
+    }
+
+    /**
+     * Attempt to compute the results of a MapReduce procedure with SQL aggregate functions rather than mapping the documents.
+     * This is possible when either
+     * <ul>
+     * <li>the mapper is the {@link Mappers#count() count} mapper and the reducer is the {@link Reducers#longs() long} sum, in
+     * which case the result is the {@link #totalCount() total count}; or</li>
+     * <li>the mapper is a {@link Mappers#longValue(String) long} or {@link Mappers#doubleValue(String) double} value mapper, the
+     * reducer is the corresponding sum, minimum or maximum reducer, the filter can be evaluated exactly by the database, and the
+     * database defines the "{@code json_number}" expression.</li>
+     * </ul>
+     * In the latter case, only the documents stored in JSON format are aggregated by the database, and any other documents are
+     * processed by the {@link MapReduce} engine and combined with the database's result.
+     * 
+     * @param mapper the mapper; may not be null
+     * @param reducer the reducer; may not be null
+     * @return the reduced values keyed by the mapper's output keys, or null if the procedure cannot be done by the database
+     */
+    @SuppressWarnings( "unchecked" )
+    protected <Kout, Vout> Map<Kout, Vout> aggregate( Mapper<Kout, Vout> mapper,
+                                                      Reducer<Kout, Vout> reducer ) {
+        if (mapper == Mappers.INSTANCE.count() && reducer instanceof Reducers.LongSum) {
+            // The count is computed with a query whenever possible ...
+            long count = filter == null ? store.size() : countFiltered();
+            if (count == 0L) return Collections.emptyMap();
+            return (Map<Kout, Vout>)Collections.singletonMap(Mappers.COUNT, count);
+        }
+        if (!(mapper instanceof Mappers.FieldValue)) return null;
+        boolean integral = mapper instanceof Mappers.LongValue;
+        if (integral ? !(reducer instanceof LongReducer) : !(reducer instanceof DoubleReducer)) return null;
+        String function = aggregateFunction(reducer);
+        if (function == null) return null;
+        store.compactPatches();
+        Mappers.FieldValue<?> fieldValue = (Mappers.FieldValue<?>)mapper;
+
+        BigDecimal aggregate = null;
+        WhereClause otherFormats = null;
+        Database database = store.pool.checkout();
+        try {
+            FilterTranslator translator = translator(database);
+            WhereClause where = translator.translate(filter);
+            WhereClause value = translator.jsonNumber(fieldValue.getPath(), integral);
+            if (!where.isExact() || value == null) {
+                store.pool.release(database);
+                return null;
+            }
+            WhereClause json = WhereClause.combine("AND", translator.jsonFormat(true), where);
+            String expression = function + "(" + value.getSql() + ")";
+            try (PreparedStatement query = database.prepareStatement("aggregate_filtered_documents", json.getSql(), expression)) {
+                // The parameters of the selected expression precede those of the criteria ...
+                json.bind(query, value.bind(query, 1));
+                aggregate = Database.executeQuery(query, new ResultSetProcessor<BigDecimal>() {
+                    @Override
+                    public BigDecimal process( ResultSet resultSet ) throws SQLException {
+                        return resultSet.next() ? resultSet.getBigDecimal(1) : null;
+                    }
+                });
+            } catch (SQLException e) {
+                throw new SchematicaException(e);
+            }
+            otherFormats = WhereClause.combine("AND", translator.jsonFormat(false), where);
+        } catch (RuntimeException e) {
+            store.pool.release(database);
+            throw e;
+        }
+
+        // Documents stored in other formats can't be evaluated by the database, so map and reduce them here ...
+        Map<Kout, Vout> others = null;
+        MapReduce<Kout, Vout> engine = new MapReduce<>(mapper, reducer);
+        RowReader<Document> reader = store.documentReader();
+        try (ResultSetSequence<Document> documents = open(database, otherFormats, "read_filtered_documents", reader, null)) {
+            others = engine.execute(documents);
+        }
+        String key = fieldValue.getKey();
+        Object other = others.get(key);
+        if (aggregate == null) return others;
+        Object result = null;
+        if (integral) {
+            long value = aggregate.longValue();
+            result = other == null ? value : ((LongReducer<Kout>)reducer).combine(value, (Long)other);
+        } else {
+            double value = aggregate.doubleValue();
+            result = other == null ? value : ((DoubleReducer<Kout>)reducer).combine(value, (Double)other);
+        }
+        return (Map<Kout, Vout>)Collections.singletonMap(key, result);
+    }
+
+    /**
+     * Get the SQL aggregate function that is equivalent to the supplied reducer.
+     * 
+     * @param reducer the reducer; may not be null
+     * @return the name of the SQL function, or null if there is no equivalent function
+     */
+    protected static String aggregateFunction( Reducer<?, ?> reducer ) {
+        if (reducer instanceof Reducers.LongSum || reducer instanceof Reducers.DoubleSum) return "SUM";
+        if (reducer instanceof Reducers.LongMaximum || reducer instanceof Reducers.DoubleMaximum) return "MAX";
+        if (reducer instanceof Reducers.LongMinimum || reducer instanceof Reducers.DoubleMinimum) return "MIN";
+        return null;
+    }
+
+    /**
+     * Count the documents that satisfy the filter. When the filter can be completely evaluated by the database, this is a single
+     * query; otherwise the selected rows are streamed and evaluated in-memory.
+     * 
+     * @return the number of documents that satisfy the filter
+     */
+    protected long countFiltered() {
+        store.compactPatches();
+        Database database = store.pool.checkout();
+        try {
+            WhereClause where = translator(database).translate(filter);
+            if (where.isExact()) {
+                try (PreparedStatement count = database.prepareStatement("count_filtered_documents", where.getSql())) {
+                    where.bind(count, 1);
+                    Long result = Database.executeQuery(count, Database.asLong(1));
+                    return result != null ? result.longValue() : 0L;
+                } catch (SQLException e) {
+                    throw new SchematicaException(e);
+                }
+            }
+        } finally {
+            store.pool.release(database);
+        }
+        long count = 0L;
+        try (ResultSetSequence<Document> documents = openDocuments()) {
+            Iterator<Document> iter = documents.iterator();
+            while (iter.hasNext()) {
+                iter.next();
+                ++count;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Obtain the results whose output is the supplied lazy sequence. When the store's pool has only one connection, the cursor
+     * cannot keep that connection checked out while the caller uses the results (which would block any other operation on the
+     * store until the results are closed), so the values are read into memory before the results are returned.
+     * 
+     * @param sequence the lazy sequence; may not be null
+     * @return the results, which close the sequence; never null
+     */
+    protected <T> Results<Sequence<T>> results( ResultSetSequence<T> sequence ) {
+        if (store.pool.getMaximumSize() == 1) return sequence.asMaterializedResult();
+        return sequence.asSequenceResult();
+    }
+
+    /**
+     * Open a cursor over the documents that satisfy the filter.
+     * 
+     * @return the lazy sequence of documents, which must be closed; never null
+     */
+    protected ResultSetSequence<Document> openDocuments() {
+        if (filter == null) return store.openCursor("read_all_documents", store.documentReader());
+        return openFiltered("read_filtered_documents", store.documentReader(), new FilteredRowReader<Document>() {
+            @Override
+            protected Document value( Document document ) {
+                return document;
+            }
+        });
+    }
+
+    /**
+     * Open a cursor over the projections of the documents that satisfy the filter. When the filter can be completely evaluated by
+     * the database and the database defines the "{@code json_value}" expression, the selected values of documents stored in JSON
+     * format are extracted by the database; otherwise, the projection is parsed from the content of each document.
+     * 
+     * @param projection the projection; may not be null
+     * @return the lazy sequence of projected documents, which must be closed; never null
+     */
+    protected ResultSetSequence<Document> openProjections( final Projection projection ) {
+        store.compactPatches();
+        Database database = store.pool.checkout();
+        WhereClause where = null;
+        WhereClause selection = null;
+        try {
+            FilterTranslator translator = translator(database);
+            where = filter == null ? WhereClause.ALL : translator.translate(filter);
+            selection = translator.jsonProjection(projection.getPaths());
+        } catch (RuntimeException e) {
+            store.pool.release(database);
+            throw e;
+        }
+        if (selection == null || !where.isExact()) {
+            // The filter is evaluated against the whole document, which is then projected ...
+            RowReader<Document> reader = store.projectionReader(projection, false);
+            return open(database, where, "read_filtered_documents", reader, new FilteredRowReader<Document>() {
+                @Override
+                protected Document value( Document document ) {
+                    return projection.apply(document);
+                }
+            });
+        }
+        RowReader<Document> reader = store.projectionReader(projection, true);
+        return open(database, where, selection, "read_projected_documents", reader, null);
+    }
+
+    /**
+     * Open a cursor over the keys of the documents that satisfy the filter.
+     * 
+     * @return the lazy sequence of keys, which must be closed; never null
+     */
+    protected ResultSetSequence<String> openKeys() {
+        if (filter == null) return store.openCursor("read_all_keys", store.keyReader());
+        return openFiltered("read_filtered_keys", store.keyReader(), new FilteredRowReader<String>() {
+            @Override
+            protected String value( Document document ) {
+                return document.getKey();
+            }
+        });
+    }
+
+    /**
+     * Open a cursor using the criteria translated from the filter. If the criteria is exact, the supplied statement and reader are
+     * used; otherwise all of the document information is read so that each document can be evaluated in-memory.
+     * 
+     * @param statementKey the key of the statement to use when the criteria is exact; may not be null
+     * @param exactReader the reader for the rows of the statement used when the criteria is exact; may not be null
+     * @param evaluatingReader the reader for the rows of the "{@code read_filtered_documents}" statement, used when the criteria
+     *        is not exact; may not be null
+     * @return the lazy sequence; never null
+     */
+    protected <T> ResultSetSequence<T> openFiltered( String statementKey,
+                                                     RowReader<T> exactReader,
+                                                     FilteredRowReader<T> evaluatingReader ) {
+        store.compactPatches();
+        Database database = store.pool.checkout();
+        WhereClause where = null;
+        try {
+            where = translator(database).translate(filter);
+        } catch (RuntimeException e) {
+            store.pool.release(database);
+            throw e;
+        }
+        return open(database, where, statementKey, exactReader, evaluatingReader);
+    }
+
+    /**
+     * Open a cursor using the supplied criteria. If the criteria is exact, the supplied statement and reader are used; otherwise
+     * all of the document information is read so that each document can be evaluated in-memory.
+     * 
+     * @param database the checked-out database, which is released when the cursor is closed or if the cursor cannot be opened;
+     *        may not be null
+     * @param where the criteria; may not be null
+     * @param statementKey the key of the statement to use when the criteria is exact; may not be null
+     * @param exactReader the reader for the rows of the statement used when the criteria is exact; may not be null
+     * @param evaluatingReader the reader for the rows of the "{@code read_filtered_documents}" statement, used when the criteria
+     *        is not exact; may be null only if the criteria is exact
+     * @return the lazy sequence; never null
+     */
+    protected <T> ResultSetSequence<T> open( Database database,
+                                             WhereClause where,
+                                             String statementKey,
+                                             RowReader<T> exactReader,
+                                             FilteredRowReader<T> evaluatingReader ) {
+        return open(database, where, null, statementKey, exactReader, evaluatingReader);
+    }
+
+    /**
+     * Open a cursor using the supplied criteria. If the criteria is exact, the supplied statement (with the selected expression
+     * substituted for the '<code>{2}</code>' variable) and reader are used; otherwise all of the document information is read so
+     * that each document can be evaluated in-memory.
+     * 
+     * @param database the checked-out database, which is released when the cursor is closed or if the cursor cannot be opened;
+     *        may not be null
+     * @param where the criteria; may not be null
+     * @param selection the expression selected by the statement used when the criteria is exact; may be null if that statement
+     *        has no such variable
+     * @param statementKey the key of the statement to use when the criteria is exact; may not be null
+     * @param exactReader the reader for the rows of the statement used when the criteria is exact; may not be null
+     * @param evaluatingReader the reader for the rows of the "{@code read_filtered_documents}" statement, used when the criteria
+     *        is not exact; may be null only if the criteria is exact
+     * @return the lazy sequence; never null
+     */
+    protected <T> ResultSetSequence<T> open( final Database database,
+                                             WhereClause where,
+                                             WhereClause selection,
+                                             String statementKey,
+                                             RowReader<T> exactReader,
+                                             FilteredRowReader<T> evaluatingReader ) {
+        PreparedStatement query = null;
+        PreparedStatement count = null;
+        try {
+            RowReader<T> reader = evaluatingReader;
+            if (where.isExact()) {
+                // The database selects exactly the right rows, so we can use the more efficient statement ...
+                int index = 1;
+                if (selection != null) {
+                    query = database.prepareCursorStatement(statementKey, where.getSql(), selection.getSql());
+                    // The parameters of the selected expression precede those of the criteria ...
+                    index = selection.bind(query, index);
+                } else {
+                    query = database.prepareCursorStatement(statementKey, where.getSql());
+                }
+                where.bind(query, index);
+                count = database.prepareStatement("count_filtered_documents", where.getSql());
+                where.bind(count, 1);
+                reader = exactReader;
+            } else {
+                query = database.prepareCursorStatement("read_filtered_documents", where.getSql());
+                where.bind(query, 1);
+            }
+            final PreparedStatement countQuery = count;
+            return new ResultSetSequence<>(query, countQuery, reader, new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        if (countQuery != null) countQuery.close();
+                    } catch (SQLException e) {
+                        // ignore, since the connection may still be reused ...
+                    } finally {
+                        store.pool.release(database);
+                    }
+                }
+            });
+        } catch (SQLException | RuntimeException e) {
+            try {
+                if (query != null) query.close();
+                if (count != null) count.close();
+            } catch (SQLException e2) {
+                // ignore, since we're already failing ...
+            }
+            store.pool.release(database);
+            throw e instanceof SchematicaException ? (SchematicaException)e : new SchematicaException(e);
+        }
+    }
+
+    protected FilterTranslator translator( Database database ) {
+        return new FilterTranslator(database, JdbcStore.JSON_FORMAT_CODE, store.getIndexes().getIndexedPaths());
+    }
+
+    /**
+     * A {@link RowReader} for the rows returned by the "{@code read_filtered_documents}" query that reads each document and skips
+     * those that do not satisfy the filter.
+     * 
+     * @param <T> the type of value
+     */
+    protected abstract class FilteredRowReader<T> implements RowReader<T> {
+        @Override
+        public T read( ResultSet resultSet ) throws SQLException, IOException {
+            Document document = store.readDocument(resultSet);
+            JsonObject metadata = Filters.metadata(resultSet.getString(2),
+                                                   resultSet.getTimestamp(5).getTime(),
+                                                   resultSet.getTimestamp(6).getTime());
+            return filter.satisfies(document, metadata) ? value(document) : null;
+        }
+
+        protected abstract T value( Document document );
+    }
+
+    @Override
+    public String toString() {
+        return filter == null ? "All documents in " + store : "Documents in " + store + " satisfying " + filter;
+    }
+}
@@ -0,0 +1,325 @@
+/*
+ * Schematica (http://www.schematica.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.schematica.db.jdbc;
+
+import java.io.IOException;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import org.schematica.db.SchematicaException;
+import org.schematica.db.Sequence;
+import org.schematica.db.core.Sequences;
+import org.schematica.db.task.Results;
+
+/**
+ * A {@link Sequence} that lazily reads its values from an open {@link ResultSet}, so that the values are read from the database
+ * and converted only as the sequence is iterated. This allows very large results to be processed in constant memory.
+ * <p>
+ * Because the values are not buffered, a ResultSetSequence can be {@link #iterator() iterated} only once. The cursor (and the
+ * statement that produced it) is released when the iteration completes or when the sequence is {@link #close() closed},
+ * whichever comes first; therefore the sequence should always be closed, usually by closing the {@link Results} obtained from
+ * {@link #asSequenceResult()}.
+ * </p>
+ * <p>
+ * Some drivers (notably MySQL's) cannot run another statement on a connection while it is streaming the rows of a cursor, so the
+ * {@link #size() size} must be obtained before the sequence is iterated (or after it has been completely iterated, in which case
+ * it is the number of values that were read).
+ * </p>
+ * 
+ * @param <T> the type of value in the sequence
+ * @author Randall Hauch (rhauch@redhat.com)
+ */
+public class ResultSetSequence<T> implements Sequence<T>, AutoCloseable {
+
+    /**
+     * A component that converts the current row of a {@link ResultSet} into a value.
+     * 
+     * @param <T> the type of value
+     * @author Randall Hauch (rhauch@redhat.com)
+     */
+    public static interface RowReader<T> {
+        /**
+         * Read the current row in the result set. Implementations should not move the cursor.
+         * 
+         * @param resultSet the result set positioned at the row to be read; never null
+         * @return the value for the row, or null if the row is to be skipped
+         * @throws SQLException if there is a problem operating against the result set
+         * @throws IOException if there is a problem streaming data in the result set
+         */
+        T read( ResultSet resultSet ) throws SQLException, IOException;
+    }
+
+    private final PreparedStatement query;
+    private final PreparedStatement countQuery;
+    private final RowReader<T> reader;
+    private final Runnable onClose;
+    private ResultSet resultSet;
+    private boolean iterated = false;
+    private boolean peeked = false;
+    private boolean hasRow = false;
+    private T next;
+    private boolean released = false;
+    private boolean closed = false;
+    private int size = -1;
+    private long read = 0L;
+
+    /**
+     * Create a sequence that will execute the supplied query when it is first used.
+     * 
+     * @param query the query that returns the rows in this sequence; may not be null, and will be closed when this sequence is
+     *        closed
+     * @param countQuery the query that returns in the first column the number of rows returned by {@code query}; used only when
+     *        {@link #size()} is called and may be null if the size cannot be determined, in which case {@link #size()} throws
+     *        {@link UnsupportedOperationException}
+     * @param reader the component that converts each row into a value; may not be null
+     */
+    public ResultSetSequence( PreparedStatement query,
+                              PreparedStatement countQuery,
+                              RowReader<T> reader ) {
+        this(query, countQuery, reader, null);
+    }
+
+    /**
+     * Create a sequence that will execute the supplied query when it is first used, and that will run the supplied function after
+     * the cursor and statement have been closed.
+     * 
+     * @param query the query that returns the rows in this sequence; may not be null, and will be closed when this sequence is
+     *        closed
+     * @param countQuery the query that returns in the first column the number of rows returned by {@code query}; may be null
+     * @param reader the component that converts each row into a value; may not be null
+     * @param onClose the function that is called exactly once when this sequence is closed, typically to release the connection
+     *        used by the queries; may be null
+     */
+    public ResultSetSequence( PreparedStatement query,
+                              PreparedStatement countQuery,
+                              RowReader<T> reader,
+                              Runnable onClose ) {
+        assert query != null;
+        assert reader != null;
+        this.query = query;
+        this.countQuery = countQuery;
+        this.reader = reader;
+        this.onClose = onClose;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The size is {@link #count() computed} (usually with a separate count query) the first time this method is called, so it is
+     * an estimate when the underlying data is concurrently being modified. Once the sequence has been completely iterated, the size
+     * is the number of values that were read.
+     * </p>
+     * 
+     * @throws IllegalStateException if the sequence was closed before it was completely iterated, or if the cursor is already open
+     *         but the size has not yet been determined
+     */
+    @Override
+    public synchronized int size() {
+        if (size < 0) {
+            if (closed) throw new IllegalStateException("The sequence has already been closed");
+            if (resultSet != null) {
+                // Another statement cannot be run on the connection while it is streaming the cursor's rows ...
+                throw new IllegalStateException("The size of the sequence must be obtained before it is iterated");
+            }
+            size = (int)Math.min(Integer.MAX_VALUE, count());
+        }
+        return size;
+    }
+
+    /**
+     * Determine the number of rows returned by the query. By default this runs the count query supplied in the constructor, but
+     * subclasses can override this method to obtain the count in some other way. This is only called before the cursor is opened,
+     * so it may use the same connection as the query.
+     * 
+     * @return the number of rows; never negative
+     * @throws UnsupportedOperationException if the number of rows cannot be determined before iteration
+     */
+    protected long count() {
+        if (countQuery == null) {
+            throw new UnsupportedOperationException("The size of this sequence cannot be determined before iteration");
+        }
+        Long count = Database.executeQuery(countQuery, Database.asLong(1));
+        return count == null ? 0L : count.longValue();
+    }
+
+    @Override
+    public synchronized boolean isEmpty() {
+        if (size >= 0) return size == 0;
+        if (iterated) throw new IllegalStateException("The sequence has already been iterated");
+        return !peek();
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * <p>
+     * A sequence whose cursor has run out of rows (for example, because {@link #isEmpty()} found no rows) has already released its
+     * cursor, but it can still be iterated and simply returns no values.
+     * </p>
+     * 
+     * @throws IllegalStateException if this method has already been called or if this sequence has been closed
+     */
+    @Override
+    public synchronized Iterator<T> iterator() {
+        if (closed) throw new IllegalStateException("The sequence has already been closed");
+        if (iterated) throw new IllegalStateException("The sequence can only be iterated once");
+        iterated = true;
+        return new Iterator<T>() {
+            @Override
+            public boolean hasNext() {
+                return peek();
+            }
+
+            @Override
+            public T next() {
+                synchronized (ResultSetSequence.this) {
+                    if (!peek()) throw new NoSuchElementException();
+                    peeked = false;
+                    T value = next;
+                    next = null;
+                    return value;
+                }
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    /**
+     * Determine whether there is another value, opening the cursor if needed and reading the next row only if the current value
+     * has already been consumed. Rows for which the {@link RowReader} returns null are skipped.
+     * 
+     * @return true if there is a value to be returned, or false if there are no more rows
+     */
+    protected synchronized boolean peek() {
+        if (peeked) return hasRow;
+        if (released) return false;
+        try {
+            if (resultSet == null) resultSet = query.executeQuery();
+            hasRow = false;
+            while (resultSet.next()) {
+                next = reader.read(resultSet);
+                if (next != null) {
+                    hasRow = true;
+                    ++read;
+                    break;
+                }
+            }
+            peeked = true;
+        } catch (SQLException | IOException e) {
+            close();
+            throw new SchematicaException(e);
+        }
+        if (!hasRow) {
+            // All of the values have been read, so their number is the exact size ...
+            if (size < 0) size = (int)Math.min(Integer.MAX_VALUE, read);
+            // Release the cursor as soon as we know there are no more rows, but remain usable as an exhausted sequence ...
+            release();
+        }
+        return hasRow;
+    }
+
+    /**
+     * Obtain a {@link Results} whose output is this sequence, and which closes this sequence when the results are closed.
+     * 
+     * @return the results; never null
+     */
+    public Results<Sequence<T>> asSequenceResult() {
+        return new Results<Sequence<T>>() {
+            @Override
+            public Sequence<T> output() {
+                return ResultSetSequence.this;
+            }
+
+            @Override
+            public void close() {
+                ResultSetSequence.this.close();
+            }
+        };
+    }
+
+    /**
+     * Read all of the values into memory, close this sequence, and obtain a {@link Results} whose output is the values that were
+     * read. This is used when the connection that the cursor uses cannot remain checked out while the caller uses the results.
+     * 
+     * @return the results; never null
+     */
+    public Results<Sequence<T>> asMaterializedResult() {
+        List<T> values = new ArrayList<>();
+        try {
+            for (T value : this) {
+                values.add(value);
+            }
+        } finally {
+            close();
+        }
+        final Sequence<T> sequence = Sequences.of(values);
+        return new Results<Sequence<T>>() {
+            @Override
+            public Sequence<T> output() {
+                return sequence;
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    /**
+     * Release the cursor and the statement used by this sequence. This method does nothing if the sequence was already closed.
+     */
+    @Override
+    public synchronized void close() {
+        if (closed) return;
+        closed = true;
+        release();
+    }
+
+    /**
+     * Release the cursor and the statement used by this sequence, and run the {@code onClose} function. This method does nothing
+     * if they were already released.
+     */
+    private void release() {
+        if (released) return;
+        released = true;
+        peeked = true;
+        hasRow = false;
+        next = null;
+        try {
+            if (resultSet != null) resultSet.close();
+        } catch (SQLException e) {
+            throw new SchematicaException(e);
+        } finally {
+            resultSet = null;
+            try {
+                query.close();
+            } catch (SQLException e) {
+                throw new SchematicaException(e);
+            } finally {
+                if (onClose != null) onClose.run();
+            }
+        }
+    }
+}
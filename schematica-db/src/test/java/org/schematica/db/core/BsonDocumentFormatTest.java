@@ -0,0 +1,171 @@
+/*
+ * Schematica (http://www.schematica.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.schematica.db.core;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import javax.json.JsonNumber;
+import javax.json.JsonObject;
+import javax.json.JsonValue;
+import org.junit.Test;
+import org.schematica.db.Document;
+import org.schematica.db.Path;
+
+/**
+ * @author Randall Hauch (rhauch@redhat.com)
+ */
+public class BsonDocumentFormatTest {
+
+    protected static final BsonDocumentFormat FORMAT = new BsonDocumentFormat();
+
+    protected static JsonObject object( Object... namesAndValues ) {
+        Map<String, JsonValue> fields = new LinkedHashMap<>();
+        for (int i = 0; i < namesAndValues.length; i += 2) {
+            fields.put((String)namesAndValues[i], (JsonValue)namesAndValues[i + 1]);
+        }
+        return JsonValues.object(fields);
+    }
+
+    protected static JsonObject sample() {
+        JsonObject address = object("street", JsonValues.string("100 Main \"St\""), "city", JsonValues.string("Springfield"));
+        return object("name",
+                      JsonValues.string("Joe Smith é中"),
+                      "age",
+                      JsonValues.number(42),
+                      "big",
+                      JsonValues.number(1L << 40),
+                      "ratio",
+                      JsonValues.number(0.25),
+                      "precise",
+                      JsonValues.number(new BigDecimal("12345678901234567890.123456789")),
+                      "active",
+                      JsonValue.TRUE,
+                      "retired",
+                      JsonValue.FALSE,
+                      "spouse",
+                      JsonValue.NULL,
+                      "born",
+                      JsonValues.date(new Date(123456789000L)),
+                      "photo",
+                      JsonValues.binary(new byte[] {0, 1, 2, -1}),
+                      "address",
+                      address,
+                      "tags",
+                      JsonValues.array(Arrays.<JsonValue>asList(JsonValues.string("a"), address, JsonValues.number(3))));
+    }
+
+    protected static Path path( String... segments ) {
+        return Paths.INSTANCE.pathWith(segments);
+    }
+
+    @Test
+    public void shouldRoundTripAllValueTypes() throws IOException {
+        JsonObject json = sample();
+        Document document = FORMAT.parse("key1", FORMAT.write(new SimpleDocument("key1", json)), null);
+        assertEquals("key1", document.getKey());
+        JsonObject read = document.getJsonObject();
+        assertEquals(json, read);
+        assertEquals(json.toString(), read.toString());
+        assertTrue(JsonValues.isDate(read.get("born")));
+        assertEquals(new Date(123456789000L), JsonValues.asDate(read.get("born")));
+        assertTrue(JsonValues.isBinary(read.get("photo")));
+        assertArrayEquals(new byte[] {0, 1, 2, -1}, JsonValues.asBinary(read.get("photo")));
+        assertEquals(new BigDecimal("12345678901234567890.123456789"), read.getJsonNumber("precise").bigDecimalValue());
+        assertEquals(1L << 40, read.getJsonNumber("big").longValueExact());
+    }
+
+    @Test
+    public void shouldParseTypedDocuments() throws IOException {
+        Document document = FORMAT.parse("key1", FORMAT.write(new SimpleDocument("key1", sample())), "schema1");
+        assertEquals("schema1", document.getSchemaKey());
+    }
+
+    @Test
+    public void shouldReadOnlyTheContentGivenByTheLength() throws IOException {
+        byte[] bson = BsonDocumentFormat.toBytes(sample());
+        byte[] padded = Arrays.copyOf(bson, bson.length + 10);
+        InputStream stream = new ByteArrayInputStream(padded);
+        assertArrayEquals(bson, BsonDocumentFormat.readBytes(stream));
+        assertEquals(10, stream.available());
+    }
+
+    @Test
+    public void shouldFindValuesWithoutDecodingDocument() {
+        byte[] bson = BsonDocumentFormat.toBytes(sample());
+        assertEquals(JsonValues.number(42), BsonDocumentFormat.valueAt(bson, path("age")));
+        assertEquals(JsonValues.string("Springfield"), BsonDocumentFormat.valueAt(bson, path("address", "city")));
+        assertEquals(JsonValues.string("Springfield"), BsonDocumentFormat.valueAt(bson, path("tags", "1", "city")));
+        assertEquals(sample().getJsonObject("address"), BsonDocumentFormat.valueAt(bson, path("address")));
+        assertEquals(JsonValue.NULL, BsonDocumentFormat.valueAt(bson, path("spouse")));
+        assertNull(BsonDocumentFormat.valueAt(bson, path("missing")));
+        assertNull(BsonDocumentFormat.valueAt(bson, path("address", "zip")));
+        assertNull(BsonDocumentFormat.valueAt(bson, path("age", "value")));
+        assertNull(BsonDocumentFormat.valueAt(bson, path("tags", "3")));
+    }
+
+    @Test( expected = IllegalArgumentException.class )
+    public void shouldNotFindArrayValuesWithNonIndexSegments() {
+        BsonDocumentFormat.valueAt(BsonDocumentFormat.toBytes(sample()), path("tags", "first"));
+    }
+
+    @Test
+    public void shouldWriteIntegersInSmallestForm() {
+        JsonNumber small = (JsonNumber)BsonDocumentFormat.valueAt(BsonDocumentFormat.toBytes(object("n", JsonValues.number(7))),
+                                                                  path("n"));
+        assertEquals(7, small.intValueExact());
+        // 4 (length) + 1 (type) + 2 (name) + 4 (int32) + 1 (end) ...
+        assertEquals(12, BsonDocumentFormat.toBytes(object("n", JsonValues.number(7))).length);
+        assertEquals(16, BsonDocumentFormat.toBytes(object("n", JsonValues.number(1L << 33))).length);
+    }
+
+    @Test
+    public void shouldParseLazilyDecodedDocuments() throws IOException {
+        byte[] bson = BsonDocumentFormat.toBytes(sample());
+        Document lazy = FORMAT.parse("key1", new ByteArrayInputStream(bson), "schema1");
+        Document eager = new BsonDocumentFormat(false).parse("key1", new ByteArrayInputStream(bson), "schema1");
+        assertTrue(lazy instanceof LazyDocument);
+        assertFalse(eager instanceof LazyDocument);
+        assertEquals("schema1", lazy.getSchemaKey());
+        assertEquals(JsonValues.string("Springfield"), lazy.valueAtPath(path("tags", "1", "city")));
+        assertEquals(JsonValues.number(42), lazy.valueAtPath(path("age")));
+        assertNull(lazy.valueAtPath(path("address", "zip")));
+        assertEquals(eager.getJsonObject(), lazy.getJsonObject());
+        assertEquals(lazy.getJsonObject(), eager.getJsonObject());
+        assertEquals(eager.getJsonObject().hashCode(), lazy.getJsonObject().hashCode());
+        assertEquals(eager.getJsonObject().toString(), lazy.getJsonObject().toString());
+        assertEquals(3, lazy.getJsonObject().getJsonArray("tags").size());
+        assertEquals("Joe Smith é中", lazy.getJsonObject().getString("name"));
+    }
+
+    @Test
+    public void shouldWriteLazilyDecodedDocumentsWithoutEncoding() throws IOException {
+        byte[] bson = BsonDocumentFormat.toBytes(sample());
+        Document lazy = FORMAT.parse("key1", new ByteArrayInputStream(bson), null);
+        assertArrayEquals(bson, BsonDocumentFormat.readBytes(FORMAT.write(lazy)));
+    }
+}
@@ -0,0 +1,213 @@
+/*
+ * Schematica (http://www.schematica.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.schematica.db.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.json.Json;
+import javax.json.JsonObject;
+import org.junit.Test;
+import org.schematica.db.Document;
+import org.schematica.db.Store;
+
+/**
+ * @author Randall Hauch (rhauch@redhat.com)
+ */
+public class CachingStoreTest {
+
+    private final List<String> calls = Collections.synchronizedList(new ArrayList<String>());
+    private final Map<String, Document> documents = new ConcurrentHashMap<>();
+    private Runnable onRead;
+
+    /**
+     * Create a store that keeps the documents in {@link #documents}, and that records the name of each method called on it.
+     *
+     * @return the store; never null
+     */
+    protected Store store() {
+        return (Store)Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] {Store.class}, new InvocationHandler() {
+            @Override
+            public Object invoke( Object proxy,
+                                  Method method,
+                                  Object[] args ) {
+                calls.add(method.getName());
+                switch (method.getName()) {
+                    case "read":
+                        Document document = documents.get(args[0]);
+                        if (onRead != null) onRead.run();
+                        return document;
+                    case "readMultiple":
+                        List<Document> found = new ArrayList<>();
+                        for (Object key : (Iterable<?>)args[0]) {
+                            if (documents.containsKey(key)) found.add(documents.get(key));
+                        }
+                        return Sequences.of(found);
+                    case "writeMultiple":
+                        for (Object written : (Iterable<?>)args[0]) {
+                            documents.put(((Document)written).getKey(), (Document)written);
+                        }
+                        return BulkWriteReports.empty();
+                    case "has":
+                        return documents.containsKey(args[0]);
+                }
+                if (method.getReturnType() == boolean.class) return Boolean.FALSE;
+                if (method.getReturnType() == long.class) return 0L;
+                return null;
+            }
+        });
+    }
+
+    protected static JsonObject json( int value ) {
+        return Json.createObjectBuilder().add("v", value).build();
+    }
+
+    /**
+     * Put into the delegate's documents a document whose {@link CachingStore#weigh(Document) weight} is 8.
+     *
+     * @param key the single-character key
+     * @return the document; never null
+     */
+    protected Document put( String key ) {
+        Document document = new SimpleDocument(key, json(1));
+        documents.put(key, document);
+        return document;
+    }
+
+    @Test
+    public void shouldReadThroughAndThenFromCache() {
+        Document a = put("a");
+        CachingStore store = new CachingStore(store(), 1000L);
+        assertSame(a, store.read("a"));
+        assertSame(a, store.read("a"));
+        assertSame(a, store.readMultiple(Arrays.asList("a")).iterator().next());
+        assertEquals(Arrays.asList("read"), calls);
+        assertEquals(2L, store.getHitCount());
+        assertEquals(1L, store.getMissCount());
+        assertEquals(1, store.getEntryCount());
+        assertEquals(8L, store.getWeight());
+    }
+
+    @Test
+    public void shouldReadOnlyUncachedDocumentsFromDelegate() {
+        put("a");
+        put("b");
+        CachingStore store = new CachingStore(store(), 1000L);
+        store.read("a");
+        assertEquals(2, store.readMultiple(Arrays.asList("a", "b")).size());
+        assertEquals(2, store.readMultiple(Arrays.asList("a", "b")).size());
+        assertEquals(Arrays.asList("read", "readMultiple"), calls);
+        assertEquals(2, store.getEntryCount());
+    }
+
+    @Test
+    public void shouldInvalidateWrittenMergedAndRemovedDocuments() {
+        CachingStore store = new CachingStore(store(), 1000L);
+        for (String key : Arrays.asList("a", "b", "c", "d", "e", "f", "g")) {
+            put(key);
+            store.read(key);
+        }
+        assertEquals(7, store.getEntryCount());
+        store.write("a", json(2));
+        store.write(new SimpleDocument("b", json(2)));
+        store.writeIfAbsent("c", json(2));
+        store.writeIfAbsent(new SimpleDocument("d", json(2)));
+        store.merge("e", json(2));
+        store.merge("f", json(1), json(2));
+        store.remove("g");
+        assertEquals(0, store.getEntryCount());
+        assertEquals(0L, store.getWeight());
+    }
+
+    @Test
+    public void shouldInvalidateDocumentsWrittenOrRemovedTogether() {
+        CachingStore store = new CachingStore(store(), 1000L);
+        for (String key : Arrays.asList("a", "b", "c", "d")) {
+            put(key);
+            store.read(key);
+        }
+        store.writeMultiple(Arrays.<Document>asList(new SimpleDocument("a", json(2))), false);
+        assertEquals(3, store.getEntryCount());
+        store.remove(Arrays.asList("b", "c"));
+        assertEquals(1, store.getEntryCount());
+        // The document written with the others is read again from the delegate ...
+        assertEquals(2, store.read("a").getJsonObject().getInt("v"));
+    }
+
+    @Test
+    public void shouldEvictLeastRecentlyUsedDocumentsByWeight() {
+        put("a");
+        put("b");
+        put("c");
+        // Each document weighs 8, so only two fit ...
+        CachingStore store = new CachingStore(store(), 20L);
+        store.read("a");
+        store.read("b");
+        store.read("a");
+        store.read("c");
+        assertEquals(1L, store.getEvictionCount());
+        assertEquals(2, store.getEntryCount());
+        assertEquals(16L, store.getWeight());
+        // The least-recently used 'b' was evicted, but 'a' was not ...
+        calls.clear();
+        store.read("a");
+        store.read("b");
+        assertEquals(Arrays.asList("read"), calls);
+        assertEquals(2L, store.getEvictionCount());
+        assertEquals(2L, store.getHitCount());
+        assertEquals(4L, store.getMissCount());
+    }
+
+    @Test
+    public void shouldNotCacheDocumentsHeavierThanTheCache() {
+        put("a");
+        CachingStore store = new CachingStore(store(), 5L);
+        store.read("a");
+        store.read("a");
+        assertEquals(0, store.getEntryCount());
+        assertEquals(0L, store.getEvictionCount());
+        assertEquals(Arrays.asList("read", "read"), calls);
+    }
+
+    @Test
+    public void shouldNotCacheDocumentReadWhileItWasWritten() {
+        put("a");
+        final CachingStore store = new CachingStore(store(), 1000L);
+        // The delegate returns the old document, but it is written by another operation before the read completes ...
+        onRead = new Runnable() {
+            @Override
+            public void run() {
+                onRead = null;
+                store.write(new SimpleDocument("a", json(2)));
+            }
+        };
+        assertEquals(1, store.read("a").getJsonObject().getInt("v"));
+        assertEquals(0, store.getEntryCount());
+        calls.clear();
+        store.read("a");
+        assertEquals(Arrays.asList("read"), calls);
+        assertEquals(1, store.getEntryCount());
+    }
+}
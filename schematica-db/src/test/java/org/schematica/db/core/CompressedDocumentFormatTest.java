@@ -0,0 +1,137 @@
+/*
+ * Schematica (http://www.schematica.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.schematica.db.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import org.junit.Test;
+import org.schematica.db.Document;
+import org.schematica.db.core.CompressedDocumentFormat.Codec;
+
+/**
+ * @author Randall Hauch (rhauch@redhat.com)
+ */
+public class CompressedDocumentFormatTest {
+
+    /**
+     * A format whose content is the document's key, so that documents of any size can be created without any JSON content.
+     */
+    protected static final DocumentFormat KEY_FORMAT = new DocumentFormat() {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public Document parse( String key,
+                               InputStream stream,
+                               String schemaKey ) throws IOException {
+            return new SimpleDocument(new String(readAll(stream), StandardCharsets.UTF_8), null);
+        }
+
+        @Override
+        public InputStream write( Document document ) {
+            return new ByteArrayInputStream(document.getKey().getBytes(StandardCharsets.UTF_8));
+        }
+
+        @Override
+        public int getType() {
+            return 3;
+        }
+
+        @Override
+        public String getName() {
+            return "key";
+        }
+    };
+
+    protected static byte[] readAll( InputStream stream ) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int read = 0;
+        while ((read = stream.read(buffer)) != -1) {
+            bytes.write(buffer, 0, read);
+        }
+        return bytes.toByteArray();
+    }
+
+    protected static String repeat( String value,
+                                    int times ) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i != times; ++i) {
+            sb.append(value);
+        }
+        return sb.toString();
+    }
+
+    protected static byte[] roundTrip( CompressedDocumentFormat format,
+                                       String key ) throws IOException {
+        byte[] content = readAll(format.write(new SimpleDocument(key, null)));
+        Document document = format.parse("ignored", new ByteArrayInputStream(content), null);
+        assertEquals(key, document.getKey());
+        return content;
+    }
+
+    @Test
+    public void shouldNotCompressContentBelowThreshold() throws IOException {
+        CompressedDocumentFormat format = new CompressedDocumentFormat(KEY_FORMAT, Codec.FAST, 100);
+        String key = repeat("a", 99);
+        byte[] content = roundTrip(format, key);
+        assertEquals(key.length() + 1, content.length);
+        assertEquals(0, content[0]);
+    }
+
+    @Test
+    public void shouldCompressContentAboveThresholdWithEachCodec() throws IOException {
+        String key = repeat("{\"firstName\":\"Jane\",\"lastName\":\"Doe\"}", 500);
+        for (Codec codec : Codec.values()) {
+            byte[] content = roundTrip(new CompressedDocumentFormat(KEY_FORMAT, codec, 100), key);
+            assertEquals(1, content[0]);
+            assertTrue(content.length < key.length() / 10);
+        }
+    }
+
+    @Test
+    public void shouldNotCompressIncompressibleContent() throws IOException {
+        // Short content that doesn't repeat does not get smaller ...
+        CompressedDocumentFormat format = new CompressedDocumentFormat(KEY_FORMAT, Codec.SMALL, 0);
+        byte[] content = roundTrip(format, "x7");
+        assertEquals(0, content[0]);
+    }
+
+    @Test
+    public void shouldEncodeCodecAndWrappedFormatInTypeCode() {
+        for (Codec codec : Codec.values()) {
+            int type = new CompressedDocumentFormat(KEY_FORMAT, codec, 0).getType();
+            assertTrue(CompressedDocumentFormat.isCompressed(type));
+            assertEquals(codec, CompressedDocumentFormat.getCodec(type));
+            assertEquals(KEY_FORMAT.getType(), CompressedDocumentFormat.getWrappedType(type));
+        }
+        assertFalse(CompressedDocumentFormat.isCompressed(KEY_FORMAT.getType()));
+        assertNull(CompressedDocumentFormat.getCodec(KEY_FORMAT.getType()));
+    }
+
+    @Test( expected = IOException.class )
+    public void shouldFailToParseContentInOtherFormat() throws IOException {
+        CompressedDocumentFormat format = new CompressedDocumentFormat(KEY_FORMAT);
+        format.parse("key", new ByteArrayInputStream("{}".getBytes(StandardCharsets.UTF_8)), null);
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Schematica (http://www.schematica.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.schematica.db.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import java.util.Arrays;
+import java.util.Collections;
+import org.junit.Test;
+
+/**
+ * @author Randall Hauch (rhauch@redhat.com)
+ */
+public class ConsistentHashTest {
+
+    private static final int KEY_COUNT = 10000;
+
+    @Test
+    public void shouldAssignEveryKeyToSingleNode() {
+        ConsistentHash<String> hash = new ConsistentHash<>(Collections.singletonList("a"));
+        for (int i = 0; i != 100; ++i) {
+            assertEquals(0, hash.indexOf("key" + i));
+            assertEquals("a", hash.get("key" + i));
+        }
+    }
+
+    @Test( expected = IllegalArgumentException.class )
+    public void shouldNotAllowEmptyNodes() {
+        new ConsistentHash<String>(Collections.<String>emptyList());
+    }
+
+    @Test
+    public void shouldAssignKeysDeterministically() {
+        ConsistentHash<String> hash1 = new ConsistentHash<>(Arrays.asList("a", "b", "c"));
+        ConsistentHash<String> hash2 = new ConsistentHash<>(Arrays.asList("x", "y", "z"));
+        for (int i = 0; i != KEY_COUNT; ++i) {
+            String key = "doc-" + i;
+            assertEquals(hash1.indexOf(key), hash1.indexOf(key));
+            // The assignment depends only on the position of the node ...
+            assertEquals(hash1.indexOf(key), hash2.indexOf(key));
+        }
+    }
+
+    @Test
+    public void shouldSpreadKeysEvenlyOverNodes() {
+        ConsistentHash<String> hash = new ConsistentHash<>(Arrays.asList("a", "b", "c", "d"));
+        int[] counts = new int[4];
+        for (int i = 0; i != KEY_COUNT; ++i) {
+            ++counts[hash.indexOf("doc-" + i)];
+        }
+        int mean = KEY_COUNT / counts.length;
+        for (int count : counts) {
+            assertTrue("Uneven spread: " + Arrays.toString(counts), Math.abs(count - mean) < mean / 4);
+        }
+    }
+
+    @Test
+    public void shouldOnlyMoveKeysToAddedNode() {
+        ConsistentHash<String> before = new ConsistentHash<>(Arrays.asList("a", "b", "c"));
+        ConsistentHash<String> after = new ConsistentHash<>(Arrays.asList("a", "b", "c", "d"));
+        int moved = 0;
+        for (int i = 0; i != KEY_COUNT; ++i) {
+            String key = "doc-" + i;
+            if (before.get(key).equals(after.get(key))) continue;
+            assertEquals("d", after.get(key));
+            ++moved;
+        }
+        // Roughly a quarter of the keys should move to the new node ...
+        assertTrue("Moved " + moved, moved > KEY_COUNT / 8 && moved < KEY_COUNT / 2);
+    }
+}
@@ -0,0 +1,196 @@
+/*
+ * Schematica (http://www.schematica.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.schematica.db.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.json.Json;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.schematica.db.Document;
+import org.schematica.db.SchematicaException;
+import org.schematica.db.Store;
+import org.schematica.db.task.Results;
+import org.schematica.db.task.Task;
+
+/**
+ * @author Randall Hauch (rhauch@redhat.com)
+ */
+public class ExecutorAsyncStoreTest {
+
+    private static final String THREAD_PREFIX = "async-test-";
+
+    private final List<String> threads = Collections.synchronizedList(new ArrayList<String>());
+    private final Document document = new SimpleDocument("a", Json.createObjectBuilder().add("v", 1).build());
+    private volatile RuntimeException failure;
+    private volatile CountDownLatch blockReads;
+    private ExecutorService executor;
+
+    @Before
+    public void beforeEach() {
+        final AtomicInteger counter = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(2, new ThreadFactory() {
+            @Override
+            public Thread newThread( Runnable runnable ) {
+                return new Thread(runnable, THREAD_PREFIX + counter.incrementAndGet());
+            }
+        });
+    }
+
+    @After
+    public void afterEach() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Create a store that records the name of the thread calling each method, and that fails every call with {@link #failure} if it
+     * is set.
+     *
+     * @return the store; never null
+     */
+    protected Store store() {
+        return (Store)Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] {Store.class}, new InvocationHandler() {
+            @Override
+            public Object invoke( Object proxy,
+                                  Method method,
+                                  Object[] args ) throws Throwable {
+                threads.add(Thread.currentThread().getName());
+                if (failure != null) throw failure;
+                switch (method.getName()) {
+                    case "read":
+                        if (blockReads != null) blockReads.await(10, TimeUnit.SECONDS);
+                        return "a".equals(args[0]) ? document : null;
+                    case "has":
+                        return "a".equals(args[0]);
+                    case "write":
+                        return Boolean.TRUE;
+                    case "readMultiple":
+                        return Sequences.of(Arrays.asList(document));
+                }
+                if (method.getReturnType() == boolean.class) return Boolean.FALSE;
+                if (method.getReturnType() == long.class) return 0L;
+                return null;
+            }
+        });
+    }
+
+    @Test
+    public void shouldCompleteFuturesWithResultsOfStore() throws Exception {
+        ExecutorAsyncStore async = new ExecutorAsyncStore(store(), executor);
+        assertSame(document, async.read("a").get());
+        assertNull(async.read("b").get());
+        assertTrue(async.has("a").get());
+        assertFalse(async.has("b").get());
+        assertTrue(async.write(document).get());
+        assertEquals(1, async.readMultiple(Arrays.asList("a")).get().size());
+        assertNull(async.remove("a").get());
+        assertEquals(7, threads.size());
+    }
+
+    @Test
+    public void shouldReturnBeforeStoreCompletes() throws Exception {
+        ExecutorAsyncStore async = new ExecutorAsyncStore(store(), executor);
+        blockReads = new CountDownLatch(1);
+        Future<Document> future = async.read("a");
+        assertFalse(future.isDone());
+        blockReads.countDown();
+        assertSame(document, future.get(10, TimeUnit.SECONDS));
+        assertTrue(future.isDone());
+    }
+
+    @Test
+    public void shouldRunOperationsOnSuppliedExecutor() throws Exception {
+        ExecutorAsyncStore async = new ExecutorAsyncStore(store(), executor);
+        async.read("a").get();
+        async.write(document).get();
+        async.remove(Arrays.asList("a", "b")).get();
+        assertEquals(3, threads.size());
+        for (String thread : threads) {
+            assertTrue(thread, thread.startsWith(THREAD_PREFIX));
+        }
+    }
+
+    @Test
+    public void shouldPropagateStoreExceptionsThroughFutures() throws Exception {
+        ExecutorAsyncStore async = new ExecutorAsyncStore(store(), executor);
+        failure = new SchematicaException("expected");
+        Future<Boolean> future = async.write("a", Json.createObjectBuilder().build());
+        try {
+            future.get();
+            fail("Expected the store's exception");
+        } catch (ExecutionException e) {
+            assertSame(failure, e.getCause());
+        }
+        try {
+            async.remove("a").get();
+            fail("Expected the store's exception");
+        } catch (ExecutionException e) {
+            assertSame(failure, e.getCause());
+        }
+    }
+
+    @Test
+    public void shouldSubmitTasksToSuppliedExecutor() throws Exception {
+        ExecutorAsyncStore async = new ExecutorAsyncStore(store(), executor);
+        Future<Results<String>> future = async.submit(new Task<String>() {
+            @Override
+            public Results<String> call() {
+                final String thread = Thread.currentThread().getName();
+                return new Results<String>() {
+                    @Override
+                    public String output() {
+                        return thread;
+                    }
+
+                    @Override
+                    public void close() {
+                    }
+                };
+            }
+        });
+        assertTrue(future.get().output().startsWith(THREAD_PREFIX));
+    }
+
+    @Test
+    public void shouldShutDownOnlyItsOwnExecutor() {
+        new ExecutorAsyncStore(store(), executor).close();
+        assertFalse(executor.isShutdown());
+        ExecutorService own = ExecutorAsyncStore.defaultExecutor();
+        new ExecutorAsyncStore(store(), own, true).close();
+        assertTrue(own.isShutdown());
+    }
+}
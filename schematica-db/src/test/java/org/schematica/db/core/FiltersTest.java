@@ -0,0 +1,95 @@
+/*
+ * Schematica (http://www.schematica.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.schematica.db.core;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import java.sql.Date;
+import javax.json.JsonObject;
+import org.junit.Test;
+import org.schematica.db.Document;
+import org.schematica.db.task.Filter;
+import org.schematica.db.task.FilterBuilder.Operator;
+import org.schematica.json.Json;
+
+/**
+ * @author Randall Hauch (rhauch@redhat.com)
+ */
+public class FiltersTest {
+
+    private final Filters filters = Filters.INSTANCE;
+    private final Document doc = new TypedDocument("doc1", Json.createObjectBuilder()
+                                                               .add("name", "Jane Smith")
+                                                               .add("age", 42)
+                                                               .add("customer", Json.createObjectBuilder().add("id", "c-100"))
+                                                               .add("tags", Json.createArrayBuilder().add("red").add("blue"))
+                                                               .build(), "person");
+    private final JsonObject metadata = Filters.metadata("person", 1000L, 2000L);
+
+    @Test
+    public void shouldMatchSchema() {
+        assertTrue(filters.withSchema("person").satisfies(doc, metadata));
+        assertFalse(filters.withSchema("order").satisfies(doc, metadata));
+        assertFalse(filters.withNoSchema().satisfies(doc, metadata));
+    }
+
+    @Test
+    public void shouldMatchDates() {
+        assertTrue(filters.createdDate(Operator.LESS_THAN, new Date(1500L)).satisfies(doc, metadata));
+        assertFalse(filters.createdDate(Operator.GREATER_THAN, new Date(1500L)).satisfies(doc, metadata));
+        assertTrue(filters.lastModifiedDate(Operator.EQUALS, new Date(2000L)).satisfies(doc, metadata));
+    }
+
+    @Test
+    public void shouldMatchFieldValues() {
+        assertTrue(filters.field("customer.id").is(Filters.string("c-100")).satisfies(doc, metadata));
+        assertFalse(filters.field("customer.id").is(Filters.string("c-200")).satisfies(doc, metadata));
+        assertTrue(filters.field("age").is(Operator.GREATER_THAN_OR_EQUALS, 42).satisfies(doc, metadata));
+        assertTrue(filters.field("age").is(Operator.EQUALS, 42.0d).satisfies(doc, metadata));
+        assertFalse(filters.field("age").is(Operator.LESS_THAN, 42L).satisfies(doc, metadata));
+        assertTrue(filters.field("name").exists().satisfies(doc, metadata));
+        assertTrue(filters.field("address.city").isAbsent().satisfies(doc, metadata));
+    }
+
+    @Test
+    public void shouldMatchOneOfValuesInArrays() {
+        assertTrue(filters.field("tags").hasOneOf("green", "blue").satisfies(doc, metadata));
+        assertFalse(filters.field("tags").hasOneOf("green", "yellow").satisfies(doc, metadata));
+        assertTrue(filters.field("age").hasOneOf(41, 42).satisfies(doc, metadata));
+        assertTrue(filters.field("tags").isArrayWith(Filters.string("red")).satisfies(doc, metadata));
+    }
+
+    @Test
+    public void shouldMatchLikePatterns() {
+        assertTrue(filters.field("name").like("Jane%").satisfies(doc, metadata));
+        assertTrue(filters.field("name").like("J_ne Smit_").satisfies(doc, metadata));
+        assertTrue(filters.field("name").like("[HIJ]%").satisfies(doc, metadata));
+        assertFalse(filters.field("name").like("[^J]%").satisfies(doc, metadata));
+        assertFalse(filters.field("name").like("%.%").satisfies(doc, metadata));
+    }
+
+    @Test
+    public void shouldCombineFilters() {
+        Filter match = filters.withSchema("person");
+        Filter noMatch = filters.field("age").is(Operator.LESS_THAN, 18);
+        assertTrue(match.or(noMatch).satisfies(doc, metadata));
+        assertTrue(noMatch.or(match).satisfies(doc, metadata));
+        assertFalse(match.and(noMatch).satisfies(doc, metadata));
+        assertTrue(match.and(noMatch.not()).satisfies(doc, metadata));
+        assertTrue(noMatch.not().not().equals(noMatch));
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Schematica (http://www.schematica.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.schematica.db.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import java.io.IOException;
+import java.math.BigDecimal;
+import javax.json.JsonNumber;
+import javax.json.JsonObject;
+import javax.json.JsonValue;
+import org.junit.Test;
+import org.schematica.db.Document;
+import org.schematica.json.EditableJsonObject;
+import org.schematica.json.Json;
+
+/**
+ * @author Randall Hauch (rhauch@redhat.com)
+ */
+public class JsonDocumentFormatTest {
+
+    protected static final JsonDocumentFormat FORMAT = new JsonDocumentFormat();
+
+    protected static org.schematica.json.JsonObject sample() {
+        return Json.createObjectBuilder()
+                   .add("name", "Joe \"Smith\" é中\n")
+                   .add("age", 42)
+                   .add("big", 1L << 40)
+                   .add("ratio", 0.25)
+                   .add("precise", new BigDecimal("12345678901234567890.123456789"))
+                   .add("active", true)
+                   .add("retired", false)
+                   .addNull("spouse")
+                   .add("address", Json.createObjectBuilder().add("street", "100 Main St").add("zip", 12345))
+                   .add("tags", Json.createArrayBuilder().add("a").add(3).add(1.5).addNull().add(Json.createArrayBuilder().add(true)))
+                   .build();
+    }
+
+    protected static JsonObject roundTrip( JsonObject json ) throws IOException {
+        Document document = FORMAT.parse("key1", FORMAT.write(new SimpleDocument("key1", json)), null);
+        assertEquals("key1", document.getKey());
+        return document.getJsonObject();
+    }
+
+    @Test
+    public void shouldRoundTripSchematicaJsonObjects() throws IOException {
+        JsonObject read = roundTrip(sample());
+        assertEquals("Joe \"Smith\" é中\n", read.getString("name"));
+        assertEquals(42, read.getJsonNumber("age").intValueExact());
+        assertEquals(1L << 40, read.getJsonNumber("big").longValueExact());
+        assertEquals(0.25d, read.getJsonNumber("ratio").doubleValue(), 0.0d);
+        assertEquals(new BigDecimal("12345678901234567890.123456789"), read.getJsonNumber("precise").bigDecimalValue());
+        assertEquals(JsonValue.TRUE, read.get("active"));
+        assertEquals(JsonValue.FALSE, read.get("retired"));
+        assertEquals(JsonValue.NULL, read.get("spouse"));
+        assertEquals(12345, read.getJsonObject("address").getInt("zip"));
+        assertEquals("100 Main St", read.getJsonObject("address").getString("street"));
+        assertEquals(5, read.getJsonArray("tags").size());
+        assertEquals(3, read.getJsonArray("tags").getInt(1));
+        assertEquals(1.5d, read.getJsonArray("tags").getJsonNumber(2).doubleValue(), 0.0d);
+        assertTrue(read.getJsonArray("tags").isNull(3));
+        assertEquals(JsonValue.TRUE, read.getJsonArray("tags").getJsonArray(4).get(0));
+    }
+
+    @Test
+    public void shouldRoundTripEditedNumbers() throws IOException {
+        EditableJsonObject editor = sample().edit();
+        editor.add("age", 43).add("big", Long.MAX_VALUE).add("ratio", 0.5d).add("precise", new BigDecimal("-0.000000001"));
+        for (JsonObject edited : new JsonObject[] {editor, editor.getChanges(), editor.unwrap()}) {
+            JsonObject read = roundTrip(edited);
+            assertEquals(43, read.getJsonNumber("age").intValueExact());
+            assertEquals(Long.MAX_VALUE, read.getJsonNumber("big").longValueExact());
+            assertEquals(0.5d, read.getJsonNumber("ratio").doubleValue(), 0.0d);
+            JsonNumber precise = read.getJsonNumber("precise");
+            assertEquals(0, new BigDecimal("-0.000000001").compareTo(precise.bigDecimalValue()));
+        }
+        assertEquals(4, roundTrip(editor.getChanges()).size());
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Schematica (http://www.schematica.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.schematica.db.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import org.junit.Test;
+import org.schematica.db.Document;
+import org.schematica.db.task.Mapper;
+import org.schematica.db.task.Reducer;
+
+/**
+ * @author Randall Hauch (rhauch@redhat.com)
+ */
+public class MapReduceTest {
+
+    private final ForkJoinPool pool = new ForkJoinPool(4);
+
+    protected static List<Document> documents( int count ) {
+        List<Document> documents = new ArrayList<>(count);
+        for (int i = 0; i != count; ++i) {
+            documents.add(new SimpleDocument("doc" + i, null));
+        }
+        return documents;
+    }
+
+    /**
+     * Emits the number of the document (from its key) under the key "even" or "odd".
+     */
+    protected static final Mapper<String, Long> PARITY = new Mapper<String, Long>() {
+        @Override
+        public void map( Document document,
+                         Collector<String, Long> collector ) {
+            long number = Long.parseLong(document.getKey().substring(3));
+            collector.emit(number % 2 == 0 ? "even" : "odd", number);
+        }
+    };
+
+    @Test
+    public void shouldCountDocuments() {
+        MapReduce<String, Long> engine = new MapReduce<>(pool, Mappers.INSTANCE.count(), Reducers.INSTANCE.longs().sum(), 100);
+        Map<String, Long> result = engine.execute(documents(10001));
+        assertEquals(1, result.size());
+        assertEquals(Long.valueOf(10001L), result.get(Mappers.COUNT));
+    }
+
+    @Test
+    public void shouldReturnEmptyResultsForNoDocuments() {
+        MapReduce<String, Long> engine = new MapReduce<>(pool, Mappers.INSTANCE.count(), Reducers.INSTANCE.longs().sum(), 100);
+        assertTrue(engine.execute(documents(0)).isEmpty());
+    }
+
+    @Test
+    public void shouldReduceEachKeyWithPrimitiveReducers() {
+        Map<String, Long> max = new MapReduce<>(pool, PARITY, Reducers.INSTANCE.longs().maximum(), 7).execute(documents(1000));
+        assertEquals(Long.valueOf(998L), max.get("even"));
+        assertEquals(Long.valueOf(999L), max.get("odd"));
+        Map<String, Long> min = new MapReduce<>(pool, PARITY, Reducers.INSTANCE.longs().minimum(), 7).execute(documents(1000));
+        assertEquals(Long.valueOf(0L), min.get("even"));
+        assertEquals(Long.valueOf(1L), min.get("odd"));
+    }
+
+    @Test
+    public void shouldReduceWithNonCombinableReducer() {
+        // Counts the values, which is not associative and so must see all of the values at once ...
+        Reducer<String, Long> counter = new Reducer<String, Long>() {
+            @Override
+            public Long reduce( String reducedKey,
+                                Iterator<Long> values ) {
+                long count = 0L;
+                while (values.hasNext()) {
+                    values.next();
+                    ++count;
+                }
+                return count;
+            }
+        };
+        Map<String, Long> result = new MapReduce<>(pool, PARITY, counter, 33).execute(documents(1001));
+        assertEquals(Long.valueOf(501L), result.get("even"));
+        assertEquals(Long.valueOf(500L), result.get("odd"));
+    }
+
+    @Test
+    public void shouldProduceSameResultsInParallelAndSequentially() {
+        List<Document> docs = documents(3001);
+        ForkJoinPool single = new ForkJoinPool(1);
+        try {
+            Map<String, Long> sequential = new MapReduce<>(single, PARITY, Reducers.INSTANCE.longs().sum(), docs.size()).execute(docs);
+            Map<String, Long> parallel = new MapReduce<>(pool, PARITY, Reducers.INSTANCE.longs().sum(), 16).execute(docs);
+            assertEquals(sequential, parallel);
+            assertEquals(Long.valueOf(2251500L), parallel.get("even"));
+            assertEquals(Long.valueOf(2250000L), parallel.get("odd"));
+        } finally {
+            single.shutdown();
+        }
+    }
+
+    @Test
+    public void shouldReduceManyKeys() {
+        Mapper<String, Integer> byKey = new Mapper<String, Integer>() {
+            @Override
+            public void map( Document document,
+                             Collector<String, Integer> collector ) {
+                collector.emit(document.getKey(), 1);
+                collector.emit(document.getKey(), 2);
+            }
+        };
+        MapReduce<String, Integer> engine = new MapReduce<>(pool, byKey, Reducers.INSTANCE.integers().sum(), 50);
+        Map<String, Integer> result = engine.execute(documents(5000));
+        assertEquals(5000, result.size());
+        for (Integer value : result.values()) {
+            assertEquals(Integer.valueOf(3), value);
+        }
+    }
+
+    @Test( expected = IllegalStateException.class )
+    public void shouldPropagateMapperFailures() {
+        Mapper<String, Long> failing = new Mapper<String, Long>() {
+            @Override
+            public void map( Document document,
+                             Collector<String, Long> collector ) {
+                if (document.getKey().equals("doc500")) throw new IllegalStateException("expected");
+            }
+        };
+        new MapReduce<>(pool, failing, Reducers.INSTANCE.longs().sum(), 10).execute(documents(1000));
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Schematica (http://www.schematica.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.schematica.db.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import javax.json.JsonObject;
+import javax.json.JsonValue;
+import org.junit.Test;
+
+/**
+ * @author Randall Hauch (rhauch@redhat.com)
+ */
+public class MergesTest {
+
+    protected static JsonObject object( Object... namesAndValues ) {
+        return BsonDocumentFormatTest.object(namesAndValues);
+    }
+
+    protected static JsonValue string( String value ) {
+        return JsonValues.string(value);
+    }
+
+    protected static JsonValue number( int value ) {
+        return JsonValues.number(value);
+    }
+
+    protected static JsonObject person() {
+        return object("firstName",
+                      string("Jane"),
+                      "lastName",
+                      string("Smith"),
+                      "address",
+                      object("street", string("Main Street"), "city", string("Springfield")),
+                      "phone",
+                      string("(800)555-1212"));
+    }
+
+    @Test
+    public void shouldMergeFieldsRecursively() {
+        JsonObject document = object("lastName",
+                                     string("Doe"),
+                                     "address",
+                                     object("city", string("Memphis"), "zip", number(12345)),
+                                     "phone",
+                                     object("home", string("(800)555-1212")));
+        JsonObject expected = object("firstName",
+                                     string("Jane"),
+                                     "lastName",
+                                     string("Doe"),
+                                     "address",
+                                     object("street", string("Main Street"), "city", string("Memphis"), "zip", number(12345)),
+                                     "phone",
+                                     object("home", string("(800)555-1212")));
+        assertEquals(expected, Merges.merge(person(), document));
+    }
+
+    @Test
+    public void shouldKeepFieldsChangedConcurrently() {
+        JsonObject base = person();
+        JsonObject current = object("firstName",
+                                    string("Janet"),
+                                    "lastName",
+                                    string("Smith"),
+                                    "address",
+                                    object("street", string("Main Street"), "city", string("Springfield")),
+                                    "phone",
+                                    string("(800)555-1212"));
+        JsonObject edited = object("firstName",
+                                   string("Jane"),
+                                   "lastName",
+                                   string("Doe"),
+                                   "address",
+                                   object("street", string("Main Street"), "city", string("Springfield")));
+        JsonObject expected = object("firstName",
+                                     string("Janet"),
+                                     "lastName",
+                                     string("Doe"),
+                                     "address",
+                                     object("street", string("Main Street"), "city", string("Springfield")));
+        assertEquals(expected, Merges.merge(base, current, edited));
+    }
+
+    @Test
+    public void shouldMergeNestedObjectsChangedConcurrently() {
+        JsonObject base = person();
+        JsonObject current = object("firstName",
+                                    string("Jane"),
+                                    "lastName",
+                                    string("Smith"),
+                                    "address",
+                                    object("street", string("Oak Street"), "city", string("Springfield")),
+                                    "phone",
+                                    string("(800)555-1212"));
+        JsonObject edited = object("firstName",
+                                   string("Jane"),
+                                   "lastName",
+                                   string("Smith"),
+                                   "address",
+                                   object("street", string("Main Street"), "city", string("Memphis")),
+                                   "phone",
+                                   string("(800)555-1212"));
+        JsonObject merged = Merges.merge(base, current, edited);
+        assertEquals(object("street", string("Oak Street"), "city", string("Memphis")), merged.get("address"));
+        assertEquals(string("Jane"), merged.get("firstName"));
+    }
+
+    @Test
+    public void shouldUseEditedValueWhenSameFieldChangedConcurrently() {
+        JsonObject base = object("count", number(1));
+        JsonObject current = object("count", number(2));
+        JsonObject edited = object("count", number(3));
+        assertEquals(object("count", number(3)), Merges.merge(base, current, edited));
+    }
+
+    @Test
+    public void shouldReturnCurrentObjectWhenNothingChanged() {
+        JsonObject current = object("firstName", string("Janet"));
+        assertSame(current, Merges.merge(person(), current, person()));
+        assertSame(current, Merges.merge(current, object()));
+    }
+}
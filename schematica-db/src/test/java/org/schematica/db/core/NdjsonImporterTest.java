@@ -0,0 +1,139 @@
+/*
+ * Schematica (http://www.schematica.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.schematica.db.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.junit.After;
+import org.junit.Test;
+import org.schematica.db.Document;
+import org.schematica.db.SchematicaException;
+import org.schematica.db.Store;
+import org.schematica.db.core.NdjsonImporter.Progress;
+import org.schematica.db.core.NdjsonImporter.ProgressListener;
+
+/**
+ * @author Randall Hauch (rhauch@redhat.com)
+ */
+public class NdjsonImporterTest {
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(4);
+    private final List<Document> loaded = Collections.synchronizedList(new ArrayList<Document>());
+
+    @After
+    public void afterEach() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Create an importer into a store whose bulk loader records the loaded documents.
+     * 
+     * @param chunkSize the number of lines in each chunk
+     * @return the importer; never null
+     */
+    protected NdjsonImporter importer( int chunkSize ) {
+        final BulkLoader<Document> loader = new BulkLoader<Document>() {
+            @Override
+            public Document prepare( Document document ) {
+                return document;
+            }
+
+            @Override
+            public void load( List<Document> documents ) {
+                loaded.addAll(documents);
+            }
+        };
+        Class<?>[] interfaces = new Class<?>[] {Store.class, BulkLoader.Source.class};
+        Store store = (Store)Proxy.newProxyInstance(getClass().getClassLoader(), interfaces, new InvocationHandler() {
+            @Override
+            public Object invoke( Object proxy,
+                                  Method method,
+                                  Object[] args ) {
+                if (method.getName().equals("getBulkLoader")) return loader;
+                throw new UnsupportedOperationException(method.getName());
+            }
+        });
+        return new NdjsonImporter(executor, store, "id", "type", chunkSize);
+    }
+
+    protected static InputStream ndjson( String... lines ) {
+        StringBuilder content = new StringBuilder();
+        for (String line : lines) {
+            content.append(line).append('\n');
+        }
+        return new ByteArrayInputStream(content.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void shouldImportDocumentsInOrder() throws IOException {
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i != 250; ++i) {
+            lines.add(i % 50 == 7 ? "  " : "{\"id\":\"doc" + i + "\",\"type\":\"t" + (i % 3) + "\",\"value\":" + i + "}");
+        }
+        final List<Progress> reported = new ArrayList<>();
+        Progress progress = importer(16).importFrom(ndjson(lines.toArray(new String[lines.size()])), new ProgressListener() {
+            @Override
+            public void loaded( Progress progress ) {
+                reported.add(progress);
+            }
+        });
+        assertTrue(progress.isComplete());
+        assertEquals(250L, progress.getLineCount());
+        assertEquals(245L, progress.getDocumentCount());
+        assertEquals(245, loaded.size());
+        assertEquals("doc0", loaded.get(0).getKey());
+        assertEquals("t0", loaded.get(0).getSchemaKey());
+        assertEquals("doc249", loaded.get(244).getKey());
+        // One progress report for each of the 16 chunks, and one when complete ...
+        assertEquals(17, reported.size());
+        assertTrue(reported.get(16).isComplete());
+        for (int i = 1; i != reported.size(); ++i) {
+            assertTrue(reported.get(i).getDocumentCount() >= reported.get(i - 1).getDocumentCount());
+        }
+    }
+
+    @Test
+    public void shouldAcceptNumericKeysAndMissingSchemaKeys() throws IOException {
+        importer(10).importFrom(ndjson("{\"id\":42,\"value\":true}"), null);
+        assertEquals(1, loaded.size());
+        assertEquals("42", loaded.get(0).getKey());
+        assertEquals(null, loaded.get(0).getSchemaKey());
+    }
+
+    @Test
+    public void shouldReportLineOfInvalidDocument() throws IOException {
+        try {
+            importer(2).importFrom(ndjson("{\"id\":\"a\"}", "", "{\"id\":\"b\"}", "{\"name\":\"c\"}"), null);
+            fail("Expected the line without a key to be rejected");
+        } catch (SchematicaException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("Line 4 "));
+        }
+    }
+}
@@ -0,0 +1,196 @@
+/*
+ * Schematica (http://www.schematica.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.schematica.db.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import org.schematica.db.Observer;
+import org.schematica.db.Observer.Change;
+import org.schematica.db.Observer.ChangeSet;
+import org.schematica.db.Observer.ChangeType;
+import org.schematica.db.SchematicaException;
+import org.schematica.db.core.ObserverDispatcher.OverflowPolicy;
+
+/**
+ * @author Randall Hauch (rhauch@redhat.com)
+ */
+public class ObserverDispatcherTest {
+
+    protected static Change change( final long sequence,
+                                    final String key ) {
+        return new Change() {
+            @Override
+            public long getSequence() {
+                return sequence;
+            }
+
+            @Override
+            public ChangeType getType() {
+                return ChangeType.WRITTEN;
+            }
+
+            @Override
+            public String getKey() {
+                return key;
+            }
+
+            @Override
+            public String getSchemaKey() {
+                return null;
+            }
+
+            @Override
+            public long getTimestamp() {
+                return 0L;
+            }
+        };
+    }
+
+    protected static ChangeSet changes( Change... changes ) {
+        final List<Change> list = Arrays.asList(changes);
+        return new ChangeSet() {
+            @Override
+            public Iterator<Change> iterator() {
+                return list.iterator();
+            }
+
+            @Override
+            public int size() {
+                return list.size();
+            }
+
+            @Override
+            public long getLastSequence() {
+                return list.get(list.size() - 1).getSequence();
+            }
+        };
+    }
+
+    protected static List<String> keys( ChangeSet changes ) {
+        List<String> keys = new ArrayList<>();
+        for (Change change : changes) {
+            keys.add(change.getKey());
+        }
+        return keys;
+    }
+
+    /**
+     * An observer that blocks until it is released, and then records the change sets it receives.
+     */
+    protected static class BlockingObserver implements Observer {
+        protected final CountDownLatch started = new CountDownLatch(1);
+        protected final CountDownLatch release = new CountDownLatch(1);
+        protected final List<ChangeSet> received = Collections.synchronizedList(new ArrayList<ChangeSet>());
+
+        @Override
+        public void notify( ChangeSet changes ) {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            received.add(changes);
+        }
+    }
+
+    @Test
+    public void shouldCoalesceChangesToSameKey() {
+        ChangeSet coalesced = ObserverDispatcher.coalesce(Arrays.asList(change(1, "a"),
+                                                                        change(2, "b"),
+                                                                        change(3, "a"),
+                                                                        change(4, "c"),
+                                                                        change(5, "b")));
+        assertEquals(Arrays.asList("a", "c", "b"), keys(coalesced));
+        assertEquals(5L, coalesced.getLastSequence());
+    }
+
+    @Test
+    public void shouldDeliverAndCoalesceChangesBufferedWhileObserverIsBusy() throws InterruptedException {
+        BlockingObserver observer = new BlockingObserver();
+        ObserverDispatcher dispatcher = new ObserverDispatcher(observer, 16, OverflowPolicy.BLOCK);
+        try {
+            dispatcher.notify(changes(change(1, "a")));
+            // Wait until the observer is busy with the first change ...
+            observer.started.await(10, TimeUnit.SECONDS);
+            dispatcher.notify(changes(change(2, "b"), change(3, "a")));
+            dispatcher.notify(changes(change(4, "b")));
+            assertEquals(3, dispatcher.getQueueDepth());
+            observer.release.countDown();
+            waitForDelivery(dispatcher, 3L);
+            assertEquals(2, observer.received.size());
+            assertEquals(Arrays.asList("a"), keys(observer.received.get(0)));
+            assertEquals(Arrays.asList("a", "b"), keys(observer.received.get(1)));
+            assertEquals(4L, observer.received.get(1).getLastSequence());
+            assertEquals(4L, dispatcher.getReceivedCount());
+            assertEquals(1L, dispatcher.getCoalescedCount());
+        } finally {
+            observer.release.countDown();
+            dispatcher.close();
+        }
+    }
+
+    @Test
+    public void shouldDropOrRejectChangesThatDoNotFit() throws InterruptedException {
+        BlockingObserver observer = new BlockingObserver();
+        BlockingObserver other = new BlockingObserver();
+        ObserverDispatcher dropping = new ObserverDispatcher(observer, 2, OverflowPolicy.DROP);
+        ObserverDispatcher rejecting = new ObserverDispatcher(other, 2, OverflowPolicy.REJECT);
+        try {
+            dropping.notify(changes(change(1, "a")));
+            observer.started.await(10, TimeUnit.SECONDS);
+            dropping.notify(changes(change(2, "b"), change(3, "c"), change(4, "d")));
+            assertEquals(2, dropping.getQueueDepth());
+            assertEquals(1L, dropping.getDroppedCount());
+
+            // Wait until the first change is being delivered, so that the buffer is not drained while it is filled ...
+            rejecting.notify(changes(change(1, "a")));
+            other.started.await(10, TimeUnit.SECONDS);
+            rejecting.notify(changes(change(2, "b"), change(3, "c")));
+            try {
+                rejecting.notify(changes(change(4, "d")));
+                fail("Expected the change set to be rejected");
+            } catch (SchematicaException e) {
+                // expected ...
+            }
+            assertEquals(1L, rejecting.getRejectedCount());
+            assertEquals(3L, rejecting.getReceivedCount());
+        } finally {
+            observer.release.countDown();
+            other.release.countDown();
+            dropping.close();
+            rejecting.close();
+        }
+    }
+
+    protected static void waitForDelivery( ObserverDispatcher dispatcher,
+                                           long count ) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10);
+        while (dispatcher.getDeliveredCount() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10L);
+        }
+        assertEquals(count, dispatcher.getDeliveredCount());
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Schematica (http://www.schematica.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.schematica.db.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import javax.json.JsonObject;
+import javax.json.JsonValue;
+import org.junit.Test;
+import org.schematica.db.Document;
+import org.schematica.db.Path;
+
+/**
+ * @author Randall Hauch (rhauch@redhat.com)
+ */
+public class ProjectionTest {
+
+    protected static JsonObject sample() {
+        return BsonDocumentFormatTest.sample();
+    }
+
+    protected static Path path( String... segments ) {
+        return Paths.INSTANCE.pathWith(segments);
+    }
+
+    protected static Projection projection( Path... paths ) {
+        return Projection.of(Arrays.asList(paths));
+    }
+
+    protected static JsonObject object( Object... namesAndValues ) {
+        return BsonDocumentFormatTest.object(namesAndValues);
+    }
+
+    @Test
+    public void shouldIgnorePathsWhoseAncestorsAreSelected() {
+        Projection projection = projection(path("address", "city"), path("age"), path("address"), path("age"));
+        assertEquals(Arrays.asList(path("age"), path("address")), projection.getPaths());
+        assertTrue(projection.child("address").isSelected());
+        assertNull(projection.child("address").child("city"));
+        assertFalse(projection.isSelected());
+    }
+
+    @Test
+    public void shouldProjectObjects() {
+        Projection projection = projection(path("name"), path("address", "city"), path("missing"), path("age", "value"));
+        JsonObject expected = object("name",
+                                     JsonValues.string("Joe Smith é中"),
+                                     "address",
+                                     object("city", JsonValues.string("Springfield")));
+        assertEquals(expected, projection.apply(sample()));
+    }
+
+    @Test
+    public void shouldProjectArraysAsObjectsKeyedByIndex() {
+        Projection projection = projection(path("tags", "1", "city"), path("tags", "0"), path("tags", "5"));
+        JsonObject projected = projection.apply(sample());
+        JsonObject expected = object("tags",
+                                     object("1", object("city", JsonValues.string("Springfield")), "0", JsonValues.string("a")));
+        assertEquals(expected, projected);
+        Document document = projection.apply(new SimpleDocument("key1", sample()));
+        assertEquals(JsonValues.string("Springfield"), document.valueAtPath(path("tags", "1", "city")));
+    }
+
+    @Test
+    public void shouldBuildProjectionFromValuesOfPaths() {
+        Projection projection = projection(path("address", "city"), path("age"), path("address", "zip"), path("spouse"));
+        JsonObject projected = projection.object(Arrays.<JsonValue>asList(JsonValues.string("Springfield"),
+                                                                          JsonValues.number(42),
+                                                                          null,
+                                                                          JsonValue.NULL));
+        assertEquals(projection.apply(sample()), projected);
+    }
+
+    @Test
+    public void shouldParseProjectionsOfBsonDocuments() throws IOException {
+        Projection projection = projection(path("address", "street"), path("tags", "2"), path("born"));
+        byte[] bson = BsonDocumentFormat.toBytes(sample());
+        Document document = projection.parse(new BsonDocumentFormat(), "key1", new ByteArrayInputStream(bson), "schema1");
+        assertEquals("key1", document.getKey());
+        assertEquals("schema1", document.getSchemaKey());
+        assertEquals(projection.apply(sample()), document.getJsonObject());
+        assertTrue(JsonValues.isDate(document.valueAtPath(path("born"))));
+    }
+
+    @Test
+    public void shouldParseProjectionsOfCompressedDocuments() throws IOException {
+        Projection projection = projection(path("age"), path("tags", "1"));
+        DocumentFormat format = new CompressedDocumentFormat(new BsonDocumentFormat(false),
+                                                             CompressedDocumentFormat.Codec.FAST,
+                                                             0);
+        Document document = projection.parse(format, "key1", format.write(new SimpleDocument("key1", sample())), null);
+        assertEquals(projection.apply(sample()), document.getJsonObject());
+    }
+}
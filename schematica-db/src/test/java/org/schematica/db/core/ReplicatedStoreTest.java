@@ -0,0 +1,108 @@
+/*
+ * Schematica (http://www.schematica.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.schematica.db.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Test;
+import org.schematica.db.ReadConsistency;
+import org.schematica.db.Store;
+
+/**
+ * @author Randall Hauch (rhauch@redhat.com)
+ */
+public class ReplicatedStoreTest {
+
+    private final List<String> calls = Collections.synchronizedList(new ArrayList<String>());
+
+    /**
+     * Create a store that records the name of each method called on it, prefixed with the supplied name.
+     * 
+     * @param name the name of the store; may not be null
+     * @return the store; never null
+     */
+    protected Store store( final String name ) {
+        return (Store)Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] {Store.class}, new InvocationHandler() {
+            @Override
+            public Object invoke( Object proxy,
+                                  Method method,
+                                  Object[] args ) {
+                calls.add(name + "." + method.getName());
+                if (method.getReturnType() == boolean.class) return Boolean.FALSE;
+                if (method.getReturnType() == long.class) return 0L;
+                return null;
+            }
+        });
+    }
+
+    @Test
+    public void shouldReadFromReplicasInTurnAndWriteToPrimary() {
+        Store store = new ReplicatedStore(store("primary"),
+                                          Arrays.asList(store("replica1"), store("replica2")),
+                                          ReadConsistency.ANY_REPLICA);
+        store.read("a");
+        store.has("b");
+        store.all();
+        store.write("c", null);
+        store.merge("d", null);
+        store.remove("e");
+        assertEquals(Arrays.asList("replica1.read",
+                                   "replica2.has",
+                                   "replica1.all",
+                                   "primary.write",
+                                   "primary.merge",
+                                   "primary.remove"), calls);
+    }
+
+    @Test
+    public void shouldReadFromPrimaryWhenConsistencyIsPrimary() {
+        ReplicatedStore store = new ReplicatedStore(store("primary"),
+                                                    Collections.singletonList(store("replica")),
+                                                    ReadConsistency.ANY_REPLICA);
+        Store primary = store.withConsistency(ReadConsistency.PRIMARY);
+        assertSame(store, store.withConsistency(ReadConsistency.ANY_REPLICA));
+        primary.read("a");
+        primary.filter(null);
+        store.read("b");
+        assertEquals(Arrays.asList("primary.read", "primary.filter", "replica.read"), calls);
+    }
+
+    @Test
+    public void shouldReadFromPrimaryWithoutReplicas() {
+        Store store = new ReplicatedStore(store("primary"), Collections.<Store>emptyList(), ReadConsistency.ANY_REPLICA);
+        store.readMultiple(Collections.singletonList("a"));
+        assertEquals(Arrays.asList("primary.readMultiple"), calls);
+    }
+
+    @Test
+    public void shouldCloseStoresOnlyFromOriginal() {
+        ReplicatedStore store = new ReplicatedStore(store("primary"),
+                                                    Collections.singletonList(store("replica")),
+                                                    ReadConsistency.PRIMARY);
+        store.withConsistency(ReadConsistency.ANY_REPLICA).close();
+        assertEquals(Collections.emptyList(), calls);
+        store.close();
+        assertEquals(Arrays.asList("replica.close", "primary.close"), calls);
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Schematica (http://www.schematica.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.schematica.db.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+
+/**
+ * @author Randall Hauch (rhauch@redhat.com)
+ */
+public class RingBufferTest {
+
+    @Test
+    public void shouldRoundCapacityUpToPowerOfTwo() {
+        assertEquals(1, new RingBuffer<String>(1).capacity());
+        assertEquals(8, new RingBuffer<String>(5).capacity());
+        assertEquals(8, new RingBuffer<String>(8).capacity());
+    }
+
+    @Test( expected = IllegalArgumentException.class )
+    public void shouldNotAllowZeroCapacity() {
+        new RingBuffer<String>(0);
+    }
+
+    @Test
+    public void shouldAddAndRemoveInOrderUntilFull() {
+        RingBuffer<Integer> buffer = new RingBuffer<>(4);
+        assertTrue(buffer.isEmpty());
+        assertNull(buffer.poll());
+        for (int i = 0; i != 4; ++i) {
+            assertTrue(buffer.offer(i));
+        }
+        assertFalse(buffer.offer(4));
+        assertEquals(4, buffer.size());
+        assertEquals(Integer.valueOf(0), buffer.poll());
+        assertTrue(buffer.offer(4));
+        List<Integer> drained = new ArrayList<>();
+        assertEquals(3, buffer.drainTo(drained, 3));
+        assertEquals(Integer.valueOf(4), buffer.poll());
+        assertTrue(buffer.isEmpty());
+        assertEquals(0, buffer.drainTo(drained, 10));
+        assertEquals(3, drained.size());
+        assertEquals(Integer.valueOf(1), drained.get(0));
+        assertEquals(Integer.valueOf(3), drained.get(2));
+    }
+
+    @Test
+    public void shouldTransferAllElementsInOrderBetweenThreads() throws InterruptedException {
+        final RingBuffer<Integer> buffer = new RingBuffer<>(16);
+        final int count = 200000;
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i != count; ++i) {
+                    while (!buffer.offer(i)) {
+                        Thread.yield();
+                    }
+                }
+            }
+        });
+        producer.start();
+        List<Integer> drained = new ArrayList<>();
+        int expected = 0;
+        while (expected != count) {
+            drained.clear();
+            if (buffer.drainTo(drained, 7) == 0) {
+                Integer value = buffer.poll();
+                if (value == null) {
+                    Thread.yield();
+                    continue;
+                }
+                drained.add(value);
+            }
+            for (Integer value : drained) {
+                assertEquals(expected++, value.intValue());
+            }
+        }
+        producer.join();
+        assertTrue(buffer.isEmpty());
+    }
+}
@@ -0,0 +1,286 @@
+/*
+ * Schematica (http://www.schematica.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.schematica.db.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+import org.schematica.db.SchematicaException;
+import org.schematica.db.Sequence;
+import org.schematica.db.task.Results;
+import org.schematica.db.task.Subscriber;
+import org.schematica.db.task.Subscription;
+import org.schematica.db.task.Task;
+
+/**
+ * @author Randall Hauch (rhauch@redhat.com)
+ */
+public class SequencePublisherTest {
+
+    private final AtomicInteger calls = new AtomicInteger();
+    private final AtomicInteger pulled = new AtomicInteger();
+    private final AtomicInteger closed = new AtomicInteger();
+
+    /**
+     * Create a task whose results are the integers from 0 up to (but excluding) the supplied count. The values are produced lazily,
+     * and the number of values pulled and the number of times the results are closed are recorded.
+     *
+     * @param count the number of values
+     * @param failAt the value at which the iteration fails, or -1 if it never fails
+     * @return the task; never null
+     */
+    protected Task<Sequence<Integer>> task( final int count,
+                                            final int failAt ) {
+        return new Task<Sequence<Integer>>() {
+            @Override
+            public Results<Sequence<Integer>> call() {
+                calls.incrementAndGet();
+                final Sequence<Integer> sequence = new Sequence<Integer>() {
+                    @Override
+                    public int size() {
+                        return count;
+                    }
+
+                    @Override
+                    public boolean isEmpty() {
+                        return count == 0;
+                    }
+
+                    @Override
+                    public Iterator<Integer> iterator() {
+                        return new Iterator<Integer>() {
+                            private int next = 0;
+
+                            @Override
+                            public boolean hasNext() {
+                                return next < count;
+                            }
+
+                            @Override
+                            public Integer next() {
+                                if (next >= count) throw new NoSuchElementException();
+                                if (next == failAt) throw new SchematicaException("Failed at " + next);
+                                pulled.incrementAndGet();
+                                return next++;
+                            }
+
+                            @Override
+                            public void remove() {
+                                throw new UnsupportedOperationException();
+                            }
+                        };
+                    }
+                };
+                return new Results<Sequence<Integer>>() {
+                    @Override
+                    public Sequence<Integer> output() {
+                        return sequence;
+                    }
+
+                    @Override
+                    public void close() {
+                        closed.incrementAndGet();
+                    }
+                };
+            }
+        };
+    }
+
+    protected static class RecordingSubscriber implements Subscriber<Integer> {
+        protected final List<Integer> values = new ArrayList<>();
+        protected final List<Throwable> errors = new ArrayList<>();
+        protected int completions = 0;
+        protected Subscription subscription;
+
+        @Override
+        public void onSubscribe( Subscription subscription ) {
+            this.subscription = subscription;
+        }
+
+        @Override
+        public void onNext( Integer value ) {
+            values.add(value);
+        }
+
+        @Override
+        public void onError( Throwable error ) {
+            errors.add(error);
+        }
+
+        @Override
+        public void onComplete() {
+            ++completions;
+        }
+    }
+
+    protected RecordingSubscriber subscribe( Task<Sequence<Integer>> task ) {
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        new SequencePublisher<>(task).subscribe(subscriber);
+        return subscriber;
+    }
+
+    @Test
+    public void shouldNotRunTaskUntilValuesAreRequested() {
+        RecordingSubscriber subscriber = subscribe(task(5, -1));
+        assertTrue(subscriber.subscription != null);
+        assertEquals(0, calls.get());
+        subscriber.subscription.request(1);
+        assertEquals(1, calls.get());
+    }
+
+    @Test
+    public void shouldNotDeliverOrPullMoreValuesThanRequested() {
+        RecordingSubscriber subscriber = subscribe(task(10, -1));
+        subscriber.subscription.request(2);
+        assertEquals(Arrays.asList(0, 1), subscriber.values);
+        assertEquals(2, pulled.get());
+        subscriber.subscription.request(3);
+        assertEquals(Arrays.asList(0, 1, 2, 3, 4), subscriber.values);
+        assertEquals(5, pulled.get());
+        assertEquals(1, calls.get());
+        assertEquals(0, subscriber.completions);
+        assertEquals(0, closed.get());
+    }
+
+    @Test
+    public void shouldCompleteAndCloseResultsWhenSequenceIsExhausted() {
+        RecordingSubscriber subscriber = subscribe(task(3, -1));
+        subscriber.subscription.request(Long.MAX_VALUE);
+        assertEquals(Arrays.asList(0, 1, 2), subscriber.values);
+        assertEquals(1, subscriber.completions);
+        assertEquals(1, closed.get());
+        // Later requests do nothing ...
+        subscriber.subscription.request(1);
+        assertEquals(1, subscriber.completions);
+        assertEquals(1, closed.get());
+        assertTrue(subscriber.errors.isEmpty());
+    }
+
+    @Test
+    public void shouldCompleteEmptySequence() {
+        RecordingSubscriber subscriber = subscribe(task(0, -1));
+        subscriber.subscription.request(1);
+        assertTrue(subscriber.values.isEmpty());
+        assertEquals(1, subscriber.completions);
+        assertEquals(1, closed.get());
+    }
+
+    @Test
+    public void shouldCloseResultsWhenCancelled() {
+        RecordingSubscriber subscriber = subscribe(task(10, -1));
+        subscriber.subscription.request(2);
+        subscriber.subscription.cancel();
+        assertEquals(1, closed.get());
+        subscriber.subscription.request(5);
+        subscriber.subscription.cancel();
+        assertEquals(Arrays.asList(0, 1), subscriber.values);
+        assertEquals(2, pulled.get());
+        assertEquals(1, closed.get());
+        assertEquals(0, subscriber.completions);
+        assertTrue(subscriber.errors.isEmpty());
+    }
+
+    @Test
+    public void shouldStopWhenCancelledFromOnNext() {
+        final RecordingSubscriber subscriber = new RecordingSubscriber() {
+            @Override
+            public void onNext( Integer value ) {
+                super.onNext(value);
+                if (value == 2) subscription.cancel();
+            }
+        };
+        new SequencePublisher<>(task(10, -1)).subscribe(subscriber);
+        subscriber.subscription.request(Long.MAX_VALUE);
+        assertEquals(Arrays.asList(0, 1, 2), subscriber.values);
+        assertEquals(1, closed.get());
+        assertEquals(0, subscriber.completions);
+    }
+
+    @Test
+    public void shouldSignalErrorAndCloseResultsWhenSequenceFails() {
+        RecordingSubscriber subscriber = subscribe(task(10, 3));
+        subscriber.subscription.request(10);
+        assertEquals(Arrays.asList(0, 1, 2), subscriber.values);
+        assertEquals(1, subscriber.errors.size());
+        assertTrue(subscriber.errors.get(0) instanceof SchematicaException);
+        assertEquals(0, subscriber.completions);
+        assertEquals(1, closed.get());
+        // Nothing more is delivered ...
+        subscriber.subscription.request(10);
+        assertEquals(3, subscriber.values.size());
+        assertEquals(1, subscriber.errors.size());
+    }
+
+    @Test
+    public void shouldSignalErrorWhenTaskFails() {
+        final SchematicaException failure = new SchematicaException("expected");
+        RecordingSubscriber subscriber = subscribe(new Task<Sequence<Integer>>() {
+            @Override
+            public Results<Sequence<Integer>> call() {
+                throw failure;
+            }
+        });
+        subscriber.subscription.request(1);
+        assertEquals(1, subscriber.errors.size());
+        assertSame(failure, subscriber.errors.get(0));
+        assertEquals(0, subscriber.completions);
+    }
+
+    @Test
+    public void shouldRejectNonPositiveRequests() {
+        for (long n : new long[] {0L, -1L, Long.MIN_VALUE}) {
+            RecordingSubscriber subscriber = subscribe(task(10, -1));
+            subscriber.subscription.request(1);
+            subscriber.subscription.request(n);
+            assertEquals(1, subscriber.errors.size());
+            assertTrue(subscriber.errors.get(0) instanceof IllegalArgumentException);
+            subscriber.subscription.request(5);
+            assertEquals(Arrays.asList(0), subscriber.values);
+            assertEquals(0, subscriber.completions);
+        }
+        assertEquals(3, closed.get());
+    }
+
+    @Test
+    public void shouldDeliverValuesRequestedFromOnNextWithoutRecursion() {
+        final int count = 100000;
+        final RecordingSubscriber subscriber = new RecordingSubscriber() {
+            private int depth = 0;
+
+            @Override
+            public void onNext( Integer value ) {
+                super.onNext(value);
+                ++depth;
+                assertEquals(1, depth);
+                subscription.request(1);
+                --depth;
+            }
+        };
+        new SequencePublisher<>(task(count, -1)).subscribe(subscriber);
+        subscriber.subscription.request(1);
+        assertEquals(count, subscriber.values.size());
+        assertEquals(1, subscriber.completions);
+        assertTrue(subscriber.errors.isEmpty());
+    }
+}
@@ -0,0 +1,274 @@
+/*
+ * Schematica (http://www.schematica.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.schematica.db.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.json.Json;
+import org.junit.After;
+import org.junit.Test;
+import org.schematica.db.Document;
+import org.schematica.db.SchematicaException;
+import org.schematica.db.Store;
+import org.schematica.db.core.BulkWriteReports.ReportBuilder;
+
+/**
+ * @author Randall Hauch (rhauch@redhat.com)
+ */
+public class WriteBehindStoreTest {
+
+    private static final long LONG_DELAY = TimeUnit.MINUTES.toMillis(10);
+
+    private final Map<String, Document> documents = new ConcurrentHashMap<>();
+    private final List<List<String>> batches = Collections.synchronizedList(new ArrayList<List<String>>());
+    private final AtomicInteger closes = new AtomicInteger();
+    private volatile RuntimeException failure;
+    private volatile CountDownLatch writing;
+    private volatile CountDownLatch commit;
+    private WriteBehindStore store;
+
+    @After
+    public void afterEach() {
+        failure = null;
+        if (commit != null) commit.countDown();
+        if (store != null) store.close();
+    }
+
+    /**
+     * Create a store that keeps the documents in {@link #documents}, and that records the keys in each
+     * {@link Store#writeMultiple(Iterable, boolean) bulk write}. A bulk write fails with {@link #failure} if it is set, and if
+     * {@link #commit} is set it counts down {@link #writing} and then waits for {@link #commit} before writing the documents.
+     *
+     * @return the store; never null
+     */
+    protected Store delegate() {
+        return (Store)Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] {Store.class}, new InvocationHandler() {
+            @Override
+            public Object invoke( Object proxy,
+                                  Method method,
+                                  Object[] args ) throws Throwable {
+                switch (method.getName()) {
+                    case "writeMultiple":
+                        List<String> keys = new ArrayList<>();
+                        for (Object written : (Iterable<?>)args[0]) {
+                            keys.add(((Document)written).getKey());
+                        }
+                        batches.add(keys);
+                        if (commit != null) {
+                            writing.countDown();
+                            commit.await(10, TimeUnit.SECONDS);
+                        }
+                        if (failure != null) throw failure;
+                        ReportBuilder report = BulkWriteReports.create((Boolean)args[1]);
+                        for (Object written : (Iterable<?>)args[0]) {
+                            Document document = (Document)written;
+                            if (documents.put(document.getKey(), document) != null) report.recordOverwritten(document.getKey());
+                            else report.recordUpdated(document.getKey());
+                        }
+                        return report.getReport();
+                    case "read":
+                        return documents.get(args[0]);
+                    case "readMultiple":
+                        List<Document> found = new ArrayList<>();
+                        for (Object key : (Iterable<?>)args[0]) {
+                            if (documents.containsKey(key)) found.add(documents.get(key));
+                        }
+                        return Sequences.of(found);
+                    case "has":
+                        return documents.containsKey(args[0]);
+                    case "close":
+                        closes.incrementAndGet();
+                        return null;
+                }
+                if (method.getReturnType() == boolean.class) return Boolean.FALSE;
+                if (method.getReturnType() == long.class) return 0L;
+                return null;
+            }
+        });
+    }
+
+    protected WriteBehindStore store( int maximumBatchSize,
+                                      long maximumDelayMillis ) {
+        store = new WriteBehindStore(delegate(), maximumBatchSize, maximumDelayMillis);
+        return store;
+    }
+
+    protected static Document document( String key,
+                                        int value ) {
+        return new SimpleDocument(key, Json.createObjectBuilder().add("v", value).build());
+    }
+
+    protected static void assertFailedWith( Throwable expected,
+                                            Future<Boolean> future ) throws InterruptedException {
+        assertTrue(future.isDone());
+        try {
+            future.get();
+            fail("Expected the write to fail");
+        } catch (ExecutionException e) {
+            assertSame(expected, e.getCause());
+        }
+    }
+
+    @Test
+    public void shouldWriteOnlyLastDocumentBufferedWithSameKey() throws Exception {
+        WriteBehindStore store = store(100, LONG_DELAY);
+        Future<Boolean> a1 = store.writeBehind(document("a", 1));
+        Future<Boolean> b1 = store.writeBehind(document("b", 1));
+        Future<Boolean> a2 = store.writeBehind(document("a", 2));
+        assertFalse(a1.isDone());
+        store.flush();
+        assertEquals(Arrays.asList(Arrays.asList("a", "b")), batches);
+        assertEquals(2, documents.get("a").getJsonObject().getInt("v"));
+        // Every write of the key completes when the last document is written ...
+        assertFalse(a1.get());
+        assertFalse(a2.get());
+        assertFalse(b1.get());
+
+        Future<Boolean> a3 = store.writeBehind(document("a", 3));
+        store.flush();
+        assertTrue(a3.get());
+        assertEquals(2, batches.size());
+    }
+
+    @Test
+    public void shouldReadBufferedDocuments() {
+        WriteBehindStore store = store(100, LONG_DELAY);
+        Document a = document("a", 1);
+        store.writeBehind(a);
+        assertSame(a, store.read("a"));
+        assertTrue(store.has("a"));
+        assertEquals(1, store.readMultiple(Arrays.asList("a", "b")).size());
+        assertTrue(batches.isEmpty());
+    }
+
+    @Test
+    public void shouldWriteWhenBatchIsFull() throws Exception {
+        WriteBehindStore store = store(3, LONG_DELAY);
+        Future<Boolean> a = store.writeBehind(document("a", 1));
+        Future<Boolean> b = store.writeBehind(document("b", 1));
+        store.writeBehind(document("b", 2));
+        assertFalse(b.isDone());
+        store.writeBehind(document("c", 1));
+        assertFalse(a.get(10, TimeUnit.SECONDS));
+        assertFalse(b.get(10, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList(Arrays.asList("a", "b", "c")), batches);
+    }
+
+    @Test
+    public void shouldWriteWhenOldestDocumentHasWaitedMaximumDelay() throws Exception {
+        WriteBehindStore store = store(100, 50L);
+        long start = System.nanoTime();
+        Future<Boolean> a = store.writeBehind(document("a", 1));
+        assertFalse(a.get(10, TimeUnit.SECONDS));
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(40L));
+        assertEquals(Arrays.asList(Arrays.asList("a")), batches);
+    }
+
+    @Test
+    public void shouldCompleteFuturesOnlyAfterBatchIsWritten() throws Exception {
+        WriteBehindStore store = store(1, LONG_DELAY);
+        writing = new CountDownLatch(1);
+        commit = new CountDownLatch(1);
+        Document a = document("a", 1);
+        Future<Boolean> future = store.writeBehind(a);
+        assertTrue(writing.await(10, TimeUnit.SECONDS));
+        assertFalse(future.isDone());
+        // The document is still visible while it is being written ...
+        assertSame(a, store.read("a"));
+        commit.countDown();
+        assertFalse(future.get(10, TimeUnit.SECONDS));
+        assertSame(a, documents.get("a"));
+    }
+
+    @Test
+    public void shouldFailEveryWriteInBatchThatCannotBeWritten() throws Exception {
+        WriteBehindStore store = store(100, LONG_DELAY);
+        failure = new SchematicaException("expected");
+        Future<Boolean> a1 = store.writeBehind(document("a", 1));
+        Future<Boolean> a2 = store.writeBehind(document("a", 2));
+        Future<Boolean> b = store.writeBehind(document("b", 1));
+        try {
+            store.flush();
+            fail("Expected the flush to fail");
+        } catch (SchematicaException e) {
+            assertSame(failure, e);
+        }
+        assertFailedWith(failure, a1);
+        assertFailedWith(failure, a2);
+        assertFailedWith(failure, b);
+        assertTrue(documents.isEmpty());
+    }
+
+    @Test
+    public void shouldThrowFailureFromBlockingWrite() {
+        WriteBehindStore store = store(1, LONG_DELAY);
+        failure = new SchematicaException("expected");
+        try {
+            store.write(document("a", 1));
+            fail("Expected the write to fail");
+        } catch (SchematicaException e) {
+            assertSame(failure, e);
+        }
+        // Later writes are not affected ...
+        failure = null;
+        assertFalse(store.write(document("a", 2)));
+    }
+
+    @Test
+    public void shouldWriteBufferedDocumentsBeforeOtherOperations() {
+        WriteBehindStore store = store(100, LONG_DELAY);
+        store.writeBehind(document("a", 1));
+        store.remove("a");
+        assertEquals(Arrays.asList(Arrays.asList("a")), batches);
+    }
+
+    @Test
+    public void shouldWriteBufferedDocumentsWhenClosed() throws Exception {
+        WriteBehindStore store = store(100, LONG_DELAY);
+        Future<Boolean> a = store.writeBehind(document("a", 1));
+        Future<Boolean> b = store.writeBehind(document("b", 1));
+        store.close();
+        this.store = null;
+        assertTrue(a.isDone());
+        assertTrue(b.isDone());
+        assertEquals(2, documents.size());
+        assertEquals(1, closes.get());
+        try {
+            store.writeBehind(document("c", 1));
+            fail("Expected the closed store to reject writes");
+        } catch (IllegalStateException e) {
+            // expected ...
+        }
+    }
+}
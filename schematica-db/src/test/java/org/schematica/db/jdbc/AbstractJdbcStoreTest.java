@@ -0,0 +1,136 @@
+/*
+ * Schematica (http://www.schematica.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.schematica.db.jdbc;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.json.Json;
+import javax.json.JsonObject;
+import org.junit.After;
+import org.junit.Before;
+import org.schematica.db.Document;
+import org.schematica.db.core.SimpleDocument;
+
+/**
+ * The base class for tests that run a {@link JdbcStore} against a private in-memory H2 database in MySQL mode, which understands
+ * the statements in the default statements file.
+ *
+ * @author Randall Hauch (rhauch@redhat.com)
+ */
+public abstract class AbstractJdbcStoreTest {
+
+    private static final AtomicInteger DATABASE_COUNTER = new AtomicInteger();
+
+    protected String url;
+    private Connection keepAlive;
+    private final List<JdbcStore> stores = new ArrayList<>();
+
+    @Before
+    public void beforeEach() throws SQLException {
+        url = "jdbc:h2:mem:schematica" + DATABASE_COUNTER.incrementAndGet() + ";MODE=MySQL";
+        // The in-memory database exists only while it has at least one open connection ...
+        keepAlive = DriverManager.getConnection(url);
+    }
+
+    @After
+    public void afterEach() throws SQLException {
+        try {
+            for (JdbcStore store : stores) {
+                store.close();
+            }
+        } finally {
+            stores.clear();
+            keepAlive.close();
+        }
+    }
+
+    /**
+     * Create a pool of connections to the test database.
+     *
+     * @param size the maximum number of connections
+     * @return the pool; never null
+     */
+    protected DatabasePool pool( int size ) {
+        return new DatabasePool(new DriverManagerDataSource(url, null, null), null, null, size, 8, 10 * 1000L);
+    }
+
+    /**
+     * Create a store that uses the test database, which is closed after the test.
+     *
+     * @param statistics true if the store maintains the document counts
+     * @param changes true if the store records the changes to documents
+     * @param patches true if the store writes the changes to edited documents as patches
+     * @return the store; never null
+     */
+    protected JdbcStore store( boolean statistics,
+                               boolean changes,
+                               boolean patches ) {
+        return closeAfterTest(new JdbcStore(pool(4), JdbcStore.JSON_FORMAT, 3, statistics, changes, patches));
+    }
+
+    /**
+     * Close the supplied store after the test.
+     *
+     * @param store the store; may not be null
+     * @return the store; never null
+     */
+    protected JdbcStore closeAfterTest( JdbcStore store ) {
+        stores.add(store);
+        return store;
+    }
+
+    /**
+     * Create a store that uses the test database without statistics, changes or patches, which is closed after the test.
+     *
+     * @return the store; never null
+     */
+    protected JdbcStore store() {
+        return store(false, false, false);
+    }
+
+    /**
+     * Obtain a connection to the test database that is not used by any store.
+     *
+     * @return the connection, which must be closed by the caller; never null
+     * @throws SQLException if the connection cannot be obtained
+     */
+    protected Connection connection() throws SQLException {
+        return DriverManager.getConnection(url);
+    }
+
+    protected static JsonObject json( String name,
+                                      long value ) {
+        return Json.createObjectBuilder().add(name, value).build();
+    }
+
+    protected static Document document( String key,
+                                        long age ) {
+        return new SimpleDocument(key, Json.createObjectBuilder().add("name", key).add("age", age).build());
+    }
+
+    protected static List<Document> documents( int count ) {
+        List<Document> documents = new ArrayList<>(count);
+        for (int i = 0; i != count; ++i) {
+            documents.add(document("doc" + i, i));
+        }
+        return documents;
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Schematica (http://www.schematica.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.schematica.db.jdbc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import javax.json.Json;
+import org.junit.Test;
+import org.schematica.db.Document;
+import org.schematica.db.SchematicaException;
+import org.schematica.db.Sequence;
+import org.schematica.db.core.Filters;
+import org.schematica.db.core.SimpleDocument;
+import org.schematica.db.task.FilterBuilder.Operator;
+import org.schematica.db.task.Results;
+
+/**
+ * @author Randall Hauch (rhauch@redhat.com)
+ */
+public class DatabasePoolTest extends AbstractJdbcStoreTest {
+
+    @Test
+    public void shouldReuseReleasedConnections() {
+        DatabasePool pool = pool(2);
+        try {
+            Database first = pool.checkout();
+            pool.release(first);
+            assertSame(first, pool.checkout());
+            pool.release(first);
+        } finally {
+            pool.close();
+        }
+    }
+
+    @Test
+    public void shouldFailCheckoutWhenNoConnectionIsReleasedWithinTimeout() {
+        DatabasePool pool = new DatabasePool(new DriverManagerDataSource(url, null, null), null, null, 2, 8, 100L);
+        Database first = pool.checkout();
+        Database second = pool.checkout();
+        try {
+            pool.checkout();
+            fail("Expected the checkout to time out");
+        } catch (SchematicaException e) {
+            // expected ...
+        } finally {
+            pool.release(first);
+            pool.release(second);
+            pool.close();
+        }
+    }
+
+    @Test
+    public void shouldFailNestedCheckoutOfSingleConnection() throws Exception {
+        try (Connection connection = connection()) {
+            DatabasePool pool = new DatabasePool(connection, 100L);
+            Database database = pool.checkout();
+            long start = System.currentTimeMillis();
+            try {
+                pool.checkout();
+                fail("Expected the nested checkout to time out rather than wait forever");
+            } catch (SchematicaException e) {
+                // expected ...
+                assertTrue(System.currentTimeMillis() - start < TimeUnit.SECONDS.toMillis(10));
+            } finally {
+                pool.release(database);
+            }
+            // The connection is available again ...
+            pool.release(pool.checkout());
+        }
+    }
+
+    @Test
+    public void shouldUseSingleConnectionStoreWhileProcessingResults() throws Exception {
+        // The store's only connection cannot be held by the cursor while other operations are done ...
+        JdbcStore store = new JdbcStore(new DatabasePool(connection(), 100L), JdbcStore.JSON_FORMAT, 3);
+        try {
+            store.writeMultiple(documents(5), false);
+            try (Results<Sequence<Document>> results = store.all().documents().call()) {
+                assertEquals(5, results.output().size());
+                for (Document document : results.output()) {
+                    assertTrue(store.has(document.getKey()));
+                    store.write(document(document.getKey() + "-copy", 100));
+                }
+            }
+            try (Results<Sequence<String>> results = store.filter(Filters.INSTANCE.field("age").is(Operator.EQUALS, 100))
+                                                         .keys()
+                                                         .call()) {
+                for (String key : results.output()) {
+                    // Even another task can be run ...
+                    try (Results<Sequence<String>> all = store.all().keys().call()) {
+                        assertTrue(all.output().size() > 5);
+                    }
+                    store.remove(key);
+                    assertFalse(store.has(key));
+                }
+            }
+            assertEquals(5L, store.size());
+        } finally {
+            store.close();
+        }
+    }
+
+    @Test
+    public void shouldReadAndWriteConcurrentlyWithSharedStore() throws Exception {
+        final JdbcStore store = store();
+        final int threads = 8;
+        final int writesPerThread = 50;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Integer>> futures = new ArrayList<>();
+            for (int t = 0; t != threads; ++t) {
+                final int thread = t;
+                futures.add(executor.submit(new Callable<Integer>() {
+                    @Override
+                    public Integer call() {
+                        int read = 0;
+                        for (int i = 0; i != writesPerThread; ++i) {
+                            String key = "thread" + thread + "-" + i;
+                            store.write(new SimpleDocument(key, Json.createObjectBuilder().add("value", i).build()));
+                            // Every thread also overwrites and reads a shared document ...
+                            store.write(new SimpleDocument("shared", Json.createObjectBuilder().add("value", thread).build()));
+                            assertEquals(i, store.read(key).getJsonObject().getInt("value"));
+                            if (store.has("shared")) ++read;
+                        }
+                        return read;
+                    }
+                }));
+            }
+            for (Future<Integer> future : futures) {
+                assertEquals(Integer.valueOf(writesPerThread), future.get(60, TimeUnit.SECONDS));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(threads * writesPerThread + 1L, store.size());
+        int value = store.read("shared").getJsonObject().getInt("value");
+        assertTrue(value >= 0 && value < threads);
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Schematica (http://www.schematica.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.schematica.db.jdbc;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.schematica.db.SchematicaException;
+
+/**
+ * @author Randall Hauch (rhauch@redhat.com)
+ */
+public class DatabaseTest extends AbstractJdbcStoreTest {
+
+    private Connection connection;
+
+    @Before
+    public void createValues() throws SQLException {
+        connection = connection();
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("CREATE TABLE VALS (val INTEGER NOT NULL, primary key(val))");
+        }
+    }
+
+    @After
+    public void closeConnection() throws SQLException {
+        connection.close();
+    }
+
+    protected long count() throws SQLException {
+        try (Statement statement = connection.createStatement();
+             ResultSet results = statement.executeQuery("SELECT COUNT(*) FROM VALS")) {
+            results.next();
+            return results.getLong(1);
+        }
+    }
+
+    @Test
+    public void shouldExecuteBatchedCommandsTogether() throws SQLException {
+        try (PreparedStatement insert = connection.prepareStatement("INSERT INTO VALS (val) VALUES (?)")) {
+            for (int i = 0; i != 3; ++i) {
+                insert.setInt(1, i);
+                Database.addBatch(insert);
+            }
+            // Nothing is sent to the database until the batch is executed ...
+            assertEquals(0L, count());
+            assertArrayEquals(new int[] {1, 1, 1}, Database.executeBatch(insert));
+            assertEquals(3L, count());
+        }
+    }
+
+    @Test
+    public void shouldClearBatchWhenItFails() throws SQLException {
+        try (PreparedStatement insert = connection.prepareStatement("INSERT INTO VALS (val) VALUES (?)")) {
+            insert.setInt(1, 1);
+            Database.addBatch(insert);
+            insert.setInt(1, 1);
+            Database.addBatch(insert);
+            try {
+                Database.executeBatch(insert);
+                fail("Expected the batch with a duplicate key to fail");
+            } catch (SchematicaException e) {
+                // expected ...
+            }
+            // The failed commands are not sent again with the next batch ...
+            insert.setInt(1, 2);
+            Database.addBatch(insert);
+            assertArrayEquals(new int[] {1}, Database.executeBatch(insert));
+        }
+    }
+}
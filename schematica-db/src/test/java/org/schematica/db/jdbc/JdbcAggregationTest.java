@@ -0,0 +1,243 @@
+/*
+ * Schematica (http://www.schematica.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.schematica.db.jdbc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import java.io.ByteArrayInputStream;
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.json.Json;
+import javax.json.JsonArray;
+import javax.json.JsonNumber;
+import javax.json.JsonObject;
+import javax.json.JsonReader;
+import javax.json.JsonString;
+import javax.json.JsonStructure;
+import javax.json.JsonValue;
+import javax.sql.DataSource;
+import org.junit.Before;
+import org.junit.Test;
+import org.schematica.db.SchematicaException;
+import org.schematica.db.Store;
+import org.schematica.db.core.DocumentFormat;
+import org.schematica.db.core.Filters;
+import org.schematica.db.core.Mappers;
+import org.schematica.db.core.Reducers;
+import org.schematica.db.core.SimpleDocument;
+import org.schematica.db.task.Filter;
+import org.schematica.db.task.FilterBuilder.Operator;
+import org.schematica.db.task.Mapper;
+import org.schematica.db.task.Reducer;
+
+/**
+ * Tests that MapReduce procedures equivalent to SQL aggregates are computed by the database when possible, and otherwise by the
+ * in-memory engine. H2 has no functions that extract values from JSON content, so the tests register Java functions that do and
+ * use them as the "{@code json_text}" and "{@code json_number}" expressions.
+ *
+ * @author Randall Hauch (rhauch@redhat.com)
+ */
+public class JdbcAggregationTest extends AbstractJdbcStoreTest {
+
+    private static final Pattern SEGMENT = Pattern.compile("\\.\"((?:[^\"\\\\]|\\\\.)*)\"|\\[(\\d+)\\]");
+    private static final AtomicInteger EXTRACTIONS = new AtomicInteger();
+
+    @Before
+    public void registerJsonFunctions() throws SQLException {
+        EXTRACTIONS.set(0);
+        try (Connection connection = connection(); Statement statement = connection.createStatement()) {
+            statement.execute("CREATE ALIAS JSON_TEXT_AT FOR \"" + getClass().getName() + ".jsonTextAt\"");
+            statement.execute("CREATE ALIAS JSON_NUMBER_AT FOR \"" + getClass().getName() + ".jsonNumberAt\"");
+        }
+    }
+
+    /**
+     * Get the value at the supplied MySQL-style path in the supplied JSON content.
+     *
+     * @param content the UTF-8 JSON content; may be null
+     * @param path the path, such as '<code>$."customer"."id"</code>'; may not be null
+     * @return the value, or null if there is no such value
+     */
+    protected static JsonValue valueAt( byte[] content,
+                                        String path ) {
+        EXTRACTIONS.incrementAndGet();
+        if (content == null) return null;
+        JsonValue value = null;
+        try (JsonReader reader = Json.createReader(new ByteArrayInputStream(content))) {
+            value = reader.read();
+        }
+        Matcher matcher = SEGMENT.matcher(path);
+        while (value != null && matcher.find()) {
+            if (matcher.group(1) != null && value instanceof JsonObject) {
+                value = ((JsonObject)value).get(matcher.group(1).replace("\\\"", "\"").replace("\\\\", "\\"));
+            } else if (matcher.group(2) != null && value instanceof JsonArray) {
+                int index = Integer.parseInt(matcher.group(2));
+                JsonArray array = (JsonArray)value;
+                value = index < array.size() ? array.get(index) : null;
+            } else {
+                value = null;
+            }
+        }
+        return value;
+    }
+
+    public static String jsonTextAt( byte[] content,
+                                     String path ) {
+        JsonValue value = valueAt(content, path);
+        if (value == null) return null;
+        if (value instanceof JsonString) return ((JsonString)value).getString();
+        return value instanceof JsonStructure ? null : value.toString();
+    }
+
+    public static BigDecimal jsonNumberAt( byte[] content,
+                                           String path ) {
+        JsonValue value = valueAt(content, path);
+        return value instanceof JsonNumber ? ((JsonNumber)value).bigDecimalValue() : null;
+    }
+
+    /**
+     * Create a pool whose databases use the registered functions to extract values from JSON content.
+     *
+     * @return the pool; never null
+     */
+    protected DatabasePool jsonPool() {
+        final DataSource dataSource = new DriverManagerDataSource(url, null, null);
+        return new DatabasePool(dataSource, null, null, 4, 8, 10 * 1000L) {
+            @Override
+            protected Database newDatabase( Database.Type type ) throws SchematicaException {
+                try {
+                    return new Database(dataSource.getConnection(), type, null, 8) {
+                        @Override
+                        public String getStatement( String key ) {
+                            switch (key) {
+                                case FilterTranslator.JSON_PATH_STYLE:
+                                    return "mysql";
+                                case FilterTranslator.JSON_TEXT:
+                                    return "JSON_TEXT_AT(doc_content, ?)";
+                                case FilterTranslator.JSON_NUMBER:
+                                    return "JSON_NUMBER_AT(doc_content, ?)";
+                            }
+                            return super.getStatement(key);
+                        }
+                    };
+                } catch (SQLException e) {
+                    throw new SchematicaException(e);
+                }
+            }
+        };
+    }
+
+    protected JdbcStore jsonStore( DocumentFormat format ) {
+        return closeAfterTest(new JdbcStore(jsonPool(), format, 3));
+    }
+
+    /**
+     * Write the documents with ages 0 through 9, and also documents whose ages are not integral, not numbers, or missing.
+     *
+     * @param store the store; may not be null
+     */
+    protected static void writeDocuments( Store store ) {
+        store.writeMultiple(documents(10), false);
+        store.write(new SimpleDocument("fraction", Json.createObjectBuilder().add("age", 2.5).build()));
+        store.write(new SimpleDocument("text", Json.createObjectBuilder().add("age", "100").build()));
+        store.write(new SimpleDocument("missing", Json.createObjectBuilder().add("name", "missing").build()));
+    }
+
+    protected static <V> V reduce( Store store,
+                                   Filter filter,
+                                   Mapper<String, V> mapper,
+                                   Reducer<String, V> reducer ) throws Exception {
+        Map<String, V> output = (filter == null ? store.all() : store.filter(filter)).map(mapper).reduce(reducer).call().output();
+        assertTrue(output.size() <= 1);
+        return output.isEmpty() ? null : output.values().iterator().next();
+    }
+
+    protected static Mapper<String, Long> longAge() {
+        return Mappers.INSTANCE.longValue("age");
+    }
+
+    protected static Mapper<String, Double> doubleAge() {
+        return Mappers.INSTANCE.doubleValue("age");
+    }
+
+    @Test
+    public void shouldComputeAggregatesInDatabase() throws Exception {
+        JdbcStore store = jsonStore(JdbcStore.JSON_FORMAT);
+        writeDocuments(store);
+        assertEquals(Long.valueOf(45L), reduce(store, null, longAge(), Reducers.INSTANCE.longs().sum()));
+        assertEquals(Long.valueOf(9L), reduce(store, null, longAge(), Reducers.INSTANCE.longs().maximum()));
+        assertEquals(Long.valueOf(0L), reduce(store, null, longAge(), Reducers.INSTANCE.longs().minimum()));
+        assertEquals(Double.valueOf(47.5d), reduce(store, null, doubleAge(), Reducers.INSTANCE.doubles().sum()));
+        assertEquals(Double.valueOf(9d), reduce(store, null, doubleAge(), Reducers.INSTANCE.doubles().maximum()));
+        Filter filter = Filters.INSTANCE.field("age").is(Operator.GREATER_THAN_OR_EQUALS, 7);
+        assertEquals(Long.valueOf(24L), reduce(store, filter, longAge(), Reducers.INSTANCE.longs().sum()));
+        // The values were extracted by the database ...
+        assertTrue(EXTRACTIONS.get() > 0);
+    }
+
+    @Test
+    public void shouldComputeAggregatesOfMixedFormatsInDatabaseAndEngine() throws Exception {
+        JdbcStore store = jsonStore(JdbcStore.JSON_FORMAT);
+        writeDocuments(store);
+        JdbcStore bsonStore = jsonStore(JdbcStore.BSON_FORMAT);
+        bsonStore.write(document("bson1", 20));
+        bsonStore.write(document("bson2", -3));
+        assertEquals(Long.valueOf(62L), reduce(store, null, longAge(), Reducers.INSTANCE.longs().sum()));
+        assertEquals(Long.valueOf(20L), reduce(store, null, longAge(), Reducers.INSTANCE.longs().maximum()));
+        assertEquals(Long.valueOf(-3L), reduce(store, null, longAge(), Reducers.INSTANCE.longs().minimum()));
+        assertEquals(Double.valueOf(64.5d), reduce(store, null, doubleAge(), Reducers.INSTANCE.doubles().sum()));
+    }
+
+    @Test
+    public void shouldFallBackToEngineWhenFilterIsNotExact() throws Exception {
+        JdbcStore store = jsonStore(JdbcStore.JSON_FORMAT);
+        writeDocuments(store);
+        // Regular expressions are evaluated in-memory ...
+        Filter filter = Filters.INSTANCE.field("name").matches(Pattern.compile("doc[0-4]"));
+        EXTRACTIONS.set(0);
+        assertEquals(Long.valueOf(10L), reduce(store, filter, longAge(), Reducers.INSTANCE.longs().sum()));
+        assertEquals(Long.valueOf(4L), reduce(store, filter, longAge(), Reducers.INSTANCE.longs().maximum()));
+        assertEquals(0, EXTRACTIONS.get());
+    }
+
+    @Test
+    public void shouldFallBackToEngineWhenDatabaseCannotExtractNumbers() throws Exception {
+        // The default statements define no 'json_number' expression ...
+        JdbcStore store = store();
+        writeDocuments(store);
+        assertEquals(Long.valueOf(45L), reduce(store, null, longAge(), Reducers.INSTANCE.longs().sum()));
+        assertEquals(Long.valueOf(9L), reduce(store, null, longAge(), Reducers.INSTANCE.longs().maximum()));
+        assertEquals(Double.valueOf(47.5d), reduce(store, null, doubleAge(), Reducers.INSTANCE.doubles().sum()));
+        assertEquals(Double.valueOf(0d), reduce(store, null, doubleAge(), Reducers.INSTANCE.doubles().minimum()));
+        assertEquals(0, EXTRACTIONS.get());
+    }
+
+    @Test
+    public void shouldComputeCountWithQuery() throws Exception {
+        JdbcStore store = jsonStore(JdbcStore.JSON_FORMAT);
+        writeDocuments(store);
+        assertEquals(Long.valueOf(13L), reduce(store, null, Mappers.INSTANCE.count(), Reducers.INSTANCE.longs().sum()));
+        Filter filter = Filters.INSTANCE.field("age").is(Operator.LESS_THAN, 3);
+        assertEquals(Long.valueOf(4L), reduce(store, filter, Mappers.INSTANCE.count(), Reducers.INSTANCE.longs().sum()));
+    }
+}
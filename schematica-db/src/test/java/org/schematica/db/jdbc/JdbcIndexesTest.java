@@ -0,0 +1,167 @@
+/*
+ * Schematica (http://www.schematica.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.schematica.db.jdbc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import javax.json.Json;
+import org.junit.Test;
+import org.schematica.db.Document;
+import org.schematica.db.Path;
+import org.schematica.db.Schematica;
+import org.schematica.db.Sequence;
+import org.schematica.db.core.Filters;
+import org.schematica.db.core.SimpleDocument;
+import org.schematica.db.task.Filter;
+import org.schematica.db.task.FilterBuilder.Operator;
+import org.schematica.db.task.Results;
+
+/**
+ * @author Randall Hauch (rhauch@redhat.com)
+ */
+public class JdbcIndexesTest extends AbstractJdbcStoreTest {
+
+    private static final Path AGE = Schematica.pathBuilder().parse("age");
+    private static final Path NAME = Schematica.pathBuilder().parse("name");
+
+    /**
+     * Read directly from the index table the rows for the supplied path, each as "<code>key=value</code>" where the value is the
+     * text value, the number value, or empty when the row has neither.
+     *
+     * @param path the indexed path; may not be null
+     * @return the rows, ordered by key; never null
+     * @throws SQLException if the rows cannot be read
+     */
+    protected List<String> indexRows( Path path ) throws SQLException {
+        List<String> rows = new ArrayList<>();
+        try (Connection connection = connection(); Statement statement = connection.createStatement()) {
+            String sql = "SELECT doc_key, text_value, number_value FROM " + Database.TABLE_NAME + "_INDEX WHERE path = '" + path
+                         + "' ORDER BY doc_key, text_value, number_value";
+            try (ResultSet resultSet = statement.executeQuery(sql)) {
+                while (resultSet.next()) {
+                    String text = resultSet.getString(2);
+                    double number = resultSet.getDouble(3);
+                    String value = text != null ? text : resultSet.wasNull() ? "" : Long.toString((long)number);
+                    rows.add(resultSet.getString(1) + "=" + value);
+                }
+            }
+        }
+        return rows;
+    }
+
+    protected static Set<String> keys( Sequence<Document> documents ) {
+        Set<String> keys = new HashSet<>();
+        for (Document document : documents) {
+            keys.add(document.getKey());
+        }
+        return keys;
+    }
+
+    @Test
+    public void shouldIndexExistingDocumentsWhenPathIsAdded() throws SQLException {
+        JdbcStore store = store();
+        store.writeMultiple(documents(3), false);
+        assertTrue(store.getIndexes().add(AGE));
+        assertFalse(store.getIndexes().add(AGE));
+        assertTrue(store.getIndexes().isIndexed(AGE));
+        assertEquals(Arrays.asList("doc0=0", "doc1=1", "doc2=2"), indexRows(AGE));
+        assertTrue(indexRows(NAME).isEmpty());
+    }
+
+    @Test
+    public void shouldMaintainIndexAsDocumentsAreWrittenAndRemoved() throws SQLException {
+        JdbcStore store = store();
+        store.getIndexes().add(AGE);
+        store.getIndexes().add(NAME);
+        store.write(document("doc0", 10));
+        store.writeMultiple(Arrays.asList(document("doc1", 11), document("doc2", 12), document("doc3", 13)), false);
+        store.writeIfAbsent(document("doc4", 14));
+        assertEquals(Arrays.asList("doc0=10", "doc1=11", "doc2=12", "doc3=13", "doc4=14"), indexRows(AGE));
+        assertEquals(Arrays.asList("doc0=doc0", "doc1=doc1", "doc2=doc2", "doc3=doc3", "doc4=doc4"), indexRows(NAME));
+
+        // Overwriting a document replaces its values, and a missing field has no row ...
+        store.write(new SimpleDocument("doc0", json("age", 20)));
+        assertEquals(Arrays.asList("doc0=20", "doc1=11", "doc2=12", "doc3=13", "doc4=14"), indexRows(AGE));
+        assertEquals(Arrays.asList("doc1=doc1", "doc2=doc2", "doc3=doc3", "doc4=doc4"), indexRows(NAME));
+
+        store.remove("doc1");
+        store.remove(Arrays.asList("doc2", "doc3"));
+        assertEquals(Arrays.asList("doc0=20", "doc4=14"), indexRows(AGE));
+        assertEquals(Arrays.asList("doc4=doc4"), indexRows(NAME));
+    }
+
+    @Test
+    public void shouldIndexEachScalarElementOfArray() throws SQLException {
+        JdbcStore store = store();
+        store.getIndexes().add(AGE);
+        store.write(new SimpleDocument("doc0", Json.createObjectBuilder()
+                                                   .add("age", Json.createArrayBuilder().add(3).add(4).add(Json.createObjectBuilder()))
+                                                   .build()));
+        // The array itself has a row with no values, and the nested object has none ...
+        assertEquals(Arrays.asList("doc0=", "doc0=3", "doc0=4"), indexRows(AGE));
+    }
+
+    @Test
+    public void shouldRemoveIndexedValuesWhenPathIsRemoved() throws SQLException {
+        JdbcStore store = store();
+        store.writeMultiple(documents(3), false);
+        store.getIndexes().add(AGE);
+        assertTrue(store.getIndexes().remove(AGE));
+        assertFalse(store.getIndexes().remove(AGE));
+        assertFalse(store.getIndexes().isIndexed(AGE));
+        assertTrue(indexRows(AGE).isEmpty());
+        // Later writes are no longer indexed ...
+        store.write(document("doc3", 3));
+        assertTrue(indexRows(AGE).isEmpty());
+    }
+
+    @Test
+    public void shouldFindIndexesAddedByAnotherStore() {
+        JdbcStore store = store();
+        store.getIndexes().add(AGE);
+        JdbcStore other = store();
+        assertTrue(other.getIndexes().isIndexed(AGE));
+    }
+
+    @Test
+    public void shouldFilterDocumentsUsingIndex() throws Exception {
+        JdbcStore store = store();
+        store.writeMultiple(documents(10), false);
+        store.getIndexes().add(AGE);
+        store.getIndexes().add(NAME);
+        store.write(document("doc8", 80));
+        store.remove("doc9");
+        Filter byAge = Filters.INSTANCE.field("age").is(Operator.GREATER_THAN_OR_EQUALS, 7);
+        try (Results<Sequence<Document>> results = store.filter(byAge).documents().call()) {
+            assertEquals(new HashSet<>(Arrays.asList("doc7", "doc8")), keys(results.output()));
+        }
+        Filter byName = Filters.INSTANCE.field("name").hasOneOf("doc3");
+        try (Results<Sequence<Document>> results = store.filter(byName).documents().call()) {
+            assertEquals(new HashSet<>(Arrays.asList("doc3")), keys(results.output()));
+        }
+    }
+}
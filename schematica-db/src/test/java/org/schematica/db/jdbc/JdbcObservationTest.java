@@ -0,0 +1,263 @@
+/*
+ * Schematica (http://www.schematica.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.schematica.db.jdbc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import org.schematica.db.Observation;
+import org.schematica.db.Observer;
+import org.schematica.db.Observer.Change;
+import org.schematica.db.Observer.ChangeSet;
+import org.schematica.db.Observer.ChangeType;
+import org.schematica.db.core.TypedDocument;
+
+/**
+ * @author Randall Hauch (rhauch@redhat.com)
+ */
+public class JdbcObservationTest extends AbstractJdbcStoreTest {
+
+    private static final long TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(10);
+
+    /**
+     * An observer that records the changes it is notified of.
+     */
+    protected static class RecordingObserver implements Observer {
+        private final List<Change> changes = new ArrayList<>();
+        private long lastSequence = 0L;
+
+        @Override
+        public synchronized void notify( ChangeSet changes ) {
+            for (Change change : changes) {
+                this.changes.add(change);
+            }
+            lastSequence = changes.getLastSequence();
+            notifyAll();
+        }
+
+        /**
+         * Wait until this observer has been notified of the supplied number of changes.
+         *
+         * @param count the number of changes
+         * @return the changes; never null
+         * @throws InterruptedException if the thread is interrupted while waiting
+         */
+        public synchronized List<Change> await( int count ) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+            while (changes.size() < count) {
+                long remaining = deadline - System.currentTimeMillis();
+                assertTrue("Received only " + changes, remaining > 0L);
+                wait(remaining);
+            }
+            return new ArrayList<>(changes);
+        }
+
+        /**
+         * Wait until this observer has been notified of the change with the supplied sequence number.
+         *
+         * @param sequence the sequence number
+         * @return the changes; never null
+         * @throws InterruptedException if the thread is interrupted while waiting
+         */
+        public synchronized List<Change> awaitSequence( long sequence ) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+            while (lastSequence < sequence) {
+                long remaining = deadline - System.currentTimeMillis();
+                assertTrue("Received only " + changes, remaining > 0L);
+                wait(remaining);
+            }
+            return new ArrayList<>(changes);
+        }
+
+        public synchronized long getLastSequence() {
+            return lastSequence;
+        }
+    }
+
+    protected static List<String> keys( List<Change> changes ) {
+        List<String> keys = new ArrayList<>();
+        for (Change change : changes) {
+            keys.add(change.getKey());
+        }
+        return keys;
+    }
+
+    /**
+     * Assert that the supplied changes have consecutive sequence numbers, starting after the supplied sequence number.
+     *
+     * @param afterSequence the sequence number before the first change
+     * @param changes the changes; may not be null
+     */
+    protected static void assertConsecutive( long afterSequence,
+                                             List<Change> changes ) {
+        for (Change change : changes) {
+            assertEquals(++afterSequence, change.getSequence());
+        }
+    }
+
+    protected JdbcStore changeStore() {
+        return store(false, true, false);
+    }
+
+    @Test
+    public void shouldRecordWritesAndRemovesInOrder() throws InterruptedException {
+        JdbcStore store = changeStore();
+        JdbcObservation observation = (JdbcObservation)store.getObservation();
+        assertEquals(0L, observation.getLastSequence());
+        RecordingObserver observer = new RecordingObserver();
+        observation.addObserver(observer);
+
+        long start = System.currentTimeMillis();
+        store.write(new TypedDocument("a", json("age", 1), "person"));
+        store.writeMultiple(documents(3), false);
+        store.remove("doc1");
+        store.remove("missing");
+        List<Change> changes = observation.readChanges(0L);
+        assertEquals(Arrays.asList("a", "doc0", "doc1", "doc2", "doc1", "missing"), keys(changes));
+        assertConsecutive(0L, changes);
+        assertEquals(ChangeType.WRITTEN, changes.get(0).getType());
+        assertEquals("person", changes.get(0).getSchemaKey());
+        assertNull(changes.get(1).getSchemaKey());
+        assertEquals(ChangeType.REMOVED, changes.get(4).getType());
+        assertNull(changes.get(4).getSchemaKey());
+        assertTrue(changes.get(0).getTimestamp() >= start - 1000L);
+        assertEquals(6L, observation.getLastSequence());
+
+        // The observer's dispatcher may coalesce changes to the same document that it receives together, so the observer gets
+        // some or all of the changes in sequence order, and the last change to each document ...
+        List<Change> delivered = observer.awaitSequence(6L);
+        assertTrue(keys(delivered).containsAll(Arrays.asList("a", "doc0", "doc1", "doc2", "missing")));
+        Change lastToDoc1 = null;
+        long previous = 0L;
+        for (Change change : delivered) {
+            assertTrue(change.getSequence() > previous);
+            previous = change.getSequence();
+            if (change.getKey().equals("doc1")) lastToDoc1 = change;
+        }
+        assertEquals(6L, previous);
+        assertEquals(5L, lastToDoc1.getSequence());
+        assertEquals(ChangeType.REMOVED, lastToDoc1.getType());
+    }
+
+    @Test
+    public void shouldDeliverOnlyChangesAfterObserverIsAdded() throws InterruptedException {
+        JdbcStore store = changeStore();
+        store.writeMultiple(documents(3), false);
+        RecordingObserver observer = new RecordingObserver();
+        store.getObservation().addObserver(observer);
+        store.write(document("a", 1));
+        List<Change> changes = observer.await(1);
+        assertEquals(Arrays.asList("a"), keys(changes));
+        assertEquals(4L, changes.get(0).getSequence());
+    }
+
+    @Test
+    public void shouldDeliverChangesMadeThroughOtherStores() throws InterruptedException {
+        JdbcStore store = changeStore();
+        RecordingObserver observer = new RecordingObserver();
+        store.getObservation().addObserver(observer);
+        // The other store does not wake this store's polling thread, so the changes are found by polling ...
+        JdbcStore other = changeStore();
+        other.write(document("a", 1));
+        other.remove("b");
+        List<Change> changes = observer.await(2);
+        assertEquals(Arrays.asList("a", "b"), keys(changes));
+        assertEquals(ChangeType.REMOVED, changes.get(1).getType());
+    }
+
+    @Test
+    public void shouldResumeFromLastProcessedSequence() throws InterruptedException {
+        JdbcStore store = changeStore();
+        Observation observation = store.getObservation();
+        RecordingObserver first = new RecordingObserver();
+        observation.addObserver(first);
+        store.writeMultiple(documents(3), false);
+        first.await(3);
+        long offset = first.getLastSequence();
+        observation.removeObserver(first);
+
+        // Changes made while no observer is registered are recorded ...
+        store.write(document("a", 1));
+        store.remove("b");
+        assertEquals(offset + 2L, observation.getLastSequence());
+
+        RecordingObserver resumed = new RecordingObserver();
+        observation.addObserver(resumed, offset);
+        store.write(document("c", 1));
+        List<Change> changes = resumed.await(3);
+        assertEquals(Arrays.asList("a", "b", "c"), keys(changes));
+        assertConsecutive(offset, changes);
+        assertEquals(3, first.await(3).size());
+
+        // An observer can also start from the beginning of the log ...
+        RecordingObserver all = new RecordingObserver();
+        observation.addObserver(all, 0L);
+        assertEquals(Arrays.asList("doc0", "doc1", "doc2", "a", "b", "c"), keys(all.await(6)));
+    }
+
+    @Test
+    public void shouldCatchUpInBatchesOrderedBySequence() throws InterruptedException {
+        JdbcStore store = changeStore();
+        store.writeMultiple(documents(7), false);
+        JdbcObservation observation = new JdbcObservation(store, 50L, 3, JdbcObservation.DEFAULT_GAP_TIMEOUT_MILLIS);
+        try {
+            List<Change> batch = observation.readChanges(0L);
+            assertEquals(Arrays.asList("doc0", "doc1", "doc2"), keys(batch));
+            batch = observation.readChanges(3L);
+            assertEquals(Arrays.asList("doc3", "doc4", "doc5"), keys(batch));
+            batch = observation.readChanges(6L);
+            assertEquals(Arrays.asList("doc6"), keys(batch));
+            assertTrue(observation.readChanges(7L).isEmpty());
+
+            // Full batches are delivered one after the other until the observer has caught up ...
+            RecordingObserver observer = new RecordingObserver();
+            observation.addObserver(observer, 1L);
+            List<Change> changes = observer.await(6);
+            assertConsecutive(1L, changes);
+            assertEquals(7L, observer.getLastSequence());
+        } finally {
+            observation.close();
+        }
+    }
+
+    @Test
+    public void shouldWaitForGapsUntilGapTimeout() throws InterruptedException {
+        JdbcStore store = changeStore();
+        store.writeMultiple(documents(5), false);
+        JdbcObservation observation = (JdbcObservation)store.getObservation();
+        observation.removeChangesThrough(2L);
+        assertEquals(5L, observation.getLastSequence());
+        // The removed changes look like changes that have not yet been committed ...
+        assertTrue(observation.readChanges(0L).isEmpty());
+        assertEquals(Arrays.asList("doc2", "doc3", "doc4"), keys(observation.readChanges(2L)));
+
+        JdbcObservation impatient = new JdbcObservation(store, 50L, 10, 0L);
+        try {
+            assertEquals(Arrays.asList("doc2", "doc3", "doc4"), keys(impatient.readChanges(0L)));
+            RecordingObserver observer = new RecordingObserver();
+            impatient.addObserver(observer, 0L);
+            assertEquals(Arrays.asList("doc2", "doc3", "doc4"), keys(observer.await(3)));
+        } finally {
+            impatient.close();
+        }
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * Schematica (http://www.schematica.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.schematica.db.jdbc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Iterator;
+import javax.json.JsonObject;
+import org.junit.Test;
+import org.schematica.db.Document;
+import org.schematica.db.Sequence;
+import org.schematica.db.core.DocumentFormat;
+import org.schematica.db.core.Filters;
+import org.schematica.db.core.JsonValues;
+import org.schematica.db.core.SimpleDocument;
+import org.schematica.db.core.TypedDocument;
+import org.schematica.db.task.Filter;
+import org.schematica.db.task.FilterBuilder.Operator;
+import org.schematica.db.task.Results;
+import org.schematica.json.EditableJsonObject;
+
+/**
+ * @author Randall Hauch (rhauch@redhat.com)
+ */
+public class JdbcPatchesTest extends AbstractJdbcStoreTest {
+
+    protected JdbcStore patchingStore( DocumentFormat format ) {
+        return closeAfterTest(new JdbcStore(pool(4), format, 3, false, false, true));
+    }
+
+    protected long patchCount() throws SQLException {
+        try (Connection connection = connection();
+             Statement statement = connection.createStatement();
+             ResultSet results = statement.executeQuery("SELECT COUNT(*) FROM " + Database.TABLE_NAME + "_PATCHES")) {
+            results.next();
+            return results.getLong(1);
+        }
+    }
+
+    /**
+     * Write a document, edit the numbers of the document read back from the store, write the edited document as a patch, and
+     * check the patched document before and after the patch is compacted.
+     *
+     * @param store the store; may not be null
+     * @throws Exception if the patches cannot be counted or the query fails
+     */
+    protected void assertEditedNumbersArePatched( JdbcStore store ) throws Exception {
+        store.write(document("a", 1));
+        EditableJsonObject editor = JsonValues.edit(store.read("a").getJsonObject());
+        editor.add("age", 2).add("big", Long.MAX_VALUE).add("ratio", 0.5d).add("precise", new BigDecimal("-0.000000001"));
+        assertTrue(store.write(new SimpleDocument("a", editor)));
+        assertEquals(1L, patchCount());
+        assertPatched(store.read("a").getJsonObject());
+
+        // The patched values are also found by queries ...
+        Filter byAge = Filters.INSTANCE.field("age").is(Operator.EQUALS, 2);
+        try (Results<Sequence<Document>> results = store.filter(byAge).documents().call()) {
+            Iterator<Document> found = results.output().iterator();
+            assertPatched(found.next().getJsonObject());
+            assertFalse(found.hasNext());
+        }
+        assertEquals(0L, patchCount());
+
+        // Later edits are patched again, and compacting folds them into the content ...
+        editor = JsonValues.edit(store.read("a").getJsonObject());
+        assertTrue(store.write(new SimpleDocument("a", editor.add("age", 3))));
+        assertEquals(1L, patchCount());
+        store.getPatches().compact();
+        assertEquals(0L, patchCount());
+        JsonObject compacted = store.read("a").getJsonObject();
+        assertEquals(3, compacted.getInt("age"));
+        assertEquals("a", compacted.getString("name"));
+        assertEquals(Long.MAX_VALUE, compacted.getJsonNumber("big").longValueExact());
+    }
+
+    protected static void assertPatched( JsonObject json ) {
+        assertEquals("a", json.getString("name"));
+        assertEquals(2, json.getInt("age"));
+        assertEquals(Long.MAX_VALUE, json.getJsonNumber("big").longValueExact());
+        assertEquals(0.5d, json.getJsonNumber("ratio").doubleValue(), 0.0d);
+        assertEquals(0, new BigDecimal("-0.000000001").compareTo(json.getJsonNumber("precise").bigDecimalValue()));
+    }
+
+    @Test
+    public void shouldWriteEditedNumbersAsJsonPatches() throws Exception {
+        assertEditedNumbersArePatched(patchingStore(JdbcStore.JSON_FORMAT));
+    }
+
+    @Test
+    public void shouldWriteEditedNumbersAsBsonPatches() throws Exception {
+        assertEditedNumbersArePatched(patchingStore(JdbcStore.BSON_FORMAT));
+    }
+
+    @Test
+    public void shouldWriteWholeContentOfEditedDocumentsThatCannotBePatched() throws SQLException {
+        JdbcStore store = patchingStore(JdbcStore.JSON_FORMAT);
+        // There is no existing document ...
+        assertFalse(store.write(new SimpleDocument("a", JsonValues.edit(json("age", 1)).add("age", 2))));
+        assertEquals(2, store.read("a").getJsonObject().getInt("age"));
+        // The existing document has a different schema key ...
+        EditableJsonObject editor = JsonValues.edit(store.read("a").getJsonObject()).add("age", 3);
+        assertTrue(store.write(new TypedDocument("a", editor, "person")));
+        assertEquals(0L, patchCount());
+        assertEquals(3, store.read("a").getJsonObject().getInt("age"));
+        assertEquals("person", store.read("a").getSchemaKey());
+    }
+
+    @Test
+    public void shouldRemovePatchesWhenDocumentIsReplaced() throws SQLException {
+        JdbcStore store = patchingStore(JdbcStore.JSON_FORMAT);
+        store.write(document("a", 1));
+        store.write(new SimpleDocument("a", JsonValues.edit(store.read("a").getJsonObject()).add("age", 2)));
+        assertEquals(1L, patchCount());
+        store.write(document("a", 5));
+        assertEquals(0L, patchCount());
+        assertEquals(5, store.read("a").getJsonObject().getInt("age"));
+    }
+
+    @Test
+    public void shouldEditCopiesOfObjectsThatAreNotEditable() {
+        JsonObject json = json("age", 1);
+        EditableJsonObject editor = JsonValues.edit(json);
+        editor.add("age", 2);
+        assertEquals(1, json.getInt("age"));
+        assertEquals(2, editor.getInt("age"));
+        assertEquals(1, editor.getChanges().size());
+        assertTrue(JsonValues.edit(editor) == editor);
+    }
+}
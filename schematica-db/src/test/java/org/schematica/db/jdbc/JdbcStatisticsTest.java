@@ -0,0 +1,136 @@
+/*
+ * Schematica (http://www.schematica.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.schematica.db.jdbc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.Test;
+import org.schematica.db.Document;
+import org.schematica.db.Statistics;
+import org.schematica.db.core.TypedDocument;
+
+/**
+ * @author Randall Hauch (rhauch@redhat.com)
+ */
+public class JdbcStatisticsTest extends AbstractJdbcStoreTest {
+
+    protected static Document typed( String key,
+                                     String schemaKey ) {
+        return new TypedDocument(key, json("age", 1), schemaKey);
+    }
+
+    protected static Map<String, Long> counts( Object... schemaKeysAndCounts ) {
+        Map<String, Long> counts = new HashMap<>();
+        for (int i = 0; i < schemaKeysAndCounts.length; i += 2) {
+            counts.put((String)schemaKeysAndCounts[i], ((Number)schemaKeysAndCounts[i + 1]).longValue());
+        }
+        return counts;
+    }
+
+    /**
+     * Write, overwrite and remove documents with and without schemas, checking the counts after each change.
+     *
+     * @param store the store; may not be null
+     */
+    protected void assertCountsAfterChanges( JdbcStore store ) {
+        Statistics statistics = store.getStatistics();
+        assertEquals(0L, statistics.getDocumentCount());
+        assertTrue(statistics.getDocumentCounts().isEmpty());
+
+        store.writeMultiple(documents(5), false);
+        store.write(typed("a", "person"));
+        store.write(typed("b", "person"));
+        store.write(typed("c", "address"));
+        assertEquals(8L, statistics.getDocumentCount());
+        assertEquals(counts(null, 5, "person", 2, "address", 1), statistics.getDocumentCounts());
+        assertEquals(2L, statistics.getDocumentCount("person"));
+        assertEquals(5L, statistics.getDocumentCount(null));
+        assertEquals(0L, statistics.getDocumentCount("unknown"));
+
+        // Overwriting a document moves it to its new schema ...
+        store.write(typed("doc0", "person"));
+        store.write(typed("a", "address"));
+        assertEquals(8L, statistics.getDocumentCount());
+        assertEquals(counts(null, 4, "person", 2, "address", 2), statistics.getDocumentCounts());
+
+        // Writing the same key more than once in a batch counts only the last ...
+        store.writeMultiple(Arrays.asList(typed("d", "person"), typed("d", "address"), typed("b", "address")), false);
+        assertEquals(9L, statistics.getDocumentCount());
+        assertEquals(counts(null, 4, "person", 1, "address", 4), statistics.getDocumentCounts());
+
+        // Only absent documents are written ...
+        assertFalse(store.writeIfAbsent(typed("c", "person")));
+        assertTrue(store.writeIfAbsent(typed("e", "person")));
+        assertEquals(10L, statistics.getDocumentCount());
+        assertEquals(counts(null, 4, "person", 2, "address", 4), statistics.getDocumentCounts());
+
+        // Removing missing documents changes nothing ...
+        store.remove("doc1");
+        store.remove("missing");
+        store.remove(Arrays.asList("doc2", "a", "b", "other"));
+        assertEquals(6L, statistics.getDocumentCount());
+        assertEquals(counts(null, 2, "person", 2, "address", 2), statistics.getDocumentCounts());
+        assertEquals(6L, statistics.getApproximateDocumentCount());
+        assertEquals(6L, store.size());
+    }
+
+    @Test
+    public void shouldMaintainCountsAsDocumentsAreWrittenAndRemoved() {
+        JdbcStore store = store(true, false, false);
+        assertTrue(store.getStatistics().isMaintained());
+        assertCountsAfterChanges(store);
+        assertEquals(6L, store.getStatistics().getSizeHint());
+    }
+
+    @Test
+    public void shouldComputeCountsWhenNotMaintained() {
+        JdbcStore store = store();
+        assertFalse(store.getStatistics().isMaintained());
+        assertCountsAfterChanges(store);
+    }
+
+    @Test
+    public void shouldRecomputeMaintainedCounts() throws SQLException {
+        JdbcStore store = store(true, false, false);
+        store.writeMultiple(documents(3), false);
+        store.write(typed("a", "person"));
+        try (Connection connection = connection(); Statement statement = connection.createStatement()) {
+            statement.execute("DELETE FROM " + Database.TABLE_NAME + "_STATISTICS");
+        }
+        assertEquals(0L, store.getStatistics().getDocumentCount());
+        store.getStatistics().recompute();
+        assertEquals(4L, store.getStatistics().getDocumentCount());
+        assertEquals(counts(null, 3, "person", 1), store.getStatistics().getDocumentCounts());
+    }
+
+    @Test
+    public void shouldShareMaintainedCountsWithOtherStores() {
+        JdbcStore store = store(true, false, false);
+        store.writeMultiple(documents(3), false);
+        JdbcStore other = store(true, false, false);
+        other.write(typed("a", "person"));
+        other.remove("doc0");
+        assertEquals(counts(null, 2, "person", 1), store.getStatistics().getDocumentCounts());
+    }
+}
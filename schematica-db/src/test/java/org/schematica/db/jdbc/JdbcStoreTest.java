@@ -0,0 +1,243 @@
+/*
+ * Schematica (http://www.schematica.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.schematica.db.jdbc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.json.Json;
+import javax.json.JsonObject;
+import org.junit.Test;
+import org.schematica.db.BulkWriteReport;
+import org.schematica.db.BulkWriteReport.Action;
+import org.schematica.db.Document;
+import org.schematica.db.Store;
+import org.schematica.db.VersionedDocument;
+
+/**
+ * @author Randall Hauch (rhauch@redhat.com)
+ */
+public class JdbcStoreTest extends AbstractJdbcStoreTest {
+
+    protected static Map<String, Long> ages( Iterable<Document> documents ) {
+        Map<String, Long> ages = new HashMap<>();
+        for (Document document : documents) {
+            ages.put(document.getKey(), document.getJsonObject().getJsonNumber("age").longValue());
+        }
+        return ages;
+    }
+
+    @Test
+    public void shouldWriteMultipleDocumentsInBatchesAndReportEachAction() {
+        Store store = store();
+        // The batch size is 3, so these are written in 3 batches ...
+        BulkWriteReport report = store.writeMultiple(documents(7), true);
+        assertEquals(7, report.updatedKeys().size());
+        assertTrue(report.overwrittenKeys().isEmpty());
+
+        report = store.writeMultiple(Arrays.asList(document("doc5", 50), document("doc6", 60), document("doc7", 70)), true);
+        assertEquals(new HashSet<>(Arrays.asList("doc5", "doc6")), report.overwrittenKeys());
+        assertEquals(new HashSet<>(Arrays.asList("doc7")), report.updatedKeys());
+        assertEquals(Action.OVERWRITTEN, report.getAction("doc5"));
+        assertEquals(Action.UPDATED, report.getAction("doc7"));
+        assertEquals(Action.NONE, report.getAction("doc1"));
+
+        Map<String, Long> ages = ages(store.readMultiple(Arrays.asList("doc0", "doc4", "doc5", "doc7")));
+        assertEquals(4, ages.size());
+        assertEquals(Long.valueOf(0L), ages.get("doc0"));
+        assertEquals(Long.valueOf(4L), ages.get("doc4"));
+        assertEquals(Long.valueOf(50L), ages.get("doc5"));
+        assertEquals(Long.valueOf(70L), ages.get("doc7"));
+    }
+
+    @Test
+    public void shouldWriteMultipleDocumentsWithoutCapturingResults() {
+        Store store = store();
+        BulkWriteReport report = store.writeMultiple(documents(5), false);
+        assertTrue(report.updatedKeys().isEmpty());
+        assertTrue(report.overwrittenKeys().isEmpty());
+        assertEquals(5L, store.size());
+    }
+
+    @Test
+    public void shouldCommitEachBatchOfMultipleDocuments() throws SQLException {
+        Store store = store();
+        store.writeMultiple(documents(8), false);
+        // Another connection sees all of the documents, so every batch (including the last partial one) was committed ...
+        try (Connection connection = connection(); Statement statement = connection.createStatement()) {
+            try (ResultSet resultSet = statement.executeQuery("SELECT COUNT(*) FROM " + Database.TABLE_NAME)) {
+                assertTrue(resultSet.next());
+                assertEquals(8L, resultSet.getLong(1));
+            }
+        }
+    }
+
+    @Test
+    public void shouldWriteNoDocuments() {
+        Store store = store();
+        BulkWriteReport report = store.writeMultiple(documents(0), true);
+        assertTrue(report.updatedKeys().isEmpty());
+        assertEquals(0L, store.size());
+    }
+
+    protected static long version( Store store,
+                                   String key ) {
+        return ((VersionedDocument)store.read(key)).getVersion();
+    }
+
+    /**
+     * Create a store whose merges are interfered with by another store, which writes the document after it is read by each of the
+     * first merge attempts and before the merged document is written.
+     *
+     * @param interferences the number of merge attempts that are interfered with
+     * @param attempts the counter of merge attempts; may not be null
+     * @return the store; never null
+     */
+    protected JdbcStore interferedStore( final int interferences,
+                                         final AtomicInteger attempts ) {
+        final Store other = store();
+        return closeAfterTest(new JdbcStore(pool(4), JdbcStore.JSON_FORMAT, 3, false, false, false) {
+            @Override
+            protected Document merged( Document existing,
+                                       JsonObject base,
+                                       JsonObject document,
+                                       boolean threeWay ) {
+                int attempt = attempts.incrementAndGet();
+                if (attempt <= interferences) other.write(document(existing.getKey(), 100 + attempt));
+                return super.merged(existing, base, document, threeWay);
+            }
+        });
+    }
+
+    @Test
+    public void shouldIncreaseVersionWithEachWrite() {
+        Store store = store();
+        store.write(document("a", 1));
+        assertEquals(1L, version(store, "a"));
+        store.write(document("a", 2));
+        assertEquals(2L, version(store, "a"));
+        store.merge("a", json("city", 3));
+        assertEquals(3L, version(store, "a"));
+        // Merging no fields does not write the document ...
+        store.merge("a", Json.createObjectBuilder().build());
+        assertEquals(3L, version(store, "a"));
+    }
+
+    @Test
+    public void shouldAddVersionColumnToExistingTable() throws SQLException {
+        store().writeMultiple(documents(2), false);
+        // Remove the version column, as if the table had been created before documents were versioned ...
+        try (Connection connection = connection(); Statement statement = connection.createStatement()) {
+            statement.execute("ALTER TABLE " + Database.TABLE_NAME + " DROP COLUMN doc_version");
+        }
+        Store store = store();
+        assertEquals(1L, version(store, "doc0"));
+        assertEquals(1L, version(store, "doc1"));
+        store.write(document("doc0", 5));
+        assertEquals(2L, version(store, "doc0"));
+    }
+
+    @Test
+    public void shouldWriteOnlyIfVersionIsUnchanged() {
+        Store store = store();
+        store.write(document("a", 1));
+        long version = version(store, "a");
+        assertTrue(store.writeIfVersion(document("a", 2), version));
+        // The version read before the last write is stale ...
+        assertFalse(store.writeIfVersion(document("a", 3), version));
+        assertEquals(2L, store.read("a").getJsonObject().getInt("age"));
+        assertTrue(store.writeIfVersion(document("a", 3), version + 1L));
+        assertEquals(3L, store.read("a").getJsonObject().getInt("age"));
+
+        // The absent version only writes documents that do not exist ...
+        assertFalse(store.writeIfVersion(document("a", 4), VersionedDocument.ABSENT));
+        assertTrue(store.writeIfVersion(document("b", 1), VersionedDocument.ABSENT));
+        assertEquals(1L, version(store, "b"));
+        // A document that does not exist has no other version ...
+        assertFalse(store.writeIfVersion(document("c", 1), 1L));
+        assertFalse(store.has("c"));
+        try {
+            store.writeIfVersion(document("a", 5), -1L);
+            fail("Expected a negative version to be rejected");
+        } catch (IllegalArgumentException e) {
+            // expected ...
+        }
+    }
+
+    @Test
+    public void shouldMergeOnlyIfVersionIsUnchanged() {
+        Store store = store();
+        store.write(document("a", 1));
+        long version = version(store, "a");
+        assertTrue(store.mergeIfVersion("a", json("city", 1), version));
+        assertFalse(store.mergeIfVersion("a", json("zip", 1), version));
+        JsonObject json = store.read("a").getJsonObject();
+        assertEquals(1, json.getInt("age"));
+        assertEquals(1, json.getInt("city"));
+        assertFalse(json.containsKey("zip"));
+
+        assertFalse(store.mergeIfVersion("b", json("city", 1), 1L));
+        assertTrue(store.mergeIfVersion("b", json("city", 1), VersionedDocument.ABSENT));
+        assertFalse(store.mergeIfVersion("b", json("city", 2), VersionedDocument.ABSENT));
+        assertEquals(1, store.read("b").getJsonObject().getInt("city"));
+    }
+
+    @Test
+    public void shouldRetryMergeWhenDocumentIsChangedConcurrently() {
+        AtomicInteger attempts = new AtomicInteger();
+        JdbcStore store = interferedStore(2, attempts);
+        store.write(document("a", 1));
+        store.merge("a", json("city", 1));
+        assertEquals(3, attempts.get());
+        // The merge is applied to the concurrently written document, rather than overwriting it ...
+        JsonObject json = store.read("a").getJsonObject();
+        assertEquals(102, json.getInt("age"));
+        assertEquals(1, json.getInt("city"));
+    }
+
+    @Test
+    public void shouldLockDocumentThatKeepsChangingAfterMaximumMergeAttempts() {
+        AtomicInteger attempts = new AtomicInteger();
+        JdbcStore store = interferedStore(JdbcStore.MAXIMUM_MERGE_ATTEMPTS, attempts);
+        store.write(document("a", 1));
+        store.merge("a", json("city", 1));
+        assertEquals(JdbcStore.MAXIMUM_MERGE_ATTEMPTS + 1, attempts.get());
+        JsonObject json = store.read("a").getJsonObject();
+        assertEquals(100 + JdbcStore.MAXIMUM_MERGE_ATTEMPTS, json.getInt("age"));
+        assertEquals(1, json.getInt("city"));
+    }
+
+    @Test
+    public void shouldNotMergeIfVersionWhenDocumentIsChangedConcurrently() {
+        AtomicInteger attempts = new AtomicInteger();
+        JdbcStore store = interferedStore(1, attempts);
+        store.write(document("a", 1));
+        assertFalse(store.mergeIfVersion("a", json("city", 1), version(store, "a")));
+        assertEquals(1, attempts.get());
+        assertFalse(store.read("a").getJsonObject().containsKey("city"));
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * Schematica (http://www.schematica.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.schematica.db.jdbc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.junit.Test;
+import org.schematica.db.Document;
+import org.schematica.db.Sequence;
+import org.schematica.db.Store;
+import org.schematica.db.core.Filters;
+import org.schematica.db.task.Filter;
+import org.schematica.db.task.FilterBuilder.Operator;
+import org.schematica.db.task.Results;
+import org.schematica.db.task.Subscriber;
+import org.schematica.db.task.Subscription;
+
+/**
+ * @author Randall Hauch (rhauch@redhat.com)
+ */
+public class JdbcTaskBuilderTest extends AbstractJdbcStoreTest {
+
+    protected static Set<String> keys( Iterable<Document> documents ) {
+        Set<String> keys = new HashSet<>();
+        for (Document document : documents) {
+            keys.add(document.getKey());
+        }
+        return keys;
+    }
+
+    @Test
+    public void shouldReadAllDocuments() throws Exception {
+        Store store = store();
+        store.writeMultiple(documents(10), false);
+        try (Results<Sequence<Document>> results = store.all().documents().call()) {
+            Set<String> keys = keys(results.output());
+            assertEquals(10, keys.size());
+            assertEquals(true, keys.contains("doc9"));
+        }
+    }
+
+    @Test
+    public void shouldReadAllKeys() throws Exception {
+        Store store = store();
+        store.writeMultiple(documents(10), false);
+        try (Results<Sequence<String>> results = store.all().keys().call()) {
+            Set<String> keys = new HashSet<>();
+            for (String key : results.output()) {
+                keys.add(key);
+            }
+            assertEquals(10, keys.size());
+        }
+    }
+
+    @Test
+    public void shouldReadAllDocumentsByKey() throws Exception {
+        Store store = store();
+        store.writeMultiple(documents(10), false);
+        try (Results<Map<String, Document>> results = store.all().documentsByKey().call()) {
+            assertEquals(10, results.output().size());
+            assertEquals(3L, results.output().get("doc3").getJsonObject().getJsonNumber("age").longValue());
+        }
+    }
+
+    @Test
+    public void shouldFilterDocumentsInDatabase() throws Exception {
+        Store store = store();
+        store.writeMultiple(documents(10), false);
+        Filter filter = Filters.INSTANCE.field("age").is(Operator.GREATER_THAN_OR_EQUALS, 7);
+        try (Results<Sequence<Document>> results = store.filter(filter).documents().call()) {
+            Set<String> expected = new HashSet<>();
+            expected.add("doc7");
+            expected.add("doc8");
+            expected.add("doc9");
+            assertEquals(expected, keys(results.output()));
+        }
+        assertEquals(Long.valueOf(3L), store.filter(filter).totalCount().call().output());
+    }
+
+    @Test
+    public void shouldCountAllDocuments() throws Exception {
+        Store store = store();
+        store.writeMultiple(documents(10), false);
+        assertEquals(Long.valueOf(10L), store.all().totalCount().call().output());
+    }
+
+    protected static class CollectingSubscriber implements Subscriber<Document> {
+        protected final List<Document> received = new ArrayList<>();
+        protected final List<Object> signals = new ArrayList<>();
+        protected Subscription subscription;
+
+        @Override
+        public void onSubscribe( Subscription subscription ) {
+            this.subscription = subscription;
+        }
+
+        @Override
+        public void onNext( Document value ) {
+            received.add(value);
+        }
+
+        @Override
+        public void onError( Throwable error ) {
+            signals.add(error);
+        }
+
+        @Override
+        public void onComplete() {
+            signals.add("complete");
+        }
+    }
+
+    @Test
+    public void shouldPublishAllDocumentsAsRequested() {
+        // The pool has only one connection, so the cursor must be released before any other operation can be done ...
+        JdbcStore store = closeAfterTest(new JdbcStore(pool(1), JdbcStore.JSON_FORMAT, 3));
+        store.writeMultiple(documents(10), false);
+        CollectingSubscriber subscriber = new CollectingSubscriber();
+        store.all().publishDocuments().subscribe(subscriber);
+        subscriber.subscription.request(4);
+        assertEquals(4, subscriber.received.size());
+        subscriber.subscription.request(3);
+        assertEquals(7, subscriber.received.size());
+        subscriber.subscription.cancel();
+        assertTrue(subscriber.signals.isEmpty());
+        // The cursor's connection was released ...
+        assertTrue(store.has("doc9"));
+
+        subscriber = new CollectingSubscriber();
+        store.all().publishDocuments().subscribe(subscriber);
+        subscriber.subscription.request(Long.MAX_VALUE);
+        assertEquals(10, keys(subscriber.received).size());
+        assertEquals(Arrays.<Object>asList("complete"), subscriber.signals);
+        assertTrue(store.has("doc0"));
+    }
+}
@@ -0,0 +1,230 @@
+/*
+ * Schematica (http://www.schematica.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.schematica.db.jdbc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.schematica.db.Document;
+import org.schematica.db.Sequence;
+import org.schematica.db.jdbc.ResultSetSequence.RowReader;
+import org.schematica.db.task.Results;
+
+/**
+ * @author Randall Hauch (rhauch@redhat.com)
+ */
+public class ResultSetSequenceTest extends AbstractJdbcStoreTest {
+
+    private Connection connection;
+    private final AtomicInteger rowsRead = new AtomicInteger();
+    private final AtomicInteger releases = new AtomicInteger();
+
+    private final RowReader<Integer> reader = new RowReader<Integer>() {
+        @Override
+        public Integer read( ResultSet resultSet ) throws SQLException {
+            rowsRead.incrementAndGet();
+            int value = resultSet.getInt(1);
+            // Skip the odd values ...
+            return value % 2 == 0 ? value : null;
+        }
+    };
+
+    private final Runnable release = new Runnable() {
+        @Override
+        public void run() {
+            releases.incrementAndGet();
+        }
+    };
+
+    @Before
+    public void createValues() throws SQLException {
+        connection = connection();
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("CREATE TABLE VALS (val INTEGER NOT NULL)");
+            for (int i = 0; i != 10; ++i) {
+                statement.execute("INSERT INTO VALS (val) VALUES (" + i + ")");
+            }
+        }
+    }
+
+    @After
+    public void closeConnection() throws SQLException {
+        connection.close();
+    }
+
+    protected ResultSetSequence<Integer> sequence( boolean counted ) throws SQLException {
+        PreparedStatement query = connection.prepareStatement("SELECT val FROM VALS ORDER BY val");
+        PreparedStatement count = counted ? connection.prepareStatement("SELECT COUNT(*) FROM VALS WHERE MOD(val, 2) = 0") : null;
+        return new ResultSetSequence<>(query, count, reader, release);
+    }
+
+    protected ResultSetSequence<Integer> emptySequence() throws SQLException {
+        PreparedStatement query = connection.prepareStatement("SELECT val FROM VALS WHERE val < 0");
+        return new ResultSetSequence<>(query, null, reader, release);
+    }
+
+    @Test
+    public void shouldReadRowsOnlyAsTheSequenceIsIterated() throws SQLException {
+        ResultSetSequence<Integer> sequence = sequence(false);
+        assertEquals(0, rowsRead.get());
+        Iterator<Integer> iter = sequence.iterator();
+        assertEquals(Integer.valueOf(0), iter.next());
+        assertEquals(Integer.valueOf(2), iter.next());
+        // The skipped odd row was also read, but none of the later rows ...
+        assertEquals(3, rowsRead.get());
+        sequence.close();
+    }
+
+    @Test
+    public void shouldReleaseCursorOnceWhenIterationCompletes() throws SQLException {
+        ResultSetSequence<Integer> sequence = sequence(false);
+        int total = 0;
+        for (Integer value : sequence) {
+            total += value;
+        }
+        assertEquals(0 + 2 + 4 + 6 + 8, total);
+        assertEquals(1, releases.get());
+        sequence.close();
+        assertEquals(1, releases.get());
+    }
+
+    @Test
+    public void shouldReleaseCursorWhenClosedBeforeIterationCompletes() throws SQLException {
+        ResultSetSequence<Integer> sequence = sequence(false);
+        Iterator<Integer> iter = sequence.iterator();
+        iter.next();
+        sequence.close();
+        assertEquals(1, releases.get());
+        assertFalse(iter.hasNext());
+    }
+
+    @Test
+    public void shouldCountBeforeTheCursorIsOpened() throws SQLException {
+        ResultSetSequence<Integer> sequence = sequence(true);
+        assertEquals(5, sequence.size());
+        assertEquals(0, rowsRead.get());
+        assertFalse(sequence.isEmpty());
+        sequence.close();
+    }
+
+    @Test
+    public void shouldNotCountWhileTheCursorIsOpen() throws SQLException {
+        ResultSetSequence<Integer> sequence = sequence(true);
+        Iterator<Integer> iter = sequence.iterator();
+        iter.next();
+        try {
+            sequence.size();
+            fail("Expected the size to be unavailable while the cursor is open");
+        } catch (IllegalStateException e) {
+            // expected ...
+        }
+        sequence.close();
+    }
+
+    @Test
+    public void shouldKnowSizeAfterIterationCompletes() throws SQLException {
+        ResultSetSequence<Integer> sequence = sequence(false);
+        Iterator<Integer> iter = sequence.iterator();
+        while (iter.hasNext()) {
+            iter.next();
+        }
+        assertEquals(5, sequence.size());
+    }
+
+    @Test
+    public void shouldIterateEmptySequenceAfterFindingItIsEmpty() throws SQLException {
+        ResultSetSequence<Integer> sequence = emptySequence();
+        assertTrue(sequence.isEmpty());
+        // The cursor was released as soon as it ran out of rows ...
+        assertEquals(1, releases.get());
+        for (Integer value : sequence) {
+            fail("Found unexpected value " + value);
+        }
+        assertEquals(0, sequence.size());
+        sequence.close();
+        assertEquals(1, releases.get());
+    }
+
+    @Test
+    public void shouldIterateSequenceAfterFindingItIsNotEmpty() throws SQLException {
+        ResultSetSequence<Integer> sequence = sequence(false);
+        assertFalse(sequence.isEmpty());
+        int count = 0;
+        for (Iterator<Integer> iter = sequence.iterator(); iter.hasNext(); iter.next()) {
+            ++count;
+        }
+        assertEquals(5, count);
+        assertEquals(1, releases.get());
+    }
+
+    @Test( expected = IllegalStateException.class )
+    public void shouldNotIterateSequenceClosedByCaller() throws SQLException {
+        ResultSetSequence<Integer> sequence = emptySequence();
+        assertTrue(sequence.isEmpty());
+        sequence.close();
+        sequence.iterator();
+    }
+
+    @Test( expected = IllegalStateException.class )
+    public void shouldIterateOnlyOnce() throws SQLException {
+        ResultSetSequence<Integer> sequence = sequence(false);
+        try {
+            sequence.iterator();
+            sequence.iterator();
+        } finally {
+            sequence.close();
+        }
+    }
+
+    @Test
+    public void shouldReleaseStoreConnectionWhenResultsAreClosed() throws Exception {
+        // The pool has only two connections, so each cursor's connection must be released before more cursors can be opened ...
+        JdbcStore store = new JdbcStore(pool(2), JdbcStore.JSON_FORMAT, 3);
+        try {
+            store.writeMultiple(documents(10), false);
+            for (int i = 0; i != 3; ++i) {
+                try (Results<Sequence<Document>> results = store.all().documents().call()) {
+                    assertEquals(10, results.output().size());
+                    assertTrue(results.output().iterator().hasNext());
+                }
+                try (Results<Sequence<String>> results = store.all().keys().call()) {
+                    int count = 0;
+                    for (Iterator<String> iter = results.output().iterator(); iter.hasNext(); iter.next()) {
+                        ++count;
+                    }
+                    assertEquals(10, count);
+                    assertEquals(10, results.output().size());
+                }
+            }
+            assertTrue(store.has("doc3"));
+            assertEquals(10L, store.size());
+        } finally {
+            store.close();
+        }
+    }
+}
@@ -195,4 +195,12 @@ public interface EditableJsonObject extends JsonObject {
      * @return a {@link JsonObject} which contains the updated/edited value; never {@code null}
      */
     JsonObject unwrap();
+
+    /**
+     * Returns the changes recorded during the edit operation, without applying them to the underlying object. The result contains
+     * only the fields that were added or replaced, each with its new value.
+     *
+     * @return a {@link JsonObject} which contains the changed fields; never {@code null}
+     */
+    JsonObject getChanges();
 }
@@ -228,6 +228,11 @@ public class SchematicaEditableObject extends AbstractMap<String, JsonValue> imp
         return jsonObject.merge(changesToJson()).merge(other);
     }
 
+    @Override
+    public JsonObject getChanges() {
+        return changesToJson();
+    }
+
     protected JsonObject changesToJson() {
         org.schematica.json.JsonObjectBuilder localChanges = Json.createObjectBuilder();
         //first merge the local changes into an object
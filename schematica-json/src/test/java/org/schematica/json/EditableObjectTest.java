@@ -106,4 +106,17 @@ public class EditableObjectTest {
         assertTrue(editedObject.isNull("name"));
         assertEquals("value", editedObject.getString("placeholder"));
     }
+
+    @Test
+    public void shouldReturnOnlyChangedFields() throws Exception {
+        JsonObject object = Json.createObjectBuilder().add("age", 22).add("name", "John Doe").build();
+        EditableJsonObject editor = object.edit().add("age", 55).add("surname", "Doe").addNull("name");
+        JsonObject changes = editor.getChanges();
+
+        assertEquals(3, changes.size());
+        assertEquals(55, changes.getInt("age"));
+        assertEquals("Doe", changes.getString("surname"));
+        assertTrue(changes.isNull("name"));
+        assertTrue(object.edit().getChanges().isEmpty());
+    }
 }